@@ -47,8 +47,6 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
-import com.google.common.collect.Lists;
-
 import edu.cmu.cs.lti.discoursedb.annotation.brat.model.BratAnnotation;
 import edu.cmu.cs.lti.discoursedb.annotation.brat.model.BratTypes;
 import edu.cmu.cs.lti.discoursedb.annotation.brat.model.BratTypes.AnnotationSourceType;
@@ -63,6 +61,7 @@ import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.service.annotation.AnnotationBatch;
 import edu.cmu.cs.lti.discoursedb.core.service.annotation.AnnotationService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.ContentService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService;
@@ -215,8 +214,7 @@ public class BratService {
 						
 					} else {
 						// anno is new and didn't exist in ddb before
-						AnnotationInstance newAnno = annoService.createTypedAnnotation(bratAnno.getAnnotationLabel());
-						annoService.addAnnotation(contrib, newAnno);
+						AnnotationInstance newAnno = annoService.addAnnotations(contrib, new AnnotationBatch().annotation(bratAnno.getAnnotationLabel())).get(0);
 						contribService.save(contrib); //this should happen in addAnnotation. Filed Issue #15
 						//update version file
 						annotationBratIdToVersionInfo.put(bratAnno.getId(), new VersionInfo(AnnotationSourceType.DDB_ANNOTATION,bratAnno.getId(),newAnno.getId(), newAnno.getEntityVersion())); 
@@ -248,10 +246,8 @@ public class BratService {
 						}
 					} else {
 						// Anno is new and didn't exist in ddb before. Create it.
-						AnnotationInstance newAnno = annoService.createTypedAnnotation(bratAnno.getAnnotationLabel());
-						newAnno.setBeginOffset(offsetCorrectedBeginIdx);
-						newAnno.setEndOffset(offsetCorrectedEndIdx);
-						annoService.addAnnotation(content, newAnno);
+						AnnotationInstance newAnno = annoService.addAnnotations(content, 
+								new AnnotationBatch().annotation(bratAnno.getAnnotationLabel(), offsetCorrectedBeginIdx, offsetCorrectedEndIdx)).get(0);
 						contentService.save(content); //this should happen in addAnnotation. Filed Issue #15
 						//update version file
 						annotationBratIdToVersionInfo.put(bratAnno.getId(), new VersionInfo(AnnotationSourceType.DDB_ANNOTATION,bratAnno.getId(),newAnno.getId(), newAnno.getEntityVersion())); 
@@ -366,13 +362,19 @@ public class BratService {
 		int spanOffset = 0;
 		
 		// Sort contributions by their start time, without crashing on null
-		List<Contribution> contribs = Lists.newArrayList(contribService.findAllByDiscoursePart(dp));
+		List<Contribution> contribs = contribService.findAllByDiscoursePartWithCurrentRevision(dp);
 		contribs.sort((c1,c2) -> {
 			if (c1 == null) { return -1; }
 			else if (c2 == null) { return 1; }
 			else { return c1.getStartTime().compareTo(c2.getStartTime()); }
 		});
 		
+		//load the annotations of all contributions and current revisions up front instead of once per entity
+		Map<Long, Set<AnnotationInstance>> contribAnnos = annoService.findContributionAnnotations(
+				contribs.stream().map(Contribution::getId).collect(Collectors.toList()));
+		Map<Long, Set<AnnotationInstance>> contentAnnos = annoService.findContentAnnotations(
+				contribs.stream().map(c -> c.getCurrentRevision().getId()).collect(Collectors.toList()));
+		
 		// Export current revision of sorted contributions
 		for (Contribution contrib : contribs) {			
 			
@@ -383,11 +385,11 @@ public class BratService {
 			discoursePartText.add(text);
 								
 			//annotations on content
-			for (AnnotationInstance anno : annoService.findAnnotations(curRevision)) {
+			for (AnnotationInstance anno : contentAnnos.getOrDefault(curRevision.getId(), Collections.emptySet())) {
 				bratAnnotations.addAll(convertAnnotationToBrat(anno, spanOffset, text, curRevision, bratIdGenerator));					
 			}
 			//annotations on contributions
-			for (AnnotationInstance anno : annoService.findAnnotations(contrib)) {
+			for (AnnotationInstance anno : contribAnnos.getOrDefault(contrib.getId(), Collections.emptySet())) {
 				bratAnnotations.addAll(convertAnnotationToBrat(anno, spanOffset, text, contrib, bratIdGenerator));					
 			}
 
@@ -21,14 +21,23 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.annotation.lightside.io;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -41,19 +50,20 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvParser;
 
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationInstance;
-import edu.cmu.cs.lti.discoursedb.core.model.annotation.Feature;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.service.annotation.AnnotationBatch;
 import edu.cmu.cs.lti.discoursedb.core.service.annotation.AnnotationService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.ContentService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService.ContributionText;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscoursePartService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscourseService;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartTypes;
@@ -82,6 +92,9 @@ public class LightSideService {
 	private static final String ID_COL = "id";
 	private static final String LIGHTSIDE_PREDICTION_COL_SUFFIX = "_predicted";
 
+	private static final int EXPORT_CHUNK_SIZE = 1000;
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
 	
 	/**
 	 * Exports annotations on contributions associated with any DiscoursePart of
@@ -91,9 +104,10 @@ public class LightSideService {
 	 * @param discourseName name of the discourse to extract contributions from
 	 * @param dptype type of the discourse parts to extract contributions from
 	 * @param outputFile file to write the annotations to
+	 * @throws IOException if the output file could not be written
 	 */
 	@Transactional(readOnly=true)
-	public void exportAnnotations(String discourseName, DiscoursePartTypes dptype, File outputFile){
+	public void exportAnnotations(String discourseName, DiscoursePartTypes dptype, File outputFile) throws IOException{
 		Discourse discourse = discourseService.findOne(discourseName).orElseThrow(
 				() -> new EntityNotFoundException("Discourse with name " + discourseName + " does not exist."));
 		exportAnnotations(discourse, dptype, outputFile);	
@@ -107,9 +121,10 @@ public class LightSideService {
 	 * @param discourse the discourse to extract contributions from
 	 * @param dptype type of the discourse parts to extract contributions from
 	 * @param outputFile file to write the annotations to
+	 * @throws IOException if the output file could not be written
 	 */
 	@Transactional(readOnly=true)
-	public void exportAnnotations(Discourse discourse, DiscoursePartTypes dptype, File outputFile){
+	public void exportAnnotations(Discourse discourse, DiscoursePartTypes dptype, File outputFile) throws IOException{
 		log.info("Processing discourse "+discourse.getName()+". Extracting DiscourseParts of type "+dptype.name());
 		exportAnnotations(dpService.findAllByDiscourseAndType(discourse, dptype), outputFile);	
 	}
@@ -117,22 +132,73 @@ public class LightSideService {
 		
 	/**
 	 * Exports annotations on contributions associated with any of the provided DiscourseParts into
-	 * the provided output file.
+	 * the provided output file.<br/>
+	 * The header is determined with a single aggregate query. The contributions and their annotations are then streamed
+	 * chunk by chunk from the database directly into the output file, so the export does not need to hold the data in memory.
 	 * 
 	 * @param discourseParts the discourse parts to extract contributions from
 	 * @param outputFile file to write the annotations to
+	 * @throws IOException if the output file could not be written. The file may be incomplete in this case.
 	 */
 	@Transactional(readOnly=true)
-	public void exportAnnotations(Iterable<DiscoursePart> discourseParts, File outputFile){
-		List<RawDataInstance> data = StreamSupport.stream(discourseParts.spliterator(), false).flatMap(dp -> extractAnnotations(dp).stream()).collect(Collectors.toList());
+	public void exportAnnotations(Iterable<DiscoursePart> discourseParts, File outputFile) throws IOException{
+		Set<Long> dpIds = StreamSupport.stream(discourseParts.spliterator(), false).map(DiscoursePart::getId).collect(Collectors.toCollection(LinkedHashSet::new));
+
+		//generate header and list of binary label types
+		Map<String, Boolean> types = new TreeMap<>(annoService.findContributionAnnotationTypes(dpIds, LABEL_ASSIGNED_VAL));
+		Assert.isTrue(!types.containsKey(TEXT_COL), "No feature with the name \""+TEXT_COL+"\" is allowed.");
+		Set<String> binaryLabelTypes = types.entrySet().stream().filter(Map.Entry::getValue).map(Map.Entry::getKey).collect(Collectors.toSet());
 		
-		try{
-			FileUtils.writeStringToFile(outputFile, generateLightSideOutput(data));			
-		}catch(IOException e){
-			log.error("Error writing LightSide file to disk",e);
+		List<String> header = new ArrayList<>(types.size()+1);
+		header.add(TEXT_COL);
+		header.addAll(types.keySet());		
+
+		CsvMapper mapper = new CsvMapper();
+		try(Writer out = new BufferedWriter(new OutputStreamWriter(FileUtils.openOutputStream(outputFile), StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+				SequenceWriter csv = mapper.writerFor(String[].class).writeValues(out)){
+			csv.write(header.toArray(new String[header.size()]));
+			contribService.scrollContributionTexts(dpIds, EXPORT_CHUNK_SIZE, chunk -> {
+				try{
+					writeFeatureVectors(chunk, types.keySet(), binaryLabelTypes, csv);
+				}catch(IOException e){
+					throw new UncheckedIOException(e);
+				}
+			});
+		}catch(UncheckedIOException e){
+			throw e.getCause();
 		}	
 	}
 	
+	/**
+	 * Retrieves the annotations of the given contributions with a single query and writes one feature vector per contribution.
+	 */
+	private void writeFeatureVectors(List<ContributionText> contribs, Collection<String> types, Set<String> binaryLabelTypes, SequenceWriter csv) throws IOException{
+		Set<Long> proxyIds = contribs.stream().map(ContributionText::getAnnotationProxyId).filter(Objects::nonNull).collect(Collectors.toSet());
+		Map<Long, Set<AnnotationInstance>> annos = annoService.findAnnotationsByProxyIds(proxyIds);
+		for(ContributionText contrib: contribs){
+			Map<String,String> curInstAnnos = convertAnnotationInstances(annos.get(contrib.getAnnotationProxyId()));
+			List<String> featVector = new ArrayList<>(types.size()+1);
+			featVector.add(contrib.getText());
+			for(String type:types){
+				//Label assigned to current instance 
+				if(curInstAnnos.containsKey(type)){
+					featVector.add(curInstAnnos.get(type));
+				}
+				//Label not assigned to current instance - handle missing value 
+				else{
+					if(binaryLabelTypes.contains(type)){
+						//missing binary label interpreted as "false"
+						featVector.add(LABEL_MISSING_VAL); 																			
+					}else{
+						//missing value on interpreted as "null"
+						featVector.add(VALUE_MISSING_VAL); 													
+					}
+				}					
+			}
+			csv.write(featVector.toArray(new String[featVector.size()]));
+		}
+	}
+	
 	/**
 	 * Extracts annotations from all contributions of the given discourse part and returns a list of RawDataInstance objects containing
 	 * the information necessary for the LightSideExport 
@@ -143,7 +209,7 @@ public class LightSideService {
 	@Transactional(readOnly=true)
 	public List<RawDataInstance> extractAnnotations(DiscoursePart dp){
 		log.info("Processing DiscoursePart "+dp.getName());
-		return extractAnnotations(contribService.findAllByDiscoursePart(dp));
+		return extractAnnotations(contribService.findAllByDiscoursePartWithCurrentRevision(dp));
 	}
 	
 	
@@ -157,13 +223,15 @@ public class LightSideService {
 	@Transactional(readOnly=true)
 	public List<RawDataInstance> extractAnnotations(Iterable<Contribution> contribs){
 		List<RawDataInstance> outputList = new ArrayList<>();
+		List<Contribution> contribList = StreamSupport.stream(contribs.spliterator(), false).collect(Collectors.toList());
+		Map<Long, Set<AnnotationInstance>> annos = annoService.findContributionAnnotations(contribList.stream().map(Contribution::getId).collect(Collectors.toList()));
 
 		//one instance per contribution for entity label annotations			
-		for(Contribution contrib: contribs){
+		for(Contribution contrib: contribList){
 			RawDataInstance newContribData = new RawDataInstance();
 			newContribData.setText(contrib.getCurrentRevision().getText());
 			newContribData.setSpanAnnotation(false);
-			newContribData.setAnnotations(convertAnnotationInstances(annoService.findAnnotations(contrib)));
+			newContribData.setAnnotations(convertAnnotationInstances(annos.get(contrib.getId())));
 			outputList.add(newContribData);											
 		}				
 		//NOTE: we currently don't process span annotations		
@@ -197,54 +265,6 @@ public class LightSideService {
 		return pairs;
 	}
 	
-	@Transactional(readOnly=true)
-	private String generateLightSideOutput(List<RawDataInstance> data) throws JsonProcessingException{
-		StringBuilder output = new StringBuilder();
-		CsvMapper mapper = new CsvMapper();
-		
-		//generate list of binary label types
-		Set<String> binaryLabelTypes = data.stream().parallel().flatMap(instance -> instance.getAnnotations().entrySet().stream())
-				.filter(m -> m.getValue().toLowerCase().equals(LABEL_ASSIGNED_VAL)).map(m->m.getKey().toLowerCase()).collect(Collectors.toSet());		
-		
-		//generate header
-		Set<String> types = data.stream().parallel().flatMap(instance -> instance.getAnnotations().entrySet().stream())
-				.map(m -> m.getKey().toLowerCase()).collect(Collectors.toSet());
-		
-		Assert.isTrue(!types.contains(TEXT_COL), "No feature with the name \""+TEXT_COL+"\" is allowed.");
-		
-		List<String> header = new ArrayList<>(types.size()+1);
-		header.add(TEXT_COL);
-		header.addAll(types);		
-		output.append(mapper.writeValueAsString(header));
-		
-		//generate data vectors
-		for(RawDataInstance instance:data){
-			List<String> featVector = new ArrayList<>(header.size());
-			featVector.add(instance.getText());
-			Map<String,String> curInstAnnos = instance.getAnnotations();			
-			for(String type:types){
-				//Label assigned to current instance 
-				if(curInstAnnos.containsKey(type)){
-					featVector.add(curInstAnnos.get(type));
-				}
-				//Label not assigned to current instance - handle missing value 
-				else{
-					if(binaryLabelTypes.contains(type)){
-						//missing binary label interpreted as "false"
-						featVector.add(LABEL_MISSING_VAL); 																			
-					}else{
-						//missing value on interpreted as "null"
-						featVector.add(VALUE_MISSING_VAL); 													
-					}
-				}					
-			}
-			Assert.isTrue(featVector.size()==header.size(), "Error writing feature vector. Wrong size.");
-			output.append(mapper.writeValueAsString(featVector));
-	    }		
-		return output.toString();
-	}	
-	
-	
 	/**
 	 * Exports data in a format that can be imported into LightSide and then annotated with a classifier that was training with
 	 * data generated by the exportAnnotations methods.
@@ -309,7 +329,7 @@ public class LightSideService {
 			while (it.hasNext()) {
 			  String[] row = it.next();
 			  Contribution curContrib = null;
-			  List<AnnotationInstance> curAnnos = new ArrayList<>();
+			  AnnotationBatch curAnnos = new AnnotationBatch();
 			  for(int i=0;i<row.length;i++){
 				  String field = row[i];				  
 				  if(i==headerId.get(TEXT_COL)){
@@ -320,14 +340,10 @@ public class LightSideService {
 					  //we don't need to create an annotation if it's a binary label set to false
 					  if(!field.equalsIgnoreCase(LABEL_MISSING_VAL)){
 						  String label = header[i].split(LIGHTSIDE_PREDICTION_COL_SUFFIX)[0]; //remove suffix from label if it exists						  
-						  AnnotationInstance newAnno =annoService.createTypedAnnotation(label);
-						  annoService.saveAnnotationInstance(newAnno);
-						  curAnnos.add(newAnno);
+						  curAnnos.annotation(label);
 						  //if we have any other value than true or false, store this value as a feature
 						  if(!field.equalsIgnoreCase(LABEL_ASSIGNED_VAL)){							  
-							  Feature newFeat = annoService.createFeature(field);
-							  annoService.saveFeature(newFeat);
-							  annoService.addFeature(newAnno, newFeat);
+							  curAnnos.feature(field);
 						  }						  
 					  }
 				  }
@@ -337,9 +353,7 @@ public class LightSideService {
 			  delete(annoService.findAnnotations(curContrib));
 			  
 			  //add new annotations to the contribution it belongs to 
-			  for(AnnotationInstance newAnno:curAnnos){
-				  annoService.addAnnotation(curContrib, newAnno);
-			  }
+			  annoService.addAnnotations(curContrib, curAnnos);
 			}					
 		}catch(IOException e){
 			log.error("Error reading and parsing data from csv");					
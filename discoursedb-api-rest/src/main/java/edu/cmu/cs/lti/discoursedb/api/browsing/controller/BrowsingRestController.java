@@ -23,9 +23,14 @@ package edu.cmu.cs.lti.discoursedb.api.browsing.controller;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -33,8 +38,12 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import javax.persistence.Table;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.FileUtils;
@@ -51,6 +60,9 @@ import org.springframework.hateoas.Link;
 import org.springframework.hateoas.PagedResources;
 import org.springframework.hateoas.Resource;
 import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.Assert;
 import org.springframework.util.FileCopyUtils;
@@ -64,15 +76,18 @@ import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import edu.cmu.cs.lti.discoursedb.annotation.brat.io.BratService;
 import edu.cmu.cs.lti.discoursedb.annotation.lightside.io.LightSideService;
+import edu.cmu.cs.lti.discoursedb.api.browsing.export.ExportJob;
+import edu.cmu.cs.lti.discoursedb.api.browsing.export.ExportJobService;
 import edu.cmu.cs.lti.discoursedb.api.browsing.resource.BrowsingBratExportResource;
 import edu.cmu.cs.lti.discoursedb.api.browsing.resource.BrowsingContributionResource;
 import edu.cmu.cs.lti.discoursedb.api.browsing.resource.BrowsingDiscoursePartResource;
 import edu.cmu.cs.lti.discoursedb.api.browsing.resource.BrowsingDiscourseResource;
+import edu.cmu.cs.lti.discoursedb.api.browsing.resource.BrowsingExportJobResource;
 import edu.cmu.cs.lti.discoursedb.api.browsing.resource.BrowsingLightsideStubsResource;
 import edu.cmu.cs.lti.discoursedb.api.browsing.resource.BrowsingStatsResource;
 import edu.cmu.cs.lti.discoursedb.api.browsing.resource.BrowsingUserResource;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
-import edu.cmu.cs.lti.discoursedb.core.model.user.User;
+import edu.cmu.cs.lti.discoursedb.core.repository.annotation.AnnotationInstanceRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartContributionRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRelationRepository;
@@ -81,6 +96,10 @@ import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.user.DiscoursePartInteractionRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.user.UserRepository;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscoursePartService;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ThreadTreeService;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ThreadTreeService.ThreadTree;
+import edu.cmu.cs.lti.discoursedb.core.service.system.StatsService;
+import edu.cmu.cs.lti.discoursedb.core.service.system.StatsSnapshot;
 import edu.cmu.cs.lti.discoursedb.core.service.user.UserService;
 
 @Controller
@@ -88,6 +107,11 @@ import edu.cmu.cs.lti.discoursedb.core.service.user.UserService;
 public class BrowsingRestController {
 
 	private static final Logger logger = LogManager.getLogger(BrowsingRestController.class);
+	
+	/**
+	 * Appended to the name of the csv file of a LightSide export that includes annotations.
+	 */
+	private static final String LIGHTSIDE_ANNOTATED_CSV_SUFFIX = "__with_annotations";
 
 	@Autowired
 	private BratService bratService;
@@ -113,6 +137,9 @@ public class BrowsingRestController {
 	@Autowired
 	private DiscoursePartInteractionRepository discoursePartInteractionRepository;
 	
+	@Autowired
+	private AnnotationInstanceRepository annotationInstanceRepository;
+	
 	@Autowired
 	DiscoursePartContributionRepository discoursePartContributionRepository;
 	
@@ -132,10 +159,19 @@ public class BrowsingRestController {
 	@Autowired 
 	private DiscoursePartService discoursePartService;
 	
+	@Autowired
+	private StatsService statsService;
+	
+	@Autowired
+	private ThreadTreeService threadTreeService;
+	
+	@Autowired
+	private ExportJobService exportJobService;
+	
 	@RequestMapping(value="/stats", method=RequestMethod.GET)
 	@ResponseBody
 	Resources<BrowsingStatsResource> stats() {
-		BrowsingStatsResource bsr = new BrowsingStatsResource(discourseRepository, discoursePartRepository, contributionRepository, userRepository);
+		BrowsingStatsResource bsr = new BrowsingStatsResource(discourseRepository.findAll(), statsService.getSnapshot());
 		List<BrowsingStatsResource> l = new ArrayList<BrowsingStatsResource>();
 		l.add(bsr);
 		
@@ -155,7 +191,7 @@ public class BrowsingRestController {
 	@ResponseBody
 	Resource<BrowsingDiscourseResource> discourses(
 			   @PathVariable("discourseId") Long discourseId) {
-		BrowsingDiscourseResource bsr = new BrowsingDiscourseResource(discourseRepository.findOne(discourseId).get(), discoursePartRepository);
+		BrowsingDiscourseResource bsr = new BrowsingDiscourseResource(discourseRepository.findOne(discourseId).get(), statsService.getSnapshot());
 		
 		
 		Resource<BrowsingDiscourseResource> r =  new Resource<BrowsingDiscourseResource>(bsr);
@@ -173,10 +209,9 @@ public class BrowsingRestController {
 														   @RequestParam(value="annoType", defaultValue="*") String annoType) {
 		PageRequest p = new PageRequest(page,size);
 		Page<BrowsingDiscoursePartResource> repoResources = 
-				discoursePartRepository.findAllByDiscourseAndType(discoursePartType, discourseId, p)
-				.map(BrowsingDiscoursePartResource::new)
+				BrowsingDiscoursePartResource.fromPage(discoursePartRepository.findAllByDiscourseAndType(discoursePartType, discourseId, p), 
+						discoursePartRepository, annotationInstanceRepository)
 				.map(bdpr -> {bdpr.filterAnnotations(annoType); 
-				              bdpr.fillInUserInteractions(discoursePartInteractionRepository);
 				              return bdpr; });
 				
 		repoResources.forEach(bcr -> {
@@ -210,7 +245,8 @@ public class BrowsingRestController {
 														   @RequestParam(value= "size", defaultValue="20") int size)  {
 		PageRequest p = new PageRequest(page,size);
 		
-			Page<BrowsingDiscourseResource> discourseResources = discourseRepository.findAll(p).map(b -> new BrowsingDiscourseResource(b, discoursePartRepository));
+			StatsSnapshot stats = statsService.getSnapshot();
+			Page<BrowsingDiscourseResource> discourseResources = discourseRepository.findAll(p).map(b -> new BrowsingDiscourseResource(b, stats));
 					
 /*			discourseResources.forEach(
 			    bcr -> {
@@ -254,10 +290,9 @@ public class BrowsingRestController {
 														   @RequestParam(value="annoType", defaultValue="*") String annoType) {
 		PageRequest p = new PageRequest(page,size);
 		Page<BrowsingDiscoursePartResource> repoResources = 
-				discoursePartRepository.findAllNonDegenerateByType(repoType, p)
-				.map(BrowsingDiscoursePartResource::new)
+				BrowsingDiscoursePartResource.fromPage(discoursePartRepository.findAllNonDegenerateByType(repoType, p), 
+						discoursePartRepository, annotationInstanceRepository)
 				.map(bdpr -> {bdpr.filterAnnotations(annoType); 
-				              bdpr.fillInUserInteractions(discoursePartInteractionRepository);
 				              return bdpr; });
 				
 		repoResources.forEach(bcr -> {
@@ -343,6 +378,7 @@ public class BrowsingRestController {
 			f.delete();
 		}
 		lsOutputFilename.delete();
+		deleteLightsideCsvFiles(lsOutputFilename.getName());
 		return lightsideExports();
 	}
 	
@@ -373,37 +409,98 @@ public class BrowsingRestController {
 	
 	
 	@RequestMapping(value = "/action/downloadLightside/{exportFilename}.csv", method=RequestMethod.GET)
-	@ResponseBody
-	String downloadLightside(
+	ResponseEntity<BrowsingExportJobResource> downloadLightside(
+			HttpServletRequest request,
 			HttpServletResponse response,
 			@PathVariable(value= "exportFilename") String exportFilename,
 			@RequestParam(value="withAnnotations", defaultValue = "false") String withAnnotations) 
 					throws IOException {
+		String lsDataDirectory = environment.getRequiredProperty("lightside.data_directory");
+		File lsOutputFileDir = new File(lsDataDirectory , sanitize(exportFilename));
+		File lsOutputFileName = lightsideCsvFile(exportFilename, withAnnotations.equals("true"));
+		Optional<ExportJob> running = exportJobService.findActiveJob(lightsideJobKey(lsOutputFileName));
+		if (running.isPresent() || !lsOutputFileName.isFile() || lsOutputFileName.lastModified() < lsOutputFileDir.lastModified()) {
+			//the export has not been run yet, is still running or the selected DiscourseParts have changed since
+			return exportJobAccepted(running.orElseGet(() -> submitLightsideExport(exportFilename, withAnnotations.equals("true"))));
+		}
 		response.setContentType("application/csv; charset=utf-8");
 		response.setHeader( "Content-Disposition", "attachment");
+		ExportJobService.transferFile(lsOutputFileName, request, response);
+		return null;
+	}
+	
+	/**
+	 * Starts a job that writes the LightSide export of the DiscourseParts selected with <code>/action/exportLightside</code> to a csv file.
+	 * If a dpId is given, the DiscoursePart and its descendants are selected first.
+	 * The file can be downloaded from <code>/action/downloadLightside</code> once the job has finished.
+	 */
+	@RequestMapping(value = "/action/exportLightside", method=RequestMethod.POST)
+	ResponseEntity<BrowsingExportJobResource> startLightsideExport(
+			@RequestParam(value= "exportFilename") String exportFilename,
+			@RequestParam(value="withAnnotations", defaultValue = "false") boolean withAnnotations,
+			@RequestParam(value= "dpId", required = false) Long dpId) throws IOException {
+		Assert.hasText(exportFilename, "No exportFilename specified");
+		
+		String stubName = exportFilename;
+		if (dpId != null) {
+			exportLightsideAction(exportFilename, withAnnotations, dpId);
+			stubName = exportFile2LightSideDir(exportFilename, withAnnotations);
+		}
+		return exportJobAccepted(submitLightsideExport(stubName, withAnnotations));
+	}
+	
+	private String lightsideJobKey(File lsOutputFileName) {
+		return "lightside:" + lsOutputFileName.getName();
+	}
+	
+	/**
+	 * The csv file a LightSide export is written to. Exports with and without annotations of the same selection are kept in separate files.
+	 */
+	private File lightsideCsvFile(String exportFilename, boolean withAnnotations) {
+		String lsDataDirectory = environment.getRequiredProperty("lightside.data_directory");
+		return new File(lsDataDirectory , sanitize(exportFilename) + (withAnnotations ? LIGHTSIDE_ANNOTATED_CSV_SUFFIX : "") + ".csv");
+	}
+	
+	/**
+	 * Deletes the exported csv files of a selection, so that they are exported again with the current DiscourseParts of the selection.
+	 */
+	private void deleteLightsideCsvFiles(String exportFilename) {
+		lightsideCsvFile(exportFilename, false).delete();
+		lightsideCsvFile(exportFilename, true).delete();
+	}
+	
+	private ExportJob submitLightsideExport(String exportFilename, boolean withAnnotations) {
 		String lsDataDirectory = environment.getRequiredProperty("lightside.data_directory");
 		File lsOutputFileDir = new File(lsDataDirectory , sanitize(exportFilename));
-		File lsOutputFileName = new File(lsDataDirectory , sanitize(exportFilename) + ".csv");
-		logger.info("Looking in directory " + lsOutputFileDir + " derived from " + exportFilename);
-		Set<DiscoursePart> dps = Arrays.stream(lsOutputFileDir.listFiles())
-				.map((File f) -> discoursePartRepository.findOne(Long.parseLong(f.getName())))
-				.filter((Optional<DiscoursePart> o) -> o.isPresent())
-				.map(o -> o.get())
-				.collect(Collectors.toSet());
-				
-		if (withAnnotations.equals("true")) {
-			logger.info("With annotations ", lsOutputFileName);
-			lightsideService.exportAnnotations(dps, lsOutputFileName);
-		} else {
-			// For multiple discourseParts, need to assemble all the contributions
-			logger.info("Without annotations ", lsOutputFileName);
-			
-			lightsideService.exportDataForAnnotation(lsOutputFileName.toString(), 
-					dps.stream()
-					.flatMap(targ -> targ.getDiscoursePartContributions().stream())
-					.map(dpc -> dpc.getContribution())::iterator);
-		}
-		return FileUtils.readFileToString(lsOutputFileName);
+		File lsOutputFileName = lightsideCsvFile(exportFilename, withAnnotations);
+		return exportJobService.submit("lightside", lightsideJobKey(lsOutputFileName), null, lsOutputFileName, (job, outputFile) -> {
+			logger.info("Looking in directory " + lsOutputFileDir + " derived from " + exportFilename);
+			if (!lsOutputFileDir.isDirectory()) {
+				throw new FileNotFoundException("No LightSide export named " + exportFilename);
+			}
+			//the csv gets the modification time of the selection it was built from, so that a selection changed during the export is detected as stale
+			long selectionModified = lsOutputFileDir.lastModified();
+			Set<DiscoursePart> dps = Arrays.stream(lsOutputFileDir.listFiles())
+					.map((File f) -> discoursePartRepository.findOne(Long.parseLong(f.getName())))
+					.filter((Optional<DiscoursePart> o) -> o.isPresent())
+					.map(o -> o.get())
+					.collect(Collectors.toSet());
+			job.setTotal(dps.size());
+			if (withAnnotations) {
+				logger.info("With annotations ", lsOutputFileName);
+				lightsideService.exportAnnotations(dps, outputFile);
+				job.advance(dps.size());
+			} else {
+				// For multiple discourseParts, need to assemble all the contributions
+				logger.info("Without annotations ", lsOutputFileName);
+				lightsideService.exportDataForAnnotation(outputFile.toString(), 
+						dps.stream()
+						.peek(dp -> job.advance(1))
+						.flatMap(targ -> targ.getDiscoursePartContributions().stream())
+						.map(dpc -> dpc.getContribution())::iterator);
+			}
+			outputFile.setLastModified(selectionModified);
+		});
 	}
 	
 	@RequestMapping(value = "/action/exportLightside", method=RequestMethod.GET)
@@ -424,6 +521,7 @@ public class BrowsingRestController {
 			File child = new File(lsOutputFilename, d.getId().toString());
 			child.createNewFile();
 		}
+		deleteLightsideCsvFiles(lsOutputFilename.getName());
 		return lightsideExports();
 	}
 	
@@ -485,19 +583,163 @@ public class BrowsingRestController {
 	PagedResources<Resource<BrowsingBratExportResource>> exportBratActionItem(
 			@RequestParam(value= "exportDirectory") String exportDirectory,
 			@RequestParam(value="dpId")  long dpId) throws IOException {
+		submitBratExport(exportDirectory, dpId);
+		return bratExports();
+	}
+	
+	/**
+	 * Starts a job that exports a DiscoursePart and its descendants to a BRAT directory.
+	 * The directory is also packed into a zip file that can be downloaded from <code>/action/downloadBrat</code> once the job has finished.
+	 */
+	@RequestMapping(value = "/action/exportBratItem", method=RequestMethod.POST)
+	ResponseEntity<BrowsingExportJobResource> startBratExport(
+			@RequestParam(value= "exportDirectory") String exportDirectory,
+			@RequestParam(value="dpId")  long dpId) throws IOException {
+		ExportJob job = submitBratExport(exportDirectory, dpId);
+		if (!Long.valueOf(dpId).equals(job.getDiscoursePartId())) {
+			//another DiscoursePart is currently exported to the same directory
+			return new ResponseEntity<>(toResource(job), HttpStatus.CONFLICT);
+		}
+		return exportJobAccepted(job);
+	}
+	
+	@RequestMapping(value = "/action/downloadBrat/{bratDirectory}.zip", method=RequestMethod.GET)
+	ResponseEntity<BrowsingExportJobResource> downloadBrat(
+			HttpServletRequest request,
+			HttpServletResponse response,
+			@PathVariable(value= "bratDirectory") String bratDirectory) throws IOException {
+		String bratDataDirectory = environment.getRequiredProperty("brat.data_directory");
+		File bratDir = new File(bratDataDirectory, sanitize_dirname(bratDirectory));
+		File zipFile = bratZipFile(bratDir);
+		Optional<ExportJob> running = exportJobService.findActiveJob(bratJobKey(bratDir));
+		if (running.isPresent()) {
+			return exportJobAccepted(running.get());
+		}
+		if (!zipFile.isFile() || zipFile.lastModified() < bratDir.lastModified()) {
+			if (!bratDir.isDirectory()) {
+				return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+			}
+			//directories that have been exported before the zip files were introduced or edited since are packed on demand
+			return exportJobAccepted(exportJobService.submit("brat", bratJobKey(bratDir), null, zipFile, 
+					(job, outputFile) -> zipDirectory(bratDir, outputFile, job)));
+		}
+		response.setContentType("application/zip");
+		response.setHeader( "Content-Disposition", "attachment; filename=\"" + bratDir.getName() + ".zip\"");
+		ExportJobService.transferFile(zipFile, request, response);
+		return null;
+	}
+	
+	private String bratJobKey(File bratDir) {
+		return "brat:" + bratDir.getName();
+	}
+	
+	private File bratZipFile(File bratDir) {
+		String exportDirectory = environment.getProperty("export.directory", new File(System.getProperty("java.io.tmpdir"), "discoursedb-exports").toString());
+		return new File(exportDirectory, bratDir.getName() + ".zip");
+	}
+	
+	private ExportJob submitBratExport(String exportDirectory, long dpId) {
 		Assert.hasText(exportDirectory, "No exportDirectory name specified");
 		
 		String bratDataDirectory = environment.getRequiredProperty("brat.data_directory");
 		DiscoursePart childDp = discoursePartRepository.findOne(dpId).get();
-		
-		String bratDirectory = bratDataDirectory + "/" + sanitize(exportDirectory);
-		logger.info(" Exporting dp " + childDp.getName() + " in BRAT directory " + bratDirectory);
-		exportDiscoursePartRecursively(childDp, bratDirectory, new HashSet<DiscoursePart>());
-		return bratExports();
+		File bratDir = new File(bratDataDirectory, sanitize(exportDirectory));
+		return exportJobService.submit("brat", bratJobKey(bratDir), dpId, bratZipFile(bratDir), (job, outputFile) -> {
+			//the export is written to a hidden directory first and replaces the previous export only when it is complete
+			File tempDir = new File(bratDataDirectory, "." + bratDir.getName() + "." + job.getId() + ".tmp");
+			try {
+				DiscoursePart dp = discoursePartRepository.findOne(dpId).get();
+				logger.info(" Exporting dp " + childDp.getName() + " in BRAT directory " + bratDir);
+				job.setTotal(discoursePartService.findDescendentClosure(dp, Optional.empty()).size());
+				exportDiscoursePartRecursively(dp, tempDir.toString(), new HashSet<DiscoursePart>(), job);
+				zipDirectory(tempDir, outputFile, null);
+				replaceDirectory(tempDir, bratDir);
+			} finally {
+				if (tempDir.exists()) {
+					FileUtils.deleteDirectory(tempDir);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Replaces the target directory with the source directory. The previous target is moved aside before the source is renamed, 
+	 * so the target is only missing for the time of a rename.
+	 */
+	private void replaceDirectory(File source, File target) throws IOException {
+		File previous = new File(source.getParentFile(), source.getName() + ".old");
+		if (target.exists()) {
+			Files.move(target.toPath(), previous.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		if (previous.exists()) {
+			FileUtils.deleteDirectory(previous);
+		}
+	}
+	
+	/**
+	 * Packs all files below the given directory into a zip file.
+	 */
+	private void zipDirectory(File directory, File zipFile, ExportJob job) throws IOException {
+		Path root = directory.toPath();
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(root)) {
+			files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+		if (job != null) {
+			job.setTotal(files.size());
+		}
+		try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)))) {
+			for (Path file : files) {
+				zip.putNextEntry(new ZipEntry(root.relativize(file).toString().replace(File.separatorChar, '/')));
+				Files.copy(file, zip);
+				zip.closeEntry();
+				if (job != null) {
+					job.advance(1);
+				}
+			}
+		}
+	}
+	
+	@RequestMapping(value = "/action/exportJobs/{jobId}", method=RequestMethod.GET)
+	ResponseEntity<BrowsingExportJobResource> exportJob(@PathVariable(value= "jobId") String jobId) {
+		return exportJobService.findJob(jobId)
+				.map(job -> new ResponseEntity<>(toResource(job), HttpStatus.OK))
+				.orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+	}
+	
+	@RequestMapping(value = "/action/exportJobs", method=RequestMethod.GET)
+	@ResponseBody
+	Resources<BrowsingExportJobResource> exportJobs() {
+		List<BrowsingExportJobResource> jobs = exportJobService.findJobs().stream().map(this::toResource).collect(Collectors.toList());
+		return new Resources<BrowsingExportJobResource>(jobs);
+	}
+	
+	private ResponseEntity<BrowsingExportJobResource> exportJobAccepted(ExportJob job) {
+		BrowsingExportJobResource resource = toResource(job);
+		HttpHeaders headers = new HttpHeaders();
+		headers.setLocation(URI.create(resource.getId().getHref()));
+		return new ResponseEntity<>(resource, headers, HttpStatus.ACCEPTED);
+	}
+	
+	private BrowsingExportJobResource toResource(ExportJob job) {
+		BrowsingExportJobResource resource = new BrowsingExportJobResource(job);
+		resource.add(makeLink("/browsing/action/exportJobs/" + job.getId(), Link.REL_SELF));
+		if (job.getStatus() == ExportJob.Status.FINISHED) {
+			String file = job.getOutputFile().getName();
+			if (job.getType().equals("lightside")) {
+				boolean annotated = file.endsWith(LIGHTSIDE_ANNOTATED_CSV_SUFFIX + ".csv");
+				String exportFilename = file.substring(0, file.length() - ".csv".length() - (annotated ? LIGHTSIDE_ANNOTATED_CSV_SUFFIX.length() : 0));
+				resource.add(makeLightsideDownloadLink("/browsing/action/downloadLightside", annotated, "Download", "exportFilename", exportFilename));
+			} else {
+				resource.add(makeLink("/browsing/action/downloadBrat/" + file, "Download"));
+			}
+		}
+		return resource;
 	}
 	
 	// TODO: MOVE THIS METHOD TO BRAT SERVICE
-	Set<DiscoursePart> exportDiscoursePartRecursively(DiscoursePart dp, String bratDirectory, Set<DiscoursePart> exported) 
+	Set<DiscoursePart> exportDiscoursePartRecursively(DiscoursePart dp, String bratDirectory, Set<DiscoursePart> exported, ExportJob job) 
 			throws IOException {
 		if (exported.contains(dp)) { return exported; }
 		
@@ -511,12 +753,14 @@ public class BrowsingRestController {
 		if (kids.size() == 0) {
 			bratService.exportDiscoursePart(dp, bratDirectory);
 			exportedNow.add(dp);
+			job.advance(1);
 		} else {
 			logger.info("Recursive export: " + dp.getId() + " contains " + kids.size() + " NEW kids");
+			job.advance(1);
 			for(DiscoursePart k: kids) {
 				String kidname = dp.getClass().getAnnotation(Table.class).name() + "_"+dp.getId();
 				//logger.info("About to recurse: kidname = " + kidname + " filename = " + (new File(bratDirectory,kidname)).toString());
-				exportedNow.addAll(exportDiscoursePartRecursively(k, (new File(bratDirectory,kidname)).toString(), exportedNow));				
+				exportedNow.addAll(exportDiscoursePartRecursively(k, (new File(bratDirectory,kidname)).toString(), exportedNow, job));				
 			}
 		}
 		return exportedNow;
@@ -590,10 +834,9 @@ public class BrowsingRestController {
 		Optional<DiscoursePart> parent = discoursePartRepository.findOne(dpId);
 		if (parent.isPresent()) {
 			Page<BrowsingDiscoursePartResource> repoResources = 
-					discoursePartRelationRepository.findAllTargetsBySource(parent.get(), p)
-			/*.map(dpr -> dpr.getTarget())*/.map(BrowsingDiscoursePartResource::new);
+					BrowsingDiscoursePartResource.fromPage(discoursePartRelationRepository.findAllTargetsBySource(parent.get(), p), 
+							discoursePartRepository, annotationInstanceRepository);
 			
-			repoResources.forEach(bdp -> bdp.fillInUserInteractions(discoursePartInteractionRepository));
 			repoResources.forEach(
 			    bcr -> {
 			    	if (bcr.getContainingDiscourseParts().size() > 1) { 
@@ -652,15 +895,10 @@ public class BrowsingRestController {
 		Optional<DiscoursePart> parent = discoursePartRepository.findOne(dpId);
 		
 		if (parent.isPresent()) {
-			List<User> lbcr1 = new ArrayList<User>();
-			lbcr1.addAll(
-					userService.findUsersUnderDiscoursePart(parent.get()));
-			List<BrowsingUserResource> lbcr = lbcr1.subList(page*size, lbcr1.size()).stream()
+			Page<BrowsingUserResource> pbcr = userService.findUsersUnderDiscoursePart(parent.get(), p)
 					.map(BrowsingUserResource::new)
-					.map(b -> { b.fillInDiscoursePartLinks(discoursePartService); return b; })
-					.collect(Collectors.toList());
+					.map(b -> { b.fillInDiscoursePartLinks(discoursePartService); return b; });
 			
-			Page<BrowsingUserResource> pbcr = new PageImpl<BrowsingUserResource>(lbcr, p, lbcr.size());
 			PagedResources<Resource<BrowsingUserResource>> response = praUserAssembler.toResource(pbcr);
 			
 			return response;
@@ -671,6 +909,22 @@ public class BrowsingRestController {
 	
 	
 	
+	/**
+	 * Returns the reply tree of a thread DiscoursePart as nested JSON.
+	 * Each node holds a contribution and the list of its direct replies.
+	 */
+	@RequestMapping(value = "/threadTree/{dpId}", method = RequestMethod.GET)
+	@ResponseBody
+	ThreadTree threadTree(@PathVariable("dpId") Long dpId)  {
+		if (discoursePartRepository.exists(dpId)) {
+			return threadTreeService.getThreadTree(dpId);
+		} else {
+			logger.info("threadTree(" + dpId + ") : DiscoursePart does not exist");
+			return null;
+		}
+	}
+	
+	
 	/*@RequestMapping(value = "/discourses", method = RequestMethod.GET)
 	@ResponseBody
 	PagedResources<Resource<BrowsingContributionResource>> discourses()  {
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Authors: Oliver Ferschke and Chris Bogart
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.api.browsing.export;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of an export that is run in the background by the {@link ExportJobService}.<br/>
+ * 
+ * Jobs are created by the service. Export tasks report their progress with {@link #setTotal(long)} and {@link #advance(long)}.
+ * The total is 0 as long as the amount of work is not known.
+ */
+public class ExportJob {
+
+	public enum Status { QUEUED, RUNNING, FINISHED, FAILED }
+
+	private final String id;
+	private final String type;
+	private final String key;
+	private final Long discoursePartId;
+	private final File outputFile;
+	private final Date created = new Date();
+	private final AtomicLong done = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private volatile Status status = Status.QUEUED;
+	private volatile Date finished;
+	private volatile String error;
+
+	ExportJob(String id, String type, String key, Long discoursePartId, File outputFile) {
+		this.id = id;
+		this.type = type;
+		this.key = key;
+		this.discoursePartId = discoursePartId;
+		this.outputFile = outputFile;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @return the key that identifies the output of the job. Only one job per key runs at a time.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the exported DiscoursePart or null if the job exports a selection of DiscourseParts
+	 */
+	public Long getDiscoursePartId() {
+		return discoursePartId;
+	}
+
+	/**
+	 * @return the file that is available for download once the job has finished
+	 */
+	public File getOutputFile() {
+		return outputFile;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+
+	public Date getFinished() {
+		return finished;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public long getDone() {
+		return done.get();
+	}
+
+	public long getTotal() {
+		return total.get();
+	}
+
+	public boolean isActive() {
+		return status == Status.QUEUED || status == Status.RUNNING;
+	}
+
+	public void setTotal(long total) {
+		this.total.set(total);
+	}
+
+	public void advance(long steps) {
+		done.addAndGet(steps);
+	}
+
+	void start() {
+		status = Status.RUNNING;
+	}
+
+	void finish() {
+		finished = new Date();
+		status = Status.FINISHED;
+	}
+
+	void fail(Throwable cause) {
+		error = cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+		finished = new Date();
+		status = Status.FAILED;
+	}
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Authors: Oliver Ferschke and Chris Bogart
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.api.browsing.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * Runs BRAT and LightSide exports on a bounded pool of worker threads, so that large exports don't block the request threads.<br/>
+ * 
+ * Each job writes a single output file. The file is written to a temporary file first and replaces the previous output 
+ * only when the job has finished successfully, so a download never sees a partial export.
+ * Jobs are identified by a key that describes their output. While a job is queued or running, 
+ * submitting another job with the same key returns the running job instead of starting a second export.<br/>
+ * 
+ * The number of workers and the maximum number of queued jobs are configured with the <code>export.workers</code> 
+ * and <code>export.queueCapacity</code> properties. Finished jobs are kept for <code>export.retentionMinutes</code> minutes.
+ */
+@Service
+public class ExportJobService {
+
+	private static final Logger logger = LogManager.getLogger(ExportJobService.class);
+
+	/**
+	 * An export that writes its output to the given file.
+	 */
+	@FunctionalInterface
+	public interface ExportTask {
+		void run(ExportJob job, File outputFile) throws IOException;
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final TransactionTemplate transaction;
+	private final long retentionMillis;
+	private final Map<String, ExportJob> jobs = new LinkedHashMap<>();
+	private final Map<String, ExportJob> activeJobs = new HashMap<>();
+
+	@Autowired
+	public ExportJobService(PlatformTransactionManager transactionManager, Environment environment) {
+		int workers = environment.getProperty("export.workers", Integer.class, 2);
+		int queueCapacity = environment.getProperty("export.queueCapacity", Integer.class, 20);
+		this.retentionMillis = TimeUnit.MINUTES.toMillis(environment.getProperty("export.retentionMinutes", Long.class, 60L));
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), r -> {
+			Thread t = new Thread(r, "export-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		//exports load lazy associations of the exported DiscourseParts, so each job runs in a read-only transaction
+		this.transaction = new TransactionTemplate(transactionManager);
+		this.transaction.setReadOnly(true);
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Starts a new export or returns the job that is currently producing the same output.
+	 * 
+	 * @param type the type of the export, e.g. "brat" or "lightside"
+	 * @param key identifies the output of the export
+	 * @param discoursePartId the exported DiscoursePart or null if the export covers a selection of DiscourseParts
+	 * @param outputFile the file the export is written to
+	 * @param task the export
+	 * @return the new job or the job with the same key that is already queued or running
+	 * @throws IllegalStateException if too many exports are queued
+	 */
+	public synchronized ExportJob submit(String type, String key, Long discoursePartId, File outputFile, ExportTask task) {
+		Assert.hasText(key, "Job key cannot be empty.");
+		Assert.notNull(outputFile, "Output file cannot be null.");
+		Assert.notNull(task, "Export task cannot be null.");
+
+		removeExpiredJobs();
+		ExportJob running = activeJobs.get(key);
+		if (running != null) {
+			logger.info("Export " + key + " is already running as job " + running.getId());
+			return running;
+		}
+		ExportJob job = new ExportJob(UUID.randomUUID().toString(), type, key, discoursePartId, outputFile);
+		try {
+			executor.execute(() -> run(job, task));
+		} catch (RejectedExecutionException e) {
+			throw new IllegalStateException("Too many exports are queued. Try again later.", e);
+		}
+		jobs.put(job.getId(), job);
+		activeJobs.put(key, job);
+		return job;
+	}
+
+	/**
+	 * @param id the id of a job
+	 * @return the job if it is running or finished less than <code>export.retentionMinutes</code> minutes ago
+	 */
+	public synchronized Optional<ExportJob> findJob(String id) {
+		return Optional.ofNullable(jobs.get(id));
+	}
+
+	/**
+	 * @param key identifies the output of an export
+	 * @return the job that is currently producing the given output, if any
+	 */
+	public synchronized Optional<ExportJob> findActiveJob(String key) {
+		return Optional.ofNullable(activeJobs.get(key)).filter(ExportJob::isActive);
+	}
+
+	/**
+	 * @return all known jobs in the order they were submitted
+	 */
+	public synchronized List<ExportJob> findJobs() {
+		removeExpiredJobs();
+		return new ArrayList<>(jobs.values());
+	}
+
+	/**
+	 * Sends the given file as the body of the response.<br/>
+	 * 
+	 * If the servlet container supports sendfile, the container copies the file straight to the socket. 
+	 * Otherwise, the file is transferred with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, 
+	 * which avoids reading the file into memory.
+	 * 
+	 * @param file the file to send
+	 * @param request the current request
+	 * @param response the current response. The content type has to be set by the caller.
+	 * @throws IOException if the file cannot be read or the response cannot be written
+	 */
+	public static void transferFile(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		long size = file.length();
+		response.setHeader("Content-Length", Long.toString(size));
+		if (Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+			request.setAttribute("org.apache.tomcat.sendfile.filename", file.getCanonicalPath());
+			request.setAttribute("org.apache.tomcat.sendfile.start", 0L);
+			request.setAttribute("org.apache.tomcat.sendfile.end", size);
+			return;
+		}
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+			long position = 0;
+			while (position < size) {
+				position += in.transferTo(position, size - position, out);
+			}
+		}
+		response.flushBuffer();
+	}
+
+	private void run(ExportJob job, ExportTask task) {
+		job.start();
+		File outputFile = job.getOutputFile();
+		File tempFile = new File(outputFile.getParentFile(), "." + outputFile.getName() + "." + job.getId() + ".tmp");
+		try {
+			outputFile.getParentFile().mkdirs();
+			transaction.execute(status -> {
+				try {
+					task.run(job, tempFile);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return null;
+			});
+			Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			job.finish();
+			logger.info("Export job " + job.getId() + " (" + job.getKey() + ") finished");
+		} catch (IOException | RuntimeException e) {
+			logger.error("Export job " + job.getId() + " (" + job.getKey() + ") failed", e);
+			job.fail(e instanceof UncheckedIOException ? e.getCause() : e);
+			tempFile.delete();
+		} finally {
+			synchronized (this) {
+				activeJobs.remove(job.getKey(), job);
+			}
+		}
+	}
+
+	private void removeExpiredJobs() {
+		long now = System.currentTimeMillis();
+		jobs.values().removeIf(job -> !job.isActive() && job.getFinished() != null && now - job.getFinished().getTime() > retentionMillis);
+	}
+}
@@ -21,15 +21,21 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.api.browsing.resource;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.data.domain.Page;
 import org.springframework.hateoas.ResourceSupport;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
@@ -40,6 +46,8 @@ import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartRelation;
 import edu.cmu.cs.lti.discoursedb.core.model.user.DiscoursePartInteraction;
+import edu.cmu.cs.lti.discoursedb.core.repository.annotation.AnnotationInstanceRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.user.DiscoursePartInteractionRepository;
 
 public class BrowsingDiscoursePartResource extends ResourceSupport {
@@ -56,6 +64,7 @@ public class BrowsingDiscoursePartResource extends ResourceSupport {
 	private Map<Long,String> containingDiscourseParts;
 	private DiscoursePart dp;
 	private List<BrowsingAnnotationResource> annotations;
+	private final Set<BrowsingAnnotationResource> interactionAnnotations = Collections.newSetFromMap(new IdentityHashMap<BrowsingAnnotationResource,Boolean>());
 	
 	private static final Logger logger = LogManager.getLogger(BrowsingDiscoursePartResource.class);	
 
@@ -86,6 +95,96 @@ public class BrowsingDiscoursePartResource extends ResourceSupport {
 			// do nothing
 		}
 
+		addLinks();
+		
+   	    containingDiscourseParts = new HashMap<Long,String>();
+   	    for (DiscoursePartRelation dpr : dp.getTargetOfDiscoursePartRelations()) {
+   	    	containingDiscourseParts.put(dpr.getSource().getId(), dpr.getSource().getName());
+   	    }
+	}
+	
+	/**
+	 * Creates the resource from data that has been fetched for a whole page of DiscourseParts at once
+	 */
+	private BrowsingDiscoursePartResource(DiscoursePart dp, PageData data) {
+		this.dp = dp;
+		this.setName(dp.getName());
+		this.setType(dp.getType());
+		this.setStartTime(dp.getStartTime());
+		this.setEndTime(dp.getEndTime());
+
+		if (dp.getAnnotations() != null) {
+			this.setAnnotations(data.annotations(dp.getAnnotations().getId()));
+		}
+
+		Object[] summary = data.summaries.get(dp.getId());
+		if (summary != null) {
+			this.setContributionCount(((Number) summary[1]).longValue());
+			this.setSubDiscoursePartCount(((Number) summary[2]).longValue());
+			if (summary[3] != null) {
+				this.setDiscourseId(((Number) summary[3]).longValue());
+				this.setDiscourseName((String) summary[4]);
+			}
+		}
+
+		addLinks();
+
+		containingDiscourseParts = data.containingDiscourseParts.getOrDefault(dp.getId(), new HashMap<Long,String>());
+
+		for (Object[] interaction : data.interactions.getOrDefault(dp.getId(), new LinkedHashMap<Long,Object[]>()).values()) {
+			if (interaction[4] != null) {
+				if (annotations == null) {
+					annotations = new LinkedList<BrowsingAnnotationResource>();
+				}
+				List<BrowsingAnnotationResource> anno = data.annotations(((Number) interaction[4]).longValue());
+				interactionAnnotations.addAll(anno);
+				annotations.addAll(anno);
+			}
+			if (userInteractions == null) {
+				userInteractions = new LinkedList<String>();
+			}
+			userInteractions.add(interaction[2] + ": " + interaction[3]);
+		}
+	}
+
+	/**
+	 * Creates the resources for a page of DiscourseParts including their user interactions.<br/>
+	 * 
+	 * Instead of navigating the associations of each DiscoursePart, which costs several queries per DiscoursePart,
+	 * the data of the whole page is fetched with one query each for the counts and discourses, the containing DiscourseParts, 
+	 * the interactions and the annotations of the DiscourseParts and their interactions. 
+	 * The associations are read by separate queries, so their rows are not multiplied with each other. 
+	 * The page itself should be loaded with its annotation proxies and data sources fetch-joined, 
+	 * otherwise Hibernate loads these eager associations with one query per DiscoursePart.
+	 * 
+	 * @param page a page of DiscourseParts
+	 * @param discoursePartRepository the repository used to fetch the data of the page
+	 * @param annotationInstanceRepository the repository used to fetch the annotations of the page
+	 * @return the page of resources
+	 */
+	public static Page<BrowsingDiscoursePartResource> fromPage(Page<DiscoursePart> page, 
+			DiscoursePartRepository discoursePartRepository, AnnotationInstanceRepository annotationInstanceRepository) {
+		PageData data = new PageData();
+		List<Long> ids = page.getContent().stream().map(DiscoursePart::getId).collect(Collectors.toList());
+		if (!ids.isEmpty()) {
+			for (Object[] row : discoursePartRepository.findBrowsingDetailsByIds(ids)) {
+				data.summaries.putIfAbsent(((Number) row[0]).longValue(), row);
+			}
+			for (Object[] row : discoursePartRepository.findContainingDiscoursePartsByIds(ids)) {
+				data.containingDiscourseParts.computeIfAbsent(((Number) row[0]).longValue(), k -> new HashMap<Long,String>())
+						.put(((Number) row[1]).longValue(), (String) row[2]);
+			}
+			for (Object[] row : discoursePartRepository.findInteractionsByIds(ids)) {
+				data.interactions.computeIfAbsent(((Number) row[0]).longValue(), k -> new LinkedHashMap<Long,Object[]>())
+						.putIfAbsent(((Number) row[1]).longValue(), row);
+			}
+			annotationInstanceRepository.findAllOfDiscoursePartsAndInteractions(ids).forEach(ai -> 
+				data.annotationsByProxy.computeIfAbsent(ai.getAnnotationEntityProxy().getId(), k -> new ArrayList<AnnotationInstance>()).add(ai));
+		}
+		return page.map(dp -> new BrowsingDiscoursePartResource(dp, data));
+	}
+
+	private void addLinks() {
 		if (this.getSubDiscoursePartCount() > 0) {
 			this.add(BrowsingRestController.makeLink("/browsing/subDiscourseParts/" + dp.getId() + "/", 
 					 dp.getName() ));			
@@ -98,11 +197,22 @@ public class BrowsingDiscoursePartResource extends ResourceSupport {
 		if (this.getContributionCount() > 0) {
 			this.add(BrowsingRestController.makeLink("/browsing/dpContributions/" + dp.getId() + "/", "contributions"));
 		}
-		
-   	    containingDiscourseParts = new HashMap<Long,String>();
-   	    for (DiscoursePartRelation dpr : dp.getTargetOfDiscoursePartRelations()) {
-   	    	containingDiscourseParts.put(dpr.getSource().getId(), dpr.getSource().getName());
-   	    }
+	}
+
+	/**
+	 * Data of a page of DiscourseParts, keyed by the id of the DiscoursePart or the id of the annotation proxy
+	 */
+	private static class PageData {
+		private final Map<Long,Object[]> summaries = new HashMap<Long,Object[]>();
+		private final Map<Long,Map<Long,String>> containingDiscourseParts = new HashMap<Long,Map<Long,String>>();
+		private final Map<Long,Map<Long,Object[]>> interactions = new HashMap<Long,Map<Long,Object[]>>();
+		private final Map<Long,List<AnnotationInstance>> annotationsByProxy = new HashMap<Long,List<AnnotationInstance>>();
+
+		private List<BrowsingAnnotationResource> annotations(Long proxyId) {
+			return annotationsByProxy.getOrDefault(proxyId, new ArrayList<AnnotationInstance>()).stream()
+					.map(BrowsingAnnotationResource::new)
+					.collect(Collectors.toCollection(LinkedList::new));
+		}
 	}
 	
 	public void fillInUserInteractions(DiscoursePartInteractionRepository dpr) {
@@ -115,6 +225,7 @@ public class BrowsingDiscoursePartResource extends ResourceSupport {
 				if (annotations == null) { 
 					annotations = new LinkedList<BrowsingAnnotationResource>();
 				}
+				interactionAnnotations.addAll(anno);
 				annotations.addAll(anno);
 			}
 			if (userInteractions == null) {
@@ -124,9 +235,15 @@ public class BrowsingDiscoursePartResource extends ResourceSupport {
 		}
 	}
 	
+	/**
+	 * Removes the annotations of the DiscoursePart that are not of the given type.
+	 * The annotations of the user interactions are kept, as they always have been when the interactions were filled in after filtering.
+	 * 
+	 * @param annotType the annotation type to keep or * to keep all annotations
+	 */
 	public void filterAnnotations(String annotType) {
-		if (!annotType.equals("*")) {
-			setAnnotations(this.getAnnotations().stream().filter( bai -> bai.getType().equals(annotType) ).collect(Collectors.toList()));
+		if (!annotType.equals("*") && this.getAnnotations() != null) {
+			setAnnotations(this.getAnnotations().stream().filter( bai -> interactionAnnotations.contains(bai) || bai.getType().equals(annotType) ).collect(Collectors.toList()));
 		}
 	}
 
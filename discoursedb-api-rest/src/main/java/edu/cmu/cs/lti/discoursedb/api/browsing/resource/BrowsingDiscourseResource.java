@@ -21,16 +21,14 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.api.browsing.resource;
 
-import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Date;
 import java.util.Map;
 
 import org.springframework.hateoas.ResourceSupport;
 
 import edu.cmu.cs.lti.discoursedb.api.browsing.controller.BrowsingRestController;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
-import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.system.StatsSnapshot;
 
 public class BrowsingDiscourseResource extends ResourceSupport {
 	
@@ -38,19 +36,18 @@ public class BrowsingDiscourseResource extends ResourceSupport {
 	private Long discourseId;
 	private Discourse d;
 	private Map<String,Long> countsByType;
+	private Date asOf;
+	private long maxStalenessSeconds;
 		
-	public BrowsingDiscourseResource(Discourse d, DiscoursePartRepository dpr) {
+	public BrowsingDiscourseResource(Discourse d, StatsSnapshot stats) {
 		this.d = d;
 		this.name = d.getName();
 		this.discourseId = d.getId();
-		List<Object[]> counts = dpr.countsByTypeAndDiscourseNative(d.getId()); 
-		this.countsByType = new HashMap<>();
-		counts.forEach(c  -> {
-			String typename = c[0].toString();
-			this.countsByType.put(typename, ((BigInteger)c[1]).longValue());
-			this.add(BrowsingRestController.makeLink("/browsing/discourses/" + d.getId() + "/discoursePartTypes/" + typename, typename));
-		});
-
+		this.countsByType = stats.getDiscoursePartsByType(d.getId());
+		this.countsByType.keySet().forEach(typename -> 
+			this.add(BrowsingRestController.makeLink("/browsing/discourses/" + d.getId() + "/discoursePartTypes/" + typename, typename)));
+		this.asOf = stats.getAsOf();
+		this.maxStalenessSeconds = stats.getMaxStalenessSeconds();
 	}
 
 	public String getName() {
@@ -77,6 +74,22 @@ public class BrowsingDiscourseResource extends ResourceSupport {
 		this.countsByType = countsByType;
 	}
 
+	public Date getAsOf() {
+		return asOf;
+	}
+
+	public void setAsOf(Date asOf) {
+		this.asOf = asOf;
+	}
+
+	public long getMaxStalenessSeconds() {
+		return maxStalenessSeconds;
+	}
+
+	public void setMaxStalenessSeconds(long maxStalenessSeconds) {
+		this.maxStalenessSeconds = maxStalenessSeconds;
+	}
+
 	
 	
 }
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Authors: Oliver Ferschke and Chris Bogart
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.api.browsing.resource;
+
+import java.util.Date;
+
+import org.springframework.hateoas.ResourceSupport;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import edu.cmu.cs.lti.discoursedb.api.browsing.export.ExportJob;
+
+/**
+ * Status of a BRAT or LightSide export job. 
+ * Progress is reported as the number of done and total steps. The total is 0 while it is not known yet.
+ */
+public class BrowsingExportJobResource extends ResourceSupport {
+	private String jobId;
+	private String type;
+	private String status;
+	private Long discoursePartId;
+	private long done;
+	private long total;
+	private Date created;
+	private Date finished;
+	private String error;
+
+	public BrowsingExportJobResource(ExportJob job) {
+		this.jobId = job.getId();
+		this.type = job.getType();
+		this.status = job.getStatus().name();
+		this.discoursePartId = job.getDiscoursePartId();
+		this.done = job.getDone();
+		this.total = job.getTotal();
+		this.created = job.getCreated();
+		this.finished = job.getFinished();
+		this.error = job.getError();
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public Long getDiscoursePartId() {
+		return discoursePartId;
+	}
+
+	public long getDone() {
+		return done;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd' 'HH:mm:ss XXX")
+	public Date getCreated() {
+		return created;
+	}
+
+	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd' 'HH:mm:ss XXX")
+	public Date getFinished() {
+		return finished;
+	}
+
+	public String getError() {
+		return error;
+	}
+}
@@ -22,7 +22,7 @@
 package edu.cmu.cs.lti.discoursedb.api.browsing.resource;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -30,10 +30,7 @@ import org.springframework.hateoas.ResourceSupport;
 
 import edu.cmu.cs.lti.discoursedb.api.browsing.controller.BrowsingRestController;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
-import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
-import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRepository;
-import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseRepository;
-import edu.cmu.cs.lti.discoursedb.core.repository.user.UserRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.system.StatsSnapshot;
 
 public class BrowsingStatsResource extends ResourceSupport {
 
@@ -41,30 +38,21 @@ public class BrowsingStatsResource extends ResourceSupport {
 	private long users;
 	private Map<String,Long> contributions;
 	private List<String> discourses;
+	private Date asOf;
+	private long maxStalenessSeconds;
 	
-	public BrowsingStatsResource(DiscourseRepository discourseRepository, 
-			DiscoursePartRepository discoursePartRepository, 
-			ContributionRepository contributionRepository, 
-			UserRepository userRepository) {
+	public BrowsingStatsResource(Iterable<Discourse> discourses, StatsSnapshot stats) {
 
 		this.discourses = new ArrayList<String>();
-		this.discourseParts = new HashMap<String,Long>();
-		this.contributions = new HashMap<String,Long>();
-		this.users = 0;
-		
-		discourseRepository.findAll().forEach(d -> this.discourses.add(d.getName()));
-		this.users = userRepository.count();
-		
-		for (Discourse d: discourseRepository.findAll()) {
+		for (Discourse d: discourses) {
+			this.discourses.add(d.getName());
 			this.add(BrowsingRestController.makeLink("/browsing/discourses/" + d.getId(), "Discourse " + d.getName()));			
 		}
-		discoursePartRepository.countsByType().forEach(c  -> {
-			this.discourseParts.put(c[0].toString(), (Long)c[1]);
-		});
-		contributionRepository.countsByType().forEach(c  -> {
-			this.contributions.put(c[0].toString(), (Long)c[1]);
-		});
-		
+		this.users = stats.getUsers();
+		this.discourseParts = stats.getDiscoursePartsByType();
+		this.contributions = stats.getContributionsByType();
+		this.asOf = stats.getAsOf();
+		this.maxStalenessSeconds = stats.getMaxStalenessSeconds();
 	}
 
 	
@@ -101,6 +89,22 @@ public class BrowsingStatsResource extends ResourceSupport {
 		this.discourses = discourses;
 	}
 
+	public Date getAsOf() {
+		return asOf;
+	}
+
+	public void setAsOf(Date asOf) {
+		this.asOf = asOf;
+	}
+
+	public long getMaxStalenessSeconds() {
+		return maxStalenessSeconds;
+	}
+
+	public void setMaxStalenessSeconds(long maxStalenessSeconds) {
+		this.maxStalenessSeconds = maxStalenessSeconds;
+	}
+
 	
 	
 	
@@ -21,58 +21,90 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.api.recommendation.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.web.PagedResourcesAssembler;
+import org.springframework.hateoas.PagedResources;
+import org.springframework.hateoas.Resource;
 import org.springframework.hateoas.Resources;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 import edu.cmu.cs.lti.discoursedb.api.recommendation.resource.RecommendationContributionResource;
 import edu.cmu.cs.lti.discoursedb.api.recommendation.resource.RecommendationDataSourceInstanceResource;
 import edu.cmu.cs.lti.discoursedb.api.recommendation.resource.RecommendationDiscoursePartResource;
 import edu.cmu.cs.lti.discoursedb.api.recommendation.resource.RecommendationDiscourseResource;
+import edu.cmu.cs.lti.discoursedb.api.recommendation.resource.RecommendationThreadInfoResource;
 import edu.cmu.cs.lti.discoursedb.api.recommendation.resource.RecommendationUserResource;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
-import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
-import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseRelation;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
-import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartContributionRepository;
-import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseToDiscoursePartRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.user.UserRepository;
-import edu.cmu.cs.lti.discoursedb.core.type.DiscourseRelationTypes;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService;
+import edu.cmu.cs.lti.discoursedb.core.service.user.UserService;
 
 @Controller
 @RequestMapping(value = "/recommendation", produces = "application/hal+json")
 public class RecommendationRestController {
 
-	@Autowired
-	private DiscourseRepository discourseRepository;
+	/**
+	 * Media type of the streamed endpoints, which return one JSON object per line.
+	 * The streamed variants of the list endpoints are selected with the <code>format=ndjson</code> request parameter alone.
+	 * They also produce any media type, so clients that send no or a generic Accept header are not rejected with 406.
+	 */
+	private static final String NDJSON = "application/x-ndjson";
+	private static final int STREAM_CHUNK_SIZE = 1000;
+	private static final ObjectWriter NDJSON_WRITER = new ObjectMapper().writer();
 
 	@Autowired
-	private DiscoursePartRepository discoursePartRepository;
+	private DiscourseRepository discourseRepository;
 
 	@Autowired
 	private DiscourseToDiscoursePartRepository discourseToDiscoursePartRepository;
 
-	@Autowired
-	DiscoursePartContributionRepository discoursePartContributionRepository;
-	
 	@Autowired
 	private ContributionRepository contributionRepository;
 
 	@Autowired
 	private UserRepository userRepository;
 
+	@Autowired
+	private ContributionService contributionService;
+
+	@Autowired
+	private UserService userService;
+
+	@Autowired 
+	private PagedResourcesAssembler<RecommendationContributionResource> praContributionAssembler;
+
+	@Autowired 
+	private PagedResourcesAssembler<RecommendationUserResource> praUserAssembler;
+
 	@RequestMapping(method = RequestMethod.GET)
 	@ResponseBody
 	Resources<RecommendationDiscourseResource> discourses() {
@@ -84,20 +116,34 @@ public class RecommendationRestController {
 
 	@RequestMapping(value = "/allcontributions", method = RequestMethod.GET)
 	@ResponseBody
-	Resources<RecommendationContributionResource> contributions() {
-		List<RecommendationContributionResource> contribResources = StreamSupport
-				.stream(contributionRepository.findAll().spliterator(), false)
-				.map(RecommendationContributionResource::new).collect(Collectors.toList());
-		return new Resources<RecommendationContributionResource>(contribResources);
+	PagedResources<Resource<RecommendationContributionResource>> contributions(@RequestParam(value= "page", defaultValue = "0") int page, 
+														   @RequestParam(value= "size", defaultValue="20") int size) {
+		Page<RecommendationContributionResource> contribResources = contributionService
+				.findSummaries(Optional.empty(), false, new PageRequest(page, size))
+				.map(RecommendationContributionResource::new);
+		return praContributionAssembler.toResource(contribResources);
+	}
+
+	@RequestMapping(value = "/allcontributions", method = RequestMethod.GET, params = "format=ndjson", produces = { NDJSON, MediaType.ALL_VALUE })
+	StreamingResponseBody contributionStream(HttpServletResponse response) {
+		response.setContentType(NDJSON);
+		return out -> contributionService.scrollSummaries(Optional.empty(), false, STREAM_CHUNK_SIZE, chunk -> writeLines(out, chunk));
 	}
 
 	@RequestMapping(value = "/allusers", method = RequestMethod.GET)
 	@ResponseBody
-	Resources<RecommendationUserResource> users() {
-		List<RecommendationUserResource> userResources = StreamSupport
-				.stream(userRepository.findAll().spliterator(), false).map(RecommendationUserResource::new)
-				.collect(Collectors.toList());
-		return new Resources<RecommendationUserResource>(userResources);
+	PagedResources<Resource<RecommendationUserResource>> users(@RequestParam(value= "page", defaultValue = "0") int page, 
+														   @RequestParam(value= "size", defaultValue="20") int size) {
+		Page<RecommendationUserResource> userResources = userService
+				.findSummaries(Optional.empty(), false, new PageRequest(page, size))
+				.map(RecommendationUserResource::new);
+		return praUserAssembler.toResource(userResources);
+	}
+
+	@RequestMapping(value = "/allusers", method = RequestMethod.GET, params = "format=ndjson", produces = { NDJSON, MediaType.ALL_VALUE })
+	StreamingResponseBody userStream(HttpServletResponse response) {
+		response.setContentType(NDJSON);
+		return out -> userService.scrollSummaries(Optional.empty(), false, STREAM_CHUNK_SIZE, chunk -> writeLines(out, chunk));
 	}
 
 	@RequestMapping(value = "/contributionParent/{id}", method = RequestMethod.GET)
@@ -112,29 +158,31 @@ public class RecommendationRestController {
 		return new RecommendationContributionResource(getThreadStarter(id));				
 	}
 	
+	/**
+	 * Resolves parent and thread starter of many contributions at once, 
+	 * so clients that reconstruct threads need one request per page of contributions instead of one per contribution.
+	 */
+	@RequestMapping(value = "/threadInfo", method = RequestMethod.GET)
+	@ResponseBody
+	public Resources<RecommendationThreadInfoResource> threadInfo(@RequestParam("ids") List<Long> ids) {
+		Map<Long, Long> parents = contributionService.findParentIds(ids);
+		Map<Long, Long> threadStarters = contributionService.findThreadStarterIds(ids);
+		List<RecommendationThreadInfoResource> threadInfoResources = ids.stream().distinct()
+				.map(id -> new RecommendationThreadInfoResource(id, parents.getOrDefault(id, id), threadStarters.getOrDefault(id, id)))
+				.collect(Collectors.toList());
+		return new Resources<RecommendationThreadInfoResource>(threadInfoResources);
+	}
+	
 	public Contribution getParentContribution(Long contribId){
 		//TODO check if optional is present
-		Contribution contrib= contributionRepository.findOne(contribId).get();
-		for(DiscourseRelation rel:contrib.getTargetOfDiscourseRelations()){
-			if(rel.getType().equals(DiscourseRelationTypes.COMMENT.name())){
-				return rel.getSource();
-			}
-			if(rel.getType().equals(DiscourseRelationTypes.REPLY.name())){
-				return rel.getSource();
-			}
-		}
-		return contrib;
+		Long parentId = contributionService.findParentIds(Collections.singleton(contribId)).getOrDefault(contribId, contribId);
+		return contributionRepository.findOne(parentId).get();
 	}
 	
 	public Contribution getThreadStarter(Long contribId){
 		//TODO check if optional is present
-		Contribution contrib= contributionRepository.findOne(contribId).get();
-		for(DiscourseRelation rel:contrib.getTargetOfDiscourseRelations()){
-			if(rel.getType().equals(DiscourseRelationTypes.DESCENDANT.name())){
-				return rel.getSource();
-			}
-		}
-		return contrib;
+		Long threadStarterId = contributionService.findThreadStarterIds(Collections.singleton(contribId)).getOrDefault(contribId, contribId);
+		return contributionRepository.findOne(threadStarterId).get();
 	}
 
 	@RequestMapping(value = "/contribution/{id}", method = RequestMethod.GET)
@@ -161,25 +209,53 @@ public class RecommendationRestController {
 
 	@RequestMapping(value = "/contributionsOfDiscoursePart/{id}", method = RequestMethod.GET)
 	@ResponseBody
-	public Resources<RecommendationContributionResource> contributionsForDiscoursePart(@PathVariable Long id) {
-		DiscoursePart discoursePart = discoursePartRepository.findOne(id).get();		
-		List<RecommendationContributionResource> discoursePartResources = discoursePartContributionRepository
-				.findByDiscoursePart(discoursePart).stream()
-				.map(e -> e.getContribution())
-				.map(RecommendationContributionResource::new).collect(Collectors.toList());
-		return new Resources<RecommendationContributionResource>(discoursePartResources);
+	public PagedResources<Resource<RecommendationContributionResource>> contributionsForDiscoursePart(@PathVariable Long id,
+														   @RequestParam(value= "page", defaultValue = "0") int page, 
+														   @RequestParam(value= "size", defaultValue="20") int size,
+														   @RequestParam(value= "includeDescendants", defaultValue="false") boolean includeDescendants) {
+		Page<RecommendationContributionResource> discoursePartResources = contributionService
+				.findSummaries(Optional.of(id), includeDescendants, new PageRequest(page, size))
+				.map(RecommendationContributionResource::new);
+		return praContributionAssembler.toResource(discoursePartResources);
 	}
 
+	@RequestMapping(value = "/contributionsOfDiscoursePart/{id}", method = RequestMethod.GET, params = "format=ndjson", produces = { NDJSON, MediaType.ALL_VALUE })
+	public StreamingResponseBody contributionStreamForDiscoursePart(@PathVariable Long id,
+														   @RequestParam(value= "includeDescendants", defaultValue="false") boolean includeDescendants,
+														   HttpServletResponse response) {
+		response.setContentType(NDJSON);
+		return out -> contributionService.scrollSummaries(Optional.of(id), includeDescendants, STREAM_CHUNK_SIZE, chunk -> writeLines(out, chunk));
+	}
+
+	/**
+	 * Returns a page of the distinct authors of the contributions in a DiscoursePart, ordered by user id.
+	 * <p>
+	 * Each author is listed once, no matter how many contributions they wrote.
+	 * Earlier versions returned one (unpaged) entry per contribution in contribution order, so an author appeared once per contribution.
+	 * Clients that derived contribution counts from repeated entries need to use <code>/contributionsOfDiscoursePart/{id}</code> instead.
+	 */
 	@RequestMapping(value = "/usersOfDiscoursePart/{id}", method = RequestMethod.GET)
 	@ResponseBody
-	public Resources<RecommendationUserResource> usersForDiscoursePart(@PathVariable Long id) {
-		DiscoursePart discoursePart = discoursePartRepository.findOne(id).get();		
-		List<RecommendationUserResource> discoursePartResources = discoursePartContributionRepository
-				.findByDiscoursePart(discoursePart).stream()
-				.map(e -> e.getContribution().getCurrentRevision().getAuthor())
-				.map(RecommendationUserResource::new)
-				.collect(Collectors.toList());
-		return new Resources<RecommendationUserResource>(discoursePartResources);
+	public PagedResources<Resource<RecommendationUserResource>> usersForDiscoursePart(@PathVariable Long id,
+														   @RequestParam(value= "page", defaultValue = "0") int page, 
+														   @RequestParam(value= "size", defaultValue="20") int size,
+														   @RequestParam(value= "includeDescendants", defaultValue="false") boolean includeDescendants) {
+		Page<RecommendationUserResource> discoursePartResources = userService
+				.findSummaries(Optional.of(id), includeDescendants, new PageRequest(page, size))
+				.map(RecommendationUserResource::new);
+		return praUserAssembler.toResource(discoursePartResources);
+	}
+
+	/**
+	 * Streams the distinct authors of the contributions in a DiscoursePart as ndjson, ordered by user id.
+	 * Like the paged variant, each author is listed once.
+	 */
+	@RequestMapping(value = "/usersOfDiscoursePart/{id}", method = RequestMethod.GET, params = "format=ndjson", produces = { NDJSON, MediaType.ALL_VALUE })
+	public StreamingResponseBody userStreamForDiscoursePart(@PathVariable Long id,
+														   @RequestParam(value= "includeDescendants", defaultValue="false") boolean includeDescendants,
+														   HttpServletResponse response) {
+		response.setContentType(NDJSON);
+		return out -> userService.scrollSummaries(Optional.of(id), includeDescendants, STREAM_CHUNK_SIZE, chunk -> writeLines(out, chunk));
 	}
 	
 	@RequestMapping(value = "/sourcesForUser/{id}", method = RequestMethod.GET)
@@ -202,4 +278,19 @@ public class RecommendationRestController {
 		return new Resources<RecommendationDataSourceInstanceResource>(dataSourceResources);
 	}
 
+	/**
+	 * Writes one JSON object per line and flushes after each chunk, so bulk consumers can process the stream incrementally.
+	 */
+	private static void writeLines(OutputStream out, List<?> chunk) {
+		try {
+			for (Object item : chunk) {
+				out.write(NDJSON_WRITER.writeValueAsBytes(item));
+				out.write('\n');
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
 }
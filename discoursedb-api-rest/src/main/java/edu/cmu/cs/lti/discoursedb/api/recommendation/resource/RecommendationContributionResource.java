@@ -30,6 +30,7 @@ import org.springframework.hateoas.ResourceSupport;
 
 import edu.cmu.cs.lti.discoursedb.api.recommendation.controller.RecommendationRestController;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService.ContributionSummary;
 import edu.cmu.cs.lti.discoursedb.core.type.ContributionTypes;
 public class RecommendationContributionResource extends ResourceSupport {
 	
@@ -59,6 +60,26 @@ public class RecommendationContributionResource extends ResourceSupport {
 		this.add(linkTo(methodOn(RecommendationRestController.class).user(contrib.getCurrentRevision().getAuthor().getId())).withRel("author"));
 	}
 
+	public RecommendationContributionResource(ContributionSummary contrib) {
+		this.setContent(contrib.getText());		
+		this.setUsername(contrib.getAuthorUsername());
+		this.setUsermail(contrib.getAuthorEmail());
+		this.setUserrealname(contrib.getAuthorRealname());
+		this.setContributionType(contrib.getType());
+		this.setCreationTime(contrib.getStartTime());
+		this.setUpvotes(contrib.getUpvotes());
+		this.add(linkTo(methodOn(RecommendationRestController.class).sourcesForContribution(contrib.getContributionId())).withRel("contributionSources"));
+		if(getContributionType().equals(ContributionTypes.POST.name())||getContributionType().equals(ContributionTypes.GOAL_NOTE.name())||getContributionType().equals(ContributionTypes.NODE_COMMENT.name())){			
+			this.add(linkTo(methodOn(RecommendationRestController.class).contribParent(contrib.getContributionId())).withRel("parentContribution"));
+		}		
+		if(getContributionType().equals(ContributionTypes.POST.name())){			
+			this.add(linkTo(methodOn(RecommendationRestController.class).threadStarter(contrib.getContributionId())).withRel("threadStarter"));
+		}		
+		if(contrib.getAuthorId()!=null){
+			this.add(linkTo(methodOn(RecommendationRestController.class).user(contrib.getAuthorId())).withRel("author"));
+		}
+	}
+
 	public String getContributionType() {
 		return contributionType;
 	}
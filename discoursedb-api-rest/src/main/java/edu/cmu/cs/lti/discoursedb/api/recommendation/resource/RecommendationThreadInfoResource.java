@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Authors: Oliver Ferschke and Chris Bogart
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.api.recommendation.resource;
+
+import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
+import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
+
+import org.springframework.hateoas.ResourceSupport;
+
+import edu.cmu.cs.lti.discoursedb.api.recommendation.controller.RecommendationRestController;
+
+/**
+ * The position of a contribution within its thread. 
+ * Parent and thread starter default to the contribution itself if the contribution has no parent or thread starter.
+ */
+public class RecommendationThreadInfoResource extends ResourceSupport {
+	
+	private Long contributionId;
+	private Long parentId;
+	private Long threadStarterId;
+	
+	public RecommendationThreadInfoResource(Long contributionId, Long parentId, Long threadStarterId) {
+		this.setContributionId(contributionId);
+		this.setParentId(parentId);
+		this.setThreadStarterId(threadStarterId);
+		this.add(linkTo(methodOn(RecommendationRestController.class).contrib(contributionId)).withRel("contribution"));
+		this.add(linkTo(methodOn(RecommendationRestController.class).contrib(parentId)).withRel("parentContribution"));
+		this.add(linkTo(methodOn(RecommendationRestController.class).contrib(threadStarterId)).withRel("threadStarter"));
+	}
+
+	public Long getContributionId() {
+		return contributionId;
+	}
+
+	public void setContributionId(Long contributionId) {
+		this.contributionId = contributionId;
+	}
+
+	public Long getParentId() {
+		return parentId;
+	}
+
+	public void setParentId(Long parentId) {
+		this.parentId = parentId;
+	}
+
+	public Long getThreadStarterId() {
+		return threadStarterId;
+	}
+
+	public void setThreadStarterId(Long threadStarterId) {
+		this.threadStarterId = threadStarterId;
+	}
+
+}
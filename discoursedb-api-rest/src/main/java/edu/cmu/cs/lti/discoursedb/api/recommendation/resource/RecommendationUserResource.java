@@ -28,6 +28,7 @@ import org.springframework.hateoas.ResourceSupport;
 
 import edu.cmu.cs.lti.discoursedb.api.recommendation.controller.RecommendationRestController;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
+import edu.cmu.cs.lti.discoursedb.core.service.user.UserService.UserSummary;
 
 public class RecommendationUserResource extends ResourceSupport {
 	
@@ -44,6 +45,14 @@ public class RecommendationUserResource extends ResourceSupport {
 		this.add(linkTo(methodOn(RecommendationRestController.class).sourcesForUser(user.getId())).withRel("userSources"));
 	}
 
+	public RecommendationUserResource(UserSummary user) {
+		this.setUsername(user.getUsername());
+		this.setRealname(user.getRealname());
+		this.setEmail(user.getEmail());
+		this.setCountry(user.getCountry());
+		this.add(linkTo(methodOn(RecommendationRestController.class).sourcesForUser(user.getUserId())).withRel("userSources"));
+	}
+
 	public String getCountry() {
 		return country;
 	}
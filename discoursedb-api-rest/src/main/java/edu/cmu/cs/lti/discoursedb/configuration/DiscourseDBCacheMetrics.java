@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Authors: Oliver Ferschke and Chris Bogart
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import edu.cmu.cs.lti.discoursedb.core.service.system.CacheMetricsService;
+
+/**
+ * Publishes the hit ratios of the DiscourseDB caches on the actuator <code>/metrics</code> endpoint, 
+ * e.g. <code>discoursedb.cache.datasource.hitRatio</code> or 
+ * <code>discoursedb.cache.edu.cmu.cs.lti.discoursedb.core.model.user.User.hitRatio</code>.
+ */
+@Component
+public class DiscourseDBCacheMetrics implements PublicMetrics {
+
+	private static final String PREFIX = "discoursedb.cache.";
+
+	@Autowired
+	private CacheMetricsService cacheMetricsService;
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		cacheMetricsService.getMetrics().forEach((name, cache) -> {
+			metrics.add(new Metric<Double>(PREFIX + name + ".hitRatio", cache.getHitRatio()));
+			metrics.add(new Metric<Long>(PREFIX + name + ".hits", cache.getHits()));
+			metrics.add(new Metric<Long>(PREFIX + name + ".misses", cache.getMisses()));
+			if (cache.getSize() >= 0) {
+				metrics.add(new Metric<Long>(PREFIX + name + ".size", cache.getSize()));
+			}
+		});
+		return metrics;
+	}
+}
@@ -26,19 +26,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.io.FileUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
 import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 
@@ -92,60 +91,38 @@ public class BazaarConverter implements CommandLineRunner {
 
 	private void convert(String messageFileDir, String roomFileDir, String agentname) throws ParseException, IOException {
 
-		Map<String, String> roomIdNameMap = new HashMap<>();
-		List<String> messages = new ArrayList<>();
-		
-		//Read input file and preprocess
-		String lineFragment = null;
-		for(String line:FileUtils.readLines(new File(messageFileDir))){
-			//line fragments occur in case we have line feeds in a column
-			if(lineFragment!=null){
-				line=lineFragment+line;
-				lineFragment=null;
-			}
-			if (line.endsWith("\\")||line.endsWith("\\\r\f")){
-				line = line.replaceAll("\\\r\f", "");
-				lineFragment = line;
-			}else{
-				if (line.contains("\\\"We're Ready\\\"")) {
-					line = line.replaceAll("\"We're Ready\\\\\"", "We're Ready\\\\");
-				}
-				if (line.contains("\\\"ready\\\"")) {
-					line = line.replaceAll("\\\\\"ready\\\\\"", "\\\\ready\\\\");
-				}
-				if (line.contains("\\\""+agentname+"\\\"")){
-					line = line.replaceAll("\\\\\""+agentname+"\\\\\"", "\\\\"+agentname+"\\\\");
-				}
-				messages.add(line);						
-			}
-		}
+		Map<String, Long> roomDiscourseParts = new HashMap<>();
+		CsvMapper mapper = new CsvMapper();
 
 		// Phase 1: read through input room file once and map all entities
 		try (InputStream in = new FileInputStream(roomFileDir)) {
-			CsvMapper mapper = new CsvMapper();
 			CsvSchema schema = mapper.schemaFor(Room.class).withColumnSeparator(',');
 			MappingIterator<Room> rIter = mapper.readerFor(Room.class).with(schema).readValues(in);
 			while (rIter.hasNextValue()) {
 				Room r = rIter.next();
-				if (!roomIdNameMap.containsKey(r.getId()))
-					roomIdNameMap.put(r.getId(), r.getName());
-				converterService.mapRoom(r, dataSetName, discourseName);
+				Long discoursePartId = converterService.mapRoom(r, dataSetName, discourseName);
+				roomDiscourseParts.putIfAbsent(r.getId(), discoursePartId);
 			}
 		} catch (IOException e) {
 			log.error("Error reading room file",e);
 		}
 
-		// Phase 2: read through input message file and map relationships between room and message
-			CsvMapper mapper = new CsvMapper();
-			CsvSchema schema = mapper.schemaFor(Message.class).withColumnSeparator(',');
-			for(String message:messages){
-				Message m = mapper.readerFor(Message.class).with(schema).readValue(message);
+		// Phase 2: stream the message file and map relationships between room and message
+		ObjectReader messageReader = mapper.readerFor(Message.class).with(mapper.schemaFor(Message.class).withColumnSeparator(','));
+		long messageCount = 0;
+		try (BazaarLogReader messages = new BazaarLogReader(new File(messageFileDir), StandardCharsets.UTF_8, agentname)) {
+			while (messages.hasNext()) {
+				Message m = messageReader.readValue(messages.next());
 				if (m.getType().equals("text") || m.getType().equals("image") || m.getType().equals("private")){
-					converterService.mapMessage(m, dataSetName, discourseName, roomIdNameMap);				
+					converterService.mapMessage(m, dataSetName, discourseName, roomDiscourseParts);				
 				}else{
-					converterService.mapInteraction(m, dataSetName, discourseName, roomIdNameMap);					
+					converterService.mapInteraction(m, discourseName, dataSetName, roomDiscourseParts);					
+				}
+				if (++messageCount % 1000 == 0) {
+					log.info("Imported " + messageCount + " messages");
 				}
 			}
+		}
 	}
 
-}
\ No newline at end of file
+}
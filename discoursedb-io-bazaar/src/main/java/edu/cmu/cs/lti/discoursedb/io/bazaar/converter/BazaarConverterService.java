@@ -81,9 +81,9 @@ public class BazaarConverterService {
 	 * @param m the message object
 	 * @param dataSetName the dataset the message is imported from
 	 * @param discourseName the discourse the message belongs to
-	 * @param roommap a map from room ids to room names
+	 * @param roomDiscourseParts a map from room ids to the ids of the chat room DiscourseParts
 	 */
-	public void mapMessage(Message m, String dataSetName, String discourseName, Map<String, String> roommap) {
+	public void mapMessage(Message m, String dataSetName, String discourseName, Map<String, Long> roomDiscourseParts) {
 		if (contributionService.findOneByDataSource(m.getId(), BazaarSourceMapping.ID_STR_TO_CONTRIBUTION, dataSetName).isPresent()) {
 			log.warn("Message " + m.getId() + " already in database. Skipping...");
 			return;
@@ -133,8 +133,7 @@ public class BazaarConverterService {
 					}
 
 					//map relation between contribution and discoursepart
-					DiscoursePart curDiscoursePart = discoursepartService.createOrGetTypedDiscoursePart(
-									curDiscourse, lookupRoomName(m.getRoomid(), roommap), DiscoursePartTypes.CHATROOM);
+					DiscoursePart curDiscoursePart = lookupRoom(curDiscourse, m.getRoomid(), roomDiscourseParts);
 					discoursepartService.addContributionToDiscoursePart(curContribution, curDiscoursePart);
 									
 					return curContribution; //only needed to fulfill return reqs of orElseGet							
@@ -148,8 +147,9 @@ public class BazaarConverterService {
 	 * @param r the room object
 	 * @param dataSetName the dataset the room is imported from
 	 * @param discourseName the name of the discourse the chatroom belongs to
+	 * @return the id of the DiscoursePart that represents the room
 	 */
-	public void mapRoom(Room r, String dataSetName, String discourseName) {
+	public Long mapRoom(Room r, String dataSetName, String discourseName) {
 
 		Discourse curDiscourse = discourseService.createOrGetDiscourse(discourseName);		
 		
@@ -172,7 +172,7 @@ public class BazaarConverterService {
 			}
 		}
 		curDiscoursePart.setName(r.getName());			
-		
+		return curDiscoursePart.getId();
 	}
 	
 	/**
@@ -181,15 +181,15 @@ public class BazaarConverterService {
 	 * @param m the message that contains an indicator for a DiscoursePartInteraction
 	 * @param discourseName the name of the discourse the interaction belongs to
 	 * @param dataSetName the name of the dataset the message is imported from
-	 * @param roommap a map from room ids to room names.
+	 * @param roomDiscourseParts a map from room ids to the ids of the chat room DiscourseParts
 	 */
-	public void mapInteraction(Message m, String discourseName, String dataSetName, Map<String, String> roommap) {
+	public void mapInteraction(Message m, String discourseName, String dataSetName, Map<String, Long> roomDiscourseParts) {
 		Discourse curDiscourse = discourseService.createOrGetDiscourse(discourseName);
 		User curUser = userService.createOrGetUser(curDiscourse, m.getUsername());
 		dataSourceService.addSource(curUser,
 				new DataSourceInstance(m.getUsername(), BazaarSourceMapping.FROM_USER_ID_STR_TO_USER,DataSourceTypes.BAZAAR, dataSetName));
 		
-		DiscoursePart curDiscoursePart = discoursepartService.createOrGetTypedDiscoursePart(curDiscourse, lookupRoomName(m.getRoomid(), roommap), DiscoursePartTypes.CHATROOM);
+		DiscoursePart curDiscoursePart = lookupRoom(curDiscourse, m.getRoomid(), roomDiscourseParts);
 		if(m.getContent().equals("join"))
 			userService.createDiscoursePartInteraction(curUser, curDiscoursePart, DiscoursePartInteractionTypes.JOIN);
 		if(m.getContent().equals("ready"))
@@ -202,21 +202,24 @@ public class BazaarConverterService {
 	}
 	
 	/**
-	 * Returns the room name from the map if it exists and is not empty.
-	 * If it no valid room name exists, it uses the room id to create one.
+	 * Returns the DiscoursePart of the given room from the map if it has been mapped before.
+	 * Mapped rooms are returned as references, i.e. looking up a room doesn't cost a query per message.
+	 * If the room is unknown, a DiscoursePart named after the room id is created and added to the map.
 	 * 
-	 * @param roomId the if of the chat room
-	 * @param roomNameMap a map from ids to names
-	 * @return the room name
+	 * @param discourse the discourse the chat room belongs to
+	 * @param roomId the id of the chat room
+	 * @param roomDiscourseParts a map from room ids to DiscoursePart ids
+	 * @return the DiscoursePart representing the room
 	 */
-	private String lookupRoomName(String roomId, Map<String, String> roomNameMap){
-		String mappedName = roomNameMap.get(roomId); 
-		if(mappedName!=null&&!mappedName.isEmpty()){
-			return mappedName;
-		}else{
-			log.warn("Could not find valid room name for room "+roomId+". Using room id instead.");
-			return "Unnamed room "+ roomId;
+	private DiscoursePart lookupRoom(Discourse discourse, String roomId, Map<String, Long> roomDiscourseParts){
+		Long discoursePartId = roomDiscourseParts.get(roomId);
+		if(discoursePartId!=null){
+			return discoursepartService.getReference(discoursePartId);
 		}
+		log.warn("Could not find valid room name for room "+roomId+". Using room id instead.");
+		DiscoursePart unnamedRoom = discoursepartService.createOrGetTypedDiscoursePart(discourse, "Unnamed room "+ roomId, DiscoursePartTypes.CHATROOM);
+		roomDiscourseParts.put(roomId, unnamedRoom.getId());
+		return unnamedRoom;
 	}
 	
 }
\ No newline at end of file
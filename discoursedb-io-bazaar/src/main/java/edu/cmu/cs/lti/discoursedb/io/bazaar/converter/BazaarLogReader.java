@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.io.bazaar.converter;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a bazaar message log one logical record at a time.<br/>
+ * 
+ * Physical lines ending with a backslash are joined with the following line, since
+ * line feeds within a column are escaped this way in the log.
+ * Escaped quotes around a couple of known tokens (e.g. <code>\"ready\"</code> or the agent name)
+ * break the CSV parser and are rewritten to <code>\ready\</code> on the fly.
+ * Only the current record is held in memory.
+ * 
+ * @author Oliver Ferschke
+ */
+class BazaarLogReader implements Iterator<String>, Closeable {
+
+	private static final String FORM_FEED_BREAK = "\r\f";
+
+	private final BufferedReader reader;
+	private final String[] quotedTokens;
+	private final String[] repairedTokens;
+	private String next;
+
+	/**
+	 * @param messageFile the message log
+	 * @param charset the encoding of the message log
+	 * @param agentname the name of the agent whose quoted name should be repaired
+	 * @throws IOException if the file cannot be opened
+	 */
+	BazaarLogReader(File messageFile, Charset charset, String agentname) throws IOException {
+		this.reader = Files.newBufferedReader(messageFile.toPath(), charset);
+		String[] tokens = new String[] { "We're Ready", "ready", agentname };
+		this.quotedTokens = new String[tokens.length];
+		this.repairedTokens = new String[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			quotedTokens[i] = "\\\"" + tokens[i] + "\\\"";
+			repairedTokens[i] = "\\" + tokens[i] + "\\";
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null) {
+			try {
+				next = readRecord();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String record = next;
+		next = null;
+		return record;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private String readRecord() throws IOException {
+		StringBuilder record = null;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			//line fragments occur in case we have line feeds in a column
+			if (line.endsWith("\\") || line.endsWith("\\" + FORM_FEED_BREAK)) {
+				record = append(record, remove(line, FORM_FEED_BREAK));
+			} else {
+				return repairQuotes(record == null ? line : record.append(line).toString());
+			}
+		}
+		//a dangling fragment at the end of the file is dropped, as it cannot be parsed
+		return null;
+	}
+
+	private static StringBuilder append(StringBuilder record, String fragment) {
+		return record == null ? new StringBuilder(fragment) : record.append(fragment);
+	}
+
+	private String repairQuotes(String line) {
+		if (line.indexOf("\\\"") < 0) {
+			return line;
+		}
+		for (int i = 0; i < quotedTokens.length; i++) {
+			line = replace(line, quotedTokens[i], repairedTokens[i]);
+		}
+		return line;
+	}
+
+	private static String remove(String line, String target) {
+		return replace(line, target, "");
+	}
+
+	/**
+	 * Literal replacement without the regex compilation that {@link String#replace(CharSequence, CharSequence)} entails.
+	 */
+	private static String replace(String line, String target, String replacement) {
+		int idx = line.indexOf(target);
+		if (idx < 0) {
+			return line;
+		}
+		StringBuilder sb = new StringBuilder(line.length());
+		int start = 0;
+		do {
+			sb.append(line, start, idx).append(replacement);
+			start = idx + target.length();
+			idx = line.indexOf(target, start);
+		} while (idx >= 0);
+		return sb.append(line, start, line.length()).toString();
+	}
+}
@@ -76,22 +76,23 @@ public class CourseraConverter implements CommandLineRunner{
 	
 	private void convert() throws SQLException {
 		
-		CourseraDB database = new CourseraDB(
-				this.dbhost, this.dbname, this.dbuser, this.dbpwd);
-		
-		//Discourse curDiscourse = discourseService.createOrGetDiscourse(discourseName);
-		
-		//Phase 1: read through forum data from database and map all entities
-		converterService.mapForum(database, dataSetName, discourseName);
-		
-		//Phase 2: read through thread data from database and map all entities
-		converterService.mapThread(database, dataSetName, discourseName);
-		
-		//Phase 3: read through post data from database and map all entities
-		converterService.mapPost(database, dataSetName, discourseName);
-		
-		//Phase 4: read through comment data from database and map all entities
-		converterService.mapComment(database, dataSetName, discourseName);
+		try (CourseraDB database = new CourseraDB(
+				this.dbhost, this.dbname, this.dbuser, this.dbpwd)) {
+			
+			//Discourse curDiscourse = discourseService.createOrGetDiscourse(discourseName);
+			
+			//Phase 1: read through forum data from database and map all entities
+			converterService.mapForum(database, dataSetName, discourseName);
+			
+			//Phase 2: read through thread data from database and map all entities
+			converterService.mapThread(database, dataSetName, discourseName);
+			
+			//Phase 3: read through post data from database and map all entities
+			converterService.mapPost(database, dataSetName, discourseName);
+			
+			//Phase 4: read through comment data from database and map all entities
+			converterService.mapComment(database, dataSetName, discourseName);
+		}
 	}
 
 }
@@ -38,6 +38,7 @@ import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
+import edu.cmu.cs.lti.discoursedb.core.service.ingest.JdbcRowReader;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.ContentService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscoursePartService;
@@ -104,19 +105,21 @@ public class CourseraConverterService {
 
 		log.info("Importing forum data");
 
-		for (int forumid : database.getIds("forum")) {
-			Forum curForum = (Forum) database.getDbEntity("forum", (long) forumid);
+		try (JdbcRowReader<Forum> forums = database.readForums()) {
+			while (forums.hasNext()) {
+				Forum curForum = forums.next();
 
-			DiscoursePart forum = discoursepartService.createTypedDiscoursePart(discourse, DiscoursePartTypes.FORUM);
-			Date d = new Date(curForum.getOpentime() * 1000L);
-			forum.setStartTime(d);
+				DiscoursePart forum = discoursepartService.createTypedDiscoursePart(discourse, DiscoursePartTypes.FORUM);
+				Date d = new Date(curForum.getOpentime() * 1000L);
+				forum.setStartTime(d);
 
-			// If a forum has no name, set "NoNameForum" as its name
-			forum.setName(curForum.getName().length() > 0 ? curForum.getName() : "NoNameForum");
+				// If a forum has no name, set "NoNameForum" as its name
+				forum.setName(curForum.getName().length() > 0 ? curForum.getName() : "NoNameForum");
 
-			dataSourceService.addSource(forum, new DataSourceInstance(String.valueOf(curForum.getId()),
-					CourseraSourceMapping.ID_STR_TO_DISCOURSEPART, DataSourceTypes.COURSERA, dataSetName));
+				dataSourceService.addSource(forum, new DataSourceInstance(String.valueOf(curForum.getId()),
+						CourseraSourceMapping.ID_STR_TO_DISCOURSEPART, DataSourceTypes.COURSERA, dataSetName));
 
+			}
 		}
 
 	}
@@ -144,33 +147,35 @@ public class CourseraConverterService {
 
 		log.info("Importing thread data");
 
-		for (int threadid : database.getIds("thread")) {
-			Thread curThread = (Thread) database.getDbEntity("thread", (long) threadid);
-
-			// only map the thread if the forum has been imported into DiscourseDB
-			// The forum might have been marked as deleted while the thread was not.
-			// We shouldn't import threads of deleted forums.
-			discoursepartService.findOneByDataSource(String.valueOf(curThread.getForum_id()),
-					CourseraSourceMapping.ID_STR_TO_DISCOURSEPART, dataSetName).ifPresent(forum -> {
-						DiscoursePart thread = discoursepartService.createTypedDiscoursePart(discourse,
-								DiscoursePartTypes.THREAD);
-
-						// set time and name
-						Date start = new Date(curThread.getPosted_time() * 1000L);
-						Date last_update = new Date(curThread.getLast_updated_time() * 1000L);
-						thread.setStartTime(start);
-						thread.setEndTime(last_update);
-						thread.setName(curThread.getTitle());
-
-						// add discoursepart to database
-						dataSourceService.addSource(thread,
-								new DataSourceInstance(String.valueOf(curThread.getId()),
-										CourseraSourceMapping.ID_STR_TO_DISCOURSEPART_THREAD, DataSourceTypes.COURSERA,
-										dataSetName));
-
-						discoursepartService.createDiscoursePartRelation(forum, thread,
-								DiscoursePartRelationTypes.TALK_PAGE_HAS_DISCUSSION);
-					});
+		try (JdbcRowReader<Thread> threads = database.readThreads()) {
+			while (threads.hasNext()) {
+				Thread curThread = threads.next();
+
+				// only map the thread if the forum has been imported into DiscourseDB
+				// The forum might have been marked as deleted while the thread was not.
+				// We shouldn't import threads of deleted forums.
+				discoursepartService.findOneByDataSource(String.valueOf(curThread.getForum_id()),
+						CourseraSourceMapping.ID_STR_TO_DISCOURSEPART, dataSetName).ifPresent(forum -> {
+							DiscoursePart thread = discoursepartService.createTypedDiscoursePart(discourse,
+									DiscoursePartTypes.THREAD);
+
+							// set time and name
+							Date start = new Date(curThread.getPosted_time() * 1000L);
+							Date last_update = new Date(curThread.getLast_updated_time() * 1000L);
+							thread.setStartTime(start);
+							thread.setEndTime(last_update);
+							thread.setName(curThread.getTitle());
+
+							// add discoursepart to database
+							dataSourceService.addSource(thread,
+									new DataSourceInstance(String.valueOf(curThread.getId()),
+											CourseraSourceMapping.ID_STR_TO_DISCOURSEPART_THREAD, DataSourceTypes.COURSERA,
+											dataSetName));
+
+							discoursepartService.createDiscoursePartRelation(forum, thread,
+									DiscoursePartRelationTypes.TALK_PAGE_HAS_DISCUSSION);
+						});
+			}
 		}
 
 	}
@@ -199,63 +204,65 @@ public class CourseraConverterService {
 
 		log.info("Importing post data");
 
-		for (int postid : database.getIds("post")) {
-			Post curPost = (Post) database.getDbEntity("post", (long) postid);
-
-			// first check if this contribution for this post already exists in the database for some reason.
-			Optional<Contribution> existingPost = contributionService.findOneByDataSource(
-					String.valueOf(curPost.getId()), CourseraSourceMapping.ID_STR_TO_CONTRIBUTION, dataSetName);
-
-			// if the contrib for the post doesn't exist, import it
-			if (!existingPost.isPresent()) {
-
-				// before actually importing the contrib, check if the thread
-				// actually exist.
-				// the thread or forum might have been flagged as deleted and
-				// thus not been imported
-				discoursepartService.findOneByDataSource(String.valueOf(curPost.getThread_id()),CourseraSourceMapping.ID_STR_TO_DISCOURSEPART_THREAD, dataSetName)
-				.ifPresent(thread -> {
-
-							Date startTime = new Date(curPost.getPost_time() * 1000L);
-
-							// add content entity to database
-							log.trace("Create Content entity");
-							User curUser = userService.createOrGetUser(discourse, String.valueOf(curPost.getUser_id()));
-							Content curContent = contentService.createContent();
-							curContent.setText(curPost.getPost_text());
-							curContent.setAuthor(curUser);
-							curContent.setStartTime(startTime);
-							dataSourceService.addSource(curContent,
-									new DataSourceInstance(String.valueOf(curPost.getId()),
-											CourseraSourceMapping.ID_STR_TO_CONTENT, DataSourceTypes.COURSERA,
-											dataSetName));
+		try (JdbcRowReader<Post> posts = database.readPosts()) {
+			while (posts.hasNext()) {
+				Post curPost = posts.next();
+
+				// first check if this contribution for this post already exists in the database for some reason.
+				Optional<Contribution> existingPost = contributionService.findOneByDataSource(
+						String.valueOf(curPost.getId()), CourseraSourceMapping.ID_STR_TO_CONTRIBUTION, dataSetName);
+
+				// if the contrib for the post doesn't exist, import it
+				if (!existingPost.isPresent()) {
+
+					// before actually importing the contrib, check if the thread
+					// actually exist.
+					// the thread or forum might have been flagged as deleted and
+					// thus not been imported
+					discoursepartService.findOneByDataSource(String.valueOf(curPost.getThread_id()),CourseraSourceMapping.ID_STR_TO_DISCOURSEPART_THREAD, dataSetName)
+					.ifPresent(thread -> {
+
+								Date startTime = new Date(curPost.getPost_time() * 1000L);
+
+								// add content entity to database
+								log.trace("Create Content entity");
+								User curUser = userService.createOrGetUser(discourse, String.valueOf(curPost.getUser_id()));
+								Content curContent = contentService.createContent();
+								curContent.setText(curPost.getPost_text());
+								curContent.setAuthor(curUser);
+								curContent.setStartTime(startTime);
+								dataSourceService.addSource(curContent,
+										new DataSourceInstance(String.valueOf(curPost.getId()),
+												CourseraSourceMapping.ID_STR_TO_CONTENT, DataSourceTypes.COURSERA,
+												dataSetName));
+
+								// add post contribution entity to database
+								log.trace("Create Contribution entity");
+								ContributionTypes mappedType = null;
+								if (curPost.getOriginal() == 0)
+									mappedType = ContributionTypes.POST;
+								else
+									mappedType = ContributionTypes.THREAD_STARTER;
+
+								Contribution curContribution = contributionService.createTypedContribution(mappedType);
+								curContribution.setStartTime(startTime);
+								curContribution.setFirstRevision(curContent);
+								curContribution.setCurrentRevision(curContent);
+								if (curPost.getVotes() > 0)
+									curContribution.setUpvotes((int) curPost.getVotes());
+								else
+									curContribution.setDownvotes((int) Math.abs(curPost.getVotes()));
+
+								dataSourceService.addSource(curContribution,
+										new DataSourceInstance(String.valueOf(curPost.getId()),
+												CourseraSourceMapping.ID_STR_TO_CONTRIBUTION, DataSourceTypes.COURSERA,
+												dataSetName));
+
+								discoursepartService.addContributionToDiscoursePart(curContribution, thread);
+							});
+				}
 
-							// add post contribution entity to database
-							log.trace("Create Contribution entity");
-							ContributionTypes mappedType = null;
-							if (curPost.getOriginal() == 0)
-								mappedType = ContributionTypes.POST;
-							else
-								mappedType = ContributionTypes.THREAD_STARTER;
-
-							Contribution curContribution = contributionService.createTypedContribution(mappedType);
-							curContribution.setStartTime(startTime);
-							curContribution.setFirstRevision(curContent);
-							curContribution.setCurrentRevision(curContent);
-							if (curPost.getVotes() > 0)
-								curContribution.setUpvotes((int) curPost.getVotes());
-							else
-								curContribution.setDownvotes((int) Math.abs(curPost.getVotes()));
-
-							dataSourceService.addSource(curContribution,
-									new DataSourceInstance(String.valueOf(curPost.getId()),
-											CourseraSourceMapping.ID_STR_TO_CONTRIBUTION, DataSourceTypes.COURSERA,
-											dataSetName));
-
-							discoursepartService.addContributionToDiscoursePart(curContribution, thread);
-						});
 			}
-
 		}
 	}
 
@@ -283,63 +290,65 @@ public class CourseraConverterService {
 
 		log.info("Importing comment data");
 
-		for (int commentid : database.getIds("comment")) {
-			Comment curComment = (Comment) database.getDbEntity("comment", (long) commentid);
+		try (JdbcRowReader<Comment> comments = database.readComments()) {
+			while (comments.hasNext()) {
+				Comment curComment = comments.next();
 
-			//check if contribution for this comment already exists
-			Optional<Contribution> existingComment = contributionService.findOneByDataSource(
-					String.valueOf(curComment.getId()), CourseraSourceMapping.ID_STR_TO_CONTRIBUTION_COMMENT,dataSetName);
+				//check if contribution for this comment already exists
+				Optional<Contribution> existingComment = contributionService.findOneByDataSource(
+						String.valueOf(curComment.getId()), CourseraSourceMapping.ID_STR_TO_CONTRIBUTION_COMMENT,dataSetName);
 			
-			// create comment if it doesn't exist yet ...
-			if (!existingComment.isPresent()) {
+				// create comment if it doesn't exist yet ...
+				if (!existingComment.isPresent()) {
 				
-				//...but only if its thread exists
-				discoursepartService.findOneByDataSource(String.valueOf(curComment.getThread_id()),CourseraSourceMapping.ID_STR_TO_DISCOURSEPART_THREAD, dataSetName).
-				ifPresent(thread -> {
-
-					//...and only if its parent post exists
-					contributionService
-						.findOneByDataSource(String.valueOf(curComment.getPost_id()),CourseraSourceMapping.ID_STR_TO_CONTRIBUTION, dataSetName)
-						.ifPresent(post -> {
-
-										Date startTime = new Date(curComment.getPost_time() * 1000L);
-
-										log.trace("Create Content entity");
-										Content curContent = contentService.createContent();
-										curContent.setText(curComment.getText());
-										User curUser = userService.createOrGetUser(discourse,
-												String.valueOf(curComment.getUser_id()));
-										curContent.setAuthor(curUser);
-										curContent.setStartTime(startTime);
-										dataSourceService.addSource(curContent,
-												new DataSourceInstance(String.valueOf(curComment.getId()),
-														CourseraSourceMapping.ID_STR_TO_CONTENT_COMMENT,
-														DataSourceTypes.COURSERA, dataSetName));
-
-										// add contribution entity to database
-										log.trace("Create Contribution entity");
-										Contribution curContribution = contributionService
-												.createTypedContribution(ContributionTypes.POST);
-										curContribution.setCurrentRevision(curContent);
-										curContribution.setFirstRevision(curContent);
-										curContribution.setStartTime(startTime);
-										if (curComment.getVotes() > 0)
-											curContribution.setUpvotes((int) curComment.getVotes());
-										else
-											curContribution.setDownvotes((int) Math.abs(curComment.getVotes()));
-
-										dataSourceService.addSource(curContribution,
-												new DataSourceInstance(String.valueOf(curComment.getId()),
-														CourseraSourceMapping.ID_STR_TO_CONTRIBUTION_COMMENT,
-														DataSourceTypes.COURSERA, dataSetName));
-
-										discoursepartService.addContributionToDiscoursePart(curContribution, thread);
-										contributionService.createDiscourseRelation(post, curContribution,
-												DiscourseRelationTypes.COMMENT);
-									});
-						});
-			}
+					//...but only if its thread exists
+					discoursepartService.findOneByDataSource(String.valueOf(curComment.getThread_id()),CourseraSourceMapping.ID_STR_TO_DISCOURSEPART_THREAD, dataSetName).
+					ifPresent(thread -> {
+
+						//...and only if its parent post exists
+						contributionService
+							.findOneByDataSource(String.valueOf(curComment.getPost_id()),CourseraSourceMapping.ID_STR_TO_CONTRIBUTION, dataSetName)
+							.ifPresent(post -> {
+
+											Date startTime = new Date(curComment.getPost_time() * 1000L);
+
+											log.trace("Create Content entity");
+											Content curContent = contentService.createContent();
+											curContent.setText(curComment.getText());
+											User curUser = userService.createOrGetUser(discourse,
+													String.valueOf(curComment.getUser_id()));
+											curContent.setAuthor(curUser);
+											curContent.setStartTime(startTime);
+											dataSourceService.addSource(curContent,
+													new DataSourceInstance(String.valueOf(curComment.getId()),
+															CourseraSourceMapping.ID_STR_TO_CONTENT_COMMENT,
+															DataSourceTypes.COURSERA, dataSetName));
+
+											// add contribution entity to database
+											log.trace("Create Contribution entity");
+											Contribution curContribution = contributionService
+													.createTypedContribution(ContributionTypes.POST);
+											curContribution.setCurrentRevision(curContent);
+											curContribution.setFirstRevision(curContent);
+											curContribution.setStartTime(startTime);
+											if (curComment.getVotes() > 0)
+												curContribution.setUpvotes((int) curComment.getVotes());
+											else
+												curContribution.setDownvotes((int) Math.abs(curComment.getVotes()));
+
+											dataSourceService.addSource(curContribution,
+													new DataSourceInstance(String.valueOf(curComment.getId()),
+															CourseraSourceMapping.ID_STR_TO_CONTRIBUTION_COMMENT,
+															DataSourceTypes.COURSERA, dataSetName));
+
+											discoursepartService.addContributionToDiscoursePart(curContribution, thread);
+											contributionService.createDiscourseRelation(post, curContribution,
+													DiscourseRelationTypes.COMMENT);
+										});
+							});
+				}
 
+			}
 		}
 	}
 
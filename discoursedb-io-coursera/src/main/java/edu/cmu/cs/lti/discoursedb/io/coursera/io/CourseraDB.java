@@ -22,9 +22,10 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.io.coursera.io;
 
+import java.beans.PropertyVetoException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -33,7 +34,11 @@ import java.util.stream.Collectors;
 
 import org.jooq.lambda.SQL;
 import org.jooq.lambda.Unchecked;
+import org.springframework.jdbc.core.RowMapper;
 
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+import edu.cmu.cs.lti.discoursedb.core.service.ingest.JdbcRowReader;
 import edu.cmu.cs.lti.discoursedb.io.coursera.model.Comment;
 import edu.cmu.cs.lti.discoursedb.io.coursera.model.Forum;
 import edu.cmu.cs.lti.discoursedb.io.coursera.model.Post;
@@ -41,20 +46,24 @@ import edu.cmu.cs.lti.discoursedb.io.coursera.model.Thread;
 import edu.cmu.cs.lti.discoursedb.io.coursera.model.User;
 
 /**
- * Establishes a JDBC database connection to a coursera database and provides
- * methods to access Coursera data using the POJOs in the model package.
+ * Establishes a pooled JDBC connection to a coursera database and provides
+ * methods to access Coursera data using the POJOs in the model package.<br/>
+ * 
+ * The read methods stream all entities of a table in a single query and should be preferred 
+ * over querying the entities one id at a time with getIds() and getDbEntity().
+ * The database access object has to be closed after use in order to release the connection pool.
  * 
  * @author Haitian Gong
  *
  */
 
-public class CourseraDB {
+public class CourseraDB implements AutoCloseable {
 	
-	private Connection con = null;
-	private String host;
-	private String db;
-	private String user;
-	private String pwd;
+	private static final int FETCH_SIZE = 1000;
+	private static final int QUEUE_CAPACITY = 1000;
+	private static final int MAX_POOL_SIZE = 5;
+
+	private final ComboPooledDataSource dataSource;
 	private boolean importDeleted;
 	/**
 	 * Creates a databse access object for accessing coursera data from a MySQL database.
@@ -66,11 +75,7 @@ public class CourseraDB {
 	 * @param pwd user password
 	 */
 	public CourseraDB(String host, String db, String usr, String pwd) {
-		this.host = host;
-		this.db = db;
-		this.user = usr;
-		this.pwd = pwd;
-		this.importDeleted = false;
+		this(host, db, usr, pwd, false);
 	}
 
 	/**
@@ -83,11 +88,68 @@ public class CourseraDB {
 	 * @param importDeleted defines whether to import entities marked as deleted in the coursera database (default: false)
 	 */
 	public CourseraDB(String host, String db, String usr, String pwd, boolean importDeleted) {
-		this.host = host;
-		this.db = db;
-		this.user = usr;
-		this.pwd = pwd;
 		this.importDeleted = importDeleted;
+		this.dataSource = new ComboPooledDataSource();
+		try {
+			dataSource.setDriverClass("com.mysql.jdbc.Driver");
+		} catch (PropertyVetoException e) {
+			throw new IllegalStateException("Could not load MySQL driver", e);
+		}
+		//useCursorFetch is required to stream result sets in chunks of FETCH_SIZE rows
+		dataSource.setJdbcUrl("jdbc:mysql://" + host + ":" + 3306 + "/" + db+ "?useUnicode=true&characterEncoding=UTF-8&characterSetResults=UTF-8&useSSL=false&useCursorFetch=true");
+		dataSource.setUser(usr);
+		dataSource.setPassword(pwd);
+		dataSource.setMinPoolSize(1);
+		dataSource.setMaxPoolSize(MAX_POOL_SIZE);
+	}
+
+	/**
+	 * Streams all forums in the coursera database.
+	 * 
+	 * @return a reader that has to be closed if it is not read until the end
+	 */
+	public JdbcRowReader<Forum> readForums() {
+		return read("SELECT * from "+TableConstants.FORUM+(importDeleted?"":" where deleted = 0")+" order by id", CourseraDB::mapForum);
+	}
+
+	/**
+	 * Streams all threads in the coursera database.
+	 * 
+	 * @return a reader that has to be closed if it is not read until the end
+	 */
+	public JdbcRowReader<Thread> readThreads() {
+		return read("SELECT * from "+TableConstants.THREAD+(importDeleted?"":" where deleted = 0")+" order by id", CourseraDB::mapThread);
+	}
+
+	/**
+	 * Streams all posts in the coursera database.
+	 * 
+	 * @return a reader that has to be closed if it is not read until the end
+	 */
+	public JdbcRowReader<Post> readPosts() {
+		return read("SELECT * from "+TableConstants.POST+(importDeleted?"":" where deleted = 0")+" order by id", CourseraDB::mapPost);
+	}
+
+	/**
+	 * Streams all comments in the coursera database.
+	 * 
+	 * @return a reader that has to be closed if it is not read until the end
+	 */
+	public JdbcRowReader<Comment> readComments() {
+		return read("SELECT * from "+TableConstants.COMMENTS+(importDeleted?"":" where deleted = 0")+" order by id", CourseraDB::mapComment);
+	}
+
+	/**
+	 * Streams all users in the coursera database.
+	 * 
+	 * @return a reader that has to be closed if it is not read until the end
+	 */
+	public JdbcRowReader<User> readUsers() {
+		return read("SELECT * from "+TableConstants.USER+" order by id", CourseraDB::mapUser);
+	}
+
+	private <T> JdbcRowReader<T> read(String sql, RowMapper<T> mapper) {
+		return new JdbcRowReader<>(dataSource, sql, null, mapper, FETCH_SIZE, QUEUE_CAPACITY);
 	}
 
 	/**
@@ -103,7 +165,7 @@ public class CourseraDB {
 	 */
 	
 	public List<Integer> getIds(String table) throws SQLException {
-		ArrayList<Integer> ids = new ArrayList<Integer>();
+		List<Integer> ids = new ArrayList<Integer>();
 		String sql = "";
 		switch(table) {
 		case "forum": 
@@ -123,8 +185,8 @@ public class CourseraDB {
 			break;
 		default: System.out.println("wrong");
 		}
-		try (PreparedStatement stmt = getConnection().prepareStatement(sql)) {
-			ids = (ArrayList<Integer>) SQL.seq(stmt, Unchecked.function(rs -> rs.getInt("id"))).collect(Collectors.toList());
+		try (Connection c = getConnection(); PreparedStatement stmt = c.prepareStatement(sql)) {
+			ids = SQL.seq(stmt, Unchecked.function(rs -> rs.getInt("id"))).collect(Collectors.toList());
 		}
 		return ids;
 	}
@@ -143,127 +205,100 @@ public class CourseraDB {
 	 */
 	
 	public Object getDbEntity(String table, long id) throws SQLException {
-		Object o = null;
-		if(table.equals("forum")) {
-			Optional<Forum> forumEntity = null;
-			try (Connection c = getConnection()) {
-				String sql = "SELECT * from "+TableConstants.FORUM+" where id=?";
-				try (PreparedStatement stmt = c.prepareStatement(sql)) {
-					stmt.setLong(1, id); 
-					forumEntity = SQL.seq(stmt, Unchecked.function(rs -> new Forum(
-							rs.getLong("id"),
-							rs.getLong("parent_id"),
-							rs.getString("name"),
-							rs.getLong("open_time")
-			            ))).findFirst();
-				}
-			}
-			if(forumEntity.isPresent()) 
-				return forumEntity.get();
-			else
-				return o;
-		}
-		else if(table.equals("post")) {
-			Optional<Post> postEntity = null;
-			try (Connection c = getConnection()) {
-				String sql = "SELECT * from "+TableConstants.POST+" where id=?";
-				try (PreparedStatement stmt = c.prepareStatement(sql)) {
-					stmt.setLong(1, id); 
-					postEntity = SQL.seq(stmt, Unchecked.function(rs -> new Post(
-							rs.getLong("id"),
-							rs.getLong("thread_id"),
-							rs.getLong("user_id"),
-							rs.getLong("post_time"),
-							rs.getInt("deleted"),
-							rs.getLong("votes"),
-							rs.getString("post_text"),
-							rs.getString("user_agent"),
-							rs.getString("text_type"),
-							rs.getInt("original")
-			            ))).findFirst();
-				}
-			}
-			if(postEntity.isPresent()) 
-				return postEntity.get();
-			else
-				return o;
-		}
-		else if(table.equals("thread")) {
-			Optional<Thread> threadEntity = null;
-			try (Connection c = getConnection()) {
-				String sql = "SELECT * from "+TableConstants.THREAD+" where id=?";
-				try (PreparedStatement stmt = c.prepareStatement(sql)) {
-					stmt.setLong(1, id); 
-					threadEntity = SQL.seq(stmt, Unchecked.function(rs -> new Thread(
-							rs.getLong("id"),
-							rs.getLong("forum_id"),
-							rs.getLong("user_id"),
-							rs.getLong("posted_time"),
-							rs.getLong("last_updated_time"),
-							rs.getLong("last_updated_user"),
-							rs.getInt("deleted"),
-							rs.getLong("votes"),
-							rs.getString("title")
-			            ))).findFirst();
-				}
-			}
-			if(threadEntity.isPresent()) 
-				return threadEntity.get();
-			else
-				return o;
-		}
-		else if(table.equals("comment")) {
-			Optional<Comment> commentEntity = null;
-			try (Connection c = getConnection()) {
-				String sql = "SELECT * from "+TableConstants.COMMENTS+" where id=?";
-				try (PreparedStatement stmt = c.prepareStatement(sql)) {
-					stmt.setLong(1, id); 
-					commentEntity = SQL.seq(stmt, Unchecked.function(rs -> new Comment(
-							rs.getLong("id"),
-							rs.getLong("thread_id"),
-							rs.getLong("post_id"),
-							rs.getLong("user_id"),
-							rs.getLong("votes"),
-							rs.getString("comment_text"),
-							rs.getInt("deleted"),
-							rs.getLong("post_time")
-			            ))).findFirst();
-				}
-			}
-			if(commentEntity.isPresent()) 
-				return commentEntity.get();
-			else
-				return o;
-		}
-		else if(table.equals("user")) {
-			Optional<User> userEntity = null;
-			try (Connection c = getConnection()) {
-				String sql = "SELECT * from "+TableConstants.USER+" where id=?";
-				try (PreparedStatement stmt = c.prepareStatement(sql)) {
-					stmt.setLong(1, id); 
-					userEntity = SQL.seq(stmt, Unchecked.function(rs -> new User(
-							rs.getLong("coursera_id"),
-							rs.getString("session_user_id"),
-							rs.getString("forum_user_id")
-			            ))).findFirst();
-				}
-			}
-			if(userEntity.isPresent()) 
-				return userEntity.get();
-			else
-				return o;
+		switch(table) {
+		case "forum":
+			return getDbEntity("SELECT * from "+TableConstants.FORUM+" where id=?", id, CourseraDB::mapForum);
+		case "post":
+			return getDbEntity("SELECT * from "+TableConstants.POST+" where id=?", id, CourseraDB::mapPost);
+		case "thread":
+			return getDbEntity("SELECT * from "+TableConstants.THREAD+" where id=?", id, CourseraDB::mapThread);
+		case "comment":
+			return getDbEntity("SELECT * from "+TableConstants.COMMENTS+" where id=?", id, CourseraDB::mapComment);
+		case "user":
+			return getDbEntity("SELECT * from "+TableConstants.USER+" where id=?", id, CourseraDB::mapUser);
+		default:
+			return null;
 		}
-		else {
-			return o = null;
+	}
+
+	private <T> T getDbEntity(String sql, long id, RowMapper<T> mapper) throws SQLException {
+		Optional<T> entity = null;
+		try (Connection c = getConnection(); PreparedStatement stmt = c.prepareStatement(sql)) {
+			stmt.setLong(1, id); 
+			entity = SQL.seq(stmt, Unchecked.function(rs -> mapper.mapRow(rs, 0))).findFirst();
 		}
+		return entity.orElse(null);
+	}
+
+	private static Forum mapForum(ResultSet rs, int rowNum) throws SQLException {
+		return new Forum(
+				rs.getLong("id"),
+				rs.getLong("parent_id"),
+				rs.getString("name"),
+				rs.getLong("open_time")
+				);
+	}
+
+	private static Post mapPost(ResultSet rs, int rowNum) throws SQLException {
+		return new Post(
+				rs.getLong("id"),
+				rs.getLong("thread_id"),
+				rs.getLong("user_id"),
+				rs.getLong("post_time"),
+				rs.getInt("deleted"),
+				rs.getLong("votes"),
+				rs.getString("post_text"),
+				rs.getString("user_agent"),
+				rs.getString("text_type"),
+				rs.getInt("original")
+				);
+	}
+
+	private static Thread mapThread(ResultSet rs, int rowNum) throws SQLException {
+		return new Thread(
+				rs.getLong("id"),
+				rs.getLong("forum_id"),
+				rs.getLong("user_id"),
+				rs.getLong("posted_time"),
+				rs.getLong("last_updated_time"),
+				rs.getLong("last_updated_user"),
+				rs.getInt("deleted"),
+				rs.getLong("votes"),
+				rs.getString("title")
+				);
+	}
+
+	private static Comment mapComment(ResultSet rs, int rowNum) throws SQLException {
+		return new Comment(
+				rs.getLong("id"),
+				rs.getLong("thread_id"),
+				rs.getLong("post_id"),
+				rs.getLong("user_id"),
+				rs.getLong("votes"),
+				rs.getString("comment_text"),
+				rs.getInt("deleted"),
+				rs.getLong("post_time")
+				);
+	}
+
+	private static User mapUser(ResultSet rs, int rowNum) throws SQLException {
+		return new User(
+				rs.getLong("coursera_id"),
+				rs.getString("session_user_id"),
+				rs.getString("forum_user_id")
+				);
 	}
 	
 	private Connection getConnection() throws SQLException {
-		if (con == null || con.isClosed()) {
-			return DriverManager.getConnection("jdbc:mysql://" + this.host + ":" + 3306 + "/" + this.db+ "?useUnicode=true&characterEncoding=UTF-8&characterSetResults=UTF-8&useSSL=false",this.user,this.pwd);
-		} else {
-			return con;
-		}
+		return dataSource.getConnection();
+	}
+
+	/**
+	 * Closes all pooled connections to the coursera database.
+	 */
+	@Override
+	public void close() {
+		dataSource.close();
 	}
 
 }
@@ -24,8 +24,10 @@ package edu.cmu.cs.lti.discoursedb.io.edx.forum.converter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.stream.StreamSupport;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -40,6 +42,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 
+import edu.cmu.cs.lti.discoursedb.core.service.ingest.BulkImportService;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
 import edu.cmu.cs.lti.discoursedb.io.edx.forum.model.Post;
 import edu.cmu.cs.lti.discoursedb.io.edx.forum.model.UserInfo;
@@ -57,9 +60,16 @@ import edu.cmu.cs.lti.discoursedb.io.edx.forum.model.UserInfo;
  * The conversion is split into three phases.
  * Phase 1 imports all of the data except for the DiscoursRelations.
  * These relations are created between entities and require the entities to be present in the database.
- * That is why they are created in a second pass (Phase2)
+ * That is why they are queued and created in a final sweep (Phase2) that resolves the edX ids of the 
+ * related posts with an in-memory map of the contributions created in Phase 1.
  * Phase 3 adds personal information about the user to the database that comes from a different file. 
  * 
+ * Phases 1 and 2 run through the {@link BulkImportService}, i.e. the posts are committed in batches of 
+ * <code>import.batchSize</code> posts (default: 1). Larger imports should set a larger batch size and, 
+ * for JDBC batching on a dedicated MySQL database, <code>hibernate.id.pooled</code>. The posts are partitioned by thread, so with <code>import.workers</code> 
+ * greater than 1, several threads are mapped concurrently. The entities that are shared across threads (course, forum and users) 
+ * are created up front on the reading thread by {@link EdxForumConverterService#mapSharedEntities(Post, String)}.
+ * 
  * @author Oliver Ferschke
  *
  */
@@ -71,6 +81,7 @@ public class EdxForumConverter implements CommandLineRunner {
 
 	@Autowired private DataSourceService dataSourceService;
 	@Autowired private EdxForumConverterService converterService;
+	@Autowired private BulkImportService bulkImportService;
 
 	@Override
 	public void run(String... args) throws Exception {
@@ -105,28 +116,32 @@ public class EdxForumConverter implements CommandLineRunner {
 		/*
 		 * *** Start processing dumps. ***
 		 * 
-		 * We need to read the forum dump twice. 
-		 * First to create entities in the database and then to create 
-		 * (Discourse)-relationships between the entities.
+		 * The forum dump is only read once. 
+		 * The ids of the created contributions are kept in memory, so that the 
+		 * (Discourse)-relationships between the entities can be created afterwards
+		 * without reading the dump a second time or looking up the posts in the database.
 		 */
 		
-		//Phase 1: read through input file once and map all entities
-
+		//Phase 1: read through input file once, map all entities and queue their relations
 		logger.info("Phase 1: Mapping forum posts and related entities to DiscourseDB");
+		PostIdMap contributionIds = new PostIdMap();
+		List<PendingRelations> pendingRelations = Collections.synchronizedList(new ArrayList<>());
 		try(InputStream in = new FileInputStream(forumDumpFile)) {
 			Iterator<Post> pit =new ObjectMapper().readValues(new JsonFactory().createParser(in), Post.class);	
-			Iterable<Post> iterable = () -> pit;
-			StreamSupport.stream(iterable.spliterator(), false).forEach(p->converterService.mapEntities(p, dataSetName));		
+			bulkImportService.importParallel(pit, EdxForumConverter::threadOf, p->converterService.mapSharedEntities(p, dataSetName), p->{
+				Long contributionId = converterService.mapEntities(p, dataSetName);
+				contributionIds.put(p.getId(), contributionId);
+				if(p.getCommentThreadId()!=null||p.getParentId()!=null){
+					pendingRelations.add(new PendingRelations(contributionId, p, contributionIds));
+				}
+			});
 		}	
 		
-		
-		//Phase 2: read through input file a second time and map all entity relationships
-		logger.info("Phase 2: Mapping DiscourseRelations");
-		try(InputStream in = new FileInputStream(forumDumpFile)) {
-				Iterator<Post> pit =new ObjectMapper().readValues(new JsonFactory().createParser(in), Post.class);	
-				Iterable<Post> iterable = () -> pit;
-				StreamSupport.stream(iterable.spliterator(), false).forEach(p->converterService.mapRelations(p, dataSetName));		
-		}	
+		//Phase 2: resolve the queued references and map all entity relationships
+		logger.info("Phase 2: Mapping DiscourseRelations for "+pendingRelations.size()+" posts");
+		pendingRelations.forEach(r->r.resolve(contributionIds));
+		bulkImportService.importParallel(pendingRelations.iterator(), r->r.threadStarterId!=null?r.threadStarterId:r.contributionId, 
+				r->converterService.mapRelations(r.contributionId, r.threadStarterId, r.parentId, r.courseId));
 	
 		//Optional Phase 3: read user mapping file and add map user info
 		if(userMappingFile!=null){			
@@ -144,6 +159,46 @@ public class EdxForumConverter implements CommandLineRunner {
 		logger.info("All done.");
 	}
 
+	/**
+	 * @return the edX id of the thread a post belongs to. Thread starters are their own thread.
+	 */
+	private static String threadOf(Post p){
+		return p.getCommentThreadId()!=null?p.getCommentThreadId():p.getId();
+	}
+
+	/**
+	 * The thread and parent references of a post. 
+	 * References that can already be resolved when the post is mapped are stored as contribution ids right away,
+	 * the remaining ones are kept as edX ids until all posts have been mapped.
+	 */
+	private static class PendingRelations {
+		private final Long contributionId;
+		private final String courseId;
+		private String threadRef;
+		private String parentRef;
+		private Long threadStarterId;
+		private Long parentId;
+
+		private PendingRelations(Long contributionId, Post p, PostIdMap contributionIds) {
+			this.contributionId = contributionId;
+			this.courseId = p.getCourseId();
+			this.threadRef = p.getCommentThreadId();
+			this.parentRef = p.getParentId();
+			resolve(contributionIds);
+		}
+
+		private void resolve(PostIdMap contributionIds) {
+			if (threadRef != null && (threadStarterId = contributionIds.get(threadRef)) != null) {
+				threadRef = null;
+			}
+			if (parentRef != null && (parentId = contributionIds.get(parentRef)) != null) {
+				parentRef = null;
+			}
+			if (threadRef != null || parentRef != null) {
+				logger.trace("Unresolved references for contribution " + contributionId);
+			}
+		}
+	}
 
 
 }
\ No newline at end of file
@@ -21,6 +21,8 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.io.edx.forum.converter;
 
+import java.util.Optional;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
@@ -66,19 +68,43 @@ public class EdxForumConverterService{
 	private final @NonNull ContributionService contributionService;
 	private final @NonNull DiscoursePartService discoursePartService;
 
+	/**
+	 * Creates the entities of a post that are shared with posts of other threads, i.e. the discourse of the course, 
+	 * the forum DiscoursePart and the author. When posts are imported in parallel, this method is called 
+	 * on a single thread and committed before {@link #mapEntities(Post, String)} is called for the post, 
+	 * so concurrent calls of mapEntities only look up these entities.
+	 * 
+	 * @param p the post whose shared entities should be created
+	 * @param dataSetName the name of the dataset the post was extracted from
+	 */
+	public void mapSharedEntities(Post p, String dataSetName) {
+		Assert.notNull(p,"Cannot map post. Post data was null.");
+		Assert.hasText(dataSetName,"Cannot map post. DataSetName not specified.");
+
+		String courseid = p.getCourseId();
+		Discourse curDiscourse = discourseService.createOrGetDiscourse(courseid);
+		discoursePartService.createOrGetTypedDiscoursePart(curDiscourse,courseid+"_FORUM",DiscoursePartTypes.FORUM);
+		User curUser  = userService.createOrGetUser(curDiscourse,p.getAuthorUsername());
+		dataSourceService.addSource(curUser, new DataSourceInstance(p.getAuthorId(),EdxSourceMapping.AUTHOR_ID_TO_USER,DataSourceTypes.EDX, dataSetName));
+	}
+
 	/**
 	 * Maps a post to DiscourseDB entities.
+	 * The entities that are shared with other posts have to be created with {@link #mapSharedEntities(Post, String)} before.
+	 * DiscourseRelations are not created here, since the posts they point to might not have been mapped yet.
 	 * 
 	 * @param p the post object to map to DiscourseDB
 	 * @param dataSetName the name of the dataset the post was extracted from
+	 * @return the primary key of the contribution the post has been mapped to
 	 */
-	public void mapEntities(Post p, String dataSetName) {				
+	public Long mapEntities(Post p, String dataSetName) {				
 		Assert.notNull(p,"Cannot map relations for post. Post data was null.");
 		Assert.hasText(dataSetName,"Cannot map post. DataSetName not specified.");
 
-		if(contributionService.findOneByDataSource(p.getId(),EdxSourceMapping.POST_ID_TO_CONTRIBUTION,dataSetName).isPresent()){
+		Optional<Contribution> existingContribution = contributionService.findOneByDataSource(p.getId(),EdxSourceMapping.POST_ID_TO_CONTRIBUTION,dataSetName);
+		if(existingContribution.isPresent()){
 			log.warn("Post " + p.getId()+" already in database. Skipping Post");
-			return;
+			return existingContribution.get().getId();
 		}
 	
 		log.trace("Mapping post " + p.getId());
@@ -93,7 +119,6 @@ public class EdxForumConverterService{
 		
 		log.trace("Init User entity");
 		User curUser  = userService.createOrGetUser(curDiscourse,p.getAuthorUsername());
-		dataSourceService.addSource(curUser, new DataSourceInstance(p.getAuthorId(),EdxSourceMapping.AUTHOR_ID_TO_USER,DataSourceTypes.EDX, dataSetName));
 
 		ContributionTypes mappedType = p.getType().equals(EDX_COMMENT_TYPE)?ContributionTypes.POST:ContributionTypes.THREAD_STARTER;
 	
@@ -112,7 +137,7 @@ public class EdxForumConverterService{
 		dataSourceService.addSource(curContribution, new DataSourceInstance(p.getId(),EdxSourceMapping.POST_ID_TO_CONTRIBUTION,DataSourceTypes.EDX,dataSetName));
 
 		//If contribution is a ThreadStarter, add it to a new Thread
-		//Contributions that are not ThreadStartes will be added to their respective Thread in Phase2 - in the mapRelations method
+		//Contributions that are not ThreadStartes will be added to their respective Thread in the mapRelations method
 		if(mappedType == ContributionTypes.THREAD_STARTER){
 			DiscoursePart curThread = discoursePartService.createOrGetTypedDiscoursePart(curDiscourse, THREAD_NAME_PREFIX+curContribution.getId(), DiscoursePartTypes.THREAD);
 			discoursePartService.addContributionToDiscoursePart(curContribution, curThread);
@@ -122,47 +147,40 @@ public class EdxForumConverterService{
 		discoursePartService.addContributionToDiscoursePart(curContribution, curDiscoursePart);
 				
 		log.trace("Post mapping completed.");
+		return curContribution.getId();
 	}
 	
 	
 	
 	/**
-	 * Creates DiscourseRelations between the current post and existing posts already imported in an earlier Phase
+	 * Creates the DiscourseRelations of a post that has already been mapped by {@link #mapEntities(Post, String)}
+	 * and adds the post to its thread.
 	 * 
-	 * @param p
-	 *            the post object to map to DiscourseDB
+	 * @param contributionId the primary key of the contribution the post has been mapped to
+	 * @param threadStarterId the primary key of the thread starter of the post or null if the post is a thread starter itself
+	 * @param parentId the primary key of the post the current post replies to or null if the post is no reply
+	 * @param courseId the edX id of the course the post belongs to
 	 */
-	public void mapRelations(Post p, String dataSetName) {		
-		Assert.notNull(p,"Cannot map relations for post. Post data was null.");
-		Assert.hasText(dataSetName,"Cannot map post. DataSetName not specified.");
+	public void mapRelations(Long contributionId, Long threadStarterId, Long parentId, String courseId) {		
+		Assert.notNull(contributionId,"Cannot map relations for post. Contribution id was null.");
+		Assert.hasText(courseId,"Cannot map relations for post. Course id not specified.");
 
-		log.trace("Mapping relations for post " + p.getId());
-		
-		Discourse curDiscourse = discourseService.createOrGetDiscourse(p.getCourseId());
-	
-		//check if a contribution for the given Post already exists in DiscourseDB (imported in Phase1)
-		contributionService.findOneByDataSource(p.getId(),EdxSourceMapping.POST_ID_TO_CONTRIBUTION,dataSetName).ifPresent(
-				curContribution -> {
-					//If current contribution is not a thread starter then create a DiscourseRelation of DESCENDANT type that connects it with the thread starter 
-					if(p.getCommentThreadId()!=null){
-						contributionService.findOneByDataSource(p.getCommentThreadId(),EdxSourceMapping.POST_ID_TO_CONTRIBUTION,dataSetName).ifPresent(
-								threadStarter -> {
-									//add DESCENDANT RELATION
-									contributionService.createDiscourseRelation(threadStarter, curContribution, DiscourseRelationTypes.DESCENDANT);
-									
-									//add contribution to THREAD
-									DiscoursePart curThread = discoursePartService.createOrGetTypedDiscoursePart(curDiscourse, THREAD_NAME_PREFIX+threadStarter.getId(), DiscoursePartTypes.THREAD);
-									discoursePartService.addContributionToDiscoursePart(curContribution, curThread);
-								});						
-					}
-
-					//If post is a reply to another post, then create a DiscourseRelation that connects it with its immediate parent			
-					if(p.getParentId()!=null){
-						contributionService.findOneByDataSource(p.getParentId(),EdxSourceMapping.POST_ID_TO_CONTRIBUTION,dataSetName).ifPresent(
-								parent -> contributionService.createDiscourseRelation(parent , curContribution, DiscourseRelationTypes.REPLY));
-					}
-				}
-		);
+		log.trace("Mapping relations for contribution " + contributionId);
+
+		//If current contribution is not a thread starter then create a DiscourseRelation of DESCENDANT type that connects it with the thread starter 
+		if(threadStarterId!=null){
+			contributionService.createDiscourseRelation(threadStarterId, contributionId, DiscourseRelationTypes.DESCENDANT);
+			
+			//add contribution to THREAD
+			Discourse curDiscourse = discourseService.createOrGetDiscourse(courseId);
+			DiscoursePart curThread = discoursePartService.createOrGetTypedDiscoursePart(curDiscourse, THREAD_NAME_PREFIX+threadStarterId, DiscoursePartTypes.THREAD);
+			contributionService.findOne(contributionId).ifPresent(curContribution -> discoursePartService.addContributionToDiscoursePart(curContribution, curThread));
+		}
+
+		//If post is a reply to another post, then create a DiscourseRelation that connects it with its immediate parent			
+		if(parentId!=null){
+			contributionService.createDiscourseRelation(parentId, contributionId, DiscourseRelationTypes.REPLY);
+		}
 		
 		log.trace("Post relation mapping completed.");
 	}
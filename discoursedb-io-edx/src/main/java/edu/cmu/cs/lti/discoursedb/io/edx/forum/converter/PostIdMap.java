@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.io.edx.forum.converter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact map from edX post ids to the primary keys of the contributions they have been mapped to.<br/>
+ * 
+ * edX post ids are MongoDB ObjectIds, i.e. 24 hex digits. These are stored as a long and an int in 
+ * open-addressing arrays, which needs about a tenth of the memory of a HashMap&lt;String,Long&gt;.
+ * Ids in any other format are kept in a regular HashMap.
+ * The map is thread-safe, so it can be filled by the workers of a parallel import.
+ * 
+ * @author Oliver Ferschke
+ */
+class PostIdMap {
+
+	private static final int OBJECT_ID_LENGTH = 24;
+	private static final float MAX_LOAD = 0.7f;
+
+	private long[] high = new long[1024];
+	private int[] low = new int[1024];
+	private long[] values = new long[1024]; //0 marks an empty slot, contribution ids are always positive
+	private int objectIdCount = 0;
+	private final Map<String, Long> otherIds = new HashMap<>();
+
+	/**
+	 * Maps the given post id to the given contribution id. 
+	 * 
+	 * @param postId the edX id of the post
+	 * @param contributionId the primary key of the contribution
+	 */
+	public synchronized void put(String postId, long contributionId) {
+		if (!isObjectId(postId)) {
+			otherIds.put(postId, contributionId);
+			return;
+		}
+		if (objectIdCount + 1 > values.length * MAX_LOAD) {
+			grow();
+		}
+		if (insert(parseHex(postId, 0, 16), (int) parseHex(postId, 16, 24), contributionId)) {
+			objectIdCount++;
+		}
+	}
+
+	/**
+	 * @param postId the edX id of the post
+	 * @return the primary key of the contribution the post has been mapped to or null if the post is unknown
+	 */
+	public synchronized Long get(String postId) {
+		if (!isObjectId(postId)) {
+			return otherIds.get(postId);
+		}
+		long h = parseHex(postId, 0, 16);
+		int l = (int) parseHex(postId, 16, 24);
+		for (int i = slot(h, l, values.length); values[i] != 0; i = (i + 1) & (values.length - 1)) {
+			if (high[i] == h && low[i] == l) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of mapped post ids
+	 */
+	public synchronized int size() {
+		return objectIdCount + otherIds.size();
+	}
+
+	private boolean insert(long h, int l, long value) {
+		int i = slot(h, l, values.length);
+		while (values[i] != 0) {
+			if (high[i] == h && low[i] == l) {
+				values[i] = value;
+				return false;
+			}
+			i = (i + 1) & (values.length - 1);
+		}
+		high[i] = h;
+		low[i] = l;
+		values[i] = value;
+		return true;
+	}
+
+	private void grow() {
+		long[] oldHigh = high;
+		int[] oldLow = low;
+		long[] oldValues = values;
+		high = new long[oldValues.length * 2];
+		low = new int[oldValues.length * 2];
+		values = new long[oldValues.length * 2];
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != 0) {
+				insert(oldHigh[i], oldLow[i], oldValues[i]);
+			}
+		}
+	}
+
+	private static int slot(long h, int l, int capacity) {
+		long hash = (h ^ (h >>> 32)) * 31 + l;
+		hash ^= hash >>> 29;
+		return (int) (hash ^ (hash >>> 32)) & (capacity - 1);
+	}
+
+	private static boolean isObjectId(String id) {
+		if (id == null || id.length() != OBJECT_ID_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < OBJECT_ID_LENGTH; i++) {
+			if (Character.digit(id.charAt(i), 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long parseHex(String id, int from, int to) {
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			value = (value << 4) | Character.digit(id.charAt(i), 16);
+		}
+		return value;
+	}
+}
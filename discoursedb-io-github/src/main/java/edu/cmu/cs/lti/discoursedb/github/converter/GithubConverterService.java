@@ -124,20 +124,8 @@ public class GithubConverterService{
 	}
 
 	
-	private HashMap<String,Long> dpKeyIndex = new HashMap<String,Long>();	
 	private DiscoursePart getDiscoursePart(Discourse d, String name, DiscoursePartTypes typ) {
-		String dpKey = name + " xx " + typ.name();
-		if (dpKeyIndex.containsKey(dpKey)) {
-			Optional<DiscoursePart> mayfind = discoursePartService.findOne(dpKeyIndex.get(dpKey));
-			if (mayfind.isPresent()) {
-				return mayfind.get();
-			}
-		}
-		
-		DiscoursePart dp = discoursePartService.createOrGetTypedDiscoursePart(d, name, typ);
-		dpKeyIndex.put(dpKey, dp.getId());
-		return dp;
-		// whole function was just:    return discoursePartService.createOrGetTypedDiscoursePart(d, name, typ);
+		return discoursePartService.createOrGetTypedDiscoursePart(d, name, typ);
 	}
 
 	private DiscoursePart getDiscoursePartByDataSource(Discourse d, String entitySourceId, String entitySourceDescriptor, 
@@ -147,19 +135,8 @@ public class GithubConverterService{
 	}
 
 	
-	private HashMap<String,Long> userKeyIndex = new HashMap<String,Long>();	
 	private User getUser(Discourse d, String username) {
-		String uKey = d.getName()  +" xx " + username;
-		if (userKeyIndex.containsKey(uKey)) {
-			Optional<User> mayfind = userService.findOne(userKeyIndex.get(uKey));
-			if (mayfind.isPresent()) {
-				return mayfind.get();
-			}
-		}
-		
-		User u = userService.createOrGetUser(d, username);
-		userKeyIndex.put(uKey, u.getId());
-		return u;
+		return userService.createOrGetUser(d, username);
 	}
 	
 	
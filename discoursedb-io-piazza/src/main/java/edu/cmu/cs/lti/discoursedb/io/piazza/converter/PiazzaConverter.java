@@ -25,18 +25,18 @@ package edu.cmu.cs.lti.discoursedb.io.piazza.converter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
-import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
+import edu.cmu.cs.lti.discoursedb.core.service.ingest.ReadAheadIterator;
 import edu.cmu.cs.lti.discoursedb.io.piazza.model.PiazzaContent;
 import lombok.extern.log4j.Log4j;
 
@@ -55,6 +55,11 @@ import lombok.extern.log4j.Log4j;
 @Component
 public class PiazzaConverter implements CommandLineRunner {
 
+	/**
+	 * Maximum number of parsed content items waiting to be imported
+	 */
+	private static final int PARSE_AHEAD = 100;
+
 	@Autowired private PiazzaConverterService converterService;
 
 	private String dataSetName;
@@ -79,16 +84,22 @@ public class PiazzaConverter implements CommandLineRunner {
 
 		log.info("Start importing dump file: "+inputFileName);
 		
-		//Parse dump and serially parse on Piazza content object to converter service 
-		try (InputStream in = new FileInputStream(inputFile)) {
-			@SuppressWarnings("unchecked")
-			List<PiazzaContent> contents = (List<PiazzaContent>) new ObjectMapper()
-					.enable(DeserializationFeature.UNWRAP_ROOT_VALUE)
-					.enable(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT)
-					.enable(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT)
-					.readValues(new JsonFactory().createParser(in), new TypeReference<List<PiazzaContent>>() {
-					}).next();
-			contents.stream().forEach(c -> converterService.convertPiazzaContent(discourseName, dataSetName, c));
+		//Stream the top-level array of the dump and pass one Piazza content object at a time to the converter service.
+		//The dump is parsed on a background thread while the previous content objects are being imported.
+		ObjectReader reader = new ObjectMapper()
+				.enable(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT)
+				.enable(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT)
+				.readerFor(PiazzaContent.class);
+		long count = 0;
+		try (InputStream in = new FileInputStream(inputFile);
+				MappingIterator<PiazzaContent> parser = reader.readValues(in);
+				ReadAheadIterator<PiazzaContent> contents = ReadAheadIterator.of(parser, PARSE_AHEAD)) {
+			while (contents.hasNext()) {
+				converterService.convertPiazzaContent(discourseName, dataSetName, contents.next());
+				if (++count % 1000 == 0) {
+					log.info("Imported " + count + " Piazza content items");
+				}
+			}
 		}
 
 		log.info("Successfully imported the Piazza dump file.");
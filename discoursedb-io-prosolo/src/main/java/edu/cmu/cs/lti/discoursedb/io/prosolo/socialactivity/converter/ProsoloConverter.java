@@ -31,8 +31,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
+import edu.cmu.cs.lti.discoursedb.core.service.ingest.JdbcRowReader;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
 import edu.cmu.cs.lti.discoursedb.io.prosolo.socialactivity.io.ProsoloDB;
+import edu.cmu.cs.lti.discoursedb.io.prosolo.socialactivity.model.ProsoloFollowedEntity;
+import edu.cmu.cs.lti.discoursedb.io.prosolo.socialactivity.model.SocialActivity;
 
 /**
  * This converter loads data from a prosolo database and maps it to DiscourseDB.
@@ -105,7 +108,7 @@ public class ProsoloConverter implements CommandLineRunner {
 		} catch (SQLException ex) {
 			logger.error(ex.getMessage(), ex);
 		} finally {
-			prosolo.closeConnection();
+			prosolo.close();
 		}
 		logger.info("...mapping complete");
 	}
@@ -123,14 +126,19 @@ public class ProsoloConverter implements CommandLineRunner {
 			return;
 		}
 		
-		List<Long> socialActivityIDs = prosolo.getIdsForDtypeAndAction(dtype, action);
-		logger.info("Mapping "+socialActivityIDs.size()+" social activities of type \""+dtype+"\", action \""+action+"\"");				
+		logger.info("Mapping social activities of type \""+dtype+"\", action \""+action+"\"");				
 				
-		//retrieve list of social activity ids and then process each of them within the loop
-		for (Long curSocialActivityId : socialActivityIDs) {			
-			logger.trace("Processing "+dtype+" ("+action+") id:"+curSocialActivityId);			
-			converterService.mapSocialActivity(dtype,action,curSocialActivityId,prosolo, discourseName,dataSetName);
+		//stream the social activities and process each of them within the loop
+		long count = 0;
+		try (JdbcRowReader<SocialActivity> socialActivities = prosolo.readSocialActivities(dtype, action)) {
+			while (socialActivities.hasNext()) {
+				SocialActivity curSocialActivity = socialActivities.next();
+				logger.trace("Processing "+dtype+" ("+action+") id:"+curSocialActivity.getId());			
+				converterService.mapSocialActivity(dtype,action,curSocialActivity,prosolo, discourseName,dataSetName);
+				count++;
+			}
 		}
+		logger.info("Mapped "+count+" social activities of type \""+dtype+"\", action \""+action+"\"");
 	}
 
 	
@@ -146,14 +154,19 @@ public class ProsoloConverter implements CommandLineRunner {
 			return;
 		}
 		
-		List<Long> followedEntityIDs = prosolo.getIdsForFollowedEntityType(dtype);
-		logger.info("Mapping "+followedEntityIDs.size()+" followed entity if type \""+dtype+"\"");				
+		logger.info("Mapping followed entities of type \""+dtype+"\"");				
 		
-		//retrieve list of social activity ids and then process each of them within the loop
-		for (Long curFollowedEntityId : followedEntityIDs) {			
-			logger.trace("Processing "+dtype+" id:"+curFollowedEntityId);			
-			converterService.mapFollowedEntity(dtype,curFollowedEntityId,prosolo, discourseName,dataSetName);
+		//stream the followed entities and process each of them within the loop
+		long count = 0;
+		try (JdbcRowReader<ProsoloFollowedEntity> followedEntities = prosolo.readFollowedEntities(dtype)) {
+			while (followedEntities.hasNext()) {
+				ProsoloFollowedEntity curFollowedEntity = followedEntities.next();
+				logger.trace("Processing "+dtype+" id:"+curFollowedEntity.getId());			
+				converterService.mapFollowedEntity(dtype,curFollowedEntity,prosolo, discourseName,dataSetName);
+				count++;
+			}
 		}
+		logger.info("Mapped "+count+" followed entities of type \""+dtype+"\"");
 	}	
 
 }
\ No newline at end of file
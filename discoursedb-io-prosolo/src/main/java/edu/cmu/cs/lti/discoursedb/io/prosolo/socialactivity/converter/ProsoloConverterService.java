@@ -89,6 +89,20 @@ public class ProsoloConverterService {
 	 * @throws SQLException
 	 */
 	public void mapSocialActivity(String dtype, String action, Long curSocialActivityId, ProsoloDB prosolo, String discourseName, String dataSetName) throws SQLException{
+		mapSocialActivity(dtype, action, prosolo.getSocialActivity(curSocialActivityId).get(), prosolo, discourseName, dataSetName);
+	}
+
+	/**
+	 * Maps a social activity that has already been read from the prosolo database to DiscourseDB.
+	 * 
+	 * @param dtype the type of the SocialActivity
+	 * @param action the create/add action
+	 * @param curSocialActivity the social activity to map
+	 * @throws SQLException
+	 */
+	public void mapSocialActivity(String dtype, String action, SocialActivity curSocialActivity, ProsoloDB prosolo, String discourseName, String dataSetName) throws SQLException{
+			Long curSocialActivityId = curSocialActivity.getId();
+
 			//We assume here that a single ProSolo database refers to a single course (i.e. a single Discourse)
 			//The course details are passed on as a parameter to this converter and are not read from the prosolo database
 			Discourse discourse = discourseService.createOrGetDiscourse(discourseName);
@@ -99,10 +113,6 @@ public class ProsoloConverterService {
 				return;	
 			}
 			
-			//get data from prosolo database
-			//the social activity is the anchor point for the mapping
-			SocialActivity curSocialActivity = prosolo.getSocialActivity(curSocialActivityId).get();
-			
 			// each social activity translates to a separate DiscoursePart			
 			DiscoursePart postSocialActivityContainer = discoursePartService.createOrGetTypedDiscoursePart(discourse, discourse.getName()+"_"+lookUpDiscoursePartType(dtype).name(), lookUpDiscoursePartType(dtype));		
 
@@ -252,7 +262,17 @@ public class ProsoloConverterService {
 	 * @throws SQLException
 	 */
 	public void mapFollowedEntity(String dtype, Long curFollowedEntityId, ProsoloDB prosolo, String discourseName, String dataSetName) throws SQLException{				
-			ProsoloFollowedEntity curFollowedEntity = prosolo.getProsoloFollowedEntity(curFollowedEntityId).get();
+		mapFollowedEntity(dtype, prosolo.getProsoloFollowedEntity(curFollowedEntityId).get(), prosolo, discourseName, dataSetName);
+	}
+
+	/**
+	 * Creates follow relationships from a Prosolo followed_entity that has already been read from the prosolo database.
+	 * 
+	 * @param dtype the type of the followed_entity, i.e. "FollowedResourceEntity" or "FollowedUserEntity"
+	 * @param curFollowedEntity the followed entity to map
+	 * @throws SQLException
+	 */
+	public void mapFollowedEntity(String dtype, ProsoloFollowedEntity curFollowedEntity, ProsoloDB prosolo, String discourseName, String dataSetName) throws SQLException{				
 			User followingUser = createUpdateOrGetUser(prosolo.getProsoloUser(curFollowedEntity.getUser()).get(),prosolo, discourseName,dataSetName,DataSourceTypes.PROSOLO);			
 			
 			if(dtype.equals("FollowedResourceEntity")){
@@ -21,9 +21,10 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.io.prosolo.socialactivity.io;
 
+import java.beans.PropertyVetoException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -33,6 +34,9 @@ import java.util.stream.Collectors;
 import org.jooq.lambda.SQL;
 import org.jooq.lambda.Unchecked;
 
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+import edu.cmu.cs.lti.discoursedb.core.service.ingest.JdbcRowReader;
 import edu.cmu.cs.lti.discoursedb.io.prosolo.socialactivity.model.ProsoloFollowedEntity;
 import edu.cmu.cs.lti.discoursedb.io.prosolo.socialactivity.model.ProsoloNode;
 import edu.cmu.cs.lti.discoursedb.io.prosolo.socialactivity.model.ProsoloPost;
@@ -40,19 +44,23 @@ import edu.cmu.cs.lti.discoursedb.io.prosolo.socialactivity.model.ProsoloUser;
 import edu.cmu.cs.lti.discoursedb.io.prosolo.socialactivity.model.SocialActivity;
 
 /**
- * Establishes a JDBC database connection to a prosolo database and provides
- * methods to access ProSolo data using the POJOs in the model package.
+ * Establishes a pooled JDBC connection to a prosolo database and provides
+ * methods to access ProSolo data using the POJOs in the model package.<br/>
+ * 
+ * Social activities and followed entities can be streamed with a single query per type 
+ * while related entities are looked up with separate queries on other connections of the pool.
+ * The database access object has to be closed after use in order to release the connection pool.
  * 
  * @author Oliver Ferschke
  *
  */
-public class ProsoloDB {
+public class ProsoloDB implements AutoCloseable {
 	
-	private Connection con = null;
-	private String host;
-	private String db;
-	private String user;
-	private String pwd;
+	private static final int FETCH_SIZE = 1000;
+	private static final int QUEUE_CAPACITY = 1000;
+	private static final int MAX_POOL_SIZE = 5;
+
+	private final ComboPooledDataSource dataSource;
 	
 	
 	/**
@@ -65,18 +73,54 @@ public class ProsoloDB {
 	 */
 	public ProsoloDB(String host, String db, String user, String pwd) {
 		super();
-		this.host = host;
-		this.db = db;
-		this.user = user;
-		this.pwd = pwd;
+		this.dataSource = new ComboPooledDataSource();
+		try {
+			dataSource.setDriverClass("com.mysql.jdbc.Driver");
+		} catch (PropertyVetoException e) {
+			throw new IllegalStateException("Could not load MySQL driver", e);
+		}
+		//useCursorFetch is required to stream result sets in chunks of FETCH_SIZE rows
+		dataSource.setJdbcUrl("jdbc:mysql://" + host + ":3306/" + db + "?useCursorFetch=true");
+		dataSource.setUser(user);
+		dataSource.setPassword(pwd);
+		dataSource.setMinPoolSize(1);
+		dataSource.setMaxPoolSize(MAX_POOL_SIZE);
+	}
+
+	/**
+	 * Streams all social activities of the given dtype and action in a single query.
+	 * 
+	 * @param dtype
+	 *            the dtype for the social activity
+	 * @param action
+	 *            the action for this activity (e.g. TwitterPost, Post)
+	 * @return a reader that has to be closed if it is not read until the end
+	 */
+	public JdbcRowReader<SocialActivity> readSocialActivities(String dtype, String action) {
+		String sql = "SELECT * from "+TableConstants.SOCIALACTIVITY+" where dtype=? and action=? order by id";
+		return new JdbcRowReader<>(dataSource, sql, stmt -> {
+			stmt.setString(1, dtype);
+			stmt.setString(2, action);
+		}, ProsoloDB::mapSocialActivity, FETCH_SIZE, QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Streams all followed entities of the given dtype in a single query.
+	 * 
+	 * @param dtype
+	 *            the dtype for the followed entity
+	 * @return a reader that has to be closed if it is not read until the end
+	 */
+	public JdbcRowReader<ProsoloFollowedEntity> readFollowedEntities(String dtype) {
+		String sql = "SELECT * from "+TableConstants.FOLLOWEDENTITY+" where dtype=? order by id";
+		return new JdbcRowReader<>(dataSource, sql, stmt -> stmt.setString(1, dtype), ProsoloDB::mapFollowedEntity, FETCH_SIZE, QUEUE_CAPACITY);
 	}
 
 	/**
 	 * Returns all ids for social activities of the given dtype. This idlist can
 	 * then be used to query one social activity at a time in a separate
-	 * PreparedStatement. This might be preferred to streaming a whole resultset
-	 * (even though this would have a higher performance), because no other
-	 * statements can be executed before the (streaming) query isn't closed.
+	 * PreparedStatement. Use readSocialActivities() to stream the
+	 * activities in a single query instead.
 	 * 
 	 * @param dtype
 	 *            the dtype for the social activity
@@ -90,7 +134,7 @@ public class ProsoloDB {
 		List<Long> idList = null;
 
 		String sql = "SELECT id from "+TableConstants.SOCIALACTIVITY+" where dtype=?";
-		try (PreparedStatement stmt = getConnection().prepareStatement(sql)) {
+		try (Connection c = getConnection(); PreparedStatement stmt = c.prepareStatement(sql)) {
 			stmt.setString(1, dtype);
 			idList = SQL.seq(stmt, Unchecked.function(rs -> rs.getLong("id"))).collect(Collectors.toList());
 		}
@@ -100,9 +144,8 @@ public class ProsoloDB {
 	/**
 	 * Returns all ids for social activities of the given dtype. This idlist can
 	 * then be used to query one social activity at a time in a separate
-	 * PreparedStatement. This might be preferred to streaming a whole resultset
-	 * (even though this would have a higher performance), because no other
-	 * statements can be executed before the (streaming) query isn't closed.
+	 * PreparedStatement. Use readSocialActivities() to stream the
+	 * activities in a single query instead.
 	 * 
 	 * @param dtype
 	 *            the dtype for the social activity
@@ -117,7 +160,7 @@ public class ProsoloDB {
 		}
 		List<Long> idList = null;
 		String sql = "SELECT id from "+TableConstants.SOCIALACTIVITY+" where dtype=? and action=?";
-		try (PreparedStatement stmt = getConnection().prepareStatement(sql)) {
+		try (Connection c = getConnection(); PreparedStatement stmt = c.prepareStatement(sql)) {
 			stmt.setString(1, dtype);
 			stmt.setString(2, action);
 			idList = SQL.seq(stmt, Unchecked.function(rs -> rs.getLong("id"))).collect(Collectors.toList());
@@ -128,9 +171,8 @@ public class ProsoloDB {
 	/**
 	 * Returns all ids for followed entities of the given dtype. This idlist can
 	 * then be used to query one followed_entity at a time in a separate
-	 * PreparedStatement. This might be preferred to streaming a whole resultset
-	 * (even though this would have a higher performance), because no other
-	 * statements can be executed before the (streaming) query isn't closed.
+	 * PreparedStatement. Use readFollowedEntities() to stream the
+	 * followed entities in a single query instead.
 	 * 
 	 * @param dtype
 	 *            the dtype for the followed entity
@@ -143,7 +185,7 @@ public class ProsoloDB {
 		}
 		List<Long> idList = null;
 		String sql = "SELECT id from "+TableConstants.FOLLOWEDENTITY+" where dtype=?";
-		try (PreparedStatement stmt = getConnection().prepareStatement(sql)) {
+		try (Connection c = getConnection(); PreparedStatement stmt = c.prepareStatement(sql)) {
 			stmt.setString(1, dtype);
 			idList = SQL.seq(stmt, Unchecked.function(rs -> rs.getLong("id"))).collect(Collectors.toList());
 		}
@@ -167,45 +209,7 @@ public class ProsoloDB {
 			String sql = "SELECT * from "+TableConstants.SOCIALACTIVITY+" where id=?";
 			try (PreparedStatement stmt = c.prepareStatement(sql)) {
 				stmt.setLong(1, id); 
-				activity = SQL.seq(stmt, Unchecked.function(rs -> new SocialActivity(
-						rs.getString("dtype"),
-						rs.getLong("id"),
-						rs.getTimestamp("created"),
-						rs.getString("deleted"),
-						rs.getString("dc_description"),
-						rs.getString("title"),
-						rs.getString("action"),
-						rs.getLong("bookmark_count"),
-						rs.getString("comments_disabled"),
-						rs.getInt("dislike_count"),
-						rs.getTimestamp("last_action"),
-						rs.getInt("like_count"),
-						rs.getInt("share_count"),
-						rs.getString("text"),
-						rs.getString("visibility"),
-						rs.getString("avatar_url"),
-						rs.getString("name"),
-						rs.getString("nickname"),
-						rs.getString("post_link"),
-						rs.getString("profile_url"),
-						rs.getString("service_type"),
-						rs.getString("user_type"),
-						rs.getLong("actor"),
-						rs.getLong("maker"),
-						rs.getLong("reason"),
-						rs.getLong("rich_content"),
-						rs.getLong("goal_target"),
-						rs.getLong("post_object"),
-						rs.getLong("user_target"),
-						rs.getLong("node_object"),
-						rs.getLong("user_object"),
-						rs.getLong("node_target"),
-						rs.getLong("node"),
-						rs.getLong("social_activity"),
-						rs.getLong("enrollment_object"),
-						rs.getLong("course_object"),
-						rs.getLong("course_enrollment_object")					
-		            ))).findFirst();
+				activity = SQL.seq(stmt, Unchecked.function(rs -> mapSocialActivity(rs, 0))).findFirst();
 			}
 		}
 		return activity;
@@ -327,18 +331,7 @@ public class ProsoloDB {
 			String sql = "SELECT * from "+TableConstants.FOLLOWEDENTITY+" where id=?";
 			try (PreparedStatement stmt = c.prepareStatement(sql)) {
 				stmt.setLong(1, id); 
-				pFollowedEntity = SQL.seq(stmt, Unchecked.function(rs -> new ProsoloFollowedEntity(
-						rs.getString("dtype"),
-						rs.getLong("id"),
-						rs.getTimestamp("created"),
-						rs.getBoolean("deleted"),
-						rs.getString("dc_description"),
-						rs.getString("title"),
-						rs.getTimestamp("started_following"),
-						rs.getLong("user"),
-						rs.getLong("followed_node"),
-						rs.getLong("followed_user")
-		            ))).findFirst();
+				pFollowedEntity = SQL.seq(stmt, Unchecked.function(rs -> mapFollowedEntity(rs, 0))).findFirst();
 			}
 		}
 		return pFollowedEntity;
@@ -436,17 +429,72 @@ public class ProsoloDB {
 	}
 
 		
+	private static SocialActivity mapSocialActivity(ResultSet rs, int rowNum) throws SQLException {
+		return new SocialActivity(
+				rs.getString("dtype"),
+				rs.getLong("id"),
+				rs.getTimestamp("created"),
+				rs.getString("deleted"),
+				rs.getString("dc_description"),
+				rs.getString("title"),
+				rs.getString("action"),
+				rs.getLong("bookmark_count"),
+				rs.getString("comments_disabled"),
+				rs.getInt("dislike_count"),
+				rs.getTimestamp("last_action"),
+				rs.getInt("like_count"),
+				rs.getInt("share_count"),
+				rs.getString("text"),
+				rs.getString("visibility"),
+				rs.getString("avatar_url"),
+				rs.getString("name"),
+				rs.getString("nickname"),
+				rs.getString("post_link"),
+				rs.getString("profile_url"),
+				rs.getString("service_type"),
+				rs.getString("user_type"),
+				rs.getLong("actor"),
+				rs.getLong("maker"),
+				rs.getLong("reason"),
+				rs.getLong("rich_content"),
+				rs.getLong("goal_target"),
+				rs.getLong("post_object"),
+				rs.getLong("user_target"),
+				rs.getLong("node_object"),
+				rs.getLong("user_object"),
+				rs.getLong("node_target"),
+				rs.getLong("node"),
+				rs.getLong("social_activity"),
+				rs.getLong("enrollment_object"),
+				rs.getLong("course_object"),
+				rs.getLong("course_enrollment_object")
+				);
+	}
+
+	private static ProsoloFollowedEntity mapFollowedEntity(ResultSet rs, int rowNum) throws SQLException {
+		return new ProsoloFollowedEntity(
+				rs.getString("dtype"),
+				rs.getLong("id"),
+				rs.getTimestamp("created"),
+				rs.getBoolean("deleted"),
+				rs.getString("dc_description"),
+				rs.getString("title"),
+				rs.getTimestamp("started_following"),
+				rs.getLong("user"),
+				rs.getLong("followed_node"),
+				rs.getLong("followed_user")
+				);
+	}
+
 	private Connection getConnection() throws SQLException {
-		if (con == null || con.isClosed()) {
-			return DriverManager.getConnection("jdbc:mysql://" + this.host + ":3306/" + this.db, this.user, this.pwd);
-		} else {
-			return con;
-		}
+		return dataSource.getConnection();
 	}
 
-	public void closeConnection() throws SQLException {
-		if (con != null && !con.isClosed()) {
-			con.close();
-		}
+	/**
+	 * Closes all pooled connections to the prosolo database.
+	 */
+	@Override
+	public void close() {
+		dataSource.close();
 	}
 }
@@ -30,12 +30,12 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
-import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
+import edu.cmu.cs.lti.discoursedb.core.service.annotation.AnnotationBatch;
 import edu.cmu.cs.lti.discoursedb.core.service.annotation.AnnotationService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.ContentService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.ContributionService;
@@ -110,16 +110,16 @@ public class TwitterConverterService {
 			user.setLanguage(tUser.getLang());
 			user.setStartTime(tweet.getUser().getCreatedAt());
 			
-			AnnotationInstance userInfo = annoService.createTypedAnnotation("twitter_user_info");
-			annoService.addFeature(userInfo, annoService.createTypedFeature(String.valueOf(tUser.getFavouritesCount()), "favorites_count"));
-			annoService.addFeature(userInfo, annoService.createTypedFeature(String.valueOf(tUser.getFollowersCount()), "followers_count"));
-			annoService.addFeature(userInfo, annoService.createTypedFeature(String.valueOf(tUser.getFriendsCount()), "friends_count"));
-			annoService.addFeature(userInfo, annoService.createTypedFeature(String.valueOf(tUser.getStatusesCount()), "statuses_count"));
-			annoService.addFeature(userInfo, annoService.createTypedFeature(String.valueOf(tUser.getListedCount()), "listed_count"));
+			AnnotationBatch userInfo = new AnnotationBatch().annotation("twitter_user_info")
+					.feature("favorites_count", String.valueOf(tUser.getFavouritesCount()))
+					.feature("followers_count", String.valueOf(tUser.getFollowersCount()))
+					.feature("friends_count", String.valueOf(tUser.getFriendsCount()))
+					.feature("statuses_count", String.valueOf(tUser.getStatusesCount()))
+					.feature("listed_count", String.valueOf(tUser.getListedCount()));
 			if(tUser.getDescription()!=null){
-				annoService.addFeature(userInfo, annoService.createTypedFeature(String.valueOf(tUser.getDescription()), "description"));				
+				userInfo.feature("description", String.valueOf(tUser.getDescription()));				
 			}
-			annoService.addAnnotation(user, userInfo);			
+			annoService.addAnnotations(user, userInfo);			
 		}
 		
 		Contribution curContrib = contributionService.createTypedContribution(ContributionTypes.TWEET);
@@ -128,68 +128,65 @@ public class TwitterConverterService {
 		dataSourceService.addSource(curContrib, contribSource);		
 
 		
-		AnnotationInstance tweetInfo = annoService.createTypedAnnotation("twitter_tweet_info");
+		//all annotations of the tweet are collected and saved at once
+		AnnotationBatch tweetAnnos = new AnnotationBatch().annotation("twitter_tweet_info");
 		if(tweet.getSource()!=null){
-			annoService.addFeature(tweetInfo, annoService.createTypedFeature(tweet.getSource(), "tweet_source"));			
+			tweetAnnos.feature("tweet_source", tweet.getSource());			
 		}
 		
-		annoService.addFeature(tweetInfo, annoService.createTypedFeature(String.valueOf(tweet.getFavoriteCount()), "favorites_count"));			
+		tweetAnnos.feature("favorites_count", String.valueOf(tweet.getFavoriteCount()));			
 		
 		if(tweet.getHashtagEntities()!=null){
 			for(HashtagEntity hashtag:tweet.getHashtagEntities()){
-				annoService.addFeature(tweetInfo, annoService.createTypedFeature(hashtag.getText(), "hashtag"));				
+				tweetAnnos.feature("hashtag", hashtag.getText());				
 			}
 		}
 
 		if(tweet.getMediaEntities()!=null){
 			for(MediaEntity media:tweet.getMediaEntities()){
 				//NOTE: additional info is available for MediaEntities
-				annoService.addFeature(tweetInfo, annoService.createTypedFeature(media.getMediaURL(), "media_url"));				
+				tweetAnnos.feature("media_url", media.getMediaURL());				
 			}
 		}
 
 		//TODO this should be represented as a relation if the related tweet is part of the dataset
 		if(tweet.getInReplyToStatusId()>0){
-			annoService.addFeature(tweetInfo, annoService.createTypedFeature(String.valueOf(tweet.getInReplyToStatusId()), "in_reply_to_status_id"));			
+			tweetAnnos.feature("in_reply_to_status_id", String.valueOf(tweet.getInReplyToStatusId()));			
 		}		
 
 		//TODO this should be represented as a relation if the related tweet is part of the dataset
 		if(tweet.getInReplyToScreenName()!=null){
-			annoService.addFeature(tweetInfo, annoService.createTypedFeature(tweet.getInReplyToScreenName(), "in_reply_to_screen_name"));			
+			tweetAnnos.feature("in_reply_to_screen_name", tweet.getInReplyToScreenName());			
 		}		
-		annoService.addAnnotation(curContrib, tweetInfo);			
-
-		
 		
 		GeoLocation geo = tweet.getGeoLocation();
 		if(geo!=null){
-			AnnotationInstance coord = annoService.createTypedAnnotation("twitter_tweet_geo_location");
-			annoService.addFeature(coord, annoService.createTypedFeature(String.valueOf(geo.getLongitude()), "long"));
-			annoService.addFeature(coord, annoService.createTypedFeature(String.valueOf(geo.getLatitude()), "lat"));
-			annoService.addAnnotation(curContrib, coord);
+			tweetAnnos.annotation("twitter_tweet_geo_location")
+				.feature("long", String.valueOf(geo.getLongitude()))
+				.feature("lat", String.valueOf(geo.getLatitude()));
 		}
 		
 		Place place = tweet.getPlace();
 		if(place!=null){
-			AnnotationInstance placeAnno = annoService.createTypedAnnotation("twitter_tweet_place");			
-			annoService.addFeature(placeAnno, annoService.createTypedFeature(String.valueOf(place.getPlaceType()), "place_type"));
+			tweetAnnos.annotation("twitter_tweet_place")
+				.feature("place_type", String.valueOf(place.getPlaceType()));
 			if(place.getGeometryType()!=null){
-				annoService.addFeature(placeAnno, annoService.createTypedFeature(String.valueOf(place.getGeometryType()), "geo_type"));				
+				tweetAnnos.feature("geo_type", String.valueOf(place.getGeometryType()));				
 			}
-			annoService.addFeature(placeAnno, annoService.createTypedFeature(String.valueOf(place.getBoundingBoxType()), "bounding_box_type"));
-			annoService.addFeature(placeAnno, annoService.createTypedFeature(String.valueOf(place.getFullName()), "place_name"));
+			tweetAnnos.feature("bounding_box_type", String.valueOf(place.getBoundingBoxType()))
+				.feature("place_name", String.valueOf(place.getFullName()));
 			if(place.getStreetAddress()!=null){
-				annoService.addFeature(placeAnno, annoService.createTypedFeature(String.valueOf(place.getStreetAddress()), "street_address"));				
+				tweetAnnos.feature("street_address", String.valueOf(place.getStreetAddress()));				
 			}
-			annoService.addFeature(placeAnno, annoService.createTypedFeature(String.valueOf(place.getCountry()), "country"));
+			tweetAnnos.feature("country", String.valueOf(place.getCountry()));
 			if(place.getBoundingBoxCoordinates()!=null){
-				annoService.addFeature(placeAnno, annoService.createTypedFeature(convertGeoLocationArray(place.getBoundingBoxCoordinates()), "bounding_box_lat_lon_array"));							
+				tweetAnnos.feature("bounding_box_lat_lon_array", convertGeoLocationArray(place.getBoundingBoxCoordinates()));							
 			}
 			if(place.getGeometryCoordinates()!=null){
-				annoService.addFeature(placeAnno, annoService.createTypedFeature(convertGeoLocationArray(place.getGeometryCoordinates()), "geometry_lat_lon_array"));							
+				tweetAnnos.feature("geometry_lat_lon_array", convertGeoLocationArray(place.getGeometryCoordinates()));							
 			}
-			annoService.addAnnotation(curContrib, placeAnno);
 		}
+		annoService.addAnnotations(curContrib, tweetAnnos);
 
 		Content curContent = contentService.createContent();
 		curContent.setText(tweet.getText());
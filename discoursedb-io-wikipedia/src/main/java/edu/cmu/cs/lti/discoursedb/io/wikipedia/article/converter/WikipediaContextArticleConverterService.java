@@ -121,6 +121,7 @@ public class WikipediaContextArticleConverterService{
 	
 	/**
 	 * Maps a single revision to a content entity in DiscourseDB.
+	 * The text is stored as a delta against an earlier revision if <code>content.delta.enabled</code> is set.
 	 * 
 	 * @param discourse the discourse the content is part of (for user generation) 
 	 * @param curArticleRev the revision to map
@@ -134,8 +135,9 @@ public class WikipediaContextArticleConverterService{
 		Assert.hasText(articleTitle, "Article title cannot be empty.");
 		//Note: prevRevId is allowed to be null (in case of the first revision)
 				
+		Content prevRev = prevRevId==null?null:contentService.findOne(prevRevId).orElse(null);
 		Content curRev = contentService.createContent();
-		curRev.setText(curArticleRev.getRevisionText());
+		contentService.setRevisionText(curRev, prevRev, curArticleRev.getRevisionText());
 		curRev.setStartTime(curArticleRev.getTimeStamp());
 		curRev.setTitle(articleTitle);
 
@@ -147,13 +149,11 @@ public class WikipediaContextArticleConverterService{
 		}
 
 		//in case there was a previous revision, retrieve it and connect the Content entity
-		if(prevRevId!=null){
-			contentService.findOne(prevRevId).ifPresent(prev->{
-				prev.setNextRevision(curRev);
-				prev.setEndTime(curRev.getStartTime());
-				curRev.setPreviousRevision(prev);
-				contentService.save(prev);				
-			});
+		if(prevRev!=null){
+			prevRev.setNextRevision(curRev);
+			prevRev.setEndTime(curRev.getStartTime());
+			curRev.setPreviousRevision(prevRev);
+			contentService.save(prevRev);				
 		}
 		contentService.save(curRev);
 
@@ -22,6 +22,7 @@
 package edu.cmu.cs.lti.discoursedb.io.wikipedia.talk.converter;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
@@ -29,21 +30,23 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.wikipedia.api.DatabaseConfiguration;
 import de.tudarmstadt.ukp.wikipedia.api.WikiConstants.Language;
-import de.tudarmstadt.ukp.wikipedia.api.Wikipedia;
 import de.tudarmstadt.ukp.wikipedia.api.hibernate.WikiHibernateUtil;
-import de.tudarmstadt.ukp.wikipedia.revisionmachine.api.RevisionApi;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscoursePartService;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscourseService;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartTypes;
-import edu.cmu.cs.lti.discoursedb.io.wikipedia.talk.io.RevisionBasedTalkPageExtractor;
-import edu.cmu.cs.lti.discoursedb.io.wikipedia.talk.model.TalkPage;
+import edu.cmu.cs.lti.discoursedb.io.wikipedia.talk.io.ParallelTalkPageExtractor;
 
 /**
+ * Imports the Talk pages of a list of Wikipedia articles.<br/>
+ * The Talk pages are segmented by <code>wikipedia.talk.workers</code> threads (default: number of processors)
+ * that each have their own connection to the Wikipedia database. At most <code>wikipedia.talk.maxPendingPages</code>
+ * segmented Talk pages are held in memory until they are mapped to DiscourseDB on the main thread.
  * 
  * @author Oliver Ferschke
  *
@@ -57,6 +60,7 @@ public class WikipediaTalkPageConverter implements CommandLineRunner {
 	@Autowired private DiscourseService discourseService;
 	@Autowired private WikipediaTalkPageConverterService converterService;
 	@Autowired private DataSourceService dataSourceService;
+	@Autowired private Environment env;
 
 	@Override
 	public void run(String... args) throws Exception {
@@ -85,33 +89,32 @@ public class WikipediaTalkPageConverter implements CommandLineRunner {
 		dbconf.setUser(args[5]);
 		dbconf.setPassword(args[6]);
 		dbconf.setLanguage(Language.valueOf(args[7]));
-		Wikipedia wiki = new Wikipedia(dbconf);
-		RevisionApi revApi = new RevisionApi(dbconf);
 		
-		RevisionBasedTalkPageExtractor extractor = null;
-		logger.info("Start mapping Talk pages for "+titles.size()+" articles to DiscourseDB...");		
-		int tpNum = 1;
+		//first check if we already have the discussions of an article from a previous import
+		List<String> pendingTitles = new ArrayList<>();
 		for(String title:titles){
-			//first check if we alrady have the discussions from this article from a previous import
 			if(discoursePartService.exists(discourseService.createOrGetDiscourse(discourseName), title, DiscoursePartTypes.TALK_PAGE)){
 				logger.warn("Discussions for article "+title+ "have already been imported. Skipping ...");
 				continue;			
-			}			
-
-			logger.info("Segmenting Talk Pages for article "+title);
-			extractor = new RevisionBasedTalkPageExtractor(wiki, revApi, title, false, true);
-			List<TalkPage> talkPages = extractor.getTalkPages();
-			for(TalkPage tp:talkPages){
-				if(tp!=null){
-					logger.info("Mapping Talk Page #"+tpNum++);
-					converterService.mapTalkPage(discourseName, dataSetName, title, tp);									
-				}
 			}
+			pendingTitles.add(title);
 		}
-		logger.info("Finished mapping Talk pages.");
 
-		//manually close the hibernate session for the Wikipedia connection which is not managed by Spring
-		WikiHibernateUtil.getSessionFactory(dbconf).close();
+		int workers = env.getProperty("wikipedia.talk.workers", Integer.class, Runtime.getRuntime().availableProcessors());
+		int maxPendingPages = env.getProperty("wikipedia.talk.maxPendingPages", Integer.class, 2*workers);
+		ParallelTalkPageExtractor extractor = new ParallelTalkPageExtractor(dbconf, workers, maxPendingPages, false, true);
+		logger.info("Start mapping Talk pages for "+pendingTitles.size()+" articles to DiscourseDB with "+workers+" workers...");		
+		int[] tpNum = {1};
+		try{
+			extractor.extract(pendingTitles, (title, tp) -> {
+				logger.info("Mapping Talk Page #"+tpNum[0]++ +" ("+title+")");
+				converterService.mapTalkPage(discourseName, dataSetName, title, tp);
+			});
+		}finally{
+			//manually close the hibernate session for the Wikipedia connection which is not managed by Spring
+			WikiHibernateUtil.getSessionFactory(dbconf).close();
+		}
+		logger.info("Finished mapping Talk pages.");
 	}
 
 }
\ No newline at end of file
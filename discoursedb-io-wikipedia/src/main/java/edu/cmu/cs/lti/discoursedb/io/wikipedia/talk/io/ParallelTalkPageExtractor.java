@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.io.wikipedia.talk.io;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.util.Assert;
+
+import de.tudarmstadt.ukp.wikipedia.api.DatabaseConfiguration;
+import de.tudarmstadt.ukp.wikipedia.api.Wikipedia;
+import de.tudarmstadt.ukp.wikipedia.revisionmachine.api.RevisionApi;
+import edu.cmu.cs.lti.discoursedb.io.wikipedia.talk.model.TalkPage;
+
+/**
+ * Segments the Talk pages of a collection of articles on multiple worker threads.<br/>
+ * Each worker opens its own JWPL Wikipedia session and RevisionApi connection and processes one article at a time
+ * with a lazy {@link RevisionBasedTalkPageExtractor}. Finished Talk pages are passed through a bounded queue
+ * to the thread that called {@link #extract(Collection, TalkPageHandler)}, which hands them to the {@link TalkPageHandler} one at a time.
+ * Workers block as soon as the queue is full, so the number of Talk pages held in memory is bounded.
+ * The revision history of each page is parsed on the worker thread itself to avoid nesting thread pools.<br/>
+ * Articles whose Talk pages cannot be loaded are skipped. A worker that cannot connect to the Wikipedia database stops,
+ * and the remaining workers take over its articles. If articles are left over because workers could not connect, the extraction fails.
+ * 
+ * @author Oliver Ferschke
+ *
+ */
+public class ParallelTalkPageExtractor {
+
+	private static final Logger logger = LogManager.getLogger(ParallelTalkPageExtractor.class);
+	
+	private final DatabaseConfiguration dbconf;
+	private final int workers;
+	private final int maxPendingTalkPages;
+	private final boolean includeArchives;
+	private final boolean aggregateParagraphsToTurns;
+
+	/**
+	 * Receives the Talk pages produced by the workers. 
+	 * All calls happen on the thread that runs the extraction.
+	 */
+	@FunctionalInterface
+	public interface TalkPageHandler{
+		void handle(String articleTitle, TalkPage talkPage) throws Exception;
+	}
+
+	/**
+	 * Creates a new parallel extractor
+	 * 
+	 * @param dbconf the configuration of the Wikipedia database. Each worker opens its own connection with it.
+	 * @param workers the number of articles that are segmented concurrently
+	 * @param maxPendingTalkPages the maximum number of finished Talk pages waiting to be handled
+	 * @param includeArchives true, if the extractor should attempt to extract discussions from discussion archives (still buggy)
+	 * @param aggregateParagraphsToTurns true, whether paragraphs should heuristically be aggregated to turns
+	 */
+	public ParallelTalkPageExtractor(DatabaseConfiguration dbconf, int workers, int maxPendingTalkPages, boolean includeArchives, boolean aggregateParagraphsToTurns){
+		Assert.notNull(dbconf, "Database configuration cannot be null.");
+		Assert.isTrue(workers>0, "The number of workers has to be positive.");
+		Assert.isTrue(maxPendingTalkPages>0, "The number of pending Talk pages has to be positive.");
+		this.dbconf=dbconf;
+		this.workers=workers;
+		this.maxPendingTalkPages=maxPendingTalkPages;
+		this.includeArchives=includeArchives;
+		this.aggregateParagraphsToTurns=aggregateParagraphsToTurns;
+	}
+	
+	/**
+	 * Segments the Talk pages of all given articles and passes them on to the handler.
+	 * Talk pages of the same article are handled in the order in which they were segmented; 
+	 * the pages of different articles can be interleaved.
+	 * 
+	 * @param articleTitles the titles of the articles whose Talk pages should be extracted
+	 * @param handler the single consumer of all extracted Talk pages
+	 * @throws Exception if the handler fails. The remaining workers are stopped in that case.
+	 * @throws IllegalStateException if some articles could not be processed because workers failed to connect to the Wikipedia database
+	 */
+	public void extract(Collection<String> articleTitles, TalkPageHandler handler) throws Exception{
+		Assert.notNull(handler, "Talk page handler cannot be null.");
+		ConcurrentLinkedQueue<String> pendingTitles = new ConcurrentLinkedQueue<>(articleTitles);
+		BlockingQueue<ExtractedTalkPage> finishedPages = new ArrayBlockingQueue<>(maxPendingTalkPages);
+		int activeWorkers = Math.max(1, Math.min(workers, articleTitles.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(activeWorkers);
+		try{
+			for(int i=0;i<activeWorkers;i++){
+				executor.execute(() -> runWorker(pendingTitles, finishedPages));
+			}
+			int finishedWorkers = 0;
+			Exception startupFailure = null;
+			while(finishedWorkers<activeWorkers){
+				ExtractedTalkPage page = finishedPages.take();
+				if(page.talkPage==null){
+					finishedWorkers++;
+					if(startupFailure==null){
+						startupFailure = page.failure;
+					}
+				}else{
+					handler.handle(page.articleTitle, page.talkPage);
+				}
+			}
+			if(startupFailure!=null&&!pendingTitles.isEmpty()){
+				throw new IllegalStateException(pendingTitles.size()+" articles could not be processed, because workers could not connect to the Wikipedia db.", startupFailure);
+			}
+		}finally{
+			executor.shutdownNow();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+	
+	private void runWorker(ConcurrentLinkedQueue<String> pendingTitles, BlockingQueue<ExtractedTalkPage> finishedPages){
+		RevisionApi revApi = null;
+		Exception startupFailure = null;
+		try{
+			Wikipedia wiki = new Wikipedia(dbconf);
+			revApi = new RevisionApi(dbconf);
+			RevisionBasedTalkPageExtractor extractor = new RevisionBasedTalkPageExtractor(wiki, revApi, includeArchives, aggregateParagraphsToTurns, 1);
+			String title = null;
+			while((title=pendingTitles.poll())!=null&&!Thread.currentThread().isInterrupted()){
+				logger.info("Segmenting Talk Pages for article "+title);
+				try{
+					Iterator<TalkPage> talkPages = extractor.iterateTalkPages(title);
+					while(talkPages.hasNext()){
+						finishedPages.put(new ExtractedTalkPage(title, talkPages.next()));
+					}
+				}catch(InterruptedException e){
+					throw e;
+				}catch(Exception e){
+					logger.warn("Could not load Talk pages for article "+title, e);
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}catch(Exception e){
+			logger.error("Could not establish connection to Wikipedia db. Stopping worker.", e);
+			startupFailure = e;
+		}finally{
+			if(revApi!=null){
+				try{
+					revApi.close();
+				}catch(Exception e){
+					logger.warn("Could not close RevisionApi connection", e);
+				}
+			}
+			//signal that this worker has finished, unless the extraction has been aborted
+			if(!Thread.currentThread().isInterrupted()){
+				try{
+					finishedPages.put(new ExtractedTalkPage(startupFailure));
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+	
+	private static class ExtractedTalkPage{
+		private final String articleTitle;
+		private final TalkPage talkPage;
+		private final Exception failure;
+		
+		private ExtractedTalkPage(String articleTitle, TalkPage talkPage){
+			this.articleTitle=articleTitle;
+			this.talkPage=talkPage;
+			this.failure=null;
+		}
+		
+		/**
+		 * Signals that a worker has finished, either normally or because it could not connect (failure is not null).
+		 */
+		private ExtractedTalkPage(Exception failure){
+			this.articleTitle=null;
+			this.talkPage=null;
+			this.failure=failure;
+		}
+	}
+}
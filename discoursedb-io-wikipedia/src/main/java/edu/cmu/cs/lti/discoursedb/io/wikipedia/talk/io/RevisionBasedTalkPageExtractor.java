@@ -24,8 +24,11 @@ package edu.cmu.cs.lti.discoursedb.io.wikipedia.talk.io;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
@@ -63,6 +66,7 @@ public class RevisionBasedTalkPageExtractor {
 	private List<TalkPage> talkPages;
 	private boolean includeArchives;
 	private boolean aggregateParagraphsToTurns;
+	private int forwardCheckerWorkers = Runtime.getRuntime().availableProcessors();
 	
 	/**
 	 * Creates a new TalkPageExtractor that segments a single discussion page into threads and turns
@@ -122,17 +126,35 @@ public class RevisionBasedTalkPageExtractor {
 		loadTalkPages();
 		
 	}
+
+	/**
+	 * Creates a new TalkPageExtractor that does not load any pages up front.
+	 * Talk pages are segmented one at a time while iterating over {@link #iterateTalkPages(String)}.
+	 * 
+	 * @param wiki the JWPL Wikipedia object with an active database connection
+	 * @param revApi the JWPL RevisionApi object with an active database connection
+	 * @param includeArchives true, if the extractor should attempt to extract discussions from discussion archives (still buggy)
+	 * @param aggregateParagraphsToTurns true, whether paragraphs should heuristically be aggregated to turns
+	 * @param forwardCheckerWorkers the number of threads used to parse the revision history of each Talk page
+	 */
+	public RevisionBasedTalkPageExtractor(Wikipedia wiki, RevisionApi revApi, boolean includeArchives, boolean aggregateParagraphsToTurns, int forwardCheckerWorkers){
+		this.wiki =wiki;
+		this.includeArchives=includeArchives;
+		this.aggregateParagraphsToTurns = aggregateParagraphsToTurns;
+		this.forwardCheckerWorkers = forwardCheckerWorkers;
+		this.revApi = revApi;
+		sourcePages = new ArrayList<>();
+		talkPages = new ArrayList<>();
+	}
 		
 	private void loadTalkPages() throws WikiApiException{
 		for(Page p:sourcePages){
 			try{
 				Set<Revision> curTPrevs = getTalkPageRevisions(p);	
 				for(Revision curRev:curTPrevs){
-					try{
-						talkPages.add(new TalkPage(revApi, curRev, aggregateParagraphsToTurns));					
-					}catch(Exception e){
-						logger.warn("Could not load TalkPage for revision "+curRev.getRevisionID());
-						e.printStackTrace();
+					TalkPage tp = createTalkPage(curRev);
+					if(tp!=null){
+						talkPages.add(tp);
 					}
 				}				
 			}catch(Exception e){
@@ -140,7 +162,55 @@ public class RevisionBasedTalkPageExtractor {
 			}
 		}
 	}
-	
+
+	/**
+	 * Lazily segments the Talk pages of the given article.
+	 * Each Talk page is only built when it is requested from the iterator, so at most one of them is held by the extractor at a time.
+	 * 
+	 * @param pageTitle a page or talk page title
+	 * @return an iterator over the Talk pages of the article. Talk pages that could not be segmented are skipped.
+	 * @throws WikiApiException in case the database could not be accessed
+	 */
+	public Iterator<TalkPage> iterateTalkPages(String pageTitle) throws WikiApiException{
+		Page p = null;
+		try{
+			p = wiki.getPage(pageTitle);
+		}catch(WikiPageNotFoundException e){
+			logger.warn("Could not find article "+pageTitle);
+			return Collections.emptyIterator();
+		}
+		Iterator<Revision> revIt = getTalkPageRevisions(p).iterator();
+		return new Iterator<TalkPage>(){
+			private TalkPage next = null;
+
+			@Override
+			public boolean hasNext() {
+				while(next==null&&revIt.hasNext()){
+					next = createTalkPage(revIt.next());
+				}
+				return next!=null;
+			}
+
+			@Override
+			public TalkPage next() {
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				TalkPage tp = next;
+				next = null;
+				return tp;
+			}
+		};
+	}
+
+	private TalkPage createTalkPage(Revision rev){
+		try{
+			return new TalkPage(revApi, rev, aggregateParagraphsToTurns, forwardCheckerWorkers);					
+		}catch(Exception e){
+			logger.warn("Could not load TalkPage for revision "+rev.getRevisionID(), e);
+			return null;
+		}
+	}
 			
 	/**
 	 * If <code>includeArchives</code> is true, then do:<br/>
@@ -187,13 +257,10 @@ public class RevisionBasedTalkPageExtractor {
 				//TODO check if rev history was moved to archive - in that case, pass on archive page rather than main page
 				rev = RevisionUtils.getRevisionBeforeTimestamp(mainDiscussionPage.getPageId(), ts, revApi);				
 			}catch(Exception e){
-				logger.warn("Could not retrieve pre-archive revision for "+mainDiscussionPage.getTitle().getPlainTitle());
+				logger.warn("Could not retrieve pre-archive revision for "+mainDiscussionPage.getTitle().getPlainTitle(), e);
 			}
-			if(!preArchiveRevIds.contains(rev.getRevisionID())){
-				if(rev!=null){
-					preArchiveRevIds.add(rev.getRevisionID());					
-					preArchiveRevisions.add(rev);
-				}
+			if(rev!=null&&preArchiveRevIds.add(rev.getRevisionID())){
+				preArchiveRevisions.add(rev);
 			}
 			archNum++;											
 		}
@@ -22,8 +22,22 @@
 package edu.cmu.cs.lti.discoursedb.io.wikipedia.talk.model;
 
 import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -37,7 +51,14 @@ import de.tudarmstadt.ukp.wikipedia.revisionmachine.api.RevisionIterator;
 
 /**
  * Retrieves contributor and timestamp for a given Paragraph by 
- * performing forward checking in the revision history.
+ * performing forward checking in the revision history.<br/>
+ * 
+ * The revisions are processed incrementally. Each revision is split into its sections at the heading lines 
+ * and only the sections that did not occur in an earlier revision are parsed into paragraphs,
+ * since all paragraphs of a known section have already been assigned to an earlier revision.
+ * Paragraphs are identified by a 64 bit fingerprint of their alphanumeric characters.
+ * The new sections of consecutive revisions are parsed on a pool of worker threads and the results are
+ * collected in revision order, so each paragraph is still assigned to the first revision it appeared in.
  * 
  * @author Oliver Ferschke
  *
@@ -46,14 +67,35 @@ public class ParagraphForwardChecker {
 	
 	private static final Logger logger = LogManager.getLogger(ParagraphForwardChecker.class);
 
+	private static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+	private static final int PENDING_REVISIONS_PER_WORKER = 16;
+	private static final int MAX_CACHED_CONTRIBUTORS = 100000;
+	private static final Pattern HEADING = Pattern.compile("^(=+)[^=\\n].*\\1[ \\t]*$", Pattern.MULTILINE);
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	//bot flags of contributors, shared by all checkers since the same bots are active on many talk pages
+	private static final Map<Integer, Boolean> botContributors = Collections.synchronizedMap(new LinkedHashMap<Integer, Boolean>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+			return size() > MAX_CACHED_CONTRIBUTORS;
+		}
+	});
 	
 	//Revision Cache - is built once per provided talk page revision
-	private Map<String,Revision> parToRevMap = null;
+	private final Map<Long,Revision> parToRevMap = new HashMap<>();
+	private final Set<Long> knownSections = new HashSet<>();
+	private final Deque<PendingRevision> pendingRevisions = new ArrayDeque<>();
+	private ExecutorService executor;
+	private int maxPendingRevisions;
 	private RevisionIterator revIt;
 	
 	/**
 	 * Creates a new ParagraphForwardChecker for the given Talk page revision using the JWPL Revision Iterator.
-	 * It builds a TreeMap that maps paragraphs to the revision in which the paragraph first appeared.
+	 * It builds a map that maps paragraphs to the revision in which the paragraph first appeared.
+	 * The revisions are parsed with one worker thread per processor.
 	 * 
 	 * @param revApi a connection to the revision database used to initialize the RevisionIterator
 	 * @param searchToRevId the search limit for the revision
@@ -61,9 +103,20 @@ public class ParagraphForwardChecker {
 	 * @throws WikiApiException in case the database cannot be accessed
 	 */
 	public ParagraphForwardChecker(RevisionApi revApi, Revision searchToRevId) throws WikiInitializationException, WikiApiException{
-		parToRevMap = new TreeMap<String,Revision>();
-		TopicExtractor topicExtractor = new TopicExtractor();
-		
+		this(revApi, searchToRevId, DEFAULT_WORKERS);
+	}
+
+	/**
+	 * Creates a new ParagraphForwardChecker for the given Talk page revision using the JWPL Revision Iterator.
+	 * It builds a map that maps paragraphs to the revision in which the paragraph first appeared.
+	 * 
+	 * @param revApi a connection to the revision database used to initialize the RevisionIterator
+	 * @param searchToRevId the search limit for the revision
+	 * @param workers the number of threads that parse the revisions. With a single worker, all revisions are parsed on the calling thread.
+	 * @throws WikiInitializationException in case the database cannot be accessed
+	 * @throws WikiApiException in case the database cannot be accessed
+	 */
+	public ParagraphForwardChecker(RevisionApi revApi, Revision searchToRevId, int workers) throws WikiInitializationException, WikiApiException{
 		int firstRevPK = revApi.getFirstRevisionPK(searchToRevId.getArticleID());
 		int lastRevPK = searchToRevId.getPrimaryKey();
 		this.revIt = new RevisionIterator(revApi.getRevisionApiConfiguration(), firstRevPK, lastRevPK, revApi.getConnection());
@@ -71,39 +124,34 @@ public class ParagraphForwardChecker {
 		double curRevNumber = 1;
 		int logPercent = 0; 
        	logger.debug("Processing "+revisionsToProcess+"");
-		while(revIt.hasNext()){						
-			Revision curRev = revIt.next();		
-			if(curRev.getContributorId()==null||(curRev.getContributorId()!=null&&curRev.getContributorId()>0&&!revApi.getUserGroups(curRev.getContributorId()).contains("bot"))){
-				for(Topic t:topicExtractor.getTopics(curRev.getRevisionText())){
-					for(TalkPageParagraph tpp:t.getParagraphs()){					
-						if(!parToRevMap.containsKey(reduceToChars(tpp.getText()))) 
-						{ 
-							parToRevMap.put(reduceToChars(tpp.getText()),curRev);							
-						}
-					}			
-				}						
+       	startWorkers(workers);
+       	try{
+			while(revIt.hasNext()){						
+				Revision curRev = revIt.next();		
+				if(curRev.getContributorId()==null||(curRev.getContributorId()>0&&!isBot(revApi, curRev.getContributorId()))){
+					addRevision(curRev.getRevisionText(), curRev);
+				}
+	   	        int curPercent=(int)Math.round(((curRevNumber++)/revisionsToProcess)*100);   	        
+	   	        if(curPercent%10==0&&curPercent!=logPercent){
+	   	        	logger.info(curPercent+ "% of "+revisionsToProcess+" revisions processed");
+	   	        	logPercent=curPercent;
+	   	        }
 			}
-   	        int curPercent=(int)Math.round(((curRevNumber++)/revisionsToProcess)*100);   	        
-   	        if(curPercent%10==0&&curPercent!=logPercent){
-   	        	System.out.println(curPercent+ "% of "+revisionsToProcess+" revisions processed");
-   	        	logPercent=curPercent;
-   	        }
-		}	
+			finishRevisions();
+       	}finally{
+       		stopWorkers();
+       	}
 	}
 
 	/**
 	 * Alternative ParagraphForwardChecker using the MediaWiki API.
 	 * 
-	 * It builds a TreeMap that maps paragraphs to the revision in which the paragraph first appeared.
+	 * It builds a map that maps paragraphs to the revision in which the paragraph first appeared.
 	 * 
-	 * @param revApi a connection to the revision database used to initialize the RevisionIterator
-	 * @param searchToRevId the search limit for the revision
-	 * @throws WikiInitializationException in case the database cannot be accessed
-	 * @throws WikiApiException in case the database cannot be accessed
+	 * @param pageTitle the title of the talk page
+	 * @throws Exception in case the page history cannot be retrieved
 	 */
 	public ParagraphForwardChecker(String pageTitle) throws Exception{
-		parToRevMap = new TreeMap<String,Revision>();
-		TopicExtractor topicExtractor = new TopicExtractor();
 		Wiki wiki = null;
 		wiki = new Wiki("en.wikipedia.org"); 
 		// wiki.login("", ""); // no login for reading necessary
@@ -112,26 +160,25 @@ public class ParagraphForwardChecker {
 		double curRevNumber = 1;
 		int logPercent = 0; 
        	logger.debug("Processing "+revisionsToProcess+"");
-		for(Wiki.Revision rev:revs){					
-				for(Topic t:topicExtractor.getTopics(rev.getText())){
-					for(TalkPageParagraph tpp:t.getParagraphs()){					
-						if(!parToRevMap.containsKey(reduceToChars(tpp.getText()))) 
-						{ 
-							Revision revProxy = new Revision(0);
-							revProxy.setContributorName(rev.getUser());
-							revProxy.setTimeStamp(new Timestamp(rev.getTimestamp().getTimeInMillis()));
-							revProxy.setComment(rev.getSummary());
-							revProxy.setRevisionID((int)rev.getRevid());
-							parToRevMap.put(reduceToChars(tpp.getText()),revProxy);							
-						}
-					}			
+       	startWorkers(DEFAULT_WORKERS);
+       	try{
+			for(Wiki.Revision rev:revs){					
+				Revision revProxy = new Revision(0);
+				revProxy.setContributorName(rev.getUser());
+				revProxy.setTimeStamp(new Timestamp(rev.getTimestamp().getTimeInMillis()));
+				revProxy.setComment(rev.getSummary());
+				revProxy.setRevisionID((int)rev.getRevid());
+				addRevision(rev.getText(), revProxy);
+	   	        int curPercent=(int)Math.round(((curRevNumber++)/revisionsToProcess)*100);   	        
+	   	        if(curPercent%10==0&&curPercent!=logPercent){
+	   	        	logger.info(curPercent+ "% of "+revisionsToProcess+" revisions processed");
+	   	        	logPercent=curPercent;
+	   	        }
 			}
-   	        int curPercent=(int)Math.round(((curRevNumber++)/revisionsToProcess)*100);   	        
-   	        if(curPercent%10==0&&curPercent!=logPercent){
-   	        	System.out.println(curPercent+ "% of "+revisionsToProcess+" revisions processed");
-   	        	logPercent=curPercent;
-   	        }
-		}
+			finishRevisions();
+       	}finally{
+       		stopWorkers();
+       	}
 		wiki.logout();		
 	}
 
@@ -146,8 +193,8 @@ public class ParagraphForwardChecker {
 	 * @return true, if meta info was added. false, otherwise
 	 */
 	public boolean addMetaInfo(TalkPageParagraph par) throws WikiApiException{
-		if(parToRevMap.containsKey(reduceToChars(par.getText()))){
-			Revision rev = parToRevMap.get(reduceToChars(par.getText()));
+		Revision rev = parToRevMap.get(fingerprint(par.getText(), true));
+		if(rev!=null){
 			par.setContributor(rev.getContributorName());
 			par.setTimestamp(rev.getTimeStamp());
 			par.setRevisionId(rev.getRevisionID());
@@ -157,13 +204,139 @@ public class ParagraphForwardChecker {
 	}
 
 	/**
-	 * Removes all nonalphanumeric characters from a String including whitespaces
+	 * Computes a 64 bit FNV-1a fingerprint of the given text.
 	 * 
-	 * @param input
-	 * @return
+	 * @param text the text to fingerprint
+	 * @param alphanumericOnly if true, only the characters A-Z, a-z and 0-9 are taken into account, i.e. the fingerprint ignores whitespace, markup and punctuation
+	 * @return the fingerprint
 	 */
-	private String reduceToChars(String input){
-		return input.replaceAll("[^A-Za-z0-9]", "");
+	static long fingerprint(CharSequence text, boolean alphanumericOnly){
+		long hash = FNV_OFFSET_BASIS;
+		for(int i=0; i<text.length(); i++){
+			char c = text.charAt(i);
+			if(!alphanumericOnly||(c>='A'&&c<='Z')||(c>='a'&&c<='z')||(c>='0'&&c<='9')){
+				hash ^= c;
+				hash *= FNV_PRIME;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Splits the text of a talk page revision into its sections. 
+	 * Each section starts with a heading line. Text before the first heading is dropped, since it does not belong to a topic.
+	 */
+	static List<String> splitSections(String pageText){
+		List<String> sections = new ArrayList<>();
+		if(pageText==null){
+			return sections;
+		}
+		Matcher heading = HEADING.matcher(pageText);
+		int start = -1;
+		while(heading.find()){
+			if(start>=0){
+				sections.add(pageText.substring(start, heading.start()));
+			}
+			start = heading.start();
+		}
+		if(start>=0){
+			sections.add(pageText.substring(start));
+		}
+		return sections;
+	}
+
+	/**
+	 * Parses all sections of the given revision that have not been seen before and assigns their new paragraphs to the revision.
+	 */
+	private void addRevision(String pageText, Revision rev){
+		StringBuilder newSections = new StringBuilder();
+		for(String section:splitSections(pageText)){
+			if(knownSections.add(fingerprint(section, false))){
+				newSections.append(section);
+				if(section.charAt(section.length()-1)!='\n'){
+					newSections.append('\n');
+				}
+			}
+		}
+		if(newSections.length()==0){
+			return;
+		}
+		String text = newSections.toString();
+		if(executor==null){
+			addParagraphs(rev, extractParagraphFingerprints(text));
+		}else{
+			pendingRevisions.add(new PendingRevision(rev, executor.submit(() -> extractParagraphFingerprints(text))));
+			if(pendingRevisions.size()>maxPendingRevisions){
+				completeOldestRevision();
+			}
+		}
+	}
+
+	private static List<Long> extractParagraphFingerprints(String sectionText) throws WikiApiException{
+		List<Long> fingerprints = new ArrayList<>();
+		for(Topic t:new TopicExtractor().getTopics(sectionText)){
+			for(TalkPageParagraph tpp:t.getParagraphs()){					
+				fingerprints.add(fingerprint(tpp.getText(), true));
+			}			
+		}
+		return fingerprints;
+	}
+
+	private void addParagraphs(Revision rev, List<Long> paragraphFingerprints){
+		for(Long paragraph:paragraphFingerprints){
+			parToRevMap.putIfAbsent(paragraph, rev);
+		}
+	}
+
+	private void completeOldestRevision(){
+		PendingRevision oldest = pendingRevisions.poll();
+		try{
+			addParagraphs(oldest.revision, oldest.paragraphFingerprints.get());
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while extracting paragraphs", e);
+		}catch(ExecutionException e){
+			throw new IllegalStateException("Could not extract paragraphs from revision "+oldest.revision.getRevisionID(), e.getCause());
+		}
+	}
+
+	private void finishRevisions(){
+		while(!pendingRevisions.isEmpty()){
+			completeOldestRevision();
+		}
+	}
+
+	private void startWorkers(int workers){
+		if(workers>1){
+			executor = Executors.newFixedThreadPool(workers);
+			maxPendingRevisions = workers*PENDING_REVISIONS_PER_WORKER;
+		}
+	}
+
+	private void stopWorkers(){
+		if(executor!=null){
+			executor.shutdownNow();
+			executor = null;
+		}
+		pendingRevisions.clear();
+	}
+
+	private static boolean isBot(RevisionApi revApi, Integer contributorId) throws WikiApiException{
+		Boolean bot = botContributors.get(contributorId);
+		if(bot==null){
+			bot = revApi.getUserGroups(contributorId).contains("bot");
+			botContributors.put(contributorId, bot);
+		}
+		return bot;
+	}
+
+	private static class PendingRevision{
+		private final Revision revision;
+		private final Future<List<Long>> paragraphFingerprints;
+
+		private PendingRevision(Revision revision, Future<List<Long>> paragraphFingerprints){
+			this.revision = revision;
+			this.paragraphFingerprints = paragraphFingerprints;
+		}
 	}
-	
 }
@@ -57,6 +57,11 @@ public class TalkPage {
 	 */
 	private boolean aggregateParagraphs;
 
+	/**
+	 * The number of threads the forward checker uses to parse the revision history of the page.
+	 */
+	private int forwardCheckerWorkers = Runtime.getRuntime().availableProcessors();
+
 	private RevisionApi revApi = null;
 	private ParagraphForwardChecker checker = null;
 	private Revision tpBaseRevision = null;
@@ -116,6 +121,27 @@ public class TalkPage {
 		_buildTurnsFromParagraphs();
 	}
 
+	/**
+	 * @param revApi
+	 *            RevisionApi instance
+	 * @param rev
+	 *            talk page revision to process
+	 * @param aggregateParagraphs
+	 *            whether to aggregate paragraphs to turns (true) or to consider
+	 *            paragraphs as turns on their own (false)
+	 * @param forwardCheckerWorkers
+	 *            the number of threads used to parse the revision history of the page.
+	 *            Use 1 if the page is already processed on a worker thread.
+	 */
+	public TalkPage(RevisionApi revApi, Revision rev, boolean aggregateParagraphs, int forwardCheckerWorkers) {
+		this.tpBaseRevision = rev;
+		this.revApi=revApi;
+		this.aggregateParagraphs = aggregateParagraphs;
+		this.forwardCheckerWorkers = forwardCheckerWorkers;
+		_revisionSegmentParagraphs();
+		_buildTurnsFromParagraphs();
+	}
+
 
 	/**
 	 * Removes all paragraphs that are older than a given Timestamp
@@ -178,7 +204,7 @@ public class TalkPage {
 			// create a new forward checker for the given revision.
 			// this takes a while, because it builds up a revision cache from
 			// the database
-			checker = new ParagraphForwardChecker(revApi, tpBaseRevision);
+			checker = new ParagraphForwardChecker(revApi, tpBaseRevision, forwardCheckerWorkers);
 
 			// segment pages into topics and paragraphs
 			TopicExtractor tExt = new TopicExtractor();
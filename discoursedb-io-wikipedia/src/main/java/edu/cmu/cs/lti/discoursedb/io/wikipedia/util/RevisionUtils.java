@@ -22,6 +22,11 @@
 package edu.cmu.cs.lti.discoursedb.io.wikipedia.util;
 
 import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.joda.time.DateTime;
 import org.joda.time.DurationFieldType;
@@ -30,8 +35,25 @@ import de.tudarmstadt.ukp.wikipedia.api.exception.WikiApiException;
 import de.tudarmstadt.ukp.wikipedia.revisionmachine.api.Revision;
 import de.tudarmstadt.ukp.wikipedia.revisionmachine.api.RevisionApi;
 
+/**
+ * Retrieves revisions of an article by age or timestamp.<br/>
+ * The revision timestamps of an article are loaded once and kept as a sorted array, so that 
+ * lookups are binary searches. The timelines of the most recently used articles are cached. 
+ * The cache assumes that the revision database does not change while it is being read.
+ */
 public class RevisionUtils {
 
+	private static final int MAX_CACHED_TIMELINES = 1000;
+
+	private static final Map<Integer, long[]> timelines = new LinkedHashMap<Integer, long[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, long[]> eldest) {
+			return size() > MAX_CACHED_TIMELINES;
+		}
+	};
+
 	/**
  	 * Returns the revision of an article at a particular age
  	 * This method starts calculating the TimeStamp of the desired version from the creation timestamp of the provided article.
@@ -44,8 +66,11 @@ public class RevisionUtils {
 	 * @throws WikiApiException
 	 */
 	public static Revision getRevisionForAge(int articleId, int ageInDays, RevisionApi revApi) throws WikiApiException{		
-		revApi.getFirstDateOfAppearance(articleId);
-		return getRevisionForAge(articleId, revApi.getFirstDateOfAppearance(articleId), ageInDays, revApi);
+		long[] timeline = getTimeline(articleId, revApi);
+		if(timeline.length==0){
+			return null;
+		}
+		return getRevisionForAge(articleId, new Timestamp(timeline[0]), ageInDays, revApi);
 	}
 
 
@@ -61,13 +86,8 @@ public class RevisionUtils {
 	public static Revision getRevisionForAge(int articleId, Timestamp creationTS, int ageInDays, RevisionApi revApi) throws WikiApiException{
 		DateTime creation = new DateTime(creationTS);
 		DateTime version = creation.withFieldAdded(DurationFieldType.days(), ageInDays);
-		for(Timestamp curTS:revApi.getRevisionTimestamps(articleId)){
-			DateTime curDT = new DateTime(curTS);
-			if(curDT.isEqual(version)||curDT.isAfter(version)){
-				return revApi.getRevision(articleId, curTS);
-			}
-		}
-		return null;		
+		long[] timeline = getTimeline(articleId, revApi);
+		return getRevision(articleId, timeline, firstIndexAtOrAfter(timeline, version.getMillis()), revApi);
 	}
 
 	/**
@@ -79,19 +99,8 @@ public class RevisionUtils {
 	 * @return the revision object, if it exists. null, else
 	 */
 	public static Revision getRevisionForTimestamp(int articleId, Timestamp targetTS, RevisionApi revApi) throws WikiApiException{
-		DateTime targetDT = new DateTime(targetTS);
-		Timestamp prevTS=null;
-		for(Timestamp curTS:revApi.getRevisionTimestamps(articleId)){
-			DateTime curDT = new DateTime(curTS);
-			if(curDT.isEqual(targetDT)){
-				return revApi.getRevision(articleId, curTS);
-			}
-			if(curDT.isAfter(targetDT)&&prevTS!=null){
-				return revApi.getRevision(articleId, prevTS);
-			}
-			prevTS=curTS;
-		}
-		return null;		
+		long[] timeline = getTimeline(articleId, revApi);
+		return getRevision(articleId, timeline, indexForTimestamp(timeline, targetTS.getTime()), revApi);
 	}
 
 	/**
@@ -103,15 +112,116 @@ public class RevisionUtils {
 	 * @return the revision object, if it exists. null, else
 	 */
 	public static Revision getRevisionBeforeTimestamp(int articleId, Timestamp targetTS, RevisionApi revApi) throws WikiApiException{
-		DateTime targetDT = new DateTime(targetTS);
-		Timestamp prevTS=null;
-		for(Timestamp curTS:revApi.getRevisionTimestamps(articleId)){
-			DateTime curDT = new DateTime(curTS);
-			if((curDT.isEqual(targetDT)||curDT.isAfter(targetDT))&&prevTS!=null){
-				return revApi.getRevision(articleId, prevTS);
+		long[] timeline = getTimeline(articleId, revApi);
+		return getRevision(articleId, timeline, indexBeforeTimestamp(timeline, targetTS.getTime()), revApi);
+	}
+
+	/**
+	 * Removes the cached revision timeline of the given article, e.g. after new revisions have been added to the revision database.
+	 * 
+	 * @param articleId id of the article
+	 */
+	public static void evictTimeline(int articleId){
+		synchronized(timelines){
+			timelines.remove(articleId);
+		}
+	}
+
+	/**
+	 * Returns the sorted revision timestamps of the given article in milliseconds. 
+	 * The timestamps are only retrieved from the database if the timeline of the article is not cached.
+	 */
+	private static long[] getTimeline(int articleId, RevisionApi revApi) throws WikiApiException{
+		synchronized(timelines){
+			long[] timeline = timelines.get(articleId);
+			if(timeline!=null){
+				return timeline;
+			}
+		}
+		List<Timestamp> timestamps = revApi.getRevisionTimestamps(articleId);
+		if(timestamps==null){
+			timestamps=Collections.emptyList();
+		}
+		long[] timeline = new long[timestamps.size()];
+		for(int i=0;i<timeline.length;i++){
+			timeline[i]=timestamps.get(i).getTime();
+		}
+		Arrays.sort(timeline);
+		synchronized(timelines){
+			timelines.put(articleId, timeline);
+		}
+		return timeline;
+	}
+
+	private static Revision getRevision(int articleId, long[] timeline, int idx, RevisionApi revApi) throws WikiApiException{
+		if(idx<0||idx>=timeline.length){
+			return null;
+		}
+		return revApi.getRevision(articleId, new Timestamp(timeline[idx]));
+	}
+
+	/**
+	 * Finds the revision returned by {@link #getRevisionForTimestamp(int, Timestamp, RevisionApi)}: 
+	 * the revision with exactly the given timestamp or else the last revision before it. 
+	 * If the target is earlier than all revisions, the first revision is returned, provided there is more than one revision.
+	 * If the target is later than all revisions, no revision is returned.
+	 * 
+	 * @return the index in the timeline or -1 if there is no matching revision
+	 */
+	static int indexForTimestamp(long[] timeline, long target){
+		int idx = firstIndexAtOrAfter(timeline, target);
+		if(idx>=timeline.length){
+			return -1;
+		}
+		if(timeline[idx]==target){
+			return idx;
+		}
+		return previousIndex(timeline, idx);
+	}
+
+	/**
+	 * Finds the revision returned by {@link #getRevisionBeforeTimestamp(int, Timestamp, RevisionApi)}: 
+	 * the last revision before the given timestamp. 
+	 * If no revision is earlier than the target, the first revision is returned, provided there is more than one revision.
+	 * If the target is later than all revisions, no revision is returned.
+	 * 
+	 * @return the index in the timeline or -1 if there is no matching revision
+	 */
+	static int indexBeforeTimestamp(long[] timeline, long target){
+		int idx = firstIndexAtOrAfter(timeline, target);
+		if(idx>=timeline.length){
+			return -1;
+		}
+		return previousIndex(timeline, idx);
+	}
+
+	/**
+	 * The revision before the one at the given index. These lookups have always treated the first revision as 
+	 * the predecessor of the second one when the target lies before the start of the timeline, so this boundary is kept.
+	 */
+	private static int previousIndex(long[] timeline, int idx){
+		if(idx>0){
+			return idx-1;
+		}
+		return timeline.length>1 ? 0 : -1;
+	}
+
+	/**
+	 * Binary search for the first timestamp that is equal to or later than the given one.
+	 * 
+	 * @return the index of the timestamp or the length of the timeline if all timestamps are earlier
+	 */
+	static int firstIndexAtOrAfter(long[] timeline, long millis){
+		int low = 0;
+		int high = timeline.length;
+		while(low<high){
+			int mid = (low+high)>>>1;
+			if(timeline[mid]<millis){
+				low=mid+1;
+			}else{
+				high=mid;
 			}
-			prevTS=curTS;
 		}
-		return null;		
+		return low;
 	}
 }
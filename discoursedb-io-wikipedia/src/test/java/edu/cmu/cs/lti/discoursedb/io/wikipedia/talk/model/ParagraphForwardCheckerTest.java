@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.io.wikipedia.talk.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the text helpers the {@link ParagraphForwardChecker} uses to detect new sections and paragraphs.
+ * 
+ * @author Oliver Ferschke
+ */
+public class ParagraphForwardCheckerTest {
+
+	@Test
+	public void fingerprintMatchesFnv1aTestVectors() {
+		assertEquals(0xcbf29ce484222325L, ParagraphForwardChecker.fingerprint("", false));
+		assertEquals(0xaf63dc4c8601ec8cL, ParagraphForwardChecker.fingerprint("a", false));
+		assertEquals(0x85944171f73967e8L, ParagraphForwardChecker.fingerprint("foobar", false));
+	}
+
+	@Test
+	public void alphanumericFingerprintIgnoresWhitespaceMarkupAndPunctuation() {
+		long plain = ParagraphForwardChecker.fingerprint("Hello World 42", true);
+		assertEquals(plain, ParagraphForwardChecker.fingerprint("'''Hello''',\n  [[World]] -- 42!", true));
+		assertEquals(ParagraphForwardChecker.fingerprint("HelloWorld42", false), plain);
+		assertEquals(ParagraphForwardChecker.fingerprint("", false), ParagraphForwardChecker.fingerprint(" :-) ", true));
+	}
+
+	@Test
+	public void fullFingerprintDistinguishesWhitespaceAndCase() {
+		assertNotEquals(ParagraphForwardChecker.fingerprint("Hello World", false), ParagraphForwardChecker.fingerprint("HelloWorld", false));
+		assertNotEquals(ParagraphForwardChecker.fingerprint("hello", true), ParagraphForwardChecker.fingerprint("Hello", true));
+		assertNotEquals(ParagraphForwardChecker.fingerprint("ab", false), ParagraphForwardChecker.fingerprint("ba", false));
+	}
+
+	@Test
+	public void fingerprintAcceptsAnyCharSequence() {
+		assertEquals(ParagraphForwardChecker.fingerprint("text", false), ParagraphForwardChecker.fingerprint(new StringBuilder("text"), false));
+	}
+
+	@Test
+	public void splitSectionsWithoutHeadingsIsEmpty() {
+		assertTrue(ParagraphForwardChecker.splitSections(null).isEmpty());
+		assertTrue(ParagraphForwardChecker.splitSections("").isEmpty());
+		assertTrue(ParagraphForwardChecker.splitSections("Some text\nwithout any heading\n").isEmpty());
+	}
+
+	@Test
+	public void splitSectionsDropsTextBeforeFirstHeading() {
+		List<String> sections = ParagraphForwardChecker.splitSections("{{Talk header}}\n== First ==\nA\n== Second ==\nB\n");
+		assertEquals(Arrays.asList("== First ==\nA\n", "== Second ==\nB\n"), sections);
+	}
+
+	@Test
+	public void splitSectionsKeepsLastSectionWithoutTrailingNewline() {
+		assertEquals(Arrays.asList("== Only ==\ntext"), ParagraphForwardChecker.splitSections("== Only ==\ntext"));
+		assertEquals(Arrays.asList("== Only =="), ParagraphForwardChecker.splitSections("== Only =="));
+	}
+
+	@Test
+	public void subsectionsAndTrailingBlanksStartNewSections() {
+		List<String> sections = ParagraphForwardChecker.splitSections("== Topic ==\nA\n=== Sub ===  \nB\n");
+		assertEquals(Arrays.asList("== Topic ==\nA\n", "=== Sub ===  \nB\n"), sections);
+	}
+
+	@Test
+	public void unbalancedOrInlineEqualsSignsAreNoHeadings() {
+		String text = "== Topic ==\nif a == b then\n== Broken =\n====\n x == y ==\n";
+		assertEquals(Arrays.asList(text), ParagraphForwardChecker.splitSections(text));
+	}
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.io.wikipedia.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the binary searches behind the revision lookups of {@link RevisionUtils}, 
+ * including the boundaries of the linear scans they replaced.
+ * 
+ * @author Oliver Ferschke
+ */
+public class RevisionUtilsTest {
+
+	private static final long[] EMPTY = {};
+	private static final long[] SINGLE = {100};
+	private static final long[] TIMELINE = {100, 200, 200, 300};
+
+	@Test
+	public void firstIndexAtOrAfter() {
+		assertEquals(0, RevisionUtils.firstIndexAtOrAfter(EMPTY, 100));
+		assertEquals(0, RevisionUtils.firstIndexAtOrAfter(TIMELINE, 50));
+		assertEquals(0, RevisionUtils.firstIndexAtOrAfter(TIMELINE, 100));
+		assertEquals(1, RevisionUtils.firstIndexAtOrAfter(TIMELINE, 150));
+		//ties resolve to the first of the equal timestamps
+		assertEquals(1, RevisionUtils.firstIndexAtOrAfter(TIMELINE, 200));
+		assertEquals(3, RevisionUtils.firstIndexAtOrAfter(TIMELINE, 300));
+		assertEquals(4, RevisionUtils.firstIndexAtOrAfter(TIMELINE, 301));
+	}
+
+	@Test
+	public void revisionForAgeIsFirstRevisionAtOrAfterTarget() {
+		//getRevisionForAge fetches the revision at firstIndexAtOrAfter, or none past the end
+		assertEquals(0, RevisionUtils.firstIndexAtOrAfter(SINGLE, 99));
+		assertEquals(1, RevisionUtils.firstIndexAtOrAfter(SINGLE, 101));
+	}
+
+	@Test
+	public void revisionForTimestampPrefersExactMatch() {
+		assertEquals(0, RevisionUtils.indexForTimestamp(TIMELINE, 100));
+		assertEquals(1, RevisionUtils.indexForTimestamp(TIMELINE, 200));
+		assertEquals(3, RevisionUtils.indexForTimestamp(TIMELINE, 300));
+		assertEquals(0, RevisionUtils.indexForTimestamp(SINGLE, 100));
+	}
+
+	@Test
+	public void revisionForTimestampFallsBackToPreviousRevision() {
+		assertEquals(0, RevisionUtils.indexForTimestamp(TIMELINE, 150));
+		assertEquals(2, RevisionUtils.indexForTimestamp(TIMELINE, 250));
+	}
+
+	@Test
+	public void revisionForTimestampAtBothEnds() {
+		//before the first revision: the first revision, if there is a second one
+		assertEquals(0, RevisionUtils.indexForTimestamp(TIMELINE, 50));
+		assertEquals(-1, RevisionUtils.indexForTimestamp(SINGLE, 50));
+		//after the last revision: none
+		assertEquals(-1, RevisionUtils.indexForTimestamp(TIMELINE, 301));
+		assertEquals(-1, RevisionUtils.indexForTimestamp(SINGLE, 101));
+		assertEquals(-1, RevisionUtils.indexForTimestamp(EMPTY, 100));
+	}
+
+	@Test
+	public void revisionBeforeTimestamp() {
+		assertEquals(0, RevisionUtils.indexBeforeTimestamp(TIMELINE, 150));
+		//ties: the revision before the first of the equal timestamps
+		assertEquals(0, RevisionUtils.indexBeforeTimestamp(TIMELINE, 200));
+		assertEquals(2, RevisionUtils.indexBeforeTimestamp(TIMELINE, 300));
+	}
+
+	@Test
+	public void revisionBeforeTimestampAtBothEnds() {
+		//at or before the first revision: the first revision, if there is a second one
+		assertEquals(0, RevisionUtils.indexBeforeTimestamp(TIMELINE, 100));
+		assertEquals(0, RevisionUtils.indexBeforeTimestamp(TIMELINE, 50));
+		assertEquals(-1, RevisionUtils.indexBeforeTimestamp(SINGLE, 100));
+		//after the last revision: none
+		assertEquals(-1, RevisionUtils.indexBeforeTimestamp(TIMELINE, 301));
+		assertEquals(-1, RevisionUtils.indexBeforeTimestamp(EMPTY, 100));
+	}
+
+	@Test
+	public void matchesLinearScans() {
+		Random random = new Random(42);
+		for (int run = 0; run < 1000; run++) {
+			long[] timeline = new long[random.nextInt(6)];
+			for (int i = 0; i < timeline.length; i++) {
+				timeline[i] = random.nextInt(10);
+			}
+			Arrays.sort(timeline);
+			for (long target = -1; target <= 10; target++) {
+				String message = Arrays.toString(timeline) + " target " + target;
+				assertEquals(message, timestampOf(timeline, linearForTimestamp(timeline, target)), timestampOf(timeline, RevisionUtils.indexForTimestamp(timeline, target)));
+				assertEquals(message, timestampOf(timeline, linearBeforeTimestamp(timeline, target)), timestampOf(timeline, RevisionUtils.indexBeforeTimestamp(timeline, target)));
+			}
+		}
+	}
+
+	/**
+	 * Revisions are fetched by timestamp, so lookups are compared by the timestamp they resolve to.
+	 */
+	private static Long timestampOf(long[] timeline, int idx) {
+		return idx < 0 || idx >= timeline.length ? null : timeline[idx];
+	}
+
+	/**
+	 * The scan getRevisionForTimestamp used before the timelines were introduced.
+	 */
+	private static int linearForTimestamp(long[] timeline, long target) {
+		int prev = -1;
+		for (int i = 0; i < timeline.length; i++) {
+			if (timeline[i] == target) {
+				return i;
+			}
+			if (timeline[i] > target && prev >= 0) {
+				return prev;
+			}
+			prev = i;
+		}
+		return -1;
+	}
+
+	/**
+	 * The scan getRevisionBeforeTimestamp used before the timelines were introduced.
+	 */
+	private static int linearBeforeTimestamp(long[] timeline, long target) {
+		int prev = -1;
+		for (int i = 0; i < timeline.length; i++) {
+			if (timeline[i] >= target && prev >= 0) {
+				return prev;
+			}
+			prev = i;
+		}
+		return -1;
+	}
+}
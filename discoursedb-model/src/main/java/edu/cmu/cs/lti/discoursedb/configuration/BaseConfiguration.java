@@ -24,8 +24,11 @@ package edu.cmu.cs.lti.discoursedb.configuration;
 import java.util.Properties;
 
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.SharedCacheMode;
 import javax.sql.DataSource;
 
+import org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory;
+import org.hibernate.jpa.AvailableSettings;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.orm.jpa.EntityScan;
@@ -60,6 +63,10 @@ import com.mchange.v2.c3p0.ComboPooledDataSource;
     @PropertySource("classpath:hibernate.properties"), //default hibernate configuration
     @PropertySource("classpath:jdbc.properties"), //default database configuration
     @PropertySource("classpath:c3p0.properties"), //default connection pool configuration
+    @PropertySource("classpath:cache.properties"), //default cache configuration
+    @PropertySource("classpath:import.properties"), //default bulk import configuration
+    @PropertySource("classpath:stats.properties"), //default statistics configuration
+    @PropertySource("classpath:content.properties"), //default content storage configuration
     @PropertySource(value = "classpath:custom.properties", ignoreResourceNotFound = true) //optional custom config. keys specified here override defaults 
 })
 @EntityScan(basePackages = { "edu.cmu.cs.lti.discoursedb.core.model" })
@@ -74,10 +81,7 @@ public class BaseConfiguration {
 		try {
 			ComboPooledDataSource ds = new ComboPooledDataSource();
 			ds.setDriverClass(environment.getRequiredProperty("jdbc.driverClassName"));
-			String host = environment.getRequiredProperty("jdbc.host");
-			String port = environment.getRequiredProperty("jdbc.port");
-			String database = environment.getRequiredProperty("jdbc.database");
-			ds.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database+ "?createDatabaseIfNotExist=true&useUnicode=true&characterEncoding=UTF-8&characterSetResults=UTF-8&useSSL=false");
+			ds.setJdbcUrl(jdbcUrl());
 			ds.setUser(environment.getRequiredProperty("jdbc.username"));
 			ds.setPassword(environment.getRequiredProperty("jdbc.password"));
 			ds.setAcquireIncrement(Integer.parseInt(environment.getRequiredProperty("c3p0.acquireIncrement").trim()));
@@ -92,6 +96,38 @@ public class BaseConfiguration {
 		}
 	}
 
+	/**
+	 * A small separate pool for long-running streaming reads, see {@link CursorFetchDataSource}.
+	 * The pool opens no connection before the first streaming read.
+	 */
+	@Bean(destroyMethod = "close")
+	public CursorFetchDataSource cursorFetchDataSource() {
+		try {
+			ComboPooledDataSource ds = new ComboPooledDataSource();
+			ds.setDriverClass(environment.getRequiredProperty("jdbc.driverClassName"));
+			//MySQL serves queries with a fetch size from a server-side cursor instead of reading the whole result
+			ds.setJdbcUrl(jdbcUrl() + "&useCursorFetch=true");
+			ds.setUser(environment.getRequiredProperty("jdbc.username"));
+			ds.setPassword(environment.getRequiredProperty("jdbc.password"));
+			ds.setIdleConnectionTestPeriod(
+					Integer.parseInt(environment.getRequiredProperty("c3p0.idleConnectionTestPeriod").trim()));
+			ds.setInitialPoolSize(0);
+			ds.setMinPoolSize(0);
+			ds.setAcquireIncrement(1);
+			ds.setMaxPoolSize(Integer.parseInt(environment.getRequiredProperty("c3p0.cursorFetch.maxPoolSize").trim()));
+			return new CursorFetchDataSource(ds);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private String jdbcUrl() {
+		String host = environment.getRequiredProperty("jdbc.host");
+		String port = environment.getRequiredProperty("jdbc.port");
+		String database = environment.getRequiredProperty("jdbc.database");
+		return "jdbc:mysql://" + host + ":" + port + "/" + database+ "?createDatabaseIfNotExist=true&useUnicode=true&characterEncoding=UTF-8&characterSetResults=UTF-8&useSSL=false";
+	}
+
 	@Bean
 	LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource, Environment env) {
 		HibernateJpaVendorAdapter vendorAdapter = new HibernateJpaVendorAdapter();
@@ -114,6 +150,23 @@ public class BaseConfiguration {
 		jpaProperties.put("hibernate.order_inserts", true);
 		jpaProperties.put("hibernate.order_updates", true);
 		jpaProperties.put("hibernate.id.new_generator_mappings", Boolean.parseBoolean(environment.getRequiredProperty("hibernate.id.new_generator_mappings").trim()));
+		if(Boolean.parseBoolean(env.getRequiredProperty("hibernate.id.pooled").trim())){
+			//replace AUTO_INCREMENT ids with pooled table ids, so inserts can be batched
+			PooledTableIdentifierGenerator.setDefaultIncrementSize(Integer.parseInt(env.getRequiredProperty("hibernate.id.pooled.increment_size").trim()));
+			jpaProperties.put(AvailableSettings.IDENTIFIER_GENERATOR_STRATEGY_PROVIDER, DiscourseDBIdentifierGeneratorStrategyProvider.class.getName());
+		}
+		if(Boolean.parseBoolean(env.getRequiredProperty("cache.l2.enabled").trim())){
+			//cache the entities annotated with @Cacheable. the statistics provide the hit ratios of the cache regions.
+			jpaProperties.put(AvailableSettings.SHARED_CACHE_MODE, SharedCacheMode.ENABLE_SELECTIVE.name());
+			jpaProperties.put("hibernate.cache.use_second_level_cache", true);
+			jpaProperties.put("hibernate.cache.region.factory_class", SingletonEhCacheRegionFactory.class.getName());
+			jpaProperties.put("net.sf.ehcache.configurationResourceName", env.getRequiredProperty("cache.l2.configurationFile").trim());
+			jpaProperties.put("hibernate.cache.use_query_cache", Boolean.parseBoolean(env.getRequiredProperty("cache.l2.queryCache.enabled").trim()));
+			jpaProperties.put("hibernate.generate_statistics", true);
+		}else{
+			jpaProperties.put("hibernate.cache.use_second_level_cache", false);
+			jpaProperties.put("hibernate.cache.use_query_cache", false);
+		}
 		factory.setJpaProperties(jpaProperties);
 
 		return factory;
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Provides database connections that read results with a fetch size through a MySQL server-side cursor 
+ * (<code>useCursorFetch=true</code>), so large results can be streamed without holding them in memory 
+ * and without blocking the connection for other statements.<br/>
+ * 
+ * The setting is kept out of the main connection pool, since it turns every prepared statement into a server-side prepared statement.
+ * The class deliberately does not implement DataSource, so these connections are never picked up in place of the main pool.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+public class CursorFetchDataSource {
+
+	private final DataSource dataSource;
+
+	CursorFetchDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * @return a connection with server-side cursors enabled. The caller has to close it.
+	 * @throws SQLException if no connection could be established
+	 */
+	public Connection getConnection() throws SQLException {
+		return dataSource.getConnection();
+	}
+
+	/**
+	 * Opens a stateless session on a connection with server-side cursors enabled and passes it to the given reader.
+	 * The session and the connection are closed when the reader returns.
+	 * 
+	 * @param entityManager provides the session factory the session is opened with
+	 * @param reader reads from the session
+	 * @throws DataAccessResourceFailureException if no connection could be established
+	 */
+	public void read(EntityManager entityManager, Consumer<StatelessSession> reader) {
+		Connection connection;
+		try {
+			connection = getConnection();
+		} catch (SQLException e) {
+			throw new DataAccessResourceFailureException("Could not open a streaming database connection.", e);
+		}
+		StatelessSession session = entityManager.unwrap(Session.class).getSessionFactory().openStatelessSession(connection);
+		try {
+			reader.accept(session);
+		} finally {
+			session.close();
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				log.warn("Could not close streaming database connection.", e);
+			}
+		}
+	}
+
+	/**
+	 * Closes all pooled connections.
+	 * 
+	 * @throws SQLException if the pool could not be closed
+	 */
+	public void close() throws SQLException {
+		if (dataSource instanceof PooledDataSource) {
+			((PooledDataSource) dataSource).close();
+		}
+	}
+}
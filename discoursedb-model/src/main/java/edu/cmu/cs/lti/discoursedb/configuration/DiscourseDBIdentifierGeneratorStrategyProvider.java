@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.hibernate.jpa.spi.IdentifierGeneratorStrategyProvider;
+
+/**
+ * Replaces the native id generation strategy (which is used by all DiscourseDB entities with GenerationType.AUTO)
+ * with the {@link PooledTableIdentifierGenerator}. The provider is registered by the {@link BaseConfiguration} if
+ * <code>hibernate.id.pooled</code> is enabled.
+ * 
+ * @author Oliver Ferschke
+ */
+public class DiscourseDBIdentifierGeneratorStrategyProvider implements IdentifierGeneratorStrategyProvider {
+
+	@Override
+	public Map<String, Class<?>> getStrategies() {
+		return Collections.singletonMap("native", PooledTableIdentifierGenerator.class);
+	}
+
+}
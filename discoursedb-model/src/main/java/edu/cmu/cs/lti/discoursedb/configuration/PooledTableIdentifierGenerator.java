@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.configuration;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.jdbc.AbstractWork;
+import org.hibernate.type.Type;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Table-based identifier generator with a pooled optimizer that is used instead of the native
+ * (i.e. AUTO_INCREMENT) id generation if <code>hibernate.id.pooled</code> is enabled.<br/>
+ * 
+ * In contrast to identity columns, ids are assigned before the insert, which allows Hibernate to
+ * group inserts into JDBC batches (see <code>hibernate.jdbc.batch_size</code>).
+ * Each entity table uses its own row in the sequence table, and a block of <code>hibernate.id.pooled.increment_size</code>
+ * ids is reserved with a single update.<br/>
+ * 
+ * Before the first id of an entity table is handed out, the sequence row is moved past the largest existing
+ * primary key of that table. This way, the generator can be enabled on databases that have been filled with AUTO_INCREMENT ids before.
+ * Note that tables created while pooled ids are enabled don't have an AUTO_INCREMENT column and therefore require pooled ids for later imports as well.<br/>
+ * 
+ * The generator is MySQL specific. The alignment relies on <code>insert ... on duplicate key update</code> and the <code>greatest</code> function.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+public class PooledTableIdentifierGenerator extends TableGenerator {
+
+	private static volatile int defaultIncrementSize = 100;
+
+	private String targetTable;
+	private String targetColumn;
+	private boolean initialized = false;
+
+	/**
+	 * Sets the number of ids that are reserved per round trip to the sequence table.
+	 * Has to be called before the EntityManagerFactory is created.
+	 * 
+	 * @param incrementSize the size of the id blocks
+	 */
+	public static void setDefaultIncrementSize(int incrementSize) {
+		if (incrementSize < 1) {
+			throw new IllegalArgumentException("Increment size has to be a positive number.");
+		}
+		defaultIncrementSize = incrementSize;
+	}
+
+	@Override
+	public void configure(Type type, Properties params, Dialect dialect) throws MappingException {
+		params.putIfAbsent(CONFIG_PREFER_SEGMENT_PER_ENTITY, "true");
+		params.putIfAbsent(INCREMENT_PARAM, String.valueOf(defaultIncrementSize));
+		params.putIfAbsent(OPT_PARAM, "pooled");
+		//keep the primary key of the sequence table within the index size limits of utf8mb4 tables
+		params.putIfAbsent(SEGMENT_LENGTH_PARAM, "95");
+		super.configure(type, params, dialect);
+		targetTable = params.getProperty(PersistentIdentifierGenerator.TABLE);
+		targetColumn = params.getProperty(PersistentIdentifierGenerator.PK);
+	}
+
+	@Override
+	public synchronized Serializable generate(SessionImplementor session, Object obj) {
+		if (!initialized) {
+			alignWithExistingIds(session);
+			initialized = true;
+		}
+		return super.generate(session, obj);
+	}
+
+	/**
+	 * Makes sure that the sequence row of the target table lies beyond the largest primary key in the target table.
+	 */
+	private void alignWithExistingIds(SessionImplementor session) {
+		session.getTransactionCoordinator().getTransaction().createIsolationDelegate().delegateWork(new AbstractWork() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				long maxId = 0;
+				try (PreparedStatement select = connection.prepareStatement("select max(" + targetColumn + ") from " + targetTable);
+						ResultSet rs = select.executeQuery()) {
+					if (rs.next()) {
+						maxId = rs.getLong(1);
+					}
+				}
+				//the pooled optimizer hands out the ids (value-incrementSize, value] for the value read from the table
+				long nextValue = maxId + getIncrementSize();
+				try (PreparedStatement upsert = connection.prepareStatement("insert into " + getTableName() + " ("
+						+ getSegmentColumnName() + ", " + getValueColumnName() + ") values (?, ?) on duplicate key update "
+						+ getValueColumnName() + " = greatest(" + getValueColumnName() + ", values(" + getValueColumnName() + "))")) {
+					upsert.setString(1, getSegmentValue());
+					upsert.setLong(2, nextValue);
+					upsert.executeUpdate();
+				}
+				log.debug("Pooled ids for table " + targetTable + " start after " + maxId);
+			}
+		}, true);
+	}
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.model.macro;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Stores long texts in compressed form.<br/>
+ * 
+ * Texts with at least <code>content.compression.threshold</code> characters are deflated and stored Base64 encoded 
+ * behind the prefix {@link #COMPRESSED}. Shorter texts and texts that don't get smaller are stored as they are.
+ * Both prefixes start with the control character U+0001, which does not occur in regular texts. 
+ * Plain texts that start with it anyway are escaped with the prefix {@link #ESCAPED}.
+ * Compressed values are always restored, so texts written while compression was enabled can still be read after it has been disabled.<br/>
+ * 
+ * The converter is instantiated by Hibernate, so its settings are static and applied by the 
+ * {@link edu.cmu.cs.lti.discoursedb.core.service.system.ContentCompressionService} on startup.
+ * Compression is disabled until then.
+ * 
+ * @author Oliver Ferschke
+ */
+@Converter
+public class CompressedTextConverter implements AttributeConverter<String, String> {
+
+	public static final String COMPRESSED = "\u0001z:";
+	public static final String ESCAPED = "\u0001r:";
+	private static final char MARKER = '\u0001';
+
+	private static volatile boolean enabled = false;
+	private static volatile int threshold = Integer.MAX_VALUE;
+
+	/**
+	 * Configures the compression of texts that are written from now on.
+	 * 
+	 * @param enabled true, if long texts should be compressed
+	 * @param threshold the minimum number of characters of a text to be compressed
+	 */
+	public static void configure(boolean enabled, int threshold) {
+		CompressedTextConverter.enabled = enabled;
+		CompressedTextConverter.threshold = threshold;
+	}
+
+	@Override
+	public String convertToDatabaseColumn(String text) {
+		return compress(text, enabled ? threshold : Integer.MAX_VALUE);
+	}
+
+	@Override
+	public String convertToEntityAttribute(String stored) {
+		return decompress(stored);
+	}
+
+	/**
+	 * Converts a text into its stored form.
+	 * 
+	 * @param text the text to store
+	 * @param threshold the minimum number of characters of a text to be compressed
+	 * @return the stored form of the text
+	 */
+	public static String compress(String text, int threshold) {
+		if (text == null) {
+			return null;
+		}
+		if (text.length() >= threshold) {
+			byte[] compressed = deflate(text.getBytes(StandardCharsets.UTF_8));
+			String encoded = COMPRESSED + Base64.getEncoder().encodeToString(compressed);
+			if (encoded.length() < text.length()) {
+				return encoded;
+			}
+		}
+		return !text.isEmpty() && text.charAt(0) == MARKER ? ESCAPED + text : text;
+	}
+
+	/**
+	 * Restores a text from its stored form.
+	 * 
+	 * @param stored the stored form of a text
+	 * @return the text
+	 * @throws IllegalStateException if a compressed text is corrupted
+	 */
+	public static String decompress(String stored) {
+		if (stored == null || stored.isEmpty() || stored.charAt(0) != MARKER) {
+			return stored;
+		}
+		if (stored.startsWith(ESCAPED)) {
+			return stored.substring(ESCAPED.length());
+		}
+		if (stored.startsWith(COMPRESSED)) {
+			byte[] compressed;
+			try {
+				compressed = Base64.getDecoder().decode(stored.substring(COMPRESSED.length()));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalStateException("Compressed text is not Base64 encoded.", e);
+			}
+			return new String(inflate(compressed), StandardCharsets.UTF_8);
+		}
+		//written before compression was available
+		return stored;
+	}
+
+	/**
+	 * @param stored the stored form of a text
+	 * @return true, if the text is stored in compressed form
+	 */
+	public static boolean isCompressed(String stored) {
+		return stored != null && stored.startsWith(COMPRESSED);
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] data) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+			byte[] buffer = new byte[8192];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalStateException("Compressed text is truncated.");
+				}
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Compressed text is corrupted.", e);
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -27,25 +27,31 @@ import java.util.Set;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
 import org.springframework.data.rest.core.annotation.Description;
 import org.springframework.hateoas.Identifiable;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import edu.cmu.cs.lti.discoursedb.core.model.TimedAnnotatableSourcedBE;
 import edu.cmu.cs.lti.discoursedb.core.model.user.ContributionInteraction;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 
@@ -62,13 +68,17 @@ import lombok.ToString;
  * entity is related to a User indicating that this user is the author of the
  * content instance. Other relationships between Users and Content or
  * Contributions can be represented with ContributionUserInteraction entities.
+ * <br/>
+ * The text of a revision can be stored as a delta against the full text of an earlier
+ * revision in the same list (see {@link #setTextDelta(Long, String, String)}). The text of such entities
+ * is restored when they are loaded, so {@link #getText()} always returns the full text.
  * 
  * @author Oliver Ferschke
  *
  */
 @Data
-@EqualsAndHashCode(callSuper=true, exclude={"contributionInteractions","previousRevision","nextRevision"})
-@ToString(callSuper=true, exclude={"contributionInteractions","previousRevision","nextRevision"})
+@EqualsAndHashCode(callSuper=true, exclude={"contributionInteractions","previousRevision","nextRevision","textDelta","textBase","decodedText"})
+@ToString(callSuper=true, exclude={"contributionInteractions","previousRevision","nextRevision","textDelta","textBase","decodedText"})
 @Entity
 @Table(name="content")
 @Description("The content of a Contribution or Context")
@@ -96,8 +106,36 @@ public class Content extends TimedAnnotatableSourcedBE implements Identifiable<L
 	private String title;
 
 	@Column(columnDefinition="LONGTEXT")
+	@Convert(converter=CompressedTextConverter.class)
 	@Description("The text body of this context, if it is a textual content.")
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
 	private String text;
+
+	@JsonIgnore
+	@Column(name="text_delta", columnDefinition="LONGTEXT")
+	@Setter(AccessLevel.NONE)
+	@Description("The text body encoded as a delta against the text of the content with the id textBaseId. Null, if the text is stored in full.")
+	private String textDelta;
+
+	@JsonIgnore
+	@Column(name="fk_text_base")
+	@Setter(AccessLevel.NONE)
+	@Description("The id of the content that holds the base text of the text delta.")
+	private Long textBaseId;
+
+	//maps the foreign key constraint of fk_text_base. the column is written through textBaseId only
+	@JsonIgnore
+	@ManyToOne(fetch=FetchType.LAZY)
+	@JoinColumn(name="fk_text_base", insertable=false, updatable=false)
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private Content textBase;
+
+	//the full text of a delta encoded content. It is restored from the delta when the entity is loaded
+	@Transient
+	@Getter(AccessLevel.NONE)
+	private String decodedText;
 	
 	@Column(columnDefinition="LONGBLOB")
 	@Description("The data of this content, if it is a non-textual content.")
@@ -112,5 +150,48 @@ public class Content extends TimedAnnotatableSourcedBE implements Identifiable<L
 	@Description("A set of interactions between users and this content entity.")
 	@Setter(AccessLevel.PRIVATE) 
 	private Set<ContributionInteraction> contributionInteractions = new HashSet<ContributionInteraction>();
+
+	/**
+	 * @return the full text of this content, also if it is stored as a delta
+	 */
+	public String getText(){
+		return textDelta==null?text:decodedText;
+	}
+
+	/**
+	 * Sets the full text of this content. A text delta that was stored before is dropped.
+	 * The text of a content that is the base of other delta encoded contents cannot be changed. 
+	 * Flushing such a change fails with an IllegalStateException.
+	 * 
+	 * @param text the text body of this content
+	 */
+	public void setText(String text){
+		this.text=text;
+		this.textDelta=null;
+		this.textBaseId=null;
+		this.decodedText=null;
+	}
+
+	/**
+	 * Stores the text of this content as a delta against the full text of another content entity.
+	 * The base content must store its text in full. Its text cannot be changed and it cannot be deleted as long as it is referenced as a base.
+	 * 
+	 * @param textBaseId the id of the content that holds the base text
+	 * @param textDelta the delta between the base text and the text of this content
+	 * @param text the full text of this content
+	 */
+	public void setTextDelta(Long textBaseId, String textDelta, String text){
+		this.text=null;
+		this.textDelta=textDelta;
+		this.textBaseId=textBaseId;
+		this.decodedText=text;
+	}
+
+	/**
+	 * @return true, if the text of this content is stored as a delta
+	 */
+	public boolean isTextDeltaEncoded(){
+		return textDelta!=null;
+	}
 		
 }
@@ -24,6 +24,7 @@ package edu.cmu.cs.lti.discoursedb.core.model.macro;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -34,6 +35,8 @@ import javax.persistence.ManyToMany;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.hateoas.Identifiable;
 import org.springframework.util.Assert;
 
@@ -68,6 +71,8 @@ import lombok.ToString;
 @EqualsAndHashCode(callSuper=true, exclude={"discourseToDiscourseParts","users"})
 @ToString(callSuper=true, exclude={"discourseToDiscourseParts","users"})
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "discourse")
 public class Discourse extends BaseEntity implements Identifiable<Long> {
 
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.model.macro;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.springframework.data.rest.core.annotation.Description;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+/**
+ * Materialized transitive closure of the DiscoursePartRelations.<br/>
+ * 
+ * There is one row for each pair of DiscourseParts that is connected by a path of DiscoursePartRelations.
+ * Paths that only consist of relations of a single type are stored with that type,
+ * paths over relations of any type are stored with the type {@link #ALL_TYPES}.
+ * The depth is the length of the shortest such path.<br/>
+ * 
+ * The rows are derived from the DiscoursePartRelations and are maintained by the DiscoursePartService.
+ * They refer to the DiscourseParts by id only, so they can be written with plain SQL statements.
+ * 
+ * @author Oliver Ferschke
+ */
+@Data
+@Entity
+@IdClass(DiscoursePartClosure.DiscoursePartClosureId.class)
+@Table(name = "discourse_part_closure", indexes = {
+		@Index(name = "closureDescendantIndex", columnList = "fk_descendant,type") })
+public class DiscoursePartClosure {
+
+	/**
+	 * Type of the closure rows that contain paths over DiscoursePartRelations of any type
+	 */
+	public static final String ALL_TYPES = "*";
+
+	@Id
+	@Column(name = "fk_ancestor", nullable = false)
+	@Description("The id of the DiscoursePart at the start of the path.")
+	private Long ancestorId;
+
+	@Id
+	@Column(name = "fk_descendant", nullable = false)
+	@Description("The id of the DiscoursePart at the end of the path.")
+	private Long descendantId;
+
+	@Id
+	@Column(name = "type", nullable = false, length = 95)
+	@Description("The type of the DiscoursePartRelations on the path or * if the path may contain relations of any type.")
+	private String type;
+
+	@Column(name = "depth", nullable = false)
+	@Description("The number of DiscoursePartRelations on the shortest path between ancestor and descendant.")
+	private int depth;
+
+	@Data
+	@NoArgsConstructor
+	@EqualsAndHashCode
+	public static class DiscoursePartClosureId implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private Long ancestorId;
+		private Long descendantId;
+		private String type;
+	}
+}
@@ -27,6 +27,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
@@ -42,7 +43,7 @@ import lombok.Setter;
 @Data
 @EqualsAndHashCode(callSuper=true)
 @Entity
-@Table(name="discourse_relation")
+@Table(name="discourse_relation", indexes = { @Index(name = "relationTargetTypeIndex", columnList = "fk_target,type") })
 public class DiscourseRelation extends TypedTimedAnnotatableBE implements Identifiable<Long> {
 
 	@Id
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.model.system;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+import org.springframework.data.rest.core.annotation.Description;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+/**
+ * Precomputed number of entities of a certain category and type, either across the whole database 
+ * or within a single discourse. The counters are maintained by the StatsService.
+ * 
+ * @author Oliver Ferschke
+ */
+@Data
+@Entity
+@IdClass(StatsCounter.StatsCounterId.class)
+@Table(name = "stats_counter")
+public class StatsCounter {
+
+	/**
+	 * Scope of counters that cover the whole database
+	 */
+	public static final long GLOBAL_SCOPE = 0L;
+
+	/**
+	 * Type of counters for entities that have no type
+	 */
+	public static final String NO_TYPE = "";
+
+	@Id
+	@Column(name = "scope", nullable = false)
+	@Description("The id of the discourse the counter is restricted to or 0 for counters that cover the whole database.")
+	private Long scope;
+
+	@Id
+	@Column(name = "category", nullable = false, length = 31)
+	@Description("The kind of entity that is counted, e.g. DISCOURSE_PART or CONTRIBUTION.")
+	private String category;
+
+	@Id
+	@Column(name = "type", nullable = false, length = 95)
+	@Description("The type of the counted entities.")
+	private String type;
+
+	@Column(name = "total", nullable = false)
+	@Description("The number of entities.")
+	private long total;
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	@EqualsAndHashCode
+	public static class StatsCounterId implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private Long scope;
+		private String category;
+		private String type;
+	}
+}
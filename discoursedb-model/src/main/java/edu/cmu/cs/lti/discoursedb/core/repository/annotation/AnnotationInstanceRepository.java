@@ -21,8 +21,10 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.core.repository.annotation;
 
+import java.util.Collection;
 import java.util.List;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationInstance;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
@@ -30,6 +32,43 @@ public interface AnnotationInstanceRepository extends BaseRepository<AnnotationI
 	@Query("SELECT a.id FROM AnnotationInstance a") 
 	List<Long> findAllIds();   
 
+	@Query("select distinct a from AnnotationInstance a left join fetch a.features where a.annotationEntityProxy.id in :proxyIds")
+	List<AnnotationInstance> findAllByAnnotationEntityProxyIds(@Param("proxyIds") Collection<Long> proxyIds);
+
+	/**
+	 * Returns the annotations of the given DiscourseParts and of the interactions with them, with their features.
+	 */
+	@Query("select distinct a from AnnotationInstance a left join fetch a.features where "
+			+ "a.annotationEntityProxy.id in (select dp.annotations.id from DiscoursePart dp where dp.id in :discoursePartIds) or "
+			+ "a.annotationEntityProxy.id in (select dpi.annotations.id from DiscoursePartInteraction dpi where dpi.discoursePart.id in :discoursePartIds)")
+	List<AnnotationInstance> findAllOfDiscoursePartsAndInteractions(@Param("discoursePartIds") Collection<Long> discoursePartIds);
+
+	/**
+	 * Returns the id of each of the given contributions together with each of its annotations. The features of the annotations are fetched as well.
+	 * An annotation with more than one feature is returned once for each feature.
+	 */
+	@Query("select c.id, a from Contribution c join c.annotations proxy join proxy.annotations a left join fetch a.features where c.id in :ids")
+	List<Object[]> findAllWithContributionIdByContributionIds(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Returns the id of each of the given contents together with each of its annotations. The features of the annotations are fetched as well.
+	 * An annotation with more than one feature is returned once for each feature.
+	 */
+	@Query("select c.id, a from Content c join c.annotations proxy join proxy.annotations a left join fetch a.features where c.id in :ids")
+	List<Object[]> findAllWithContentIdByContentIds(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Returns the lower-cased type of each annotation on a contribution of the given DiscourseParts together with a flag (1 or 0)
+	 * that is 1 if at least one annotation of that type either has no feature or has a feature with the given value.
+	 */
+	@Query(value = "select lower(a.type), max(case when f.id_feature is null or f.value = :value then 1 else 0 end) "
+			+ " from contribution_partof_discourse_part dpc "
+			+ " join contribution c on c.id_contribution = dpc.fk_contribution "
+			+ " join annotation_instance a on a.fk_annotation_entity_proxy = c.fk_annotation "
+			+ " left join feature f on f.fk_annotation_instance = a.id_annotation_instance "
+			+ " where dpc.fk_discourse_part in :dpIds group by lower(a.type)", nativeQuery=true)
+	List<Object[]> findContributionAnnotationTypesByDiscoursePartIds(@Param("dpIds") Collection<Long> dpIds, @Param("value") String value);
+
     
     
 }
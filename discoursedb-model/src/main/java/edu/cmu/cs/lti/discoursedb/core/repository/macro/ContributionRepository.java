@@ -24,6 +24,7 @@ package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
@@ -34,4 +35,7 @@ public interface ContributionRepository extends BaseRepository<Contribution,Long
 	@Query("select type, count(*) as count from Contribution c group by type")
 	List<Object[]> countsByType(); 
 
+	@Query("select c from DiscoursePartContribution dpc join dpc.contribution c left join fetch c.currentRevision where dpc.discoursePart.id = :dpId")
+	List<Contribution> findAllByDiscoursePartIdFetchCurrentRevision(@Param("dpId") Long dpId);
+
 }
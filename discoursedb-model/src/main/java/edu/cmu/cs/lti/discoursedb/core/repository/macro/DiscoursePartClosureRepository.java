@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.repository.macro;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartClosure;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartClosure.DiscoursePartClosureId;
+import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
+
+public interface DiscoursePartClosureRepository extends BaseRepository<DiscoursePartClosure, DiscoursePartClosureId> {
+
+	@Query("select dp from DiscoursePart dp where dp.id in (select c.descendantId from DiscoursePartClosure c where c.ancestorId in :ancestorIds and c.type = :type)")
+	Set<DiscoursePart> findDescendants(@Param("ancestorIds") Collection<Long> ancestorIds, @Param("type") String type);
+
+	@Query("select dp from DiscoursePart dp where dp.id in (select c.ancestorId from DiscoursePartClosure c where c.descendantId in :descendantIds and c.type = :type)")
+	Set<DiscoursePart> findAncestors(@Param("descendantIds") Collection<Long> descendantIds, @Param("type") String type);
+
+	/**
+	 * Adds all paths that lead over a new relation between source and target to the closure. 
+	 * These are the paths from the source and each of its ancestors to the target and each of its descendants.
+	 * Paths that already exist keep the shorter depth.
+	 * 
+	 * @param sourceId the id of the source DiscoursePart of the new relation
+	 * @param targetId the id of the target DiscoursePart of the new relation
+	 * @param type the closure type the paths should be added to
+	 */
+	@Modifying
+	@Query(value = "insert into discourse_part_closure (fk_ancestor, fk_descendant, type, depth) "
+			+ "select * from (select a.id_ancestor, d.id_descendant, :type, min(a.ancestor_depth + d.descendant_depth + 1) from "
+			+ "(select :sourceId as id_ancestor, 0 as ancestor_depth union all "
+			+ "select c.fk_ancestor, c.depth from discourse_part_closure c where c.fk_descendant = :sourceId and c.type = :type) a, "
+			+ "(select :targetId as id_descendant, 0 as descendant_depth union all "
+			+ "select c.fk_descendant, c.depth from discourse_part_closure c where c.fk_ancestor = :targetId and c.type = :type) d "
+			+ "where a.id_ancestor <> d.id_descendant group by a.id_ancestor, d.id_descendant) paths "
+			+ "on duplicate key update depth = least(discourse_part_closure.depth, values(depth))", nativeQuery = true)
+	void addPaths(@Param("sourceId") Long sourceId, @Param("targetId") Long targetId, @Param("type") String type);
+
+	/**
+	 * Deletes all paths that might lead over a relation between source and target from the closure.
+	 * These are the paths from the source and each of its ancestors to the target and each of its descendants.
+	 * Paths in this set that don't need the relation have to be added again afterwards.
+	 * 
+	 * @param sourceId the id of the source DiscoursePart of the relation
+	 * @param targetId the id of the target DiscoursePart of the relation
+	 * @param type the closure type the paths should be deleted from
+	 */
+	@Modifying
+	@Query(value = "delete c from discourse_part_closure c join "
+			+ "(select :sourceId as id_ancestor union all "
+			+ "select a.fk_ancestor from discourse_part_closure a where a.fk_descendant = :sourceId and a.type = :type) a on c.fk_ancestor = a.id_ancestor join "
+			+ "(select :targetId as id_descendant union all "
+			+ "select d.fk_descendant from discourse_part_closure d where d.fk_ancestor = :targetId and d.type = :type) d on c.fk_descendant = d.id_descendant "
+			+ "where c.type = :type", nativeQuery = true)
+	void deletePathsOver(@Param("sourceId") Long sourceId, @Param("targetId") Long targetId, @Param("type") String type);
+
+	@Query("select c.descendantId from DiscoursePartClosure c where c.ancestorId = :ancestorId and c.type = :type")
+	Set<Long> findDescendantIds(@Param("ancestorId") Long ancestorId, @Param("type") String type);
+
+	@Query("select count(c), coalesce(sum(c.depth), 0) from DiscoursePartClosure c where c.type = :type")
+	List<Object[]> countPathsAndDepth(@Param("type") String type);
+
+	@Modifying
+	@Query(value = "delete from discourse_part_closure where fk_ancestor = :id or fk_descendant = :id", nativeQuery = true)
+	void deletePathsOf(@Param("id") Long discoursePartId);
+
+	@Modifying
+	@Query(value = "delete from discourse_part_closure", nativeQuery = true)
+	void deleteAllPaths();
+
+	@Query(value = "select count(*) from (select 1 from discourse_part_closure limit 1) c", nativeQuery = true)
+	Long countFirstPath();
+}
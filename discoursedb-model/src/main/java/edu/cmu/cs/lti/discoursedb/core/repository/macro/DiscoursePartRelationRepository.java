@@ -21,6 +21,7 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -38,11 +39,22 @@ public interface DiscoursePartRelationRepository extends BaseRepository<Discours
 	List<DiscoursePartRelation> findAllBySourceAndType(DiscoursePart source, String type);
 	Page<DiscoursePartRelation> findAllBySource(DiscoursePart source, Pageable page);
 	
-	@Query("select targ from DiscoursePartRelation dpr left join dpr.target targ left join dpr.source src where src=:source order by targ.startTime")
+	@Query(value = "select targ from DiscoursePartRelation dpr join dpr.target targ left join fetch targ.annotations left join fetch targ.dataSourceAggregate "
+			+ "where dpr.source=:source order by targ.startTime",
+			countQuery = "select count(dpr) from DiscoursePartRelation dpr where dpr.source=:source and dpr.target is not null")
 	Page<DiscoursePart> findAllTargetsBySource(@Param("source") DiscoursePart source, Pageable page);
 	
 	List<DiscoursePartRelation> findAllBySource(DiscoursePart source);
 	Page<DiscoursePartRelation> findAllByTarget(DiscoursePart discoursePart, Pageable page);	
 
+	@Query("select dpr.source.id, dpr.target.id, dpr.type from DiscoursePartRelation dpr where dpr.source is not null and dpr.target is not null")
+	List<Object[]> findAllSourceTargetTypeTriples();
+
+	@Query("select dpr.source.id, dpr.target.id, dpr.type from DiscoursePartRelation dpr where dpr.source is not null and dpr.target.id in :targetIds")
+	List<Object[]> findAllSourceTargetTypeTriplesByTargetIds(@Param("targetIds") Collection<Long> targetIds);
+
+	@Query("select dpr from DiscoursePartRelation dpr where dpr.source = :discoursePart or dpr.target = :discoursePart")
+	List<DiscoursePartRelation> findAllBySourceOrTarget(@Param("discoursePart") DiscoursePart discoursePart);
+
 
 }
@@ -21,13 +21,17 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
+import javax.persistence.QueryHint;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
@@ -37,6 +41,7 @@ import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface DiscoursePartRepository extends BaseRepository<DiscoursePart,Long>{
     
+	@QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
 	Optional<DiscoursePart> findOneByName(@Param("name") String name);
 	
 	List<DiscoursePart> findAllByName(@Param("name") String name);
@@ -48,14 +53,20 @@ public interface DiscoursePartRepository extends BaseRepository<DiscoursePart,Lo
 	List<DiscoursePart> findExtendedByType(@Param("discoursePartType") String discoursePartType);
 	
 	
-	@Query("select dp from DiscoursePart dp where "
+	@Query(value = "select dp from DiscoursePart dp left join fetch dp.annotations left join fetch dp.dataSourceAggregate where "
+			+ "((select count(ai) from dp.annotations aa join aa.annotations ai where ai.type like 'Degenerate') = 0)"
+			+ " and dp.type=:discoursePartType",
+			countQuery = "select count(dp) from DiscoursePart dp where "
 			+ "((select count(ai) from dp.annotations aa join aa.annotations ai where ai.type like 'Degenerate') = 0)"
-			+ " and type=:discoursePartType")
+			+ " and dp.type=:discoursePartType")
 	Page<DiscoursePart> findAllNonDegenerateByType(@Param("discoursePartType") String discoursePartType, Pageable pageable);
 
-	@Query("select dp from DiscourseToDiscoursePart dpd left join dpd.discourse d "
-			+ " left join dpd.discoursePart dp "
-			+ " where d.id=:discourseId "
+	@Query(value = "select dp from DiscourseToDiscoursePart dpd join dpd.discoursePart dp "
+			+ " left join fetch dp.annotations left join fetch dp.dataSourceAggregate "
+			+ " where dpd.discourse.id=:discourseId "
+			+ " and dp.type=:discoursePartType",
+			countQuery = "select count(dpd) from DiscourseToDiscoursePart dpd join dpd.discoursePart dp "
+			+ " where dpd.discourse.id=:discourseId "
 			+ " and dp.type=:discoursePartType")
 	Page<DiscoursePart> findAllByDiscourseAndType(@Param("discoursePartType") String discoursePartType, @Param("discourseId") Long discourseId, Pageable pageable);
 
@@ -91,6 +102,49 @@ public interface DiscoursePartRepository extends BaseRepository<DiscoursePart,Lo
 			+ " where d.id_discourse=:discourseId group by dp.type", nativeQuery=true)
 	List<Object[]> countsByTypeAndDiscourseNative(@Param("discourseId") Long discourseId);
 
+	@Query(value= "select dpd.fk_discourse, dp.type, count(*) from discourse_has_discourse_part dpd "
+			+ " join discourse_part dp on dpd.fk_discourse_part = dp.id_discourse_part "
+			+ " group by dpd.fk_discourse, dp.type", nativeQuery=true)
+	List<Object[]> countsByDiscourseAndTypeNative();
+
+	/**
+	 * Returns the counts and the discourse the browsing API shows about the given DiscourseParts.<br/>
+	 * 
+	 * The columns of each row are:
+	 * the id of the DiscoursePart, the number of its contributions, the number of its child DiscourseParts 
+	 * and the id and name of its discourse, which are null if it does not belong to a discourse.
+	 * A DiscoursePart that belongs to more than one discourse has one row per discourse.
+	 */
+	@Query(value = "select dp.id_discourse_part, "
+			+ " (select count(*) from contribution_partof_discourse_part dpc where dpc.fk_discourse_part = dp.id_discourse_part), "
+			+ " (select count(*) from discourse_part_relation dpr where dpr.fk_source = dp.id_discourse_part), "
+			+ " d.id_discourse, d.name "
+			+ " from discourse_part dp "
+			+ " left join discourse_has_discourse_part dpd on dpd.fk_discourse_part = dp.id_discourse_part "
+			+ " left join discourse d on d.id_discourse = dpd.fk_discourse "
+			+ " where dp.id_discourse_part in :ids", nativeQuery=true)
+	List<Object[]> findBrowsingDetailsByIds(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Returns the DiscourseParts that contain the given DiscourseParts.
+	 * The columns of each row are the id of the contained DiscoursePart and the id and name of the containing DiscoursePart.
+	 */
+	@Query(value = "select container.fk_target, src.id_discourse_part, src.name "
+			+ " from discourse_part_relation container "
+			+ " join discourse_part src on src.id_discourse_part = container.fk_source "
+			+ " where container.fk_target in :ids", nativeQuery=true)
+	List<Object[]> findContainingDiscoursePartsByIds(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Returns the DiscoursePartInteractions with the given DiscourseParts ordered by their id.
+	 * The columns of each row are the id of the DiscoursePart and the id, username, type and annotation proxy id of the interaction.
+	 */
+	@Query(value = "select dpi.fk_discourse_part, dpi.id_content_interaction, u.username, dpi.type, dpi.fk_annotation "
+			+ " from discourse_part_interaction dpi "
+			+ " left join user u on u.id_user = dpi.fk_user "
+			+ " where dpi.fk_discourse_part in :ids order by dpi.id_content_interaction", nativeQuery=true)
+	List<Object[]> findInteractionsByIds(@Param("ids") Collection<Long> ids);
+
 	/*@Query("select dp1 from User u "
 			+ "left join Content conte on conte.user=u "
 			+ "left join Contribution contr on contr.firstRevision = conte "
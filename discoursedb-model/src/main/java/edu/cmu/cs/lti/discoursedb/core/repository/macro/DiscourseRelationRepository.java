@@ -21,8 +21,13 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseRelation;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
@@ -30,5 +35,8 @@ import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 public interface DiscourseRelationRepository extends BaseRepository<DiscourseRelation,Long>{
 
 	Optional<DiscourseRelation> findOneBySourceAndTargetAndType(Contribution source, Contribution Target, String type);	
+
+	@Query("select r.target.id, r.source.id from DiscourseRelation r where r.target.id in (:targetIds) and r.type in (:types) order by r.id")
+	List<Object[]> findSourceIdsByTargetIdsAndTypes(@Param("targetIds") Collection<Long> targetIds, @Param("types") Collection<String> types);
    
 }
@@ -23,11 +23,16 @@ package edu.cmu.cs.lti.discoursedb.core.repository.macro;
 
 import java.util.Optional;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.jpa.repository.QueryHints;
+
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
 public interface DiscourseRepository extends BaseRepository<Discourse,Long> {
 	
+	@QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
 	Optional<Discourse> findOneByName(String name);
 
 	
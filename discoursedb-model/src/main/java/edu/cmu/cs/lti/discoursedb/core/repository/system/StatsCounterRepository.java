@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.repository.system;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import edu.cmu.cs.lti.discoursedb.core.model.system.StatsCounter;
+import edu.cmu.cs.lti.discoursedb.core.model.system.StatsCounter.StatsCounterId;
+import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
+
+public interface StatsCounterRepository extends BaseRepository<StatsCounter, StatsCounterId> {
+
+	/**
+	 * Adds the delta to a counter. Missing counters are created, and totals never drop below 0.
+	 * 
+	 * @return the number of affected rows as reported by MySQL: 2 if an existing counter has been changed, 
+	 * 1 if the counter has been created or its total has been left unchanged.
+	 * For a negative delta, 1 means that the counter was missing or too low, i.e. it has drifted.
+	 */
+	@Modifying
+	@Query(value = "insert into stats_counter (scope, category, type, total) values (:scope, :category, :type, greatest(0, :delta)) "
+			+ "on duplicate key update total = greatest(0, total + :delta)", nativeQuery = true)
+	int increment(@Param("scope") Long scope, @Param("category") String category, @Param("type") String type, @Param("delta") long delta);
+
+	@Modifying
+	@Query(value = "delete from stats_counter", nativeQuery = true)
+	void deleteAllCounters();
+}
@@ -30,6 +30,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RestResource;
 
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartClosure;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import edu.cmu.cs.lti.discoursedb.core.repository.BaseRepository;
 
@@ -47,5 +48,16 @@ public interface UserRepository extends BaseRepository<User,Long>{
     @Query("select user from User user where not exists (select a2 from user.annotations a1 left join a1.annotations a2 where a2.type=:annotationType)")
     public List<User> findAllWithoutAnnotation(@Param("annotationType")String annotationType);
     
+    @Query(value = "select u from User u where u.id in ("
+    		+ "select conte.author.id from DiscoursePartContribution dpc join dpc.contribution contr join contr.currentRevision conte "
+    		+ "where dpc.discoursePart.id = :dpId "
+    		+ "or dpc.discoursePart.id in (select cl.descendantId from DiscoursePartClosure cl where cl.ancestorId = :dpId and cl.type = '" + DiscoursePartClosure.ALL_TYPES + "')) "
+    		+ "order by u.id",
+    		countQuery = "select count(u) from User u where u.id in ("
+    		+ "select conte.author.id from DiscoursePartContribution dpc join dpc.contribution contr join contr.currentRevision conte "
+    		+ "where dpc.discoursePart.id = :dpId "
+    		+ "or dpc.discoursePart.id in (select cl.descendantId from DiscoursePartClosure cl where cl.ancestorId = :dpId and cl.type = '" + DiscoursePartClosure.ALL_TYPES + "'))")
+    public Page<User> findAllUnderDiscoursePartPaged(@Param("dpId") Long discoursePartId, Pageable pageable);
+    
 
 }
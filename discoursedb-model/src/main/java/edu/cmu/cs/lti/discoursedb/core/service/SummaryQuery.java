@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.configuration.CursorFetchDataSource;
+
+/**
+ * A projection query that reads summaries of entities ordered by id, either page by page or with a forward-only cursor.
+ * The query may be restricted to a DiscoursePart with a filter that refers to the DiscoursePart id as the named parameter <code>dpId</code>.
+ * <p>
+ * A page only runs a count query if its total cannot be derived from its content,
+ * i.e. if it is full or if it is empty but not the first page.
+ * 
+ * @author Oliver Ferschke
+ *
+ * @param <T> the type of the summaries
+ */
+public class SummaryQuery<T> {
+
+	private final String projection;
+	private final String from;
+	private final String alias;
+	private final Function<Object[], T> rowMapper;
+
+	/**
+	 * @param projection the selected columns, e.g. <code>u.id, u.username</code>
+	 * @param from the from clause including all joins, e.g. <code>from User u</code>
+	 * @param alias the alias of the summarized entity in the from clause; summaries are ordered by <code>alias.id</code>
+	 * @param rowMapper creates a summary from a result row
+	 */
+	public SummaryQuery(String projection, String from, String alias, Function<Object[], T> rowMapper) {
+		Assert.hasText(projection, "Projection cannot be empty.");
+		Assert.hasText(from, "From clause cannot be empty.");
+		Assert.hasText(alias, "Alias cannot be empty.");
+		Assert.notNull(rowMapper, "Row mapper cannot be null.");
+		this.projection = projection;
+		this.from = from;
+		this.alias = alias;
+		this.rowMapper = rowMapper;
+	}
+
+	/**
+	 * Returns a page of summaries.
+	 * 
+	 * @param entityManager the entity manager of the current transaction
+	 * @param filter the where clause, or an empty String
+	 * @param discoursePartId the value of the <code>dpId</code> parameter, if the filter uses it
+	 * @param pageable the page to retrieve
+	 * @return a page of summaries
+	 */
+	public Page<T> findPage(EntityManager entityManager, String filter, Optional<Long> discoursePartId, Pageable pageable) {
+		Assert.notNull(discoursePartId, "DiscoursePart id cannot be null. Provide an empty optional instead.");
+		Assert.notNull(pageable, "Pageable cannot be null.");
+
+		Query query = entityManager.createQuery(select(filter))
+				.setFirstResult(pageable.getOffset())
+				.setMaxResults(pageable.getPageSize());
+		discoursePartId.ifPresent(id -> query.setParameter("dpId", id));
+		List<T> summaries = new ArrayList<>();
+		for (Object row : query.getResultList()) {
+			summaries.add(rowMapper.apply((Object[]) row));
+		}
+
+		boolean shortPage = summaries.size() < pageable.getPageSize();
+		if (shortPage && (pageable.getOffset() == 0 || !summaries.isEmpty())) {
+			return new PageImpl<>(summaries, pageable, pageable.getOffset() + summaries.size());
+		}
+		Query countQuery = entityManager.createQuery("select count(" + alias + ") " + from + " " + filter);
+		discoursePartId.ifPresent(id -> countQuery.setParameter("dpId", id));
+		return new PageImpl<>(summaries, pageable, ((Number) countQuery.getSingleResult()).longValue());
+	}
+
+	/**
+	 * Reads all summaries with a forward-only cursor and passes them on in chunks,
+	 * so the full result is never held in memory. The cursor is opened in a stateless session on a connection of the {@link CursorFetchDataSource},
+	 * since the connection of the current transaction would read the whole result before returning the first row.
+	 * 
+	 * @param cursorFetchDataSource provides the connection the cursor is opened on
+	 * @param entityManager the entity manager of the current transaction
+	 * @param filter the where clause, or an empty String
+	 * @param discoursePartId the value of the <code>dpId</code> parameter, if the filter uses it
+	 * @param chunkSize the number of summaries per chunk
+	 * @param chunkConsumer consumes the chunks in the order they are read
+	 */
+	public void scroll(CursorFetchDataSource cursorFetchDataSource, EntityManager entityManager, String filter, Optional<Long> discoursePartId, 
+			int chunkSize, Consumer<List<T>> chunkConsumer) {
+		Assert.notNull(cursorFetchDataSource, "Cursor fetch data source cannot be null.");
+		Assert.notNull(discoursePartId, "DiscoursePart id cannot be null. Provide an empty optional instead.");
+		Assert.isTrue(chunkSize > 0, "Chunk size has to be positive.");
+		Assert.notNull(chunkConsumer, "Consumer cannot be null.");
+		cursorFetchDataSource.read(entityManager, session -> scroll(session, filter, discoursePartId, chunkSize, chunkConsumer));
+	}
+
+	private void scroll(StatelessSession session, String filter, Optional<Long> discoursePartId, int chunkSize, Consumer<List<T>> chunkConsumer) {
+		org.hibernate.Query query = session
+				.createQuery(select(filter))
+				.setReadOnly(true)
+				.setFetchSize(chunkSize);
+		discoursePartId.ifPresent(id -> query.setParameter("dpId", id));
+		ScrollableResults rows = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			List<T> chunk = new ArrayList<>(chunkSize);
+			while (rows.next()) {
+				chunk.add(rowMapper.apply(rows.get()));
+				if (chunk.size() == chunkSize) {
+					chunkConsumer.accept(chunk);
+					chunk = new ArrayList<>(chunkSize);
+				}
+			}
+			if (!chunk.isEmpty()) {
+				chunkConsumer.accept(chunk);
+			}
+		} finally {
+			rows.close();
+		}
+	}
+
+	private String select(String filter) {
+		return "select " + projection + " " + from + " " + filter + " order by " + alias + ".id";
+	}
+}
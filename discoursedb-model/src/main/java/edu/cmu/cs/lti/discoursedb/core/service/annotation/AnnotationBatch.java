@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.annotation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.model.annotation.AnnotationInstance;
+import edu.cmu.cs.lti.discoursedb.core.model.annotation.Feature;
+
+/**
+ * Collects a batch of annotations and their features for a single entity.<br/>
+ * 
+ * The annotations and features are plain, unsaved objects until the batch is passed to
+ * {@link AnnotationService#addAnnotations(edu.cmu.cs.lti.discoursedb.core.model.TimedAnnotatableBE, AnnotationBatch)}, 
+ * which persists all of them at once (in JDBC batches if pooled ids are enabled, see <code>hibernate.id.pooled</code>). 
+ * Features are always added to the annotation that was started last.
+ * 
+ * <pre>
+ * annoService.addAnnotations(contribution, new AnnotationBatch()
+ * 		.annotation("twitter_tweet_geo_location")
+ * 		.feature("long", longitude)
+ * 		.feature("lat", latitude));
+ * </pre>
+ * 
+ * @author Oliver Ferschke
+ */
+public class AnnotationBatch {
+
+	private final List<AnnotationInstance> annotations = new ArrayList<>();
+	private final List<Feature> features = new ArrayList<>();
+	private AnnotationInstance current;
+
+	/**
+	 * Starts a new entity annotation of the given type.
+	 * 
+	 * @param type the annotation type
+	 * @return this batch
+	 */
+	public AnnotationBatch annotation(String type) {
+		Assert.hasText(type, "Type cannot be empty. Provide an annotation type.");
+		current = new AnnotationInstance();
+		current.setType(type);
+		annotations.add(current);
+		return this;
+	}
+
+	/**
+	 * Starts a new span annotation of the given type.
+	 * 
+	 * @param type the annotation type
+	 * @param beginOffset the start index of the annotated span
+	 * @param endOffset the end index of the annotated span
+	 * @return this batch
+	 */
+	public AnnotationBatch annotation(String type, int beginOffset, int endOffset) {
+		annotation(type);
+		current.setBeginOffset(beginOffset);
+		current.setEndOffset(endOffset);
+		return this;
+	}
+
+	/**
+	 * Adds a typed feature to the current annotation.
+	 * 
+	 * @param type the feature type
+	 * @param value the feature value
+	 * @return this batch
+	 */
+	public AnnotationBatch feature(String type, String value) {
+		Assert.hasText(type, "Type cannot be empty. Provide a feature type or add an untyped feature.");
+		Assert.hasText(value, "Feature value cannot be empty.");
+		return addFeature(type, value);
+	}
+
+	/**
+	 * Adds an untyped feature to the current annotation.
+	 * 
+	 * @param value the feature value
+	 * @return this batch
+	 */
+	public AnnotationBatch feature(String value) {
+		Assert.hasText(value, "Feature value cannot be empty.");
+		return addFeature(null, value);
+	}
+
+	/**
+	 * @return true, if no annotation has been added to this batch
+	 */
+	public boolean isEmpty() {
+		return annotations.isEmpty();
+	}
+
+	List<AnnotationInstance> getAnnotations() {
+		return annotations;
+	}
+
+	List<Feature> getFeatures() {
+		return features;
+	}
+
+	private AnnotationBatch addFeature(String type, String value) {
+		Assert.notNull(current, "Start an annotation before adding features.");
+		Feature feature = new Feature();
+		feature.setType(type);
+		feature.setValue(value);
+		feature.setAnnotation(current);
+		features.add(feature);
+		return this;
+	}
+}
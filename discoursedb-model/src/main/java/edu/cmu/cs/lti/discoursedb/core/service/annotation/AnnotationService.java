@@ -22,10 +22,16 @@
 package edu.cmu.cs.lti.discoursedb.core.service.annotation;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -62,6 +68,11 @@ public class AnnotationService {
 	private final @NonNull FeatureRepository featureRepo;
 	private final @NonNull AnnotationRelationRepository annoRelRepo;
 	
+	/**
+	 * Maximum number of ids that are passed to a single query by the bulk lookup methods
+	 */
+	private static final int ID_BATCH_SIZE = 1000;
+	
 	/**
 	 * Retrieves all annotations for the given entity.
 	 * 
@@ -211,6 +222,63 @@ public class AnnotationService {
 		annotation = annoInstanceRepo.save(annotation);
 	}
 
+	/**
+	 * Adds a batch of new annotation instances and their features to the provided entity.<br/>
+	 * 
+	 * The annotation proxy of the entity is looked up or created only once for the whole batch
+	 * and annotations and features are persisted in a single pass, 
+	 * so the inserts can be grouped into JDBC batches of <code>hibernate.jdbc.batch_size</code> when the persistence context is flushed.
+	 * 
+	 * @param entity
+	 *            the entity to add the annotations to
+	 * @param batch
+	 *            the annotations and features to add to the entity
+	 * @return the saved annotation instances in the order they were added to the batch
+	 */
+	public <T extends TypedTimedAnnotatableBE> List<AnnotationInstance> addAnnotations(T entity, AnnotationBatch batch) {		
+		Assert.notNull(entity,"Entity cannot be null. Provide an annotatable entity.");
+		return addAnnotations(entity::getAnnotations, entity::setAnnotations, batch);
+	}
+
+	/**
+	 * Adds a batch of new annotation instances and their features to the provided entity 
+	 * (see {@link #addAnnotations(TypedTimedAnnotatableBE, AnnotationBatch)}).
+	 * 
+	 * @param entity
+	 *            the entity to add the annotations to
+	 * @param batch
+	 *            the annotations and features to add to the entity
+	 * @return the saved annotation instances in the order they were added to the batch
+	 */
+	public <T extends TimedAnnotatableBE> List<AnnotationInstance> addAnnotations(T entity, AnnotationBatch batch) {		
+		Assert.notNull(entity,"Entity cannot be null. Provide an annotatable entity.");
+		return addAnnotations(entity::getAnnotations, entity::setAnnotations, batch);
+	}
+
+	private List<AnnotationInstance> addAnnotations(Supplier<AnnotationEntityProxy> getAnnotations, Consumer<AnnotationEntityProxy> setAnnotations, AnnotationBatch batch) {
+		Assert.notNull(batch, "Annotation batch cannot be null.");
+		if(batch.isEmpty()){
+			return new ArrayList<>();
+		}
+
+		AnnotationEntityProxy annoProxy = getAnnotations.get();
+		if (annoProxy == null) {
+			annoProxy=annoRepo.save(new AnnotationEntityProxy());
+			setAnnotations.accept(annoProxy);
+		}
+		return saveBatch(annoProxy, batch);
+	}
+
+	private List<AnnotationInstance> saveBatch(AnnotationEntityProxy annoProxy, AnnotationBatch batch) {
+		for(AnnotationInstance annotation:batch.getAnnotations()){
+			annotation.setAnnotationEntityProxy(annoProxy);
+		}
+		List<AnnotationInstance> savedAnnotations = new ArrayList<>();
+		annoInstanceRepo.save(batch.getAnnotations()).forEach(savedAnnotations::add);
+		featureRepo.save(batch.getFeatures());
+		return savedAnnotations;
+	}
+
 	/**
 	 * Deletes an annotation from DiscourseDB
 	 * 
@@ -370,6 +438,96 @@ public class AnnotationService {
 	        return annos;
 	}	
 
+	/**
+	 * Determines the types of all annotations on contributions of the given DiscourseParts with a single aggregate query.
+	 * Types are lower-cased. Each type is mapped to true if at least one annotation of that type either has no feature
+	 * or has a feature with the given value, i.e. if the type is used as a label.
+	 * 
+	 * @param discoursePartIds the ids of the DiscourseParts that contain the annotated contributions
+	 * @param labelValue the feature value that marks an assigned label
+	 * @return a map from the lower-cased annotation types to a flag that indicates whether the type is used as a label
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Map<String, Boolean> findContributionAnnotationTypes(Collection<Long> discoursePartIds, String labelValue) {
+		Assert.notNull(discoursePartIds, "DiscoursePart ids cannot be null.");
+		Map<String, Boolean> types = new HashMap<>();
+		if(discoursePartIds.isEmpty()){
+			return types;
+		}
+		for(Object[] row: annoInstanceRepo.findContributionAnnotationTypesByDiscoursePartIds(discoursePartIds, labelValue)){
+			types.put((String)row[0], ((Number)row[1]).intValue()==1);
+		}
+		return types;
+	}
+
+	/**
+	 * Retrieves the annotations of the given annotation aggregates including their features.
+	 * 
+	 * @param proxyIds the ids of the AnnotationEntityProxies to retrieve the annotations for
+	 * @return a map from the aggregate ids to the annotations of each aggregate. Aggregates without annotations are not contained.
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Map<Long, Set<AnnotationInstance>> findAnnotationsByProxyIds(Collection<Long> proxyIds) {
+		Assert.notNull(proxyIds, "Annotation aggregate ids cannot be null.");
+		Map<Long, Set<AnnotationInstance>> annotations = new HashMap<>();
+		for(List<Long> batch: partition(proxyIds)){
+			for(AnnotationInstance anno: annoInstanceRepo.findAllByAnnotationEntityProxyIds(batch)){
+				annotations.computeIfAbsent(anno.getAnnotationEntityProxy().getId(), k -> new HashSet<>()).add(anno);
+			}
+		}
+		return annotations;
+	}
+
+	/**
+	 * Retrieves the annotations of the given contributions including their features.<br/>
+	 * Use this instead of calling {@link #findAnnotations(TypedTimedAnnotatableBE)} for each contribution when processing many contributions at once.
+	 * The annotations are loaded with one query per {@value #ID_BATCH_SIZE} contributions. 
+	 * 
+	 * @param contributionIds the ids of the contributions to retrieve the annotations for
+	 * @return a map from the contribution ids to the annotations of each contribution. Contributions without annotations are not contained.
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Map<Long, Set<AnnotationInstance>> findContributionAnnotations(Collection<Long> contributionIds) {
+		Assert.notNull(contributionIds, "Contribution ids cannot be null.");
+		return groupByEntity(contributionIds, annoInstanceRepo::findAllWithContributionIdByContributionIds);
+	}
+
+	/**
+	 * Retrieves the annotations of the given contents including their features.<br/>
+	 * Use this instead of calling {@link #findAnnotations(TimedAnnotatableBE)} for each content when processing many contents at once.
+	 * The annotations are loaded with one query per {@value #ID_BATCH_SIZE} contents. 
+	 * 
+	 * @param contentIds the ids of the contents to retrieve the annotations for
+	 * @return a map from the content ids to the annotations of each content. Contents without annotations are not contained.
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Map<Long, Set<AnnotationInstance>> findContentAnnotations(Collection<Long> contentIds) {
+		Assert.notNull(contentIds, "Content ids cannot be null.");
+		return groupByEntity(contentIds, annoInstanceRepo::findAllWithContentIdByContentIds);
+	}
+
+	/**
+	 * Runs the given query for batches of the given entity ids and groups the returned (entity id, annotation) rows by entity id.
+	 */
+	private Map<Long, Set<AnnotationInstance>> groupByEntity(Collection<Long> entityIds, Function<Collection<Long>, List<Object[]>> query) {
+		Map<Long, Set<AnnotationInstance>> annotations = new HashMap<>();
+		for(List<Long> batch: partition(entityIds)){
+			for(Object[] row: query.apply(batch)){
+				annotations.computeIfAbsent((Long)row[0], k -> new HashSet<>()).add((AnnotationInstance)row[1]);
+			}
+		}
+		return annotations;
+	}
+
+	private static List<List<Long>> partition(Collection<Long> ids) {
+		List<Long> distinctIds = new ArrayList<>(new HashSet<>(ids));
+		List<List<Long>> batches = new ArrayList<>();
+		for(int i=0; i<distinctIds.size(); i+=ID_BATCH_SIZE){
+			batches.add(distinctIds.subList(i, Math.min(i+ID_BATCH_SIZE, distinctIds.size())));
+		}
+		return batches;
+	}
+
 	public Optional<AnnotationInstance> findOneAnnotationInstance(Long id){
 		return annoInstanceRepo.findOne(id);
 	}
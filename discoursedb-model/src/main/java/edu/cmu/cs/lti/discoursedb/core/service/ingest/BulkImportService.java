@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.ingest;
+
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.service.system.EntityIdentityCache;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Runs the mapping methods of converter services in bulk-import mode.<br/>
+ * 
+ * Converter services are transactional, so every call of a mapping method usually runs in its own transaction.
+ * The BulkImportService instead opens one transaction for a whole batch of records, which the transactional
+ * converter services join. The persistence context is flushed and cleared every <code>hibernate.jdbc.batch_size</code> records,
+ * so that inserts are sent to the database in JDBC batches and the memory footprint of a batch stays bounded.
+ * JDBC batching requires ids that are not assigned by the database, i.e. <code>hibernate.id.pooled</code> has to be enabled.
+ * It is disabled by default, since tables that are created with pooled ids cannot be written with AUTO_INCREMENT ids any more.<br/>
+ * 
+ * The number of records per transaction is configured with the <code>import.batchSize</code> property.
+ * The default of 1 commits every record separately, just like calling the converter service directly, 
+ * so bulk-import runs have to set a larger batch size explicitly.
+ * Note that entities are detached when the persistence context is cleared, 
+ * so converters that opt in must not keep references to entities across records.<br/>
+ * 
+ * Records that can be mapped independently of each other can be distributed over several worker threads 
+ * with {@link #importParallel(Iterator, Function, Consumer)}.<br/>
+ * 
+ * The natural keys that have been resolved during an import are kept in the {@link EntityIdentityCache} until the import has finished.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired) )
+public class BulkImportService {
+
+	private final @NonNull PlatformTransactionManager transactionManager;
+	private final @NonNull @PersistenceContext EntityManager entityManager; 
+	private final @NonNull Environment environment;
+	private final @NonNull EntityIdentityCache identityCache;
+
+	/**
+	 * Maps all records with the given mapper and commits them in batches of <code>import.batchSize</code> records.
+	 * 
+	 * @param records the records to import
+	 * @param mapper maps a single record to DiscourseDB, usually a method of a converter service
+	 * @return the number of records that have been mapped
+	 */
+	public <T> long importAll(Iterator<T> records, Consumer<T> mapper) {
+		return importAll(records, mapper, environment.getProperty("import.batchSize", Integer.class, 1));
+	}
+
+	/**
+	 * Maps all records with the given mapper and commits them in batches of the given size.
+	 * If the mapping of a record fails, the whole batch is rolled back and the exception is passed on.
+	 * 
+	 * @param records the records to import
+	 * @param mapper maps a single record to DiscourseDB, usually a method of a converter service
+	 * @param batchSize the number of records per transaction
+	 * @return the number of records that have been mapped
+	 */
+	public <T> long importAll(Iterator<T> records, Consumer<T> mapper, int batchSize) {
+		Assert.notNull(records, "Records cannot be null.");
+		Assert.notNull(mapper, "Mapper cannot be null.");
+		Assert.isTrue(batchSize > 0, "Batch size has to be a positive number.");
+
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		long count = 0;
+		long startTime = System.currentTimeMillis();
+		try {
+			while (records.hasNext()) {
+				count += mapBatch(transaction, records, mapper, batchSize);
+				if (batchSize > 1) {
+					log.info("Imported " + count + " records (" + (count * 1000 / Math.max(1, System.currentTimeMillis() - startTime)) + " records/s)");
+				}
+			}
+		} finally {
+			identityCache.clear();
+		}
+		return count;
+	}
+
+	/**
+	 * Maps all records with the given mapper using a pool of <code>import.workers</code> worker threads.
+	 * Records with the same partition key are mapped by the same worker in the order they are read, 
+	 * so the key should group records that create or update the same entities, e.g. the id of the thread or DiscoursePart a record belongs to.
+	 * Each worker commits its records in batches of <code>import.batchSize</code> records.
+	 * If the workers fall behind by more than <code>import.queueCapacity</code> records, reading the input is paused.<br/>
+	 * 
+	 * The mapper is called concurrently, so it must not modify shared state without synchronization.
+	 * With a single worker, this method behaves like {@link #importAll(Iterator, Consumer)}.
+	 * 
+	 * @param records the records to import
+	 * @param partitionKey extracts the partition key of a record, may return null for records that can be mapped by any worker
+	 * @param mapper maps a single record to DiscourseDB, usually a method of a converter service
+	 * @return the number of records that have been mapped
+	 */
+	public <T> long importParallel(Iterator<T> records, Function<? super T, ?> partitionKey, Consumer<T> mapper) {
+		return importParallel(records, partitionKey, null, mapper);
+	}
+
+	/**
+	 * Maps all records with the given mapper using a pool of <code>import.workers</code> worker threads 
+	 * (see {@link #importParallel(Iterator, Function, Consumer)}).<br/>
+	 * 
+	 * Entities that are shared by records with different partition keys, e.g. users, must not be created by the mapper, 
+	 * since two workers could create the same entity concurrently. They are created by the preparer instead, 
+	 * which is called on the reading thread for each record before the record is handed to a worker. 
+	 * The preparer calls for a chunk of <code>import.batchSize</code> records are committed in a single transaction 
+	 * before any of the records is mapped, so the mapper can look up the prepared entities with the createOrGet methods of the services.
+	 * 
+	 * @param records the records to import
+	 * @param partitionKey extracts the partition key of a record, may return null for records that can be mapped by any worker
+	 * @param preparer creates the entities of a record that are shared with other partitions. May be null.
+	 * @param mapper maps a single record to DiscourseDB, usually a method of a converter service
+	 * @return the number of records that have been mapped
+	 */
+	public <T> long importParallel(Iterator<T> records, Function<? super T, ?> partitionKey, Consumer<T> preparer, Consumer<T> mapper) {
+		Assert.notNull(records, "Records cannot be null.");
+		Assert.notNull(partitionKey, "Partition key function cannot be null.");
+		Assert.notNull(mapper, "Mapper cannot be null.");
+
+		int workers = environment.getProperty("import.workers", Integer.class, 1);
+		if (workers <= 1) {
+			return importAll(records, preparer == null ? mapper : record -> {
+				preparer.accept(record);
+				mapper.accept(record);
+			});
+		}
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		IngestPipeline<T> pipeline = new IngestPipeline<>(workers, 
+				environment.getProperty("import.queueCapacity", Integer.class, 1000), 
+				environment.getProperty("import.batchSize", Integer.class, 1), 
+				preparer == null ? null : chunk -> mapBatch(transaction, chunk.iterator(), preparer, chunk.size()),
+				batch -> mapBatch(transaction, batch.iterator(), mapper, batch.size()));
+		try {
+			return pipeline.run(records, partitionKey).getCommitted();
+		} finally {
+			identityCache.clear();
+		}
+	}
+
+	/**
+	 * Maps the next batchSize records in a single transaction.
+	 * 
+	 * @return the number of mapped records
+	 */
+	private <T> int mapBatch(TransactionTemplate transaction, Iterator<T> records, Consumer<T> mapper, int batchSize) {
+		int flushSize = environment.getProperty("hibernate.jdbc.batch_size", Integer.class, 100);
+		return transaction.execute(status -> {
+			int mapped = 0;
+			while (mapped < batchSize && records.hasNext()) {
+				mapper.accept(records.next());
+				mapped++;
+				if (mapped % flushSize == 0) {
+					entityManager.flush();
+					entityManager.clear();
+				}
+			}
+			entityManager.flush();
+			entityManager.clear();
+			return mapped;
+		});
+	}
+
+	/**
+	 * Maps all records with the given mapper and commits them in batches of <code>import.batchSize</code> records.
+	 * 
+	 * @param records the records to import
+	 * @param mapper maps a single record to DiscourseDB, usually a method of a converter service
+	 * @return the number of records that have been mapped
+	 */
+	public <T> long importAll(Iterable<T> records, Consumer<T> mapper) {
+		Assert.notNull(records, "Records cannot be null.");
+		return importAll(records.iterator(), mapper);
+	}
+}
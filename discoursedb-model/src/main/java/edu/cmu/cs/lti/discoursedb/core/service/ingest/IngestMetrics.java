@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress counters of an {@link IngestPipeline}. The counters are updated by the reader and the workers 
+ * of the pipeline and can be read from any thread while the pipeline is running.
+ * 
+ * @author Oliver Ferschke
+ */
+public class IngestMetrics {
+
+	private final long startTime = System.currentTimeMillis();
+	private final AtomicLong read = new AtomicLong();
+	private final AtomicLong committed = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong readerBlockedMillis = new AtomicLong();
+
+	void recordRead() {
+		read.incrementAndGet();
+	}
+
+	void recordBatch(int size) {
+		committed.addAndGet(size);
+		batches.incrementAndGet();
+	}
+
+	void recordBlocked(long millis) {
+		readerBlockedMillis.addAndGet(millis);
+	}
+
+	/**
+	 * @return the number of records that have been handed over to the workers
+	 */
+	public long getRead() {
+		return read.get();
+	}
+
+	/**
+	 * @return the number of records that have been mapped and committed
+	 */
+	public long getCommitted() {
+		return committed.get();
+	}
+
+	/**
+	 * @return the number of committed transactions
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * @return the number of records that have been read but not committed yet
+	 */
+	public long getInFlight() {
+		return read.get() - committed.get();
+	}
+
+	/**
+	 * @return the time in milliseconds the reader had to wait for the workers because their queues were full 
+	 */
+	public long getReaderBlockedMillis() {
+		return readerBlockedMillis.get();
+	}
+
+	/**
+	 * @return the number of committed records per second since the pipeline was started
+	 */
+	public double getThroughput() {
+		return committed.get() * 1000d / Math.max(1, System.currentTimeMillis() - startTime);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("read: %d, committed: %d in %d batches, in flight: %d, reader blocked: %d ms, %.1f records/s", 
+				getRead(), getCommitted(), getBatches(), getInFlight(), getReaderBlockedMillis(), getThroughput());
+	}
+}
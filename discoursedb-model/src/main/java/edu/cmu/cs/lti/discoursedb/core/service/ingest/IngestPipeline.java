@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.ingest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.springframework.util.Assert;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Runs an import with one reader and several workers.<br/>
+ * 
+ * The reader is the calling thread. It pulls the records from the input and hands each record to one of the workers,
+ * depending on the partition key of the record. All records with the same key are processed by the same worker in the order they were read,
+ * so records that touch the same entities (e.g. the posts of a thread) don't compete for the same rows in concurrent transactions.
+ * Records without a key are distributed round-robin.<br/>
+ * 
+ * Entities that are shared by records of different partitions (e.g. users or the discourse) can't be created safely by the workers, 
+ * since two workers could create the same entity in concurrent transactions. Such entities are created by the optional preparer, 
+ * which the reader calls for each chunk of up to batchSize records before it hands them to the workers. 
+ * When the preparer returns, the shared entities have to be committed, so the workers only need to look them up.<br/>
+ * 
+ * Each worker has a bounded queue. If a queue is full, the reader blocks until the worker catches up, 
+ * i.e. the input is never read much faster than it can be written.
+ * Workers collect the records from their queue into batches and pass each batch to the batch writer, 
+ * which maps and commits the batch in a single transaction.<br/>
+ * 
+ * If a batch fails, the pipeline stops reading, lets the other workers finish their current batch and rethrows the failure.
+ * 
+ * @author Oliver Ferschke
+ *
+ * @param <T> the type of the records
+ */
+@Log4j
+class IngestPipeline<T> {
+
+	private static final Object END_OF_INPUT = new Object();
+	private static final long POLL_MILLIS = 100;
+	private static final long PROGRESS_INTERVAL_MILLIS = 10000;
+
+	private final int workerCount;
+	private final int queueCapacity;
+	private final int batchSize;
+	private final Consumer<List<T>> batchWriter;
+	private final Consumer<List<T>> preparer;
+
+	private final IngestMetrics metrics = new IngestMetrics();
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+
+	/**
+	 * @param workerCount the number of worker threads 
+	 * @param queueCapacity the maximum number of records waiting for each worker
+	 * @param batchSize the maximum number of records passed to the batch writer at once
+	 * @param batchWriter maps and commits a batch of records, called concurrently by the workers
+	 */
+	IngestPipeline(int workerCount, int queueCapacity, int batchSize, Consumer<List<T>> batchWriter) {
+		this(workerCount, queueCapacity, batchSize, null, batchWriter);
+	}
+
+	/**
+	 * @param workerCount the number of worker threads 
+	 * @param queueCapacity the maximum number of records waiting for each worker
+	 * @param batchSize the maximum number of records passed to the preparer and the batch writer at once
+	 * @param preparer creates and commits the entities that are shared across partitions, called by the reader. May be null.
+	 * @param batchWriter maps and commits a batch of records, called concurrently by the workers
+	 */
+	IngestPipeline(int workerCount, int queueCapacity, int batchSize, Consumer<List<T>> preparer, Consumer<List<T>> batchWriter) {
+		Assert.isTrue(workerCount > 0, "Number of workers has to be a positive number.");
+		Assert.isTrue(queueCapacity > 0, "Queue capacity has to be a positive number.");
+		Assert.isTrue(batchSize > 0, "Batch size has to be a positive number.");
+		Assert.notNull(batchWriter, "Batch writer cannot be null.");
+		this.workerCount = workerCount;
+		this.queueCapacity = queueCapacity;
+		this.batchSize = batchSize;
+		this.batchWriter = batchWriter;
+		this.preparer = preparer;
+	}
+
+	/**
+	 * Reads all records and blocks until they have been committed by the workers.
+	 * 
+	 * @param records the records to import
+	 * @param partitionKey extracts the partition key of a record, may return null
+	 * @return the metrics of the finished import
+	 */
+	IngestMetrics run(Iterator<T> records, Function<? super T, ?> partitionKey) {
+		Assert.notNull(records, "Records cannot be null.");
+		Assert.notNull(partitionKey, "Partition key function cannot be null.");
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService workers = Executors.newFixedThreadPool(workerCount, r -> {
+			Thread t = new Thread(r, "ingest-worker-" + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		for (int i = 0; i < workerCount; i++) {
+			BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueCapacity);
+			queues.add(queue);
+			workers.execute(() -> work(queue));
+		}
+
+		try {
+			read(records, partitionKey);
+		} catch (RuntimeException | Error e) {
+			failure.compareAndSet(null, e);
+		} finally {
+			queues.forEach(queue -> handOver(queue, END_OF_INPUT));
+			workers.shutdown();
+			awaitTermination(workers);
+		}
+
+		Throwable t = failure.get();
+		if (t != null) {
+			log.error("Import failed after " + metrics, t);
+			if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			}
+			if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new IllegalStateException("Import failed", t);
+		}
+		log.info("Import completed. " + metrics);
+		return metrics;
+	}
+
+	/**
+	 * @return the live metrics of this pipeline
+	 */
+	IngestMetrics getMetrics() {
+		return metrics;
+	}
+
+	private void read(Iterator<T> records, Function<? super T, ?> partitionKey) {
+		int roundRobin = 0;
+		long lastProgress = System.currentTimeMillis();
+		List<T> chunk = new ArrayList<>(batchSize);
+		while (failure.get() == null && records.hasNext()) {
+			chunk.clear();
+			while (chunk.size() < batchSize && records.hasNext()) {
+				chunk.add(records.next());
+			}
+			if (preparer != null) {
+				preparer.accept(chunk);
+			}
+			for (T record : chunk) {
+				Object key = partitionKey.apply(record);
+				int partition = key == null ? Math.floorMod(roundRobin++, workerCount) : Math.floorMod(spread(key.hashCode()), workerCount);
+				if (!handOver(queues.get(partition), record)) {
+					return;
+				}
+				metrics.recordRead();
+			}
+			if (System.currentTimeMillis() - lastProgress > PROGRESS_INTERVAL_MILLIS) {
+				lastProgress = System.currentTimeMillis();
+				log.info(metrics);
+			}
+		}
+	}
+
+	/**
+	 * Puts the element into the queue, waiting for free space as long as no worker has failed.
+	 * 
+	 * @return true if the element has been queued
+	 */
+	private boolean handOver(BlockingQueue<Object> queue, Object element) {
+		long start = System.currentTimeMillis();
+		try {
+			while (!queue.offer(element, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (failure.get() != null) {
+					return false;
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, e);
+			return false;
+		} finally {
+			long waited = System.currentTimeMillis() - start;
+			if (waited > 0) {
+				metrics.recordBlocked(waited);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void work(BlockingQueue<Object> queue) {
+		List<T> batch = new ArrayList<>(batchSize);
+		boolean endOfInput = false;
+		try {
+			while (!endOfInput && failure.get() == null) {
+				Object element = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				while (element != null) {
+					if (element == END_OF_INPUT) {
+						endOfInput = true;
+						break;
+					}
+					batch.add((T) element);
+					if (batch.size() >= batchSize) {
+						break;
+					}
+					element = queue.poll();
+				}
+				if (!batch.isEmpty()) {
+					batchWriter.accept(batch);
+					metrics.recordBatch(batch.size());
+					batch.clear();
+				}
+			}
+		} catch (Throwable t) {
+			failure.compareAndSet(null, t);
+		}
+	}
+
+	private void awaitTermination(ExecutorService workers) {
+		try {
+			while (!workers.awaitTermination(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+				log.info("Waiting for workers to finish. " + metrics);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			workers.shutdownNow();
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.ingest;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Iterator;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.util.Assert;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Streams the rows of a query against a source database to a converter.<br/>
+ * 
+ * Converters used to fetch all ids of a source table first and then query each row separately, 
+ * which costs one round trip per row. The JdbcRowReader instead runs the query once on a background thread.
+ * That thread reads the result set in chunks of <code>fetchSize</code> rows, maps each row to a typed record 
+ * and puts the records into a bounded queue, which the converter consumes through the {@link Iterator} interface.
+ * If the queue is full, reading pauses until the converter catches up.<br/>
+ * 
+ * The query runs on its own connection from the given DataSource, so the converter can still use other 
+ * connections of the same DataSource to look up related rows while the reader is open.
+ * For MySQL, the connection should be opened with <code>useCursorFetch=true</code>, 
+ * otherwise the driver ignores the fetch size and loads the whole result set into memory.<br/>
+ * 
+ * Errors on the reader thread are rethrown by {@link #hasNext()}. 
+ * The reader has to be closed if it is not read until the end.
+ * 
+ * @author Oliver Ferschke
+ *
+ * @param <T> the type of the records
+ */
+@Log4j
+public class JdbcRowReader<T> extends ReadAheadIterator<T> {
+
+	/**
+	 * Starts reading the rows of the given query.
+	 * 
+	 * @param dataSource the DataSource to obtain a connection for the query from
+	 * @param sql the query
+	 * @param parameters sets the parameters of the query, may be null if the query has no parameters
+	 * @param mapper maps each row to a record
+	 * @param fetchSize the number of rows fetched from the database at once 
+	 * @param queueCapacity the maximum number of records read ahead of the converter
+	 */
+	public JdbcRowReader(DataSource dataSource, String sql, PreparedStatementSetter parameters, RowMapper<T> mapper, int fetchSize, int queueCapacity) {
+		super("jdbc-reader", queueCapacity, query(dataSource, sql, parameters, mapper, fetchSize));
+	}
+
+	private static <T> Producer<T> query(DataSource dataSource, String sql, PreparedStatementSetter parameters, RowMapper<T> mapper, int fetchSize) {
+		Assert.notNull(dataSource, "DataSource cannot be null.");
+		Assert.hasText(sql, "Query cannot be empty.");
+		Assert.notNull(mapper, "Row mapper cannot be null.");
+		Assert.isTrue(fetchSize > 0, "Fetch size has to be a positive number.");
+		return sink -> {
+			int rows = 0;
+			try (Connection con = dataSource.getConnection();
+					PreparedStatement stmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				stmt.setFetchSize(fetchSize);
+				if (parameters != null) {
+					parameters.setValues(stmt);
+				}
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						if (!sink.test(mapper.mapRow(rs, rows++))) {
+							return;
+						}
+					}
+				}
+			}
+			log.debug("Read " + rows + " rows: " + sql);
+		};
+	}
+}
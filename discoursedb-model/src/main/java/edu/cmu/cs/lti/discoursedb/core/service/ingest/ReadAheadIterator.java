@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.ingest;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.springframework.util.Assert;
+
+/**
+ * Reads records on a background thread while the converter maps the records that have already been read.<br/>
+ * 
+ * The producer runs on its own thread and passes each record it reads to a sink, which puts the record into a bounded queue.
+ * The converter consumes the queue through the {@link Iterator} interface. 
+ * If the queue is full, the producer blocks until the converter catches up, so reading never gets far ahead of the import.
+ * The sink returns false once the iterator has been closed, in which case the producer should stop reading.<br/>
+ * 
+ * Errors of the producer are rethrown by {@link #hasNext()} after all records read before the error have been consumed. 
+ * The iterator has to be closed if it is not read until the end.
+ * 
+ * @author Oliver Ferschke
+ *
+ * @param <T> the type of the records
+ */
+public class ReadAheadIterator<T> implements Iterator<T>, AutoCloseable {
+
+	private static final Object END_OF_INPUT = new Object();
+	private static final long POLL_MILLIS = 100;
+	private static final AtomicInteger threadNumber = new AtomicInteger();
+
+	private final BlockingQueue<Object> queue;
+	private final Thread producerThread;
+
+	private volatile boolean closed = false;
+	private volatile Throwable failure = null;
+	private Object next = null;
+	private boolean endOfInput = false;
+
+	/**
+	 * Reads the records of a source on a background thread.
+	 * 
+	 * @param <T> the type of the records
+	 */
+	@FunctionalInterface
+	public interface Producer<T> {
+		/**
+		 * Reads all records and passes them to the sink.
+		 * 
+		 * @param sink accepts the records, returns false if reading should stop
+		 * @throws Exception if the source cannot be read
+		 */
+		void produce(Predicate<T> sink) throws Exception;
+	}
+
+	/**
+	 * Starts the given producer on a background thread.
+	 * 
+	 * @param name the name of the background thread
+	 * @param queueCapacity the maximum number of records read ahead of the converter
+	 * @param producer reads the records
+	 */
+	public ReadAheadIterator(String name, int queueCapacity, Producer<T> producer) {
+		Assert.hasText(name, "Thread name cannot be empty.");
+		Assert.isTrue(queueCapacity > 0, "Queue capacity has to be a positive number.");
+		Assert.notNull(producer, "Producer cannot be null.");
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.producerThread = new Thread(() -> produce(producer), name + "-" + threadNumber.incrementAndGet());
+		this.producerThread.setDaemon(true);
+		this.producerThread.start();
+	}
+
+	/**
+	 * Iterates over the given source on a background thread.
+	 * 
+	 * @param source the source iterator, which is only accessed by the background thread from now on
+	 * @param queueCapacity the maximum number of records read ahead of the converter
+	 * @return an iterator over the records of the source
+	 */
+	public static <T> ReadAheadIterator<T> of(Iterator<T> source, int queueCapacity) {
+		Assert.notNull(source, "Source cannot be null.");
+		return new ReadAheadIterator<>("read-ahead", queueCapacity, sink -> {
+			while (source.hasNext()) {
+				if (!sink.test(source.next())) {
+					return;
+				}
+			}
+		});
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !endOfInput) {
+			next = take();
+			if (next == END_OF_INPUT) {
+				next = null;
+				endOfInput = true;
+			}
+		}
+		if (endOfInput && failure != null) {
+			Throwable t = failure;
+			failure = null;
+			if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			}
+			if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new IllegalStateException("Error reading records", t);
+		}
+		return next != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T record = (T) next;
+		next = null;
+		return record;
+	}
+
+	/**
+	 * Stops the producer and waits for the background thread to finish.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		queue.clear();
+		try {
+			producerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Object take() {
+		try {
+			Object element = null;
+			while (element == null) {
+				Assert.state(!closed, "Iterator has already been closed.");
+				element = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			return element;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for records.", e);
+		}
+	}
+
+	private void produce(Producer<T> producer) {
+		try {
+			producer.produce(this::handOver);
+		} catch (Throwable t) {
+			failure = t;
+		} finally {
+			handOver(END_OF_INPUT);
+		}
+	}
+
+	/**
+	 * Puts the element into the queue, waiting for free space as long as the iterator is open.
+	 * 
+	 * @return true if the element has been queued
+	 */
+	private boolean handOver(Object element) {
+		Assert.notNull(element, "Records cannot be null.");
+		try {
+			while (!queue.offer(element, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (closed) {
+					return false;
+				}
+			}
+			return !closed;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.event.spi.PreUpdateEvent;
+import org.hibernate.event.spi.PreUpdateEventListener;
+import org.hibernate.jpa.HibernateEntityManagerFactory;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
+import edu.cmu.cs.lti.discoursedb.core.service.system.TransactionalLruCache;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Restores the text of delta encoded {@link Content} entities when they are loaded.<br/>
+ * 
+ * A delta encoded content only stores the difference to the full text of an earlier revision, the base text (see {@link TextDelta}).
+ * The listener is registered with Hibernate for loaded entities and decodes the text right away, 
+ * so readers of {@link Content#getText()} don't have to be aware of the encoding. 
+ * Queries that project the text of a content instead of loading the entity restore it with {@link #restoreText(String, String, Long)}.<br/>
+ * 
+ * Since many consecutive revisions share the same base, the most recently used base texts are kept in an LRU cache 
+ * of <code>content.delta.cacheSize</code> entries. The text of a content that is referenced as a base cannot be changed:
+ * flushing such a change fails with an IllegalStateException, and the foreign key on <code>fk_text_base</code> prevents the deletion of the base.
+ * Cached texts are evicted whenever the text of a content is changed or a content is deleted.<br/>
+ * 
+ * New revisions are only delta encoded by {@link ContentService#setRevisionText(Content, Content, String)} 
+ * if <code>content.delta.enabled</code> is true. Existing deltas are decoded regardless of this setting.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+@Component
+public class ContentDeltaStore implements PostLoadEventListener, PreUpdateEventListener, PostDeleteEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final List<String> TEXT_PROPERTIES = Arrays.asList("text", "textDelta", "textBaseId");
+
+	private final EntityManagerFactory entityManagerFactory;
+	private final boolean enabled;
+	private final double maxDeltaRatio;
+	private final TransactionalLruCache<Long, String> baseTexts;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	public ContentDeltaStore(EntityManagerFactory entityManagerFactory, Environment environment) {
+		this.entityManagerFactory = entityManagerFactory;
+		this.enabled = environment.getProperty("content.delta.enabled", Boolean.class, false);
+		this.maxDeltaRatio = environment.getProperty("content.delta.maxDeltaRatio", Double.class, 0.2);
+		this.baseTexts = new TransactionalLruCache<>("base text", environment.getProperty("content.delta.cacheSize", Integer.class, 64));
+	}
+
+	@PostConstruct
+	void register() {
+		SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+		EventListenerRegistry registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+		registry.appendListeners(EventType.POST_LOAD, this);
+		registry.appendListeners(EventType.PRE_UPDATE, this);
+		registry.appendListeners(EventType.POST_DELETE, this);
+	}
+
+	/**
+	 * @return true, if new revisions should be delta encoded
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the maximum size of a delta relative to the size of the full text. 
+	 * Revisions with larger deltas are stored in full and become the base of the following revisions.
+	 */
+	public double getMaxDeltaRatio() {
+		return maxDeltaRatio;
+	}
+
+	@Override
+	public void onPostLoad(PostLoadEvent event) {
+		if (!(event.getEntity() instanceof Content)) {
+			return;
+		}
+		Content content = (Content) event.getEntity();
+		if (content.isTextDeltaEncoded()) {
+			content.setDecodedText(restoreText(content.getId(), content.getTextDelta(), content.getTextBaseId(), event.getSession()));
+		}
+	}
+
+	/**
+	 * Rejects changes of the text of contents that are the base of other contents and evicts the changed text from the cache.
+	 */
+	@Override
+	public boolean onPreUpdate(PreUpdateEvent event) {
+		if (!(event.getEntity() instanceof Content) || !isTextChanged(event)) {
+			return false;
+		}
+		Long id = (Long) event.getId();
+		baseTexts.evict(id);
+		//the update is executed during a flush, so the query must not flush again
+		Query query = event.getSession().createQuery("select count(c.id) from Content c where c.textBaseId = :id");
+		query.setParameter("id", id);
+		query.setFlushMode(FlushMode.MANUAL);
+		long dependents = (Long) query.uniqueResult();
+		if (dependents > 0) {
+			throw new IllegalStateException("The text of content " + id + " cannot be changed. It is the base text of " + dependents + " delta encoded contents.");
+		}
+		return false;
+	}
+
+	/**
+	 * @return true, if the stored text has changed or the previous state is unknown
+	 */
+	private boolean isTextChanged(PreUpdateEvent event) {
+		if (event.getOldState() == null) {
+			return true;
+		}
+		String[] propertyNames = event.getPersister().getPropertyNames();
+		for (int i = 0; i < propertyNames.length; i++) {
+			if (TEXT_PROPERTIES.contains(propertyNames[i]) && !Objects.equals(event.getOldState()[i], event.getState()[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		if (event.getEntity() instanceof Content) {
+			baseTexts.evict((Long) event.getId());
+		}
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return false;
+	}
+
+	/**
+	 * Returns the full text of the content with the given id, which serves as the base of text deltas.
+	 * 
+	 * @param baseId the id of a content that stores its text in full
+	 * @return the text of the content or null if there is no such content
+	 */
+	public String getBaseText(Long baseId) {
+		return getBaseText(baseId, entityManager.unwrap(Session.class));
+	}
+
+	/**
+	 * Restores the full text of a content from its stored columns, e.g. when the text has been read by a projection query.
+	 * 
+	 * @param text the stored text
+	 * @param textDelta the stored text delta
+	 * @param textBaseId the stored id of the base content
+	 * @return the stored text if the content is not delta encoded, otherwise the text decoded from the delta
+	 * or null if the base text could not be found
+	 */
+	public String restoreText(String text, String textDelta, Long textBaseId) {
+		return textDelta == null ? text : restoreText(null, textDelta, textBaseId, entityManager.unwrap(Session.class));
+	}
+
+	private String restoreText(Long id, String textDelta, Long textBaseId, Session session) {
+		String baseText = getBaseText(textBaseId, session);
+		if (baseText == null) {
+			log.error("Could not restore the text of content" + (id == null ? "" : " " + id) + ". Base content " + textBaseId + " has no text.");
+			return null;
+		}
+		return TextDelta.decode(baseText, textDelta);
+	}
+
+	private String getBaseText(Long baseId, Session session) {
+		String text = baseTexts.get(baseId);
+		if (text != null) {
+			return text;
+		}
+		//the text is read from the loading session, so base texts that have not been committed yet are visible. 
+		//they are removed from the cache again if the transaction does not commit.
+		//the session must not be flushed while an entity is being loaded.
+		Query query = session.createQuery("select c.text from Content c where c.id = :id");
+		query.setParameter("id", baseId);
+		query.setFlushMode(FlushMode.MANUAL);
+		text = (String) query.uniqueResult();
+		if (text != null) {
+			baseTexts.putTransactional(baseId, text);
+		}
+		return text;
+	}
+}
@@ -41,6 +41,7 @@ import lombok.RequiredArgsConstructor;
 public class ContentService {
 
 	private final @NonNull ContentRepository contentRepo;
+	private final @NonNull ContentDeltaStore contentDeltaStore;
 	
 	public Content createContent(){
 		return contentRepo.save(new Content());
@@ -65,6 +66,44 @@ public class ContentService {
 		return contentRepo.findOne(id);
 	}
 	
+	/**
+	 * Sets the text of a content entity that is the next revision of the given previous revision.<br/>
+	 * If <code>content.delta.enabled</code> is true, the text is stored as a delta against the base text of the previous revision, 
+	 * i.e. the text of the previous revision itself or the text its own delta is based on.
+	 * If the delta exceeds <code>content.delta.maxDeltaRatio</code> times the size of the text, the text is stored in full
+	 * and becomes the base of the following revisions.
+	 * 
+	 * @param content the content entity to set the text of
+	 * @param previousRevision the previous revision of the content. Might be null if there is no previous revision.
+	 * @param text the text of the content
+	 */
+	public void setRevisionText(Content content, Content previousRevision, String text){
+		Assert.notNull(content, "Content cannot be null.");
+		if(!contentDeltaStore.isEnabled()||text==null||previousRevision==null||previousRevision.getId()==null){
+			content.setText(text);
+			return;
+		}
+		Long baseId = null;
+		String baseText = null;
+		if(previousRevision.isTextDeltaEncoded()){
+			baseId = previousRevision.getTextBaseId();
+			baseText = contentDeltaStore.getBaseText(baseId);
+		}else{
+			baseId = previousRevision.getId();
+			baseText = previousRevision.getText();
+		}
+		if(baseText==null){
+			content.setText(text);
+			return;
+		}
+		String delta = TextDelta.encode(baseText, text);
+		if(delta.length()>text.length()*contentDeltaStore.getMaxDeltaRatio()){
+			content.setText(text);
+		}else{
+			content.setTextDelta(baseId, delta, text);
+		}
+	}
+	
 	public void setNextRevision(Long id, Long nextRevId){
 		Assert.notNull(id, "Content id cannot be null.");
 		Assert.isTrue(id>0, "Content id has to be a positive number.");
@@ -21,35 +21,55 @@
  *******************************************************************************/
 package edu.cmu.cs.lti.discoursedb.core.service.macro;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
+import edu.cmu.cs.lti.discoursedb.configuration.CursorFetchDataSource;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Content;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.ContributionContext;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartClosure;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseRelation;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionContextRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseRelationRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.SummaryQuery;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
 import edu.cmu.cs.lti.discoursedb.core.type.ContextTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.ContributionTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscourseRelationTypes;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.log4j.Log4j;
 
+@Log4j
 @Service
 @Transactional(propagation= Propagation.REQUIRED, readOnly=false)
 @RequiredArgsConstructor(onConstructor = @__(@Autowired) )
@@ -59,7 +79,19 @@ public class ContributionService {
 	private final @NonNull ContributionContextRepository contributionContextRepo;
 	private final @NonNull DataSourceService dataSourceService;	
 	private final @NonNull DiscourseRelationRepository discourseRelationRepo;
+	private final @NonNull ThreadTreeCache threadTreeCache;
 	private final @NonNull @PersistenceContext EntityManager entityManager; 
+	private final @NonNull CursorFetchDataSource cursorFetchDataSource;
+	private final @NonNull ContentDeltaStore contentDeltaStore;
+	
+	/**
+	 * Maximum number of ids that are passed to a single query by the bulk lookup methods
+	 */
+	private static final int ID_BATCH_SIZE = 1000;
+	
+	private final SummaryQuery<ContributionSummary> summaryQuery = new SummaryQuery<>(
+			"c.id, c.type, c.startTime, c.upvotes, rev.text, rev.textDelta, rev.textBaseId, author.id, author.username, author.realname, author.email",
+			"from Contribution c left join c.currentRevision rev left join rev.author author", "c", this::toSummary);
 	
 	/**
 	 * Retrieves existing or creates a new ContributionType entity with the
@@ -162,6 +194,160 @@ public class ContributionService {
 		return contributionRepo.findAll(ContributionPredicates.contributionHasDiscoursePart(discoursePart));			
 	}
 	
+	/**
+	 * Returns all contributions of the given DiscoursePart with their current revisions loaded in the same query.
+	 * 
+	 * @param discoursePart the DiscoursePart the contributions need to be associated with
+	 * @return a list of the contributions of the given DiscoursePart
+	 */
+	@Transactional(readOnly=true)
+	public List<Contribution> findAllByDiscoursePartWithCurrentRevision(DiscoursePart discoursePart){
+		Assert.notNull(discoursePart, "DiscoursePart cannot be null.");
+		return contributionRepo.findAllByDiscoursePartIdFetchCurrentRevision(discoursePart.getId());			
+	}
+	
+	/**
+	 * Streams the id, the text of the current revision and the id of the annotation aggregate of each contribution
+	 * of the given DiscourseParts to the provided consumer. The rows are read through a forward-only database cursor
+	 * and handed to the consumer in chunks of at most <code>chunkSize</code> rows, so the memory footprint does not
+	 * grow with the number of contributions.<br/>
+	 * The cursor is opened on a separate connection of the {@link CursorFetchDataSource}, so the consumer can keep running queries 
+	 * in the current transaction while the cursor is open. The rows therefore reflect the committed state of the database.<br/>
+	 * The persistence context is cleared after each chunk. Entities that have been loaded before calling this method are detached afterwards.
+	 * Contributions that belong to more than one of the DiscourseParts are passed on once for each DiscoursePart.
+	 * 
+	 * @param discoursePartIds the ids of the DiscourseParts to stream the contributions of
+	 * @param chunkSize the maximum number of rows handed to the consumer at once 
+	 * @param chunkConsumer the consumer that processes the rows
+	 */
+	@Transactional(readOnly=true)
+	public void scrollContributionTexts(Collection<Long> discoursePartIds, int chunkSize, Consumer<List<ContributionText>> chunkConsumer){
+		Assert.notNull(discoursePartIds, "DiscoursePart ids cannot be null.");
+		Assert.isTrue(chunkSize > 0, "Chunk size has to be positive.");
+		Assert.notNull(chunkConsumer, "Consumer cannot be null.");
+		if(discoursePartIds.isEmpty()){
+			return;
+		}
+		
+		cursorFetchDataSource.read(entityManager, session -> scrollContributionTexts(session, discoursePartIds, chunkSize, chunkConsumer));
+	}
+
+	private void scrollContributionTexts(StatelessSession cursorSession, Collection<Long> discoursePartIds, int chunkSize, Consumer<List<ContributionText>> chunkConsumer){
+		ScrollableResults rows = cursorSession
+				.createQuery("select c.id, rev.text, rev.textDelta, rev.textBaseId, anno.id from DiscoursePartContribution dpc join dpc.contribution c "
+						+ " left join c.currentRevision rev left join c.annotations anno "
+						+ " where dpc.discoursePart.id in (:dpIds) order by dpc.discoursePart.id, c.id")
+				.setParameterList("dpIds", discoursePartIds)
+				.setReadOnly(true)
+				.setFetchSize(chunkSize)
+				.scroll(ScrollMode.FORWARD_ONLY);
+		try{
+			List<ContributionText> chunk = new ArrayList<>(chunkSize);
+			while(rows.next()){
+				//delta encoded texts are not loaded as entities, so they are restored here
+				String text = contentDeltaStore.restoreText(rows.getString(1), rows.getString(2), rows.getLong(3));
+				chunk.add(new ContributionText(rows.getLong(0), text, rows.getLong(4)));
+				if(chunk.size() == chunkSize){
+					chunkConsumer.accept(chunk);
+					chunk = new ArrayList<>(chunkSize);
+					entityManager.clear();
+				}
+			}
+			if(!chunk.isEmpty()){
+				chunkConsumer.accept(chunk);
+			}
+		}finally{
+			rows.close();
+		}
+	}
+	
+	/**
+	 * Looks up the parents of the given contributions, i.e. the sources of the COMMENT or REPLY relations the contributions are the target of.
+	 * The lookup is answered by the index on the target and type of the DiscourseRelations and never loads the contributions themselves.
+	 * 
+	 * @param contributionIds the ids of the contributions to look up the parents for
+	 * @return a map from contribution ids to the ids of their parents. Contributions without a parent are not contained in the map.
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Map<Long, Long> findParentIds(Collection<Long> contributionIds){
+		return findRelationSourceIds(contributionIds, Arrays.asList(DiscourseRelationTypes.COMMENT.name(), DiscourseRelationTypes.REPLY.name()));
+	}
+	
+	/**
+	 * Looks up the thread starters of the given contributions, i.e. the sources of the DESCENDANT relations the contributions are the target of.
+	 * The lookup is answered by the index on the target and type of the DiscourseRelations and never loads the contributions themselves.
+	 * 
+	 * @param contributionIds the ids of the contributions to look up the thread starters for
+	 * @return a map from contribution ids to the ids of their thread starters. Contributions without a thread starter are not contained in the map.
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Map<Long, Long> findThreadStarterIds(Collection<Long> contributionIds){
+		return findRelationSourceIds(contributionIds, Collections.singletonList(DiscourseRelationTypes.DESCENDANT.name()));
+	}
+	
+	/**
+	 * Maps each target id to the source of the first relation of the given types.
+	 */
+	private Map<Long, Long> findRelationSourceIds(Collection<Long> targetIds, Collection<String> types){
+		Assert.notNull(targetIds, "Contribution ids cannot be null.");
+		
+		Map<Long, Long> sourceIds = new HashMap<>();
+		List<Long> distinctIds = new ArrayList<>(new HashSet<>(targetIds));
+		for(int i=0; i<distinctIds.size(); i+=ID_BATCH_SIZE){
+			List<Long> batch = distinctIds.subList(i, Math.min(i+ID_BATCH_SIZE, distinctIds.size()));
+			for(Object[] row:discourseRelationRepo.findSourceIdsByTargetIdsAndTypes(batch, types)){
+				sourceIds.putIfAbsent((Long)row[0], (Long)row[1]);
+			}
+		}
+		return sourceIds;
+	}
+
+	/**
+	 * Returns a page of contribution summaries ordered by contribution id.
+	 * Each summary is read with a single projection query that joins the current revision and its author,
+	 * so no Contribution, Content or User entities are loaded.
+	 * 
+	 * @param discoursePartId restricts the result to the contributions of this DiscoursePart, or all contributions if empty
+	 * @param includeDescendants whether contributions of DiscourseParts below the given DiscoursePart should be included as well
+	 * @param pageable the page to retrieve
+	 * @return a page of contribution summaries
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Page<ContributionSummary> findSummaries(Optional<Long> discoursePartId, boolean includeDescendants, Pageable pageable){
+		Assert.notNull(discoursePartId, "DiscoursePart id cannot be null. Provide an empty optional instead.");
+		return summaryQuery.findPage(entityManager, summaryFilter(discoursePartId, includeDescendants), discoursePartId, pageable);
+	}
+
+	/**
+	 * Streams the summaries of all contributions (or of the contributions of a DiscoursePart) ordered by contribution id.
+	 * The rows are read with a forward-only cursor on a separate connection of the {@link CursorFetchDataSource} and passed on in chunks, 
+	 * so the full result is never held in memory. The rows reflect the committed state of the database.
+	 * 
+	 * @param discoursePartId restricts the result to the contributions of this DiscoursePart, or all contributions if empty
+	 * @param includeDescendants whether contributions of DiscourseParts below the given DiscoursePart should be included as well
+	 * @param chunkSize the number of summaries per chunk
+	 * @param chunkConsumer consumes the chunks in the order they are read
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public void scrollSummaries(Optional<Long> discoursePartId, boolean includeDescendants, int chunkSize, Consumer<List<ContributionSummary>> chunkConsumer){
+		Assert.notNull(discoursePartId, "DiscoursePart id cannot be null. Provide an empty optional instead.");
+		summaryQuery.scroll(cursorFetchDataSource, entityManager, summaryFilter(discoursePartId, includeDescendants), discoursePartId, chunkSize, chunkConsumer);
+	}
+	
+	private static String summaryFilter(Optional<Long> discoursePartId, boolean includeDescendants){
+		if(!discoursePartId.isPresent()){
+			return "";
+		}
+		return "where c.id in (select dpc.contribution.id from DiscoursePartContribution dpc where dpc.discoursePart.id = :dpId"
+				+ (includeDescendants ? " or dpc.discoursePart.id in (select cl.descendantId from DiscoursePartClosure cl where cl.ancestorId = :dpId and cl.type = '" + DiscoursePartClosure.ALL_TYPES + "')" : "")
+				+ ")";
+	}
+	
+	private ContributionSummary toSummary(Object[] row){
+		return new ContributionSummary((Long)row[0], (String)row[1], (Date)row[2], ((Number)row[3]).intValue(), 
+				contentDeltaStore.restoreText((String)row[4], (String)row[5], (Long)row[6]), (Long)row[7], (String)row[8], (String)row[9], (String)row[10]);
+	}
+	
 	/**
 	 * Returns a list of all contributions of a given type that are associated with the given discourse
 	 * 
@@ -191,6 +377,7 @@ public class ContributionService {
 	 * Deletes a given contribution entity
 	 */
 	public void delete(Contribution contrib){
+			threadTreeCache.evictContributions(contrib.getId());
 			contributionRepo.delete(contrib);
 	}
 	
@@ -223,10 +410,27 @@ public class ContributionService {
 					newRelation.setSource(sourceContribution);
 					newRelation.setTarget(targetContribution);
 					newRelation.setType(type.name());
+					threadTreeCache.evictContributions(sourceContribution.getId(), targetContribution.getId());
 					return discourseRelationRepo.save(newRelation);
 					}
 				);
 	}
+
+	/**
+	 * Creates a new DiscourseRelation of the given type between the two contributions with the provided primary keys.
+	 * Works like {@link #createDiscourseRelation(Contribution, Contribution, DiscourseRelationTypes)}, but the contributions are not loaded from the database.
+	 * This is useful for converters that only keep track of the ids of the contributions they have created.
+	 * 
+	 * @param sourceContributionId the primary key of the source of the relation
+	 * @param targetContributionId the primary key of the target of the relation
+	 * @param type the type of the relation
+	 * @return an existing DiscourseRelation with the given source, target and type or a new one that is already saved to the db
+	 */
+	public DiscourseRelation createDiscourseRelation(Long sourceContributionId, Long targetContributionId, DiscourseRelationTypes type) {
+		Assert.notNull(sourceContributionId, "Source contribution id cannot be null.");
+		Assert.notNull(targetContributionId, "Target contribution id cannot be null.");
+		return createDiscourseRelation(entityManager.getReference(Contribution.class, sourceContributionId), entityManager.getReference(Contribution.class, targetContributionId), type);
+	}
 	
 	
 	/**
@@ -294,4 +498,32 @@ public class ContributionService {
 		Assert.notNull(id, "ID cannot be null.");
 		return contributionRepo.findOne(id);
 	}
+
+	/**
+	 * The text and the annotation aggregate id of a single contribution as returned by {@link ContributionService#scrollContributionTexts(Collection, int, Consumer)}.
+	 * The annotation aggregate id is null if the contribution has never been annotated.
+	 */
+	@Value
+	public static class ContributionText {
+		private final Long contributionId;
+		private final String text;
+		private final Long annotationProxyId;
+	}
+
+	/**
+	 * The fields of a contribution, its current revision and its author as returned by {@link ContributionService#findSummaries(Optional, boolean, Pageable)}.
+	 * The author fields are null if the contribution has no current revision or the revision has no author.
+	 */
+	@Value
+	public static class ContributionSummary {
+		private final Long contributionId;
+		private final String type;
+		private final Date startTime;
+		private final int upvotes;
+		private final String text;
+		private final Long authorId;
+		private final String authorUsername;
+		private final String authorRealname;
+		private final String authorEmail;
+	}
 }
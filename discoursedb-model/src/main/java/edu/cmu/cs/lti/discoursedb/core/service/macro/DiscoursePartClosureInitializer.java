@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Builds the closure of the DiscoursePartRelations once the root application context is ready.<br/>
+ * 
+ * By default, the closure is only built if it is empty although the database contains DiscoursePartRelations, 
+ * i.e. if the relations have been created before the closure table existed. This check costs two single-row queries.
+ * Setting <code>closure.rebuildOnStartup=true</code> (e.g. in custom.properties) explicitly requests a full rebuild, 
+ * e.g. after relations have been changed with plain SQL. Setting <code>closure.buildIfMissing=false</code> disables the check.<br/>
+ * 
+ * The closure is built in chunks of relations, each in its own transaction, so a large rebuild doesn't hold a single huge transaction.
+ * Lookups return incomplete results until the build has finished.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+@Component
+@RequiredArgsConstructor(onConstructor = @__(@Autowired) )
+public class DiscoursePartClosureInitializer implements ApplicationListener<ContextRefreshedEvent> {
+
+	private static final int CHUNK_SIZE = 1000;
+
+	private final @NonNull DiscoursePartService discoursePartService;
+	private final @NonNull Environment environment;
+	private volatile boolean checked = false;
+
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		if (checked || event.getApplicationContext().getParent() != null) {
+			return;
+		}
+		checked = true;
+		if (environment.getProperty("closure.rebuildOnStartup", Boolean.class, false)) {
+			log.info("Rebuilding DiscoursePart closure as requested by closure.rebuildOnStartup.");
+			build();
+		} else if (environment.getProperty("closure.buildIfMissing", Boolean.class, true) && discoursePartService.isClosureMissing()) {
+			log.info("Building missing DiscoursePart closure.");
+			build();
+		}
+	}
+
+	private void build() {
+		discoursePartService.clearClosure();
+		List<Object[]> relations = discoursePartService.findAllRelationTriples();
+		for (int from = 0; from < relations.size(); from += CHUNK_SIZE) {
+			discoursePartService.addToClosure(relations.subList(from, Math.min(from + CHUNK_SIZE, relations.size())));
+		}
+		log.info("Built DiscoursePart closure for " + relations.size() + " DiscoursePartRelations.");
+	}
+}
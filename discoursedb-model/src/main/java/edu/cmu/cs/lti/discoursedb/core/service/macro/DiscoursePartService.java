@@ -22,10 +22,15 @@
 package edu.cmu.cs.lti.discoursedb.core.service.macro;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -36,22 +41,27 @@ import org.springframework.util.Assert;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartClosure;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartContribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartRelation;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseToDiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.user.User;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartClosureRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartContributionRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRelationRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseToDiscoursePartRepository;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
+import edu.cmu.cs.lti.discoursedb.core.service.system.EntityIdentityCache;
 import edu.cmu.cs.lti.discoursedb.core.type.DataSourceTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartRelationTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartTypes;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j;
 
+@Log4j
 @Service
 @Transactional(propagation= Propagation.REQUIRED, readOnly=false)
 @RequiredArgsConstructor(onConstructor = @__(@Autowired) )
@@ -60,8 +70,12 @@ public class DiscoursePartService {
 	private final @NonNull DiscoursePartRepository discoursePartRepo;
 	private final @NonNull DataSourceService dataSourceService;
 	private final @NonNull DiscoursePartRelationRepository discoursePartRelationRepo;
+	private final @NonNull DiscoursePartClosureRepository discoursePartClosureRepo;
 	private final @NonNull DiscoursePartContributionRepository discoursePartContributionRepo;
 	private final @NonNull DiscourseToDiscoursePartRepository discourseToDiscoursePartRepo;
+	private final @NonNull ThreadTreeCache threadTreeCache;
+	private final @NonNull EntityIdentityCache identityCache;
+	private final @NonNull @PersistenceContext EntityManager entityManager;
 
 	
 	/**
@@ -152,6 +166,12 @@ public class DiscoursePartService {
 		Assert.hasText(discoursePartName, "DiscoursePart name cannot be empty");
 		Assert.notNull(type, "Type cannot be null.");		
 
+		return identityCache.createOrGet(DiscoursePart.class, EntityIdentityCache.key(discourse, type.name(), discoursePartName), 
+				dp -> discoursePartName.equals(dp.getName()) && type.name().equals(dp.getType()),
+				() -> lookupOrCreateTypedDiscoursePart(discourse, discoursePartName, type));
+	}
+
+	private DiscoursePart lookupOrCreateTypedDiscoursePart(Discourse discourse, String discoursePartName, DiscoursePartTypes type){
 		//check if this exact discoursePart already exists, reuse it if it does and create it if it doesn't
 		Optional<DiscoursePart> existingDiscoursePart = Optional.ofNullable(discoursePartRepo.findOne(
 						DiscoursePartPredicates.discoursePartHasName(discoursePartName).and(
@@ -254,6 +274,8 @@ public class DiscoursePartService {
 			newDPContrib.setDiscoursePart(dPArt);
 			newDPContrib.setStartTime(contrib.getStartTime());	
 			discoursePartContributionRepo.save(newDPContrib);
+			//the id is read through the persistence unit, so a reference from getReference(Long) is not loaded
+			threadTreeCache.evictThread((Long) entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(dPArt));
 			return newDPContrib;
 		});		
 	}
@@ -283,11 +305,135 @@ public class DiscoursePartService {
 			newRelation.setSource(sourceDiscoursePart);
 			newRelation.setTarget(targetDiscoursePart);
 			newRelation.setType(type.name());
-			return discoursePartRelationRepo.save(newRelation);						
+			newRelation = discoursePartRelationRepo.save(newRelation);
+			addToClosure(sourceDiscoursePart.getId(), targetDiscoursePart.getId(), type.name());
+			return newRelation;
 		});
 		
 	}
 	
+	/**
+	 * Adds the paths over a new DiscoursePartRelation to the closure of the relation type and to the closure over all types. 
+	 */
+	private void addToClosure(Long sourceId, Long targetId, String type) {
+		Assert.notNull(sourceId, "DiscourseParts have to be saved before they can be related.");
+		Assert.notNull(targetId, "DiscourseParts have to be saved before they can be related.");
+		discoursePartClosureRepo.addPaths(sourceId, targetId, type);
+		discoursePartClosureRepo.addPaths(sourceId, targetId, DiscoursePartClosure.ALL_TYPES);
+	}
+	
+	/**
+	 * Deletes a DiscoursePartRelation and removes the paths that only existed because of this relation from the closure.
+	 * 
+	 * @param relation the relation to delete
+	 */
+	public void deleteDiscoursePartRelation(DiscoursePartRelation relation) {
+		Assert.notNull(relation, "Relation cannot be null.");
+		Long sourceId = relation.getSource() == null ? null : relation.getSource().getId();
+		Long targetId = relation.getTarget() == null ? null : relation.getTarget().getId();
+		discoursePartRelationRepo.delete(relation);
+		if (sourceId != null && targetId != null) {
+			removeFromClosure(sourceId, targetId, relation.getType());
+			removeFromClosure(sourceId, targetId, DiscoursePartClosure.ALL_TYPES);
+		}
+	}
+
+	/**
+	 * Deletes a DiscoursePart together with its DiscoursePartRelations, its links to discourses and contributions 
+	 * and its paths in the closure. The contributions themselves are not deleted.
+	 * 
+	 * @param dp the DiscoursePart to delete
+	 */
+	public void delete(DiscoursePart dp) {
+		Assert.notNull(dp, "DiscoursePart cannot be null.");
+		for (DiscoursePartRelation relation : discoursePartRelationRepo.findAllBySourceOrTarget(dp)) {
+			deleteDiscoursePartRelation(relation);
+		}
+		discoursePartClosureRepo.deletePathsOf(dp.getId());
+		discoursePartContributionRepo.delete(dp.getDiscoursePartContributions());
+		discourseToDiscoursePartRepo.delete(dp.getDiscourseToDiscourseParts());
+		identityCache.evictId(DiscoursePart.class, dp.getId());
+		discoursePartRepo.delete(dp);
+	}
+
+	/**
+	 * Removes the paths over a deleted DiscoursePartRelation from the closure of the given type.<br/>
+	 * 
+	 * All paths from the source and its ancestors to the target and its descendants are deleted first.
+	 * Then the paths over the remaining relations into the target and its descendants are added again 
+	 * until the closure doesn't change anymore, which restores the paths that don't need the deleted relation.
+	 */
+	private void removeFromClosure(Long sourceId, Long targetId, String type) {
+		Set<Long> affected = new HashSet<>(discoursePartClosureRepo.findDescendantIds(targetId, type));
+		affected.add(targetId);
+		discoursePartClosureRepo.deletePathsOver(sourceId, targetId, type);
+		List<Object[]> relations = discoursePartRelationRepo.findAllSourceTargetTypeTriplesByTargetIds(affected).stream()
+				.filter(relation -> type.equals(DiscoursePartClosure.ALL_TYPES) || type.equals(relation[2]))
+				.collect(Collectors.toList());
+		List<Object[]> before;
+		List<Object[]> after = discoursePartClosureRepo.countPathsAndDepth(type);
+		do {
+			before = after;
+			for (Object[] relation : relations) {
+				discoursePartClosureRepo.addPaths((Long) relation[0], (Long) relation[1], type);
+			}
+			after = discoursePartClosureRepo.countPathsAndDepth(type);
+		} while (!Arrays.equals(before.get(0), after.get(0)));
+	}
+
+	/**
+	 * Recomputes the closure of the DiscoursePartRelations from scratch.<br/>
+	 * 
+	 * The closure is maintained by {@link #createDiscoursePartRelation(DiscoursePart, DiscoursePart, DiscoursePartRelationTypes)},
+	 * {@link #deleteDiscoursePartRelation(DiscoursePartRelation)} and {@link #delete(DiscoursePart)}.
+	 * A rebuild is only necessary if DiscoursePartRelations have been created, changed or deleted in any other way.
+	 * The whole rebuild runs in a single transaction. Large closures should rather be rebuilt with 
+	 * {@link #clearClosure()} and {@link #addToClosure(List)} in chunks, as done by the {@link DiscoursePartClosureInitializer}.
+	 */
+	public void rebuildClosure() {
+		clearClosure();
+		List<Object[]> relations = discoursePartRelationRepo.findAllSourceTargetTypeTriples();
+		log.info("Rebuilding DiscoursePart closure for " + relations.size() + " DiscoursePartRelations");
+		addToClosure(relations);
+	}
+
+	/**
+	 * Deletes all paths from the closure.
+	 */
+	public void clearClosure() {
+		discoursePartClosureRepo.deleteAllPaths();
+	}
+
+	/**
+	 * Adds the paths over the given relations to the closure.
+	 * 
+	 * @param relations the ids of source and target and the type of each relation, 
+	 * as returned by {@link #findAllRelationTriples()}
+	 */
+	public void addToClosure(List<Object[]> relations) {
+		for (Object[] relation : relations) {
+			addToClosure((Long) relation[0], (Long) relation[1], (String) relation[2]);
+		}
+	}
+
+	/**
+	 * @return the ids of source and target and the type of all DiscoursePartRelations
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public List<Object[]> findAllRelationTriples() {
+		return discoursePartRelationRepo.findAllSourceTargetTypeTriples();
+	}
+
+	/**
+	 * @return true if the closure is empty although DiscoursePartRelations exist, 
+	 * e.g. in databases that were created before the closure was introduced.
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public boolean isClosureMissing() {
+		return discoursePartClosureRepo.countFirstPath() == 0 && discoursePartRelationRepo.count() > 0;
+	}
+	
+	
 	
 	/**
 	 * Retrieves DiscourseParts that are related to the given DiscoursePart with a DiscoursePartRelation of the given type.
@@ -340,27 +486,17 @@ public class DiscoursePartService {
 	 * Adds all ancestors to a set of DiscourseParts
 	 * 
 	 * @param descendents the set of discourseParts to close
+	 * @param rel the type of the DiscoursePartRelations to follow or empty to follow relations of any type
 	 * @return all DiscourseParts that are in the set or or ancestors of them
 	 */
 	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
 	public Set<DiscoursePart> findAncestorClosure(Set<DiscoursePart> descendents, Optional<DiscoursePartRelationTypes> rel) {
+		Assert.notNull(descendents, "Set of DiscourseParts cannot be null.");
+		Assert.notNull(rel, "Relation type cannot be null. Use Optional.empty() to follow relations of any type.");
 		
-		Set<DiscoursePart> all = new HashSet<DiscoursePart>();
-		List<DiscoursePart> unchecked = new ArrayList<DiscoursePart>();
-		all.addAll(descendents);
-		unchecked.addAll(descendents);
-		
-		while (!unchecked.isEmpty()) {
-			DiscoursePart dp = unchecked.remove(0);
-			
-			for (DiscoursePartRelation dpr: dp.getTargetOfDiscoursePartRelations()) {
-				if (!rel.isPresent() || dpr.getType() == rel.get().toString()) {
-					if (!all.contains(dpr.getSource())) {
-						all.add(dpr.getSource());
-						unchecked.add(dpr.getSource());
-					}
-				}
-			}
+		Set<DiscoursePart> all = new HashSet<DiscoursePart>(descendents);
+		if (!descendents.isEmpty()) {
+			all.addAll(discoursePartClosureRepo.findAncestors(ids(descendents), rel.map(Enum::name).orElse(DiscoursePartClosure.ALL_TYPES)));
 		}
 		return all;
 	}
@@ -382,32 +518,25 @@ public class DiscoursePartService {
     /**
 	 * Adds all descendents to a set of DiscourseParts
 	 * 
-	 * @param descendents the set of discourseParts to close
+	 * @param ancestors the set of discourseParts to close
+	 * @param rel the type of the DiscoursePartRelations to follow or empty to follow relations of any type
 	 * @return all DiscourseParts that are in the set or or descendents of them
 	 */
 	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
 	public Set<DiscoursePart> findDescendentClosure(Set<DiscoursePart> ancestors, Optional<DiscoursePartRelationTypes> rel) {
+		Assert.notNull(ancestors, "Set of DiscourseParts cannot be null.");
+		Assert.notNull(rel, "Relation type cannot be null. Use Optional.empty() to follow relations of any type.");
 		
-		Set<DiscoursePart> all = new HashSet<DiscoursePart>();
-		List<DiscoursePart> unchecked = new ArrayList<DiscoursePart>();
-		all.addAll(ancestors);
-		unchecked.addAll(ancestors);
-		
-		while (!unchecked.isEmpty()) {
-			DiscoursePart dp = unchecked.remove(0);
-			
-			for (DiscoursePartRelation dpr: dp.getSourceOfDiscoursePartRelations()) {
-				if (!rel.isPresent() || dpr.getType() == rel.get().toString()) {
-					if (!all.contains(dpr.getTarget())) {
-						all.add(dpr.getTarget());
-						unchecked.add(dpr.getTarget());
-					}
-				}
-			}
+		Set<DiscoursePart> all = new HashSet<DiscoursePart>(ancestors);
+		if (!ancestors.isEmpty()) {
+			all.addAll(discoursePartClosureRepo.findDescendants(ids(ancestors), rel.map(Enum::name).orElse(DiscoursePartClosure.ALL_TYPES)));
 		}
 		return all;
 	}
 	
+	private static Set<Long> ids(Set<DiscoursePart> discourseParts) {
+		return discourseParts.stream().map(DiscoursePart::getId).collect(Collectors.toSet());
+	}
 	
 	
 	
@@ -532,6 +661,20 @@ public class DiscoursePartService {
 		return discoursePartRepo.findOne(id);
 	}
 
+	/**
+	 * Returns a reference to the DiscoursePart with the given id without loading it.
+	 * The reference can be used to relate other entities to the DiscoursePart, 
+	 * e.g. with {@link #addContributionToDiscoursePart(Contribution, DiscoursePart)}.
+	 * Accessing any of its properties (including getId()) loads the DiscoursePart and fails if it does not exist.
+	 * 
+	 * @param id the id of an existing DiscoursePart
+	 * @return a reference to the DiscoursePart
+	 */
+	public DiscoursePart getReference(Long id) {
+		Assert.notNull(id, "Id cannot be null.");
+		return entityManager.getReference(DiscoursePart.class, id);
+	}
+
     /**
 	 * Retrieves all discourse parts of a particular type that a user contributed to
 	 * 
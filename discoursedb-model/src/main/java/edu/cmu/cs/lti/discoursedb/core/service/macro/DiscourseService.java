@@ -33,6 +33,7 @@ import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.QDiscourse;
 import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscourseRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.system.EntityIdentityCache;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
@@ -42,6 +43,7 @@ import lombok.RequiredArgsConstructor;
 public class DiscourseService {
 
 	private final @NonNull DiscourseRepository discourseRepository;
+	private final @NonNull EntityIdentityCache identityCache;
 
 	/**
 	 * Returns a Discourse object with the given name if it exists or creates a
@@ -55,8 +57,9 @@ public class DiscourseService {
 	 */
 	public Discourse createOrGetDiscourse(String name) {
 		Assert.hasText(name, "Discourse name cannot be empty");
-		return discourseRepository.findOneByName(name).orElseGet(()->{
-			return discourseRepository.save(new Discourse(name));});
+		return identityCache.createOrGet(Discourse.class, EntityIdentityCache.key(name), d -> name.equals(d.getName()), 
+				() -> discourseRepository.findOneByName(name).orElseGet(()->{
+					return discourseRepository.save(new Discourse(name));}));
 	}
 	
 	/**
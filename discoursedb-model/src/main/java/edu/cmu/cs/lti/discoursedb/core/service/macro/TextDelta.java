@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * Encodes a text as a delta against a base text and restores it again.<br/>
+ * 
+ * The delta is a sequence of operations that either copy a range of characters from the base text
+ * or insert new characters. Copies are identified line by line, so the delta of two revisions of a
+ * document that only differ in a few lines consists of a few copy operations plus the changed lines.
+ * The operations are serialized as <code>=start,length;</code> for copies and <code>+length:characters</code> for insertions.
+ * 
+ * @author Oliver Ferschke
+ */
+public final class TextDelta {
+
+	private static final char COPY = '=';
+	private static final char INSERT = '+';
+	
+	/**
+	 * Copies shorter than this are stored as insertions, since the operation itself would take up more space than the characters.
+	 */
+	private static final int MIN_COPY_LENGTH = 16;
+	
+	/**
+	 * The maximum number of occurrences of a line in the base text that are checked for the longest match.
+	 */
+	private static final int MAX_CANDIDATES = 16;
+
+	private TextDelta(){}
+
+	/**
+	 * Computes the delta that turns the base text into the target text.
+	 * 
+	 * @param base the base text
+	 * @param target the text to encode
+	 * @return the encoded delta
+	 */
+	public static String encode(String base, String target){
+		Assert.notNull(base, "Base text cannot be null.");
+		Assert.notNull(target, "Target text cannot be null.");
+
+		int[] baseOffsets = lineOffsets(base);
+		int[] targetOffsets = lineOffsets(target);
+		String[] baseLines = lines(base, baseOffsets);
+		String[] targetLines = lines(target, targetOffsets);
+		Map<String, List<Integer>> baseIndex = new HashMap<>();
+		for(int i=0;i<baseLines.length;i++){
+			baseIndex.computeIfAbsent(baseLines[i], k -> new ArrayList<>()).add(i);
+		}
+
+		StringBuilder delta = new StringBuilder();
+		int insertStart = 0;
+		int t = 0;
+		while(t<targetLines.length){
+			//find the longest run of lines in the base text that starts with the current target line
+			int bestStart = -1;
+			int bestLength = 0;
+			List<Integer> candidates = baseIndex.get(targetLines[t]);
+			if(candidates!=null){
+				for(int c=0;c<candidates.size()&&c<MAX_CANDIDATES;c++){
+					int start = candidates.get(c);
+					int length = 1;
+					while(t+length<targetLines.length&&start+length<baseLines.length
+							&&baseLines[start+length].equals(targetLines[t+length])){
+						length++;
+					}
+					if(length>bestLength){
+						bestStart = start;
+						bestLength = length;
+					}
+				}
+			}
+			int copyChars = bestStart<0?0:baseOffsets[bestStart+bestLength]-baseOffsets[bestStart];
+			if(copyChars<MIN_COPY_LENGTH){
+				t++;
+				continue;
+			}
+			appendInsert(delta, target, insertStart, targetOffsets[t]);
+			delta.append(COPY).append(baseOffsets[bestStart]).append(',').append(copyChars).append(';');
+			t += bestLength;
+			insertStart = targetOffsets[t];
+		}
+		appendInsert(delta, target, insertStart, target.length());
+		return delta.toString();
+	}
+
+	/**
+	 * Restores a text from its base text and delta.
+	 * 
+	 * @param base the base text the delta was computed against
+	 * @param delta the encoded delta
+	 * @return the restored text
+	 * @throws IllegalArgumentException if the delta is malformed or does not match the base text
+	 */
+	public static String decode(String base, String delta){
+		Assert.notNull(base, "Base text cannot be null.");
+		Assert.notNull(delta, "Delta cannot be null.");
+		StringBuilder text = new StringBuilder(base.length());
+		int pos = 0;
+		try{
+			while(pos<delta.length()){
+				char op = delta.charAt(pos);
+				if(op==COPY){
+					int comma = delta.indexOf(',', pos);
+					int end = delta.indexOf(';', comma);
+					int start = Integer.parseInt(delta.substring(pos+1, comma));
+					int length = Integer.parseInt(delta.substring(comma+1, end));
+					text.append(base, start, start+length);
+					pos = end+1;
+				}else if(op==INSERT){
+					int colon = delta.indexOf(':', pos);
+					int length = Integer.parseInt(delta.substring(pos+1, colon));
+					text.append(delta, colon+1, colon+1+length);
+					pos = colon+1+length;
+				}else{
+					throw new IllegalArgumentException("Unknown delta operation '"+op+"' at position "+pos);
+				}
+			}
+		}catch(IndexOutOfBoundsException|NumberFormatException e){
+			throw new IllegalArgumentException("Malformed delta at position "+pos, e);
+		}
+		return text.toString();
+	}
+
+	private static void appendInsert(StringBuilder delta, String target, int start, int end){
+		if(end>start){
+			delta.append(INSERT).append(end-start).append(':').append(target, start, end);
+		}
+	}
+
+	/**
+	 * @return the start offsets of all lines followed by the length of the text
+	 */
+	private static int[] lineOffsets(String text){
+		List<Integer> offsets = new ArrayList<>();
+		int pos = 0;
+		while(pos<text.length()){
+			offsets.add(pos);
+			int newline = text.indexOf('\n', pos);
+			pos = newline<0?text.length():newline+1;
+		}
+		int[] result = new int[offsets.size()+1];
+		for(int i=0;i<offsets.size();i++){
+			result[i]=offsets.get(i);
+		}
+		result[offsets.size()]=text.length();
+		return result;
+	}
+
+	private static String[] lines(String text, int[] offsets){
+		String[] lines = new String[offsets.length-1];
+		for(int i=0;i<lines.length;i++){
+			lines[i]=text.substring(offsets[i], offsets[i+1]);
+		}
+		return lines;
+	}
+}
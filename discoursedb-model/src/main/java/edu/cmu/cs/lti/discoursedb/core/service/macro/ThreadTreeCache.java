@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import edu.cmu.cs.lti.discoursedb.core.service.macro.ThreadTreeService.ThreadTree;
+import edu.cmu.cs.lti.discoursedb.core.service.system.TransactionalLruCache;
+
+/**
+ * In-memory LRU cache of the reply trees built by the {@link ThreadTreeService}, keyed by the id of the thread DiscoursePart.<br/>
+ * 
+ * The services that change the structure of threads evict the affected trees, 
+ * i.e. {@link ContributionService} when relations between contributions are created or contributions are deleted 
+ * and {@link DiscoursePartService} when contributions are added to a DiscoursePart.
+ * Within a transaction, the affected trees are evicted right away and once more after the transaction has completed, 
+ * so that a tree that has been rebuilt from uncommitted data in the meantime is not kept.
+ * A tree is only cached if no eviction happened since the caller read the generation before building it, 
+ * so that a tree built from data that changed while it was built is not kept either (see {@link TransactionalLruCache}).
+ * Changes made by other processes are not detected, but trees expire after <code>cache.threadtree.ttlSeconds</code> (0 for no expiry).<br/>
+ * 
+ * The maximum number of cached trees can be configured with the <code>cache.threadtree.maxEntries</code> property.
+ * The cache can be disabled altogether by setting <code>cache.threadtree.enabled</code> to false.
+ * 
+ * @author Oliver Ferschke
+ */
+@Component
+public class ThreadTreeCache {
+
+	private final boolean enabled;
+	private final long ttlMillis;
+	private final TransactionalLruCache<Long, CachedTree> trees;
+
+	@Autowired
+	public ThreadTreeCache(Environment environment) {
+		this.enabled = environment.getProperty("cache.threadtree.enabled", Boolean.class, true);
+		this.ttlMillis = TimeUnit.SECONDS.toMillis(environment.getProperty("cache.threadtree.ttlSeconds", Long.class, 600L));
+		this.trees = new TransactionalLruCache<>("thread tree", environment.getProperty("cache.threadtree.maxEntries", Integer.class, 1000));
+	}
+
+	/**
+	 * @param discoursePartId the id of the thread DiscoursePart
+	 * @return the cached tree or null if the tree is not cached
+	 */
+	public ThreadTree get(Long discoursePartId) {
+		if (!enabled) {
+			return null;
+		}
+		CachedTree cached = trees.get(discoursePartId);
+		if (cached == null) {
+			return null;
+		}
+		if (ttlMillis > 0 && System.currentTimeMillis() - cached.createdAt > ttlMillis) {
+			trees.remove(discoursePartId);
+			return null;
+		}
+		return cached.tree;
+	}
+
+	/**
+	 * Returns the current generation of the cache. 
+	 * Callers read it before they build a tree and pass it to {@link #put(ThreadTree, long)}.
+	 * 
+	 * @return the number of evictions so far
+	 */
+	public long generation() {
+		return trees.generation();
+	}
+
+	/**
+	 * Caches the given tree unless a thread or contribution has been evicted since the given generation was read.
+	 * 
+	 * @param tree the tree to cache
+	 * @param buildGeneration the generation read before the tree was built
+	 * @return true, if the tree has been cached
+	 */
+	public boolean put(ThreadTree tree, long buildGeneration) {
+		return enabled && trees.put(tree.getDiscoursePartId(), new CachedTree(tree, System.currentTimeMillis()), buildGeneration);
+	}
+
+	/**
+	 * Evicts the tree of the given DiscoursePart.
+	 * 
+	 * @param discoursePartId the id of the DiscoursePart whose contributions changed
+	 */
+	public void evictThread(Long discoursePartId) {
+		if (enabled && discoursePartId != null) {
+			trees.evict(discoursePartId);
+		}
+	}
+
+	/**
+	 * Evicts all trees that contain at least one of the given contributions.
+	 * 
+	 * @param contributionIds the ids of the contributions whose relations changed
+	 */
+	public void evictContributions(Long... contributionIds) {
+		if (!enabled) {
+			return;
+		}
+		for (Long contributionId : contributionIds) {
+			if (contributionId != null) {
+				trees.evictIf(cached -> cached.tree.contains(contributionId));
+			}
+		}
+	}
+
+	/**
+	 * Removes all trees from the cache.
+	 */
+	public void clear() {
+		trees.clear();
+	}
+
+	private static class CachedTree {
+		private final ThreadTree tree;
+		private final long createdAt;
+
+		private CachedTree(ThreadTree tree, long createdAt) {
+			this.tree = tree;
+			this.createdAt = createdAt;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.Assert;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import edu.cmu.cs.lti.discoursedb.core.type.DiscourseRelationTypes;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Builds the reply tree of the contributions in a thread DiscoursePart.<br/>
+ * 
+ * The contributions of the DiscoursePart and their incoming REPLY, COMMENT and DESCENDANT relations are read with a single query.
+ * A contribution is attached to the source of its REPLY or COMMENT relation or, if it has none, to the source of its DESCENDANT relation, 
+ * i.e. the thread starter. Contributions without a parent in the same DiscoursePart are the roots of the tree.
+ * Siblings are ordered by their start time.<br/>
+ * 
+ * Trees are cached in the {@link ThreadTreeCache} until the structure of the thread changes.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+@Service
+@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+@RequiredArgsConstructor(onConstructor = @__(@Autowired) )
+public class ThreadTreeService {
+
+	private static final List<String> PARENT_TYPES = Arrays.asList(DiscourseRelationTypes.REPLY.name(), DiscourseRelationTypes.COMMENT.name());
+	private static final List<String> RELATION_TYPES = Arrays.asList(DiscourseRelationTypes.REPLY.name(), DiscourseRelationTypes.COMMENT.name(), DiscourseRelationTypes.DESCENDANT.name());
+
+	private final @NonNull ThreadTreeCache cache;
+	private final @NonNull @PersistenceContext EntityManager entityManager; 
+	private final @NonNull ContentDeltaStore contentDeltaStore;
+
+	/**
+	 * Returns the reply tree of the given DiscoursePart, usually a DiscoursePart of type THREAD.
+	 * 
+	 * @param discoursePartId the id of the DiscoursePart
+	 * @return the reply tree, which is empty if the DiscoursePart does not contain any contributions
+	 */
+	public ThreadTree getThreadTree(Long discoursePartId){
+		Assert.notNull(discoursePartId, "DiscoursePart id cannot be null.");
+		
+		ThreadTree tree = cache.get(discoursePartId);
+		if(tree == null){
+			long generation = cache.generation();
+			tree = buildThreadTree(discoursePartId);
+			cache.put(tree, generation);
+		}
+		return tree;
+	}
+
+	private ThreadTree buildThreadTree(Long discoursePartId){
+		List<?> rows = entityManager.createQuery("select c.id, c.type, c.startTime, rev.text, rev.textDelta, rev.textBaseId, author.id, author.username, rel.source.id, rel.type "
+				+ "from DiscoursePartContribution dpc join dpc.contribution c "
+				+ "left join c.currentRevision rev left join rev.author author "
+				+ "left join c.targetOfDiscourseRelations rel with rel.type in (:types) "
+				+ "where dpc.discoursePart.id = :dpId order by c.startTime, c.id")
+				.setParameter("types", RELATION_TYPES)
+				.setParameter("dpId", discoursePartId)
+				.getResultList();
+
+		Map<Long, Object[]> contributions = new LinkedHashMap<>();
+		Map<Long, Long> replyParents = new HashMap<>();
+		Map<Long, Long> threadStarters = new HashMap<>();
+		for(Object o:rows){
+			Object[] row = (Object[]) o;
+			Long contributionId = (Long) row[0];
+			contributions.putIfAbsent(contributionId, row);
+			Long sourceId = (Long) row[8];
+			if(sourceId != null && !sourceId.equals(contributionId)){
+				if(PARENT_TYPES.contains(row[9])){
+					replyParents.putIfAbsent(contributionId, sourceId);
+				}else{
+					threadStarters.putIfAbsent(contributionId, sourceId);
+				}
+			}
+		}
+		
+		//group the contributions by parent. contributions without a parent in this DiscoursePart are roots.
+		Map<Long, List<Long>> children = new HashMap<>();
+		List<Long> roots = new ArrayList<>();
+		for(Long contributionId:contributions.keySet()){
+			Long parentId = replyParents.getOrDefault(contributionId, threadStarters.get(contributionId));
+			if(parentId != null && contributions.containsKey(parentId)){
+				children.computeIfAbsent(parentId, k -> new ArrayList<>()).add(contributionId);
+			}else{
+				roots.add(contributionId);
+			}
+		}
+
+		//visit the tree breadth-first from the roots without recursion, so that deep reply chains cannot overflow the stack.
+		//contributions in reply cycles cannot be reached from a root.
+		List<Long> visited = new ArrayList<>(contributions.size());
+		Deque<Long> queue = new ArrayDeque<>(roots);
+		while(!queue.isEmpty()){
+			Long contributionId = queue.poll();
+			visited.add(contributionId);
+			queue.addAll(children.getOrDefault(contributionId, Collections.emptyList()));
+		}
+		if(visited.size() < contributions.size()){
+			log.warn("Reply relations in DiscoursePart "+discoursePartId+" contain cycles. "+(contributions.size()-visited.size())+" contributions are not part of the thread tree.");
+		}
+
+		//create the nodes bottom-up. every contribution is visited after its parent, so in reverse order all replies exist before the node that contains them.
+		Map<Long, ThreadTreeNode> nodes = new HashMap<>();
+		for(int i = visited.size() - 1; i >= 0; i--){
+			Long contributionId = visited.get(i);
+			Object[] row = contributions.get(contributionId);
+			List<ThreadTreeNode> replies = new ArrayList<>();
+			for(Long childId:children.getOrDefault(contributionId, Collections.emptyList())){
+				replies.add(nodes.remove(childId));
+			}
+			nodes.put(contributionId, new ThreadTreeNode(contributionId, (String) row[1], (Date) row[2], 
+					contentDeltaStore.restoreText((String) row[3], (String) row[4], (Long) row[5]), (Long) row[6], (String) row[7], 
+					Collections.unmodifiableList(replies)));
+		}
+		List<ThreadTreeNode> rootNodes = new ArrayList<>(roots.size());
+		for(Long rootId:roots){
+			rootNodes.add(nodes.get(rootId));
+		}
+		return new ThreadTree(discoursePartId, Collections.unmodifiableList(rootNodes), Collections.unmodifiableSet(contributions.keySet()));
+	}
+
+	/**
+	 * The reply tree of a DiscoursePart as returned by {@link ThreadTreeService#getThreadTree(Long)}.
+	 * Trees are shared between callers and cannot be modified.
+	 */
+	@Value
+	public static class ThreadTree {
+		private final Long discoursePartId;
+		private final List<ThreadTreeNode> roots;
+		@JsonIgnore
+		private final Set<Long> contributionIds;
+
+		/**
+		 * @param contributionId the id of a contribution
+		 * @return true, if the contribution is part of this tree
+		 */
+		public boolean contains(Long contributionId){
+			return contributionIds.contains(contributionId);
+		}
+	}
+
+	/**
+	 * A contribution in a reply tree together with the direct replies to it.
+	 */
+	@Value
+	public static class ThreadTreeNode {
+		private final Long contributionId;
+		private final String type;
+		private final Date startTime;
+		private final String text;
+		private final Long authorId;
+		private final String authorUsername;
+		private final List<ThreadTreeNode> replies;
+	}
+}
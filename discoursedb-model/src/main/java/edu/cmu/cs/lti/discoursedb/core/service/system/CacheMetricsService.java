@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+
+/**
+ * Collects the hit and miss counts of the caches used by DiscourseDB.<br/>
+ * 
+ * This covers the regions of the Hibernate second-level cache, the query cache, the {@link DataSourceCache} and the {@link EntityIdentityCache}.
+ * The second-level cache and the query cache are only reported if they are enabled with 
+ * <code>cache.l2.enabled</code> and <code>cache.l2.queryCache.enabled</code>.
+ * 
+ * @author Oliver Ferschke
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired) )
+public class CacheMetricsService {
+
+	public static final String QUERY_CACHE = "query";
+	public static final String DATASOURCE_CACHE = "datasource";
+	public static final String IDENTITY_CACHE = "identity";
+
+	private final @NonNull EntityManagerFactory entityManagerFactory;
+	private final @NonNull DataSourceCache dataSourceCache;
+	private final @NonNull EntityIdentityCache identityCache;
+
+	/**
+	 * Returns the current counters of all caches. 
+	 * Second-level cache regions are identified by their region name, i.e. the name of the cached entity class.
+	 * 
+	 * @return a map from cache names to their counters, sorted by name
+	 */
+	public Map<String, CacheMetrics> getMetrics() {
+		Map<String, CacheMetrics> metrics = new TreeMap<>();
+		metrics.put(DATASOURCE_CACHE, new CacheMetrics(dataSourceCache.getHitCount(), dataSourceCache.getMissCount(), -1, dataSourceCache.size()));
+		metrics.put(IDENTITY_CACHE, new CacheMetrics(identityCache.getHitCount(), identityCache.getMissCount(), -1, identityCache.size()));
+
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		if (!statistics.isStatisticsEnabled()) {
+			return metrics;
+		}
+		for (String region : statistics.getSecondLevelCacheRegionNames()) {
+			SecondLevelCacheStatistics regionStatistics = statistics.getSecondLevelCacheStatistics(region);
+			if (regionStatistics != null) {
+				metrics.put(region, new CacheMetrics(regionStatistics.getHitCount(), regionStatistics.getMissCount(), 
+						regionStatistics.getPutCount(), regionStatistics.getElementCountInMemory()));
+			}
+		}
+		if (statistics.getQueryCachePutCount() > 0 || statistics.getQueryCacheMissCount() > 0) {
+			metrics.put(QUERY_CACHE, new CacheMetrics(statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount(), 
+					statistics.getQueryCachePutCount(), -1));
+		}
+		return metrics;
+	}
+
+	/**
+	 * Hit and miss counts of a single cache. Counts that are not available for a cache are -1.
+	 */
+	@Value
+	public static class CacheMetrics {
+		private final long hits;
+		private final long misses;
+		private final long puts;
+		private final long size;
+
+		/**
+		 * @return the share of lookups that could be answered from the cache or 0 if the cache has not been used yet
+		 */
+		public double getHitRatio() {
+			long lookups = hits + misses;
+			return lookups == 0 ? 0 : (double) hits / lookups;
+		}
+	}
+}
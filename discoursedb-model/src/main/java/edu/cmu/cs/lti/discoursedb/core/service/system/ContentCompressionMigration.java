@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.configuration.BaseConfiguration;
+import edu.cmu.cs.lti.discoursedb.core.service.system.ContentCompressionService.CompressionReport;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Compresses the texts of the contents that exist in the configured DiscourseDB database (see {@link ContentCompressionService}).<br/>
+ * 
+ * With <code>--dry-run</code>, nothing is written. The texts are only compressed in memory and the command logs the stored size of the texts
+ * before and after compression along with the compression throughput. It does not measure the number of bytes read by queries.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+public class ContentCompressionMigration {
+
+	private static final String DRY_RUN = "--dry-run";
+
+	/**
+	 * Runs the migration
+	 * 
+	 * @param args [--dry-run] [&lt;batchSize&gt;]
+	 */
+	public static void main(String[] args) {
+		Assert.isTrue(args.length <= 2, "Usage: ContentCompressionMigration [" + DRY_RUN + "] [<batchSize>]");
+		boolean dryRun = false;
+		int batchSize = 500;
+		for (String arg : args) {
+			if (DRY_RUN.equals(arg)) {
+				dryRun = true;
+			} else {
+				batchSize = Integer.parseInt(arg);
+			}
+		}
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder(BaseConfiguration.class).web(false).run()) {
+			CompressionReport report = context.getBean(ContentCompressionService.class).compressExistingContents(batchSize, dryRun);
+			log.info((dryRun ? "Dry run" : "Migration") + " finished. " + report);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.model.macro.CompressedTextConverter;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Configures the compression of the text of Content entities and compresses the texts of existing contents.<br/>
+ * 
+ * Texts with at least <code>content.compression.threshold</code> characters are stored in compressed form 
+ * by the {@link CompressedTextConverter} if <code>content.compression.enabled</code> is true.
+ * Texts that have been written before compression was enabled are only compressed by {@link #compressExistingContents(int, boolean)}, 
+ * which can be run with the {@link ContentCompressionMigration} command.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+@Service
+public class ContentCompressionService {
+
+	private final TransactionTemplate transaction;
+	private final boolean enabled;
+	private final int threshold;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	public ContentCompressionService(PlatformTransactionManager transactionManager, Environment environment) {
+		this.transaction = new TransactionTemplate(transactionManager);
+		this.enabled = environment.getProperty("content.compression.enabled", Boolean.class, false);
+		this.threshold = environment.getProperty("content.compression.threshold", Integer.class, 2048);
+		CompressedTextConverter.configure(enabled, threshold);
+	}
+
+	/**
+	 * Compresses the texts of all existing contents that exceed the compression threshold and are not compressed yet.
+	 * Each batch of contents is compressed in its own transaction, so the migration can be interrupted and resumed at any time.
+	 * The texts are read and written in their stored form, so delta encoded contents are not affected.
+	 * 
+	 * @param batchSize the number of contents that are processed in a single transaction
+	 * @param dryRun if true, the texts are only compressed in memory to measure the effect of the compression, but not written
+	 * @return the stored size of the texts before and after compression along with the time spent on compression
+	 */
+	public CompressionReport compressExistingContents(int batchSize, boolean dryRun) {
+		Assert.isTrue(batchSize > 0, "Batch size has to be a positive number.");
+		if (!enabled) {
+			log.warn("content.compression.enabled is false. Texts of new contents will not be compressed.");
+		}
+		CompressionReport report = new CompressionReport();
+		long lastId = 0;
+		while (true) {
+			final long fromId = lastId;
+			Long nextId = transaction.execute(status -> compressBatch(fromId, batchSize, dryRun, report));
+			if (nextId == null) {
+				break;
+			}
+			lastId = nextId;
+			log.info((dryRun ? "Checked " : "Compressed ") + report.getCompressedContents() + " of " + report.getContents() + " texts...");
+		}
+		return report;
+	}
+
+	/**
+	 * @return the id of the last content in the batch or null if there were no more contents
+	 */
+	private Long compressBatch(long fromId, int batchSize, boolean dryRun, CompressionReport report) {
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = entityManager.createNativeQuery("select id_content, text from content where id_content > :fromId and text is not null order by id_content")
+				.setParameter("fromId", fromId).setMaxResults(batchSize).getResultList();
+		if (rows.isEmpty()) {
+			return null;
+		}
+		Long lastId = null;
+		for (Object[] row : rows) {
+			lastId = ((Number) row[0]).longValue();
+			String stored = (String) row[1];
+			long storedBytes = stored.getBytes(StandardCharsets.UTF_8).length;
+			if (CompressedTextConverter.isCompressed(stored)) {
+				report.add(storedBytes, storedBytes, storedBytes, false, 0, 0);
+				continue;
+			}
+			String text = CompressedTextConverter.decompress(stored);
+			long startCompression = System.nanoTime();
+			String compressed = CompressedTextConverter.compress(text, threshold);
+			long compressionNanos = System.nanoTime() - startCompression;
+			if (!CompressedTextConverter.isCompressed(compressed)) {
+				report.add(storedBytes, storedBytes, text.getBytes(StandardCharsets.UTF_8).length, false, compressionNanos, 0);
+				continue;
+			}
+			long startDecompression = System.nanoTime();
+			String restored = CompressedTextConverter.decompress(compressed);
+			long decompressionNanos = System.nanoTime() - startDecompression;
+			Assert.isTrue(text.equals(restored), "Compressed text of content " + lastId + " could not be restored.");
+			report.add(storedBytes, compressed.length(), text.getBytes(StandardCharsets.UTF_8).length, true, compressionNanos, decompressionNanos);
+			if (!dryRun) {
+				entityManager.createNativeQuery("update content set text = :text where id_content = :id")
+						.setParameter("text", compressed).setParameter("id", lastId).executeUpdate();
+			}
+		}
+		return lastId;
+	}
+
+	/**
+	 * Summarizes the effect of compressing the texts of existing contents.
+	 */
+	@Getter
+	public static class CompressionReport {
+		private long contents;
+		private long compressedContents;
+		private long bytesBefore;
+		private long bytesAfter;
+		private long uncompressedBytes;
+		private long compressionNanos;
+		private long decompressionNanos;
+
+		private void add(long bytesBefore, long bytesAfter, long uncompressedBytes, boolean compressed, long compressionNanos, long decompressionNanos) {
+			this.contents++;
+			this.compressedContents += compressed ? 1 : 0;
+			this.bytesBefore += bytesBefore;
+			this.bytesAfter += bytesAfter;
+			this.uncompressedBytes += uncompressedBytes;
+			this.compressionNanos += compressionNanos;
+			this.decompressionNanos += decompressionNanos;
+		}
+
+		/**
+		 * @return the size of the stored texts after compression relative to their size before
+		 */
+		public double getRatio() {
+			return bytesBefore == 0 ? 1 : (double) bytesAfter / bytesBefore;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d of %d texts compressed. Stored text size: %,d bytes before, %,d bytes after (%.1f%%). "
+					+ "Compression: %.1f MB/s, decompression: %.1f MB/s", 
+					compressedContents, contents, bytesBefore, bytesAfter, getRatio() * 100, 
+					throughput(compressionNanos), throughput(decompressionNanos));
+		}
+
+		private double throughput(long nanos) {
+			return nanos == 0 ? 0 : (uncompressedBytes / 1e6) / (nanos / 1e9);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
+import lombok.Value;
+
+/**
+ * In-memory cache that resolves (entitySourceId, entitySourceDescriptor, datasetName) triples
+ * to the primary keys of the corresponding DataSourceInstance and DataSourceAggregate.<br/>
+ *
+ * Converters look up the same source ids over and over again during an import.
+ * The cache is filled by the {@link DataSourceService} whenever a source is written or successfully read
+ * and it is not bound to a transaction, i.e. entries survive the per-record transactions of the converters.
+ * Entries that have been added within a transaction that is rolled back are evicted again.<br/>
+ *
+ * The cache keeps a separate {@link TransactionalLruCache} for each dataset.
+ * The maximum number of entries per dataset can be configured with the <code>cache.datasource.maxEntriesPerDataset</code> property.
+ * The cache can be disabled altogether by setting <code>cache.datasource.enabled</code> to false.
+ *
+ * @author Oliver Ferschke
+ */
+@Component
+public class DataSourceCache {
+
+	private static final char KEY_SEPARATOR = '\u0000';
+
+	private final boolean enabled;
+	private final int maxEntriesPerDataset;
+	private final Map<String, TransactionalLruCache<String, CachedDataSource>> datasets = new HashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	@Autowired
+	public DataSourceCache(Environment environment) {
+		this.enabled = environment.getProperty("cache.datasource.enabled", Boolean.class, true);
+		this.maxEntriesPerDataset = environment.getProperty("cache.datasource.maxEntriesPerDataset", Integer.class, 100000);
+	}
+
+	/**
+	 * Looks up the cached primary keys for the given source.
+	 *
+	 * @param entitySourceId the id of the entity in the source system
+	 * @param entitySourceDescriptor the name/descriptor of the field that was used as sourceId
+	 * @param dataSetName the name of the dataset
+	 * @return an optional containing the cached ids if the source is known, empty otherwise
+	 */
+	public Optional<CachedDataSource> get(String entitySourceId, String entitySourceDescriptor, String dataSetName) {
+		if(!enabled){
+			return Optional.empty();
+		}
+		TransactionalLruCache<String, CachedDataSource> dataset;
+		synchronized (this) {
+			dataset = datasets.get(dataSetName);
+		}
+		CachedDataSource cached = dataset == null ? null : dataset.get(key(entitySourceId, entitySourceDescriptor));
+		if (cached == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return Optional.ofNullable(cached);
+	}
+
+	/**
+	 * Adds the given DataSourceInstance to the cache. The instance must have been saved to the database before.
+	 * If a transaction is active, the entry is removed again when the transaction is rolled back.
+	 *
+	 * @param source a DataSourceInstance that has been saved to DiscourseDB
+	 * @return the ids of the DataSourceInstance and its aggregate
+	 */
+	public CachedDataSource put(DataSourceInstance source) {
+		Assert.notNull(source, "DataSourceInstance cannot be null.");
+		Assert.notNull(source.getId(), "DataSourceInstance has to be saved before it can be cached.");
+
+		Long aggregateId = source.getSourceAggregate() == null ? null : source.getSourceAggregate().getId();
+		CachedDataSource cached = new CachedDataSource(source.getId(), aggregateId);
+		if (!enabled) {
+			return cached;
+		}
+		TransactionalLruCache<String, CachedDataSource> dataset;
+		synchronized (this) {
+			dataset = datasets.computeIfAbsent(source.getDatasetName(), k -> new TransactionalLruCache<>("data source", maxEntriesPerDataset));
+		}
+		dataset.putTransactional(key(source.getEntitySourceId(), source.getEntitySourceDescriptor()), cached);
+		return cached;
+	}
+
+	/**
+	 * Removes the cached entry of the given source, e.g. because the source no longer exists.
+	 *
+	 * @param entitySourceId the id of the entity in the source system
+	 * @param entitySourceDescriptor the name/descriptor of the field that was used as sourceId
+	 * @param dataSetName the name of the dataset
+	 */
+	public void evict(String entitySourceId, String entitySourceDescriptor, String dataSetName) {
+		TransactionalLruCache<String, CachedDataSource> dataset;
+		synchronized (this) {
+			dataset = datasets.get(dataSetName);
+		}
+		if (dataset != null) {
+			dataset.evict(key(entitySourceId, entitySourceDescriptor));
+		}
+	}
+
+	/**
+	 * Removes all cached entries of the given dataset.
+	 *
+	 * @param dataSetName the name of the dataset to evict
+	 */
+	public synchronized void evict(String dataSetName) {
+		datasets.remove(dataSetName);
+	}
+
+	/**
+	 * Removes all entries from the cache and resets the hit and miss counters.
+	 */
+	public synchronized void clear() {
+		datasets.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * @return the number of lookups that could be answered from the cache
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that could not be answered from the cache
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of cached sources across all datasets
+	 */
+	public synchronized long size() {
+		return datasets.values().stream().mapToLong(TransactionalLruCache::size).sum();
+	}
+
+	private static String key(String entitySourceId, String entitySourceDescriptor) {
+		return entitySourceDescriptor + KEY_SEPARATOR + entitySourceId;
+	}
+
+	/**
+	 * The primary keys a source resolves to.
+	 */
+	@Value
+	public static class CachedDataSource {
+		private final Long dataSourceInstanceId;
+		private final Long dataSourceAggregateId;
+	}
+}
@@ -23,6 +23,9 @@ package edu.cmu.cs.lti.discoursedb.core.service.system;
 
 import java.util.Optional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
@@ -37,6 +40,7 @@ import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceAggregate;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
 import edu.cmu.cs.lti.discoursedb.core.repository.system.DataSourceInstanceRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.system.DataSourceAggregateRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceCache.CachedDataSource;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j;
@@ -49,6 +53,8 @@ public class DataSourceService {
 
 	private final @NonNull DataSourceAggregateRepository dataSourceAggregateRepo;
 	private final @NonNull DataSourceInstanceRepository dataSourceInstanceRepo;
+	private final @NonNull DataSourceCache dataSourceCache;
+	private final @NonNull @PersistenceContext EntityManager entityManager; 
 
 	/**
 	 * Retrieves an existing DataSourceInstance
@@ -59,7 +65,7 @@ public class DataSourceService {
 	 *            the name/descriptor of the field that was used as sourceId (i.e. how can i find the id in the source)
 	 * @param datasetName
 	 *            the name of the dataset, e.g. edx_dalmooc_20150202
-	 * @return an optional containing the DataSourceInstance if it exist, empty otherwise
+	 * @return an optional containing the loaded DataSourceInstance if it exist, empty otherwise
 	 */
 	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
 	public Optional<DataSourceInstance> findDataSource(String entitySourceId, String entitySourceDescriptor, String dataSetName ){
@@ -67,10 +73,51 @@ public class DataSourceService {
 		Assert.hasText(entitySourceDescriptor);
 		Assert.hasText(dataSetName);
 
-		return Optional.ofNullable(dataSourceInstanceRepo.findOne(
+		//known sources are loaded by their primary key, which is answered from the persistence context or the second-level cache if possible
+		Optional<CachedDataSource> cached = resolveDataSource(entitySourceId, entitySourceDescriptor, dataSetName);
+		if(!cached.isPresent()){
+			return Optional.empty();
+		}
+		DataSourceInstance instance = entityManager.find(DataSourceInstance.class, cached.get().getDataSourceInstanceId());
+		if(instance==null){
+			//the source has been deleted since it was cached
+			dataSourceCache.evict(entitySourceId, entitySourceDescriptor, dataSetName);
+			return resolveDataSource(entitySourceId, entitySourceDescriptor, dataSetName)
+					.map(resolved -> entityManager.find(DataSourceInstance.class, resolved.getDataSourceInstanceId()));
+		}
+		return Optional.of(instance);
+	}	
+
+	/**
+	 * Resolves the primary keys of the DataSourceInstance and its DataSourceAggregate for the given source.
+	 * The lookup is answered from the {@link DataSourceCache} if possible and falls back to the database otherwise.
+	 * 
+	 * @param entitySourceId
+	 *            the id of the entity in the source system (i.e. how is the instance identified in the source)
+	 * @param entitySourceDescriptor
+	 *            the name/descriptor of the field that was used as sourceId (i.e. how can i find the id in the source)
+	 * @param datasetName
+	 *            the name of the dataset, e.g. edx_dalmooc_20150202
+	 * @return an optional containing the ids of the DataSourceInstance and its aggregate if it exist, empty otherwise
+	 */
+	@Transactional(propagation= Propagation.REQUIRED, readOnly=true)
+	public Optional<CachedDataSource> resolveDataSource(String entitySourceId, String entitySourceDescriptor, String dataSetName ){
+		Assert.hasText(entitySourceId);
+		Assert.hasText(entitySourceDescriptor);
+		Assert.hasText(dataSetName);
+
+		Optional<CachedDataSource> cached = dataSourceCache.get(entitySourceId, entitySourceDescriptor, dataSetName);
+		if(cached.isPresent()){
+			return cached;
+		}
+		DataSourceInstance instance = dataSourceInstanceRepo.findOne(
 				DataSourcePredicates.hasSourceId(entitySourceId).and(
 				DataSourcePredicates.hasDataSetName(dataSetName)).and(
-				DataSourcePredicates.hasEntitySourceDescriptor(entitySourceDescriptor))));
+				DataSourcePredicates.hasEntitySourceDescriptor(entitySourceDescriptor)));
+		if(instance==null){
+			return Optional.empty();
+		}
+		return Optional.of(dataSourceCache.put(instance));
 	}	
 
 	/**
@@ -98,6 +145,9 @@ public class DataSourceService {
 		Assert.hasText(sourceIdDescriptor);
 		Assert.hasText(dataSetName);
 
+		if(dataSourceCache.get(sourceId, sourceIdDescriptor, dataSetName).isPresent()){
+			return true;
+		}
 		return dataSourceInstanceRepo.count(
 				DataSourcePredicates.hasDataSetName(dataSetName).and(
 				DataSourcePredicates.hasEntitySourceDescriptor(sourceIdDescriptor).and(
@@ -126,7 +176,9 @@ public class DataSourceService {
 		if(instance.isPresent()){
 			return instance.get();
 		}else{
-			return dataSourceInstanceRepo.save(source);
+			source = dataSourceInstanceRepo.save(source);
+			dataSourceCache.put(source);
+			return source;
 		}
 	}	
 
@@ -226,16 +278,7 @@ public class DataSourceService {
 			entity.setDataSourceAggregate(sourceAggregate);
 		}
 		//connect source aggregate and source
-		Optional<DataSourceInstance> existingDataSourceInstance = findDataSource(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
-		
-		if(!existingDataSourceInstance.isPresent()||existingDataSourceInstance.get().getSourceAggregate()==null){
-			source.setSourceAggregate(sourceAggregate);
-			source = dataSourceInstanceRepo.save(source);
-		}else if(!existingDataSourceInstance.get().getSourceAggregate().equals(sourceAggregate)){
-			//we tried to create an existing DataSourceInstance but add it to another entity
-			//this is not allowed, a source may only produce a single entity
-			log.warn("Source already assigned to an existing entity: ("+source.getEntitySourceId()+", "+source.getEntitySourceDescriptor()+", "+source.getDatasetName()+") but must be unique.");				
-		}
+		connectSource(sourceAggregate, source);
 	}
 
 	/**
@@ -263,15 +306,7 @@ public class DataSourceService {
 			entity.setDataSourceAggregate(sourceAggregate);
 		}
 		//connect source aggregate and source
-		Optional<DataSourceInstance> existingDataSourceInstance = findDataSource(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
-		if(!existingDataSourceInstance.isPresent()||existingDataSourceInstance.get().getSourceAggregate()==null){
-			source.setSourceAggregate(sourceAggregate);
-			source = dataSourceInstanceRepo.save(source);
-		}else if(!existingDataSourceInstance.get().getSourceAggregate().equals(entity.getDataSourceAggregate())){
-			//we tried to create an existing DataSourceInstance but add it to another entity
-			//this is not allowed, a source may only produce a single entity
-			log.error("Source already assigned to an existing entity: ("+source.getEntitySourceId()+", "+source.getEntitySourceDescriptor()+", "+source.getDatasetName()+") but must be unique.");				
-		}
+		connectSource(sourceAggregate, source);
 	}
 
 	/**
@@ -299,11 +334,36 @@ public class DataSourceService {
 			entity.setDataSourceAggregate(sourceAggregate);
 		}
 		//connect source aggregate and source
-		Optional<DataSourceInstance> existingDataSourceInstance = findDataSource(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
-		if(!existingDataSourceInstance.isPresent()){
+		connectSource(sourceAggregate, source);
+	}
+
+
+	/**
+	 * Connects the given source with the given aggregate unless the source is already known.
+	 * The check is answered from the {@link DataSourceCache} if possible.
+	 * Newly saved sources are added to the cache.
+	 * 
+	 * @param sourceAggregate the aggregate of the entity the source should be added to
+	 * @param source the source to add to the aggregate
+	 */
+	private void connectSource(DataSourceAggregate sourceAggregate, DataSourceInstance source){
+		Optional<CachedDataSource> existingDataSource = resolveDataSource(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
+		if(!existingDataSource.isPresent()){
 			source.setSourceAggregate(sourceAggregate);
 			source = dataSourceInstanceRepo.save(source);
-		}else if(!existingDataSourceInstance.get().getSourceAggregate().equals(entity.getDataSourceAggregate())){
+			dataSourceCache.put(source);
+		}else if(existingDataSource.get().getDataSourceAggregateId()==null){
+			//the source exists but has not been assigned to an entity yet
+			Optional<DataSourceInstance> existingInstance = findDataSource(source.getEntitySourceId(), source.getEntitySourceDescriptor(), source.getDatasetName());
+			if(!existingInstance.isPresent()){
+				source.setSourceAggregate(sourceAggregate);
+				dataSourceCache.put(dataSourceInstanceRepo.save(source));
+				return;
+			}
+			DataSourceInstance instance = existingInstance.get();
+			instance.setSourceAggregate(sourceAggregate);
+			dataSourceCache.put(dataSourceInstanceRepo.save(instance));
+		}else if(!existingDataSource.get().getDataSourceAggregateId().equals(sourceAggregate.getId())){
 			//we tried to create an existing DataSourceInstance but add it to another entity
 			//this is not allowed, a source may only produce a single entity
 			log.error("Source already assigned to an existing entity: ("+source.getEntitySourceId()+", "+source.getEntitySourceDescriptor()+", "+source.getDatasetName()+") but must be unique.");				
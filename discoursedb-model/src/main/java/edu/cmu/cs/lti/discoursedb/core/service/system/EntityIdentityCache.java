@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.proxy.HibernateProxy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.hateoas.Identifiable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * In-memory cache that resolves natural keys of entities, e.g. the name of a Discourse or the username of a User within a Discourse,
+ * to their primary keys.<br/>
+ * 
+ * The createOrGet methods of the services are called for every record of an import, mostly with the same few keys.
+ * The cache lets them resolve the entity by its primary key instead of its natural key. Only ids are cached, 
+ * and the entities returned by the cache are always loaded and managed by the current persistence context:
+ * <ul>
+ * <li>If the entity is already part of the persistence context, e.g. because it has been created in the current transaction, that instance is returned.</li>
+ * <li>Otherwise, it is loaded by its primary key, which is answered by the second-level cache (<code>cache.l2.enabled</code>) if possible.</li>
+ * </ul>
+ * Entities are checked against the natural key before they are returned, so entities that have been renamed in the meantime are looked up again.
+ * Entities that have been deleted, also by other processes, are not found by their id and are looked up again as well.
+ * Entities deleted by the services are evicted by id. 
+ * Entries that have been added within a transaction that is rolled back are evicted again.<br/>
+ * 
+ * The cache keeps a separate {@link TransactionalLruCache} for each entity type and is cleared when a bulk import has finished.
+ * The maximum number of entries per type can be configured with the <code>cache.identity.maxEntriesPerType</code> property.
+ * The cache can be disabled altogether by setting <code>cache.identity.enabled</code> to false.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+@Component
+public class EntityIdentityCache {
+
+	private static final char KEY_SEPARATOR = '\u0000';
+
+	private final boolean enabled;
+	private final int maxEntriesPerType;
+	private final Map<Class<?>, TransactionalLruCache<String, Long>> types = new HashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final @PersistenceContext EntityManager entityManager;
+
+	@Autowired
+	public EntityIdentityCache(Environment environment, EntityManager entityManager) {
+		this.entityManager = entityManager;
+		this.enabled = environment.getProperty("cache.identity.enabled", Boolean.class, true);
+		this.maxEntriesPerType = environment.getProperty("cache.identity.maxEntriesPerType", Integer.class, 100000);
+	}
+
+	/**
+	 * Builds a natural key from the given parts. 
+	 * Entities are represented by their id, which is read without initializing them if they are uninitialized proxies.
+	 * 
+	 * @param parts the values that identify an entity, e.g. a discourse and a username
+	 * @return the key or null if one of the parts is null, e.g. because an entity has not been saved yet
+	 */
+	public static String key(Object... parts) {
+		StringBuilder key = new StringBuilder();
+		for (Object part : parts) {
+			Object value = part instanceof Identifiable ? idOf((Identifiable<?>) part) : part;
+			if (value == null) {
+				return null;
+			}
+			if (key.length() > 0) {
+				key.append(KEY_SEPARATOR);
+			}
+			key.append(value);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Looks up an entity by its natural key. The entity is resolved by its cached id if the key is known 
+	 * and by the given lookup otherwise. Entities that have been found by the lookup are added to the cache.
+	 * 
+	 * @param type the entity type
+	 * @param naturalKey the natural key built with {@link #key(Object...)}. The cache is bypassed if the key is null.
+	 * @param matches checks whether an entity resolved by its cached id still has the requested natural key
+	 * @param lookup looks up the entity by its natural key
+	 * @return an optional containing the entity if it exists, empty otherwise
+	 */
+	public <T extends Identifiable<Long>> Optional<T> find(Class<T> type, String naturalKey, Predicate<T> matches, Supplier<Optional<T>> lookup) {
+		Optional<T> cached = getCached(type, naturalKey, matches);
+		if (cached.isPresent()) {
+			return cached;
+		}
+		Optional<T> entity = lookup.get();
+		entity.ifPresent(e -> put(type, naturalKey, e));
+		return entity;
+	}
+
+	/**
+	 * Works like {@link #find(Class, String, Predicate, Supplier)}, but the entity is never absent. 
+	 * 
+	 * @param type the entity type
+	 * @param naturalKey the natural key built with {@link #key(Object...)}. The cache is bypassed if the key is null.
+	 * @param matches checks whether an entity resolved by its cached id still has the requested natural key
+	 * @param createOrGet looks up the entity by its natural key and creates it if it doesn't exist
+	 * @return the existing or newly created entity
+	 */
+	public <T extends Identifiable<Long>> T createOrGet(Class<T> type, String naturalKey, Predicate<T> matches, Supplier<T> createOrGet) {
+		return find(type, naturalKey, matches, () -> Optional.of(createOrGet.get())).get();
+	}
+
+	/**
+	 * Adds the id of the given entity to the cache. The entity must have been saved to the database before.
+	 * If a transaction is active, the entry is removed again when the transaction is rolled back.
+	 * 
+	 * @param type the entity type
+	 * @param naturalKey the natural key built with {@link #key(Object...)}. Nothing is cached if the key is null.
+	 * @param entity an entity that has been saved to DiscourseDB
+	 */
+	public void put(Class<?> type, String naturalKey, Identifiable<Long> entity) {
+		Assert.notNull(type, "Entity type cannot be null.");
+		Assert.notNull(entity, "Entity cannot be null.");
+		if (!enabled || naturalKey == null || entity.getId() == null) {
+			return;
+		}
+		entries(type, true).putTransactional(naturalKey, entity.getId());
+	}
+
+	/**
+	 * Removes a single entry from the cache.
+	 * 
+	 * @param type the entity type
+	 * @param naturalKey the natural key built with {@link #key(Object...)}
+	 */
+	public void evict(Class<?> type, String naturalKey) {
+		TransactionalLruCache<String, Long> entries = entries(type, false);
+		if (entries != null && naturalKey != null) {
+			entries.evict(naturalKey);
+		}
+	}
+
+	/**
+	 * Removes all entries that resolve to the given entity, e.g. because it is deleted.
+	 * 
+	 * @param type the entity type
+	 * @param id the primary key of the entity
+	 */
+	public void evictId(Class<?> type, Long id) {
+		TransactionalLruCache<String, Long> entries = entries(type, false);
+		if (entries != null && id != null) {
+			entries.evictIf(id::equals);
+		}
+	}
+
+	/**
+	 * Removes all entries from the cache and resets the hit and miss counters.
+	 */
+	public synchronized void clear() {
+		types.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * @return the number of lookups that could be answered from the cache
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that could not be answered from the cache
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of cached keys across all entity types
+	 */
+	public synchronized long size() {
+		return types.values().stream().mapToLong(TransactionalLruCache::size).sum();
+	}
+
+	private <T> Optional<T> getCached(Class<T> type, String naturalKey, Predicate<T> matches) {
+		if (!enabled || naturalKey == null) {
+			return Optional.empty();
+		}
+		TransactionalLruCache<String, Long> entries = entries(type, false);
+		Long id = entries == null ? null : entries.get(naturalKey);
+		Optional<T> entity = id == null ? Optional.empty() : resolve(type, id, matches);
+		if (entity.isPresent()) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			if (id != null) {
+				log.debug("Cached " + type.getSimpleName() + " " + id + " does not match its key anymore.");
+				evict(type, naturalKey);
+			}
+		}
+		return entity;
+	}
+
+	/**
+	 * Resolves an entity by its id. Only entities that are not part of the persistence context yet are loaded.
+	 */
+	private <T> Optional<T> resolve(Class<T> type, Long id, Predicate<T> matches) {
+		SessionImplementor session = (SessionImplementor) entityManager.unwrap(Session.class);
+		EntityKey key = session.generateEntityKey(id, session.getFactory().getEntityPersister(type.getName()));
+		Object managed = session.getPersistenceContext().getEntity(key);
+		if (managed != null) {
+			return Optional.of(type.cast(managed)).filter(matches);
+		}
+		return Optional.ofNullable(entityManager.find(type, id)).filter(matches);
+	}
+
+	private static Object idOf(Identifiable<?> entity) {
+		if (entity instanceof HibernateProxy) {
+			return ((HibernateProxy) entity).getHibernateLazyInitializer().getIdentifier();
+		}
+		return entity.getId();
+	}
+
+	private synchronized TransactionalLruCache<String, Long> entries(Class<?> type, boolean create) {
+		return create ? types.computeIfAbsent(type, k -> new TransactionalLruCache<>("identity", maxEntriesPerType)) : types.get(type);
+	}
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Hibernate;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.jpa.HibernateEntityManagerFactory;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscourseToDiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.system.StatsCounter;
+import edu.cmu.cs.lti.discoursedb.core.model.system.StatsCounter.StatsCounterId;
+import edu.cmu.cs.lti.discoursedb.core.model.user.User;
+import edu.cmu.cs.lti.discoursedb.core.repository.system.StatsCounterRepository;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Keeps the stats counters up to date while entities are created and deleted.<br/>
+ * 
+ * The listener is registered with Hibernate for committed inserts and deletes, so changes that are rolled back are not counted.
+ * The changes are collected in memory and added to the counters in the database every <code>stats.flushIntervalSeconds</code> seconds
+ * and when the application shuts down. This keeps the counter rows out of the transactions of the importers.
+ * Counters may drift if an application is killed before it could write its changes. 
+ * The drift is corrected by {@link StatsService#rebuild()}, which is also triggered when a deletion is written to a counter 
+ * that is missing or would drop below zero.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+@Component
+public class StatsListener implements PostInsertEventListener, PostDeleteEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	static final String DISCOURSE_PART = "DISCOURSE_PART";
+	static final String CONTRIBUTION = "CONTRIBUTION";
+	static final String USER = "USER";
+
+	private final EntityManagerFactory entityManagerFactory;
+	private final StatsCounterRepository statsCounterRepo;
+	private final TransactionTemplate transaction;
+	private final boolean enabled;
+	private final long flushIntervalSeconds;
+	private final Map<StatsCounterId, AtomicLong> pending = new ConcurrentHashMap<>();
+	private ScheduledExecutorService scheduler;
+	private volatile Runnable driftHandler;
+
+	@Autowired
+	public StatsListener(EntityManagerFactory entityManagerFactory, PlatformTransactionManager transactionManager, 
+			StatsCounterRepository statsCounterRepo, Environment environment) {
+		this.entityManagerFactory = entityManagerFactory;
+		this.statsCounterRepo = statsCounterRepo;
+		this.transaction = new TransactionTemplate(transactionManager);
+		this.enabled = environment.getProperty("stats.enabled", Boolean.class, true);
+		this.flushIntervalSeconds = environment.getProperty("stats.flushIntervalSeconds", Long.class, 10L);
+	}
+
+	@PostConstruct
+	void register() {
+		if (!enabled) {
+			return;
+		}
+		SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+		EventListenerRegistry registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+		registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+		registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "stats-flush");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	void shutdown() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			flushQuietly();
+		}
+	}
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		count(event.getEntity(), 1);
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		count(event.getEntity(), -1);
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return true;
+	}
+
+	/**
+	 * @return the time in seconds it may take until a committed change shows up in the counters
+	 */
+	public long getFlushIntervalSeconds() {
+		return flushIntervalSeconds;
+	}
+
+	/**
+	 * Adds all collected changes to the counters in the database.
+	 */
+	public synchronized void flush() {
+		Map<StatsCounterId, Long> deltas = new HashMap<>();
+		pending.forEach((id, delta) -> {
+			long d = delta.getAndSet(0);
+			if (d != 0) {
+				deltas.put(id, d);
+			}
+		});
+		if (deltas.isEmpty()) {
+			return;
+		}
+		boolean drifted;
+		try {
+			drifted = transaction.execute(status -> {
+				boolean clamped = false;
+				for (Map.Entry<StatsCounterId, Long> delta : deltas.entrySet()) {
+					StatsCounterId id = delta.getKey();
+					//a deletion that creates a counter or leaves it unchanged has been clamped at zero
+					if (statsCounterRepo.increment(id.getScope(), id.getCategory(), id.getType(), delta.getValue()) == 1 && delta.getValue() < 0) {
+						clamped = true;
+					}
+				}
+				return clamped;
+			});
+		} catch (RuntimeException e) {
+			//keep the changes for the next attempt
+			deltas.forEach(this::add);
+			throw e;
+		}
+		Runnable handler = driftHandler;
+		if (drifted && handler != null) {
+			log.warn("Stats counters have drifted. Scheduling a rebuild.");
+			handler.run();
+		}
+	}
+
+	/**
+	 * Sets the callback that is run when a deletion could not be applied to a counter because it was missing or too low.
+	 * 
+	 * @param handler schedules a rebuild of the counters
+	 */
+	void onDrift(Runnable handler) {
+		this.driftHandler = handler;
+	}
+
+	/**
+	 * Drops all collected changes, e.g. because the counters are about to be rebuilt from scratch.
+	 */
+	synchronized void discard() {
+		pending.clear();
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			log.warn("Could not update stats counters. Retrying in " + flushIntervalSeconds + " seconds.", e);
+		}
+	}
+
+	private void count(Object entity, long delta) {
+		if (entity instanceof Contribution) {
+			add(StatsCounter.GLOBAL_SCOPE, CONTRIBUTION, ((Contribution) entity).getType(), delta);
+		} else if (entity instanceof DiscoursePart) {
+			add(StatsCounter.GLOBAL_SCOPE, DISCOURSE_PART, ((DiscoursePart) entity).getType(), delta);
+		} else if (entity instanceof User) {
+			add(StatsCounter.GLOBAL_SCOPE, USER, StatsCounter.NO_TYPE, delta);
+		} else if (entity instanceof DiscourseToDiscoursePart) {
+			DiscourseToDiscoursePart link = (DiscourseToDiscoursePart) entity;
+			//the transaction is already over, so uninitialized proxies can't be resolved anymore. The next rebuild will catch these.
+			if (link.getDiscourse() != null && link.getDiscoursePart() != null && Hibernate.isInitialized(link.getDiscoursePart())) {
+				add(link.getDiscourse().getId(), DISCOURSE_PART, link.getDiscoursePart().getType(), delta);
+			}
+		}
+	}
+
+	private void add(long scope, String category, String type, long delta) {
+		add(new StatsCounterId(scope, category, type == null ? StatsCounter.NO_TYPE : type), delta);
+	}
+
+	private void add(StatsCounterId id, long delta) {
+		pending.computeIfAbsent(id, k -> new AtomicLong()).addAndGet(delta);
+	}
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.cmu.cs.lti.discoursedb.core.model.system.StatsCounter;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.ContributionRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.macro.DiscoursePartRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.system.StatsCounterRepository;
+import edu.cmu.cs.lti.discoursedb.core.repository.user.UserRepository;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Provides the number of DiscourseParts, Contributions and Users in DiscourseDB without counting them on every request.<br/>
+ * 
+ * The numbers are read from the stats counters, which are kept up to date by the {@link StatsListener} of every application 
+ * that writes to the database. The counters are cached for <code>stats.maxAgeSeconds</code> seconds.
+ * They are rebuilt from scratch if they don't exist yet, if the {@link StatsListener} detects that they have drifted and, optionally, every <code>stats.rebuildIntervalMinutes</code> minutes 
+ * to correct changes that were made without the listener. 
+ * Rebuilds run on a background thread, so requests never wait for a recount. 
+ * While the counters are built for the first time, all numbers are reported as zero.
+ * 
+ * @author Oliver Ferschke
+ */
+@Log4j
+@Service
+public class StatsService {
+
+	private final StatsCounterRepository statsCounterRepo;
+	private final DiscoursePartRepository discoursePartRepo;
+	private final ContributionRepository contributionRepo;
+	private final UserRepository userRepo;
+	private final StatsListener statsListener;
+	private final TransactionTemplate transaction;
+	private final long maxAgeSeconds;
+	private final long rebuildIntervalMinutes;
+	private final AtomicBoolean rebuildRunning = new AtomicBoolean();
+	private volatile StatsSnapshot snapshot;
+	private ScheduledExecutorService scheduler;
+
+	@Autowired
+	public StatsService(StatsCounterRepository statsCounterRepo, DiscoursePartRepository discoursePartRepo, 
+			ContributionRepository contributionRepo, UserRepository userRepo, StatsListener statsListener, 
+			PlatformTransactionManager transactionManager, Environment environment) {
+		this.statsCounterRepo = statsCounterRepo;
+		this.discoursePartRepo = discoursePartRepo;
+		this.contributionRepo = contributionRepo;
+		this.userRepo = userRepo;
+		this.statsListener = statsListener;
+		this.transaction = new TransactionTemplate(transactionManager);
+		this.maxAgeSeconds = environment.getProperty("stats.maxAgeSeconds", Long.class, 30L);
+		this.rebuildIntervalMinutes = environment.getProperty("stats.rebuildIntervalMinutes", Long.class, 0L);
+	}
+
+	@PostConstruct
+	void scheduleRebuild() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "stats-rebuild");
+			t.setDaemon(true);
+			return t;
+		});
+		statsListener.onDrift(this::rebuildInBackground);
+		if (rebuildIntervalMinutes > 0) {
+			scheduler.scheduleWithFixedDelay(this::rebuildQuietly, rebuildIntervalMinutes, rebuildIntervalMinutes, TimeUnit.MINUTES);
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Returns the current statistics. The counters are read from the database at most once every <code>stats.maxAgeSeconds</code> seconds.
+	 * If the counters don't exist yet, a rebuild is started in the background and all numbers are zero until it has finished.
+	 * 
+	 * @return the current statistics
+	 */
+	public StatsSnapshot getSnapshot() {
+		StatsSnapshot current = snapshot;
+		if (current != null && System.currentTimeMillis() - current.getAsOf().getTime() < maxAgeSeconds * 1000) {
+			return current;
+		}
+		synchronized (this) {
+			if (snapshot == current) {
+				Iterable<StatsCounter> counters = transaction.execute(status -> statsCounterRepo.findAll());
+				if (!counters.iterator().hasNext()) {
+					rebuildInBackground();
+				}
+				snapshot = toSnapshot(counters);
+			}
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Recounts all entities and replaces the stats counters.<br/>
+	 * 
+	 * This scans the DiscoursePart, Contribution and User tables and may take a while on large databases.
+	 * The recount is not isolated from concurrent writers:
+	 * <ul>
+	 * <li>The changes that the listener of this application has collected are discarded right before the tables are counted.
+	 * The listener can't write to the counters while the rebuild is running. A change that is committed between the discard 
+	 * and the start of the count is counted twice.</li>
+	 * <li>Other applications keep collecting changes during the rebuild and add them to the new counters after the rebuild has committed 
+	 * (the rebuild holds the locks on the counter rows until then). Changes of other applications that are included in the recount 
+	 * but have not been flushed before the rebuild started are counted twice.</li>
+	 * </ul>
+	 * The counters can therefore be off by the changes of about one flush interval. 
+	 * Run the rebuild while no importer is running to get exact numbers.
+	 */
+	public void rebuild() {
+		//no flush of this application must interleave with the recount, otherwise its changes are lost with the old counters
+		synchronized (statsListener) {
+			transaction.execute(status -> {
+				rebuildCounters();
+				return null;
+			});
+		}
+		snapshot = null;
+	}
+
+	private void rebuildInBackground() {
+		if (!scheduler.isShutdown() && rebuildRunning.compareAndSet(false, true)) {
+			scheduler.execute(() -> {
+				try {
+					rebuildQuietly();
+				} finally {
+					rebuildRunning.set(false);
+				}
+			});
+		}
+	}
+
+	private void rebuildQuietly() {
+		try {
+			rebuild();
+		} catch (RuntimeException e) {
+			log.error("Could not rebuild stats counters.", e);
+		}
+	}
+
+	private void rebuildCounters() {
+		log.info("Rebuilding stats counters.");
+		statsCounterRepo.deleteAllCounters();
+		//changes collected before the recount are already included in the recount
+		statsListener.discard();
+		discoursePartRepo.countsByType().forEach(c -> increment(StatsCounter.GLOBAL_SCOPE, StatsListener.DISCOURSE_PART, c[0], c[1]));
+		contributionRepo.countsByType().forEach(c -> increment(StatsCounter.GLOBAL_SCOPE, StatsListener.CONTRIBUTION, c[0], c[1]));
+		statsCounterRepo.increment(StatsCounter.GLOBAL_SCOPE, StatsListener.USER, StatsCounter.NO_TYPE, userRepo.count());
+		discoursePartRepo.countsByDiscourseAndTypeNative().forEach(c -> increment(((Number) c[0]).longValue(), StatsListener.DISCOURSE_PART, c[1], c[2]));
+	}
+
+	private void increment(long scope, String category, Object type, Object count) {
+		statsCounterRepo.increment(scope, category, type == null ? StatsCounter.NO_TYPE : type.toString(), ((Number) count).longValue());
+	}
+
+	private StatsSnapshot toSnapshot(Iterable<StatsCounter> counters) {
+		Map<String, Long> discoursePartsByType = new HashMap<>();
+		Map<String, Long> contributionsByType = new HashMap<>();
+		Map<Long, Map<String, Long>> discoursePartsByDiscourse = new HashMap<>();
+		long users = 0;
+		for (StatsCounter counter : counters) {
+			if (counter.getScope() != StatsCounter.GLOBAL_SCOPE) {
+				if (StatsListener.DISCOURSE_PART.equals(counter.getCategory())) {
+					discoursePartsByDiscourse.computeIfAbsent(counter.getScope(), k -> new HashMap<>()).put(counter.getType(), counter.getTotal());
+				}
+			} else if (StatsListener.DISCOURSE_PART.equals(counter.getCategory())) {
+				discoursePartsByType.put(counter.getType(), counter.getTotal());
+			} else if (StatsListener.CONTRIBUTION.equals(counter.getCategory())) {
+				contributionsByType.put(counter.getType(), counter.getTotal());
+			} else if (StatsListener.USER.equals(counter.getCategory())) {
+				users = counter.getTotal();
+			}
+		}
+		return new StatsSnapshot(discoursePartsByType, contributionsByType, users, discoursePartsByDiscourse, 
+				new Date(), maxAgeSeconds + statsListener.getFlushIntervalSeconds());
+	}
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import lombok.Value;
+
+/**
+ * Immutable view of the precomputed statistics of a DiscourseDB instance.<br/>
+ * 
+ * The numbers are read from counters that are updated asynchronously, 
+ * so they may lag behind the actual content of the database by up to {@link #getMaxStalenessSeconds()} seconds.
+ * 
+ * @author Oliver Ferschke
+ */
+@Value
+public class StatsSnapshot {
+
+	private final Map<String, Long> discoursePartsByType;
+	private final Map<String, Long> contributionsByType;
+	private final long users;
+	private final Map<Long, Map<String, Long>> discoursePartsByDiscourse;
+	private final Date asOf;
+	private final long maxStalenessSeconds;
+
+	/**
+	 * @param discourseId the id of a discourse
+	 * @return the number of DiscourseParts of each type in the given discourse
+	 */
+	public Map<String, Long> getDiscoursePartsByType(Long discourseId) {
+		return discoursePartsByDiscourse.getOrDefault(discourseId, Collections.emptyMap());
+	}
+}
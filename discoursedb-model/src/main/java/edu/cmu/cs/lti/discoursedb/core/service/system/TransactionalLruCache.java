@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.system;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * A bounded LRU map that is aware of the current Spring-managed transaction. 
+ * It is the common base of the {@link DataSourceCache}, the {@link EntityIdentityCache} and the thread tree cache.<br/>
+ * 
+ * Entries added with {@link #putTransactional(Object, Object)} are removed again if the transaction does not commit.
+ * Entries removed with {@link #evict(Object)} or {@link #evictIf(Predicate)} are removed right away and once more after the transaction has completed,
+ * so that an entry that has been rebuilt from uncommitted data in the meantime is not kept.
+ * If a transaction evicts more than 10000 keys or conditions, the whole map is cleared when it completes instead.<br/>
+ * 
+ * Every eviction increments a generation counter. {@link #put(Object, Object, long)} only adds an entry if the generation has not changed
+ * since the caller read it before computing the value.<br/>
+ * 
+ * All methods are thread-safe. Outside of a transaction, the transactional methods behave like their plain counterparts.
+ * 
+ * @author Oliver Ferschke
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+@Log4j
+public class TransactionalLruCache<K, V> {
+
+	private static final int MAX_PENDING_EVICTIONS = 10000;
+
+	private final String name;
+	private final Map<K, V> entries;
+	private long generation = 0;
+
+	/**
+	 * @param name the name of the cache, used in log messages
+	 * @param maxEntries the maximum number of entries. The least recently used entry is removed when the map grows beyond this size.
+	 */
+	public TransactionalLruCache(String name, int maxEntries) {
+		Assert.hasText(name, "Cache name cannot be empty.");
+		Assert.isTrue(maxEntries > 0, "Maximum number of entries has to be positive.");
+		this.name = name;
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param key the key
+	 * @return the cached value or null if the key is not cached
+	 */
+	public synchronized V get(K key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Adds an entry that stays in the cache whatever the outcome of the current transaction.
+	 * 
+	 * @param key the key
+	 * @param value the value
+	 */
+	public synchronized void put(K key, V value) {
+		entries.put(key, value);
+	}
+
+	/**
+	 * Adds an entry unless an eviction happened since the given generation was read.
+	 * 
+	 * @param key the key
+	 * @param value the value
+	 * @param expectedGeneration the generation read before the value was computed
+	 * @return true, if the entry has been added
+	 */
+	public synchronized boolean put(K key, V value, long expectedGeneration) {
+		if (expectedGeneration != generation) {
+			return false;
+		}
+		entries.put(key, value);
+		return true;
+	}
+
+	/**
+	 * Adds an entry that is removed again if the current transaction does not commit.
+	 * 
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void putTransactional(K key, V value) {
+		put(key, value);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			pending().rollbackKeys.add(key);
+		}
+	}
+
+	/**
+	 * Removes an entry without incrementing the generation, e.g. because it has expired.
+	 * 
+	 * @param key the key
+	 */
+	public synchronized void remove(K key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Removes an entry now and once more after the current transaction has completed.
+	 * 
+	 * @param key the key
+	 */
+	public void evict(K key) {
+		synchronized (this) {
+			generation++;
+			entries.remove(key);
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			pending().addKey(key);
+		}
+	}
+
+	/**
+	 * Removes all entries whose value matches the given condition now and once more after the current transaction has completed.
+	 * 
+	 * @param condition selects the values to evict
+	 */
+	public void evictIf(Predicate<? super V> condition) {
+		synchronized (this) {
+			generation++;
+			if (!entries.isEmpty()) {
+				entries.values().removeIf(condition);
+			}
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			pending().addCondition(condition);
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear() {
+		generation++;
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of evictions so far
+	 */
+	public synchronized long generation() {
+		return generation;
+	}
+
+	/**
+	 * Returns the keys and conditions collected for the current transaction, which must be active.
+	 */
+	private Pending pending() {
+		@SuppressWarnings("unchecked")
+		Pending pending = (Pending) TransactionSynchronizationManager.getResource(this);
+		if (pending == null) {
+			pending = new Pending();
+			TransactionSynchronizationManager.bindResource(this, pending);
+			TransactionSynchronizationManager.registerSynchronization(pending);
+		}
+		return pending;
+	}
+
+	private class Pending extends TransactionSynchronizationAdapter {
+		private final List<K> rollbackKeys = new ArrayList<>();
+		private final Set<K> evictedKeys = new HashSet<>();
+		private final List<Predicate<? super V>> evictedConditions = new ArrayList<>();
+		private boolean clearAll = false;
+
+		private void addKey(K key) {
+			if (!clearAll && evictedKeys.add(key)) {
+				checkSize();
+			}
+		}
+
+		private void addCondition(Predicate<? super V> condition) {
+			if (!clearAll) {
+				evictedConditions.add(condition);
+				checkSize();
+			}
+		}
+
+		private void checkSize() {
+			if (evictedKeys.size() + evictedConditions.size() > MAX_PENDING_EVICTIONS) {
+				clearAll = true;
+				evictedKeys.clear();
+				evictedConditions.clear();
+			}
+		}
+
+		@Override
+		public void afterCompletion(int status) {
+			TransactionSynchronizationManager.unbindResourceIfPossible(TransactionalLruCache.this);
+			synchronized (TransactionalLruCache.this) {
+				if (clearAll) {
+					log.debug("Transaction evicted more than " + MAX_PENDING_EVICTIONS + " entries. Clearing " + name + " cache.");
+					generation++;
+					entries.clear();
+					return;
+				}
+				if (status != TransactionSynchronization.STATUS_COMMITTED && !rollbackKeys.isEmpty()) {
+					log.debug("Transaction did not commit. Evicting " + rollbackKeys.size() + " entries from " + name + " cache.");
+					rollbackKeys.forEach(entries::remove);
+				}
+				if (!evictedKeys.isEmpty() || !evictedConditions.isEmpty()) {
+					generation++;
+					evictedKeys.forEach(entries::remove);
+					evictedConditions.forEach(condition -> entries.values().removeIf(condition));
+				}
+			}
+		}
+	}
+}
@@ -25,16 +25,24 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
+import edu.cmu.cs.lti.discoursedb.configuration.CursorFetchDataSource;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Contribution;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.Discourse;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePart;
+import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartClosure;
 import edu.cmu.cs.lti.discoursedb.core.model.macro.DiscoursePartContribution;
 import edu.cmu.cs.lti.discoursedb.core.model.system.DataSourceInstance;
 import edu.cmu.cs.lti.discoursedb.core.model.user.ContributionInteraction;
@@ -45,14 +53,17 @@ import edu.cmu.cs.lti.discoursedb.core.repository.user.ContributionInteractionRe
 import edu.cmu.cs.lti.discoursedb.core.repository.user.DiscoursePartInteractionRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.user.UserRelationRepository;
 import edu.cmu.cs.lti.discoursedb.core.repository.user.UserRepository;
+import edu.cmu.cs.lti.discoursedb.core.service.SummaryQuery;
 import edu.cmu.cs.lti.discoursedb.core.service.macro.DiscoursePartService;
 import edu.cmu.cs.lti.discoursedb.core.service.system.DataSourceService;
+import edu.cmu.cs.lti.discoursedb.core.service.system.EntityIdentityCache;
 import edu.cmu.cs.lti.discoursedb.core.type.ContributionInteractionTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.DataSourceTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.DiscoursePartInteractionTypes;
 import edu.cmu.cs.lti.discoursedb.core.type.UserRelationTypes;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 
 @Service
 @Transactional(propagation = Propagation.REQUIRED, readOnly = false)
@@ -65,6 +76,12 @@ public class UserService {
 	private final @NonNull ContributionInteractionRepository contribInteractionRepo;
 	private final @NonNull DiscoursePartInteractionRepository discoursePartInteractionRepo;
 	private final @NonNull DiscoursePartService discoursePartService;
+	private final @NonNull EntityIdentityCache identityCache;
+	private final @NonNull @PersistenceContext EntityManager entityManager;
+	private final @NonNull CursorFetchDataSource cursorFetchDataSource;
+
+	private static final SummaryQuery<UserSummary> SUMMARY_QUERY = new SummaryQuery<>(
+			"u.id, u.username, u.realname, u.email, u.country", "from User u", "u", UserService::toSummary);
 
 	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
 	public Optional<User> findUserByDiscourseAndSourceIdAndSourceType(Discourse discourse, String sourceId,
@@ -111,8 +128,8 @@ public class UserService {
 		Assert.notNull(discourse, "The discourse cannot be null.");
 		Assert.hasText(username, "The username cannot be empty.");
 
-		return Optional.ofNullable(
-				userRepo.findOne(UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasUserName(username))));
+		return identityCache.find(User.class, EntityIdentityCache.key(discourse, username), u -> username.equals(u.getUsername()), 
+				() -> Optional.ofNullable(userRepo.findOne(UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasUserName(username)))));
 	}
 	
 	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
@@ -144,13 +161,14 @@ public class UserService {
 		Assert.notNull(discourse, "Discourse cannot be null.");
 		Assert.hasText(username, "Username cannot be empty.");
 
-		return Optional.ofNullable(userRepo.findOne(UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasUserName(username)))).
+		return identityCache.createOrGet(User.class, EntityIdentityCache.key(discourse, username), u -> username.equals(u.getUsername()), 
+				() -> Optional.ofNullable(userRepo.findOne(UserPredicates.hasDiscourse(discourse).and(UserPredicates.hasUserName(username)))).
 				orElseGet(() -> {
 					User curUser = new User(discourse);
 					curUser.setUsername(username);
 					return save(curUser);
 					}
-				);
+				));
 		}
 
 	/**
@@ -355,6 +373,7 @@ public class UserService {
 		for (Discourse d : user.getDiscourses()) {
 			user.removeDiscourse(d);
 		}
+		identityCache.evictId(User.class, user.getId());
 		userRepo.delete(user);
 	}
 
@@ -373,6 +392,21 @@ public class UserService {
 		return userRepo.findAllByUsername(username);
 	}
 	
+	/**
+	 * Retrieves a page of the distinct authors of the contributions in the given DiscoursePart and all of its descendants.
+	 * The users are selected and counted in the database, i.e. only the requested page is loaded.
+	 * 
+	 * @param dp the DiscoursePart to search
+	 * @param pageable the page to retrieve
+	 * @return a page of users ordered by their id
+	 */
+	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+	public Page<User> findUsersUnderDiscoursePart(DiscoursePart dp, Pageable pageable) {
+		Assert.notNull(dp, "DiscoursePart cannot be null.");
+		Assert.notNull(dp.getId(), "DiscoursePart has to be saved before its users can be retrieved.");
+		return userRepo.findAllUnderDiscoursePartPaged(dp.getId(), pageable);
+	}
+	
 	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
     public Set<User> findUsersUnderDiscoursePart(DiscoursePart dp) {
 		Set<DiscoursePart> seed = new HashSet<DiscoursePart>();
@@ -422,6 +456,63 @@ public class UserService {
     }
 
 
+	/**
+	 * Returns a page of user summaries ordered by user id.
+	 * The summaries are read with a projection query, so no User entities are loaded.
+	 * 
+	 * @param discoursePartId restricts the result to the authors of the contributions in this DiscoursePart, or all users if empty
+	 * @param includeDescendants whether authors of contributions in DiscourseParts below the given DiscoursePart should be included as well
+	 * @param pageable the page to retrieve
+	 * @return a page of user summaries
+	 */
+	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+	public Page<UserSummary> findSummaries(Optional<Long> discoursePartId, boolean includeDescendants, Pageable pageable) {
+		Assert.notNull(discoursePartId, "DiscoursePart id cannot be null. Provide an empty optional instead.");
+		return SUMMARY_QUERY.findPage(entityManager, summaryFilter(discoursePartId, includeDescendants), discoursePartId, pageable);
+	}
+
+	/**
+	 * Streams the summaries of all users (or of the authors of the contributions in a DiscoursePart) ordered by user id.
+	 * The rows are read with a forward-only cursor on a separate connection of the {@link CursorFetchDataSource} and passed on in chunks, 
+	 * so the full result is never held in memory. The rows reflect the committed state of the database.
+	 * 
+	 * @param discoursePartId restricts the result to the authors of the contributions in this DiscoursePart, or all users if empty
+	 * @param includeDescendants whether authors of contributions in DiscourseParts below the given DiscoursePart should be included as well
+	 * @param chunkSize the number of summaries per chunk
+	 * @param chunkConsumer consumes the chunks in the order they are read
+	 */
+	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+	public void scrollSummaries(Optional<Long> discoursePartId, boolean includeDescendants, int chunkSize, Consumer<List<UserSummary>> chunkConsumer) {
+		Assert.notNull(discoursePartId, "DiscoursePart id cannot be null. Provide an empty optional instead.");
+		SUMMARY_QUERY.scroll(cursorFetchDataSource, entityManager, summaryFilter(discoursePartId, includeDescendants), discoursePartId, chunkSize, chunkConsumer);
+	}
+
+	private static String summaryFilter(Optional<Long> discoursePartId, boolean includeDescendants) {
+		if (!discoursePartId.isPresent()) {
+			return "";
+		}
+		return "where u.id in (select rev.author.id from DiscoursePartContribution dpc join dpc.contribution contr join contr.currentRevision rev "
+				+ "where dpc.discoursePart.id = :dpId"
+				+ (includeDescendants ? " or dpc.discoursePart.id in (select cl.descendantId from DiscoursePartClosure cl where cl.ancestorId = :dpId and cl.type = '" + DiscoursePartClosure.ALL_TYPES + "')" : "")
+				+ ")";
+	}
+
+	private static UserSummary toSummary(Object[] row) {
+		return new UserSummary((Long) row[0], (String) row[1], (String) row[2], (String) row[3], (String) row[4]);
+	}
+
+	/**
+	 * The basic fields of a user as returned by {@link UserService#findSummaries(Optional, boolean, Pageable)}.
+	 */
+	@Value
+	public static class UserSummary {
+		private final Long userId;
+		private final String username;
+		private final String realname;
+		private final String email;
+		private final String country;
+	}
+
     @Transactional(propagation= Propagation.REQUIRED, readOnly=true)
     public Optional<User> findOne(Long id) {
             return userRepo.findOne(id);
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.model.macro;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the stored form of texts written by the {@link CompressedTextConverter} and their restoration.
+ * 
+ * @author Oliver Ferschke
+ */
+public class CompressedTextConverterTest {
+
+	private static final int THRESHOLD = 100;
+
+	@Test
+	public void storesShortTextsAsTheyAre() {
+		assertNull(CompressedTextConverter.compress(null, THRESHOLD));
+		assertNull(CompressedTextConverter.decompress(null));
+		assertEquals("", CompressedTextConverter.compress("", THRESHOLD));
+		assertEquals("", CompressedTextConverter.decompress(""));
+		assertEquals("short text", CompressedTextConverter.compress("short text", THRESHOLD));
+		assertEquals("short text", CompressedTextConverter.decompress("short text"));
+	}
+
+	@Test
+	public void compressesTextsFromThreshold() {
+		String belowThreshold = repeat("a", THRESHOLD - 1);
+		assertEquals(belowThreshold, CompressedTextConverter.compress(belowThreshold, THRESHOLD));
+
+		String atThreshold = repeat("a", THRESHOLD);
+		String stored = CompressedTextConverter.compress(atThreshold, THRESHOLD);
+		assertTrue(stored.startsWith(CompressedTextConverter.COMPRESSED));
+		assertTrue(CompressedTextConverter.isCompressed(stored));
+		assertTrue(stored.length() < atThreshold.length());
+		assertEquals(atThreshold, CompressedTextConverter.decompress(stored));
+	}
+
+	@Test
+	public void restoresCompressedTexts() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append("Zeile ").append(i % 17).append(": Größe → ").append(i % 5).append(" 😀\n");
+		}
+		String stored = CompressedTextConverter.compress(text.toString(), THRESHOLD);
+		assertTrue(CompressedTextConverter.isCompressed(stored));
+		assertEquals(text.toString(), CompressedTextConverter.decompress(stored));
+	}
+
+	@Test
+	public void storesIncompressibleTextsAsTheyAre() {
+		Random random = new Random(42);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 2 * THRESHOLD; i++) {
+			text.append((char) ('!' + random.nextInt(90)));
+		}
+		assertEquals(text.toString(), CompressedTextConverter.compress(text.toString(), THRESHOLD));
+		assertFalse(CompressedTextConverter.isCompressed(text.toString()));
+	}
+
+	@Test
+	public void escapesTextsStartingWithMarker() {
+		for (String text : new String[] { "\u0001", "\u0001plain", CompressedTextConverter.COMPRESSED + "not compressed", CompressedTextConverter.ESCAPED + "x" }) {
+			String stored = CompressedTextConverter.compress(text, THRESHOLD);
+			assertEquals(CompressedTextConverter.ESCAPED + text, stored);
+			assertFalse(CompressedTextConverter.isCompressed(stored));
+			assertEquals(text, CompressedTextConverter.decompress(stored));
+		}
+		String longText = "\u0001" + repeat("b", 2 * THRESHOLD);
+		String stored = CompressedTextConverter.compress(longText, THRESHOLD);
+		assertTrue(CompressedTextConverter.isCompressed(stored));
+		assertEquals(longText, CompressedTextConverter.decompress(stored));
+	}
+
+	@Test
+	public void restoresUnknownMarkedTextsAsTheyAre() {
+		assertEquals("\u0001x:unknown", CompressedTextConverter.decompress("\u0001x:unknown"));
+	}
+
+	@Test
+	public void rejectsCorruptTexts() {
+		String stored = CompressedTextConverter.compress(repeat("corrupt ", THRESHOLD), THRESHOLD);
+		String payload = stored.substring(CompressedTextConverter.COMPRESSED.length());
+		String[] corrupt = {
+				CompressedTextConverter.COMPRESSED,
+				CompressedTextConverter.COMPRESSED + "not Base64!",
+				CompressedTextConverter.COMPRESSED + Base64.getEncoder().encodeToString("not deflated".getBytes(StandardCharsets.UTF_8)),
+				CompressedTextConverter.COMPRESSED + payload.substring(0, payload.length() / 8 * 4) };
+		for (String text : corrupt) {
+			try {
+				CompressedTextConverter.decompress(text);
+				fail("Corrupt text was restored: " + text);
+			} catch (IllegalStateException e) {
+				//expected
+			}
+		}
+	}
+
+	@Test
+	public void compressesOnlyIfEnabled() {
+		CompressedTextConverter converter = new CompressedTextConverter();
+		String text = repeat("c", THRESHOLD);
+		try {
+			CompressedTextConverter.configure(false, THRESHOLD);
+			assertEquals(text, converter.convertToDatabaseColumn(text));
+			CompressedTextConverter.configure(true, THRESHOLD);
+			String stored = converter.convertToDatabaseColumn(text);
+			assertTrue(CompressedTextConverter.isCompressed(stored));
+			CompressedTextConverter.configure(false, THRESHOLD);
+			assertEquals(text, converter.convertToEntityAttribute(stored));
+		} finally {
+			CompressedTextConverter.configure(false, Integer.MAX_VALUE);
+		}
+	}
+
+	private static String repeat(String s, int times) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			result.append(s);
+		}
+		return result.toString();
+	}
+}
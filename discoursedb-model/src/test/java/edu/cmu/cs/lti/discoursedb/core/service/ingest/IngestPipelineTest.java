@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+/**
+ * Tests the hand-off between the reader, the preparer and the workers of the {@link IngestPipeline}.
+ * 
+ * @author Oliver Ferschke
+ */
+public class IngestPipelineTest {
+
+	private static final int RECORDS = 5000;
+	private static final int PARTITIONS = 37;
+
+	private static List<Integer> records() {
+		return IntStream.range(0, RECORDS).boxed().collect(Collectors.toList());
+	}
+
+	@Test
+	public void commitsAllRecords() {
+		List<Integer> committed = Collections.synchronizedList(new ArrayList<>());
+		IngestMetrics metrics = new IngestPipeline<Integer>(4, 10, 7, committed::addAll).run(records().iterator(), r -> r % PARTITIONS);
+
+		assertEquals(RECORDS, committed.size());
+		assertEquals(records(), committed.stream().sorted().collect(Collectors.toList()));
+		assertEquals(RECORDS, metrics.getRead());
+		assertEquals(RECORDS, metrics.getCommitted());
+	}
+
+	@Test
+	public void distributesRecordsWithoutKey() {
+		List<Integer> committed = Collections.synchronizedList(new ArrayList<>());
+		new IngestPipeline<Integer>(3, 5, 4, committed::addAll).run(records().iterator(), r -> null);
+		assertEquals(RECORDS, new HashSet<>(committed).size());
+	}
+
+	@Test
+	public void keepsOrderWithinPartition() {
+		Map<Integer, List<Integer>> byPartition = new ConcurrentHashMap<>();
+		Map<Integer, String> workerOfPartition = new ConcurrentHashMap<>();
+		new IngestPipeline<Integer>(4, 10, 7, batch -> {
+			for (Integer r : batch) {
+				byPartition.computeIfAbsent(r % PARTITIONS, k -> Collections.synchronizedList(new ArrayList<>())).add(r);
+				String previous = workerOfPartition.putIfAbsent(r % PARTITIONS, Thread.currentThread().getName());
+				assertTrue(previous == null || previous.equals(Thread.currentThread().getName()));
+			}
+		}).run(records().iterator(), r -> r % PARTITIONS);
+
+		assertEquals(PARTITIONS, byPartition.size());
+		for (List<Integer> partition : byPartition.values()) {
+			List<Integer> sorted = new ArrayList<>(partition);
+			Collections.sort(sorted);
+			assertEquals(sorted, partition);
+		}
+	}
+
+	@Test
+	public void preparesRecordsBeforeHandOff() {
+		Set<Integer> prepared = ConcurrentHashMap.newKeySet();
+		List<String> preparerThreads = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> unprepared = Collections.synchronizedList(new ArrayList<>());
+		new IngestPipeline<Integer>(4, 10, 7, chunk -> {
+			assertTrue(chunk.size() <= 7);
+			prepared.addAll(chunk);
+			preparerThreads.add(Thread.currentThread().getName());
+		}, batch -> batch.stream().filter(r -> !prepared.contains(r)).forEach(unprepared::add))
+		.run(records().iterator(), r -> r % PARTITIONS);
+
+		assertEquals(RECORDS, prepared.size());
+		assertTrue(unprepared.isEmpty());
+		assertEquals(Collections.singleton(Thread.currentThread().getName()), new HashSet<>(preparerThreads));
+	}
+
+	@Test
+	public void rethrowsWorkerFailure() {
+		IllegalStateException failure = new IllegalStateException("batch failed");
+		try {
+			new IngestPipeline<Integer>(4, 10, 7, batch -> {
+				if (batch.contains(RECORDS / 2)) {
+					throw failure;
+				}
+			}).run(records().iterator(), r -> r % PARTITIONS);
+			fail("Worker failure was not rethrown");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+	}
+
+	@Test
+	public void rethrowsPreparerFailure() {
+		IllegalStateException failure = new IllegalStateException("preparer failed");
+		try {
+			new IngestPipeline<Integer>(2, 10, 7, chunk -> {
+				if (chunk.contains(100)) {
+					throw failure;
+				}
+			}, batch -> {}).run(records().iterator(), r -> r % PARTITIONS);
+			fail("Preparer failure was not rethrown");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+/**
+ * Tests the hand-off between the producer thread and the consumer of a {@link ReadAheadIterator}.
+ * 
+ * @author Oliver Ferschke
+ */
+public class ReadAheadIteratorTest {
+
+	@Test
+	public void returnsAllRecordsInOrder() {
+		List<Integer> records = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+		List<Integer> read = new ArrayList<>();
+		try (ReadAheadIterator<Integer> it = ReadAheadIterator.of(records.iterator(), 3)) {
+			it.forEachRemaining(read::add);
+			assertFalse(it.hasNext());
+			try {
+				it.next();
+				fail("next() did not fail after the last record");
+			} catch (NoSuchElementException e) {
+				//expected
+			}
+		}
+		assertEquals(records, read);
+	}
+
+	@Test
+	public void returnsNothingForEmptySource() {
+		try (ReadAheadIterator<Integer> it = ReadAheadIterator.of(new ArrayList<Integer>().iterator(), 3)) {
+			assertFalse(it.hasNext());
+		}
+	}
+
+	@Test
+	public void rethrowsProducerExceptionAfterRecordsReadBefore() {
+		IllegalArgumentException failure = new IllegalArgumentException("corrupt record");
+		try (ReadAheadIterator<Integer> it = new ReadAheadIterator<>("test", 10, sink -> {
+			sink.test(1);
+			sink.test(2);
+			throw failure;
+		})) {
+			assertEquals(Integer.valueOf(1), it.next());
+			assertEquals(Integer.valueOf(2), it.next());
+			try {
+				it.hasNext();
+				fail("Producer failure was not rethrown");
+			} catch (IllegalArgumentException e) {
+				assertSame(failure, e);
+			}
+			//the failure is reported once, afterwards the input is over
+			assertFalse(it.hasNext());
+		}
+	}
+
+	@Test
+	public void wrapsCheckedProducerException() {
+		IOException failure = new IOException("unreadable");
+		try (ReadAheadIterator<Integer> it = new ReadAheadIterator<>("test", 10, sink -> {
+			throw failure;
+		})) {
+			it.hasNext();
+			fail("Producer failure was not rethrown");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	@Test
+	public void closeStopsProducer() throws InterruptedException {
+		AtomicBoolean rejected = new AtomicBoolean();
+		CountDownLatch finished = new CountDownLatch(1);
+		ReadAheadIterator<Integer> it = new ReadAheadIterator<>("test", 2, sink -> {
+			try {
+				for (int i = 0; ; i++) {
+					if (!sink.test(i)) {
+						rejected.set(true);
+						return;
+					}
+				}
+			} finally {
+				finished.countDown();
+			}
+		});
+		for (int i = 0; i < 5; i++) {
+			assertEquals(Integer.valueOf(i), it.next());
+		}
+		it.close();
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertTrue(rejected.get());
+		try {
+			it.hasNext();
+			fail("Closed iterator returned records");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+		//closing twice is harmless
+		it.close();
+	}
+
+	@Test
+	public void interruptStopsWaitingConsumer() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		ReadAheadIterator<Integer> it = new ReadAheadIterator<>("test", 2, sink -> release.await());
+		Thread consumer = Thread.currentThread();
+		Thread interrupter = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				return;
+			}
+			consumer.interrupt();
+		});
+		interrupter.start();
+		try {
+			it.hasNext();
+			fail("Interrupted consumer kept waiting");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+			assertTrue(Thread.interrupted());
+		} finally {
+			interrupter.join();
+			release.countDown();
+			it.close();
+		}
+	}
+}
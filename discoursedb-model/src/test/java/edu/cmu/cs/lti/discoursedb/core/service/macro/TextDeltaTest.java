@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (C)  2015 - 2016  Carnegie Mellon University
+ * Author: Oliver Ferschke
+ *
+ * This file is part of DiscourseDB.
+ *
+ * DiscourseDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DiscourseDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DiscourseDB.  If not, see <http://www.gnu.org/licenses/> 
+ * or write to the Free Software Foundation, Inc., 51 Franklin Street, 
+ * Fifth Floor, Boston, MA 02110-1301  USA
+ *******************************************************************************/
+package edu.cmu.cs.lti.discoursedb.core.service.macro;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that texts restored by {@link TextDelta#decode(String, String)} are equal to the encoded texts.
+ * 
+ * @author Oliver Ferschke
+ */
+public class TextDeltaTest {
+
+	private static final String PARAGRAPH = "This line is long enough to be copied from the base text.\n";
+
+	@Test
+	public void restoresEmptyTexts() {
+		assertEquals("", TextDelta.encode("", ""));
+		assertRoundTrip("", "");
+		assertRoundTrip(PARAGRAPH, "");
+		assertRoundTrip("", PARAGRAPH);
+	}
+
+	@Test
+	public void copiesUnchangedText() {
+		String base = PARAGRAPH + PARAGRAPH.toUpperCase() + PARAGRAPH;
+		assertEquals("=0," + base.length() + ";", TextDelta.encode(base, base));
+		assertRoundTrip(base, base);
+	}
+
+	@Test
+	public void restoresTextsWithoutTrailingNewline() {
+		String base = PARAGRAPH + "The last line of the base text has no newline";
+		assertRoundTrip(base, PARAGRAPH + "The last line of the target text has no newline");
+		assertRoundTrip(base, base + "\n");
+		assertRoundTrip(base + "\n", base);
+		assertRoundTrip(base, "The first line changed\n" + base);
+		assertRoundTrip(base, PARAGRAPH);
+	}
+
+	@Test
+	public void restoresRepeatedLines() {
+		StringBuilder base = new StringBuilder();
+		for (int i = 0; i < 40; i++) {
+			base.append(i % 3 == 0 ? PARAGRAPH : "A repeated line that differs from the paragraph.\n");
+		}
+		StringBuilder target = new StringBuilder(base).reverse().append(base).append(PARAGRAPH).append(PARAGRAPH);
+		assertRoundTrip(base.toString(), target.toString());
+		assertRoundTrip(base.toString(), base.toString() + base);
+		assertRoundTrip(PARAGRAPH, PARAGRAPH + PARAGRAPH + PARAGRAPH);
+	}
+
+	@Test
+	public void insertsShortCopies() {
+		String base = "a\nb\nshort line\n";
+		String target = "b\na\nshort line\nnew\n";
+		String delta = TextDelta.encode(base, target);
+		assertFalse("Copies shorter than the minimum length were encoded: " + delta, delta.contains("="));
+		assertEquals("+" + target.length() + ":" + target, delta);
+		assertRoundTrip(base, target);
+	}
+
+	@Test
+	public void restoresInsertsContainingSeparators() {
+		String base = PARAGRAPH + "some other line\n";
+		String target = "=0,5;\n" + PARAGRAPH + "+3:abc\nkey: value; x=1,2;\n:;=+\n" + PARAGRAPH + "=";
+		String delta = TextDelta.encode(base, target);
+		assertTrue(delta.startsWith("+6:=0,5;\n=0,"));
+		assertRoundTrip(base, target);
+	}
+
+	@Test
+	public void restoresRandomEdits() {
+		Random random = new Random(42);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			lines.add("Line " + random.nextInt(50) + (random.nextBoolean() ? " of the base text with some padding" : "") + "\n");
+		}
+		String base = String.join("", lines);
+		for (int edit = 0; edit < 100; edit++) {
+			int pos = random.nextInt(lines.size());
+			switch (random.nextInt(3)) {
+			case 0:
+				lines.remove(pos);
+				break;
+			case 1:
+				lines.add(pos, "Inserted =" + edit + ",1; +2:ab\n");
+				break;
+			default:
+				lines.set(pos, lines.get(pos).replace('\n', ':'));
+			}
+			assertRoundTrip(base, String.join("", lines));
+		}
+	}
+
+	@Test
+	public void rejectsMalformedDeltas() {
+		for (String delta : new String[] { "=0,100;", "=5;", "=x,1;", "+10:abc", "+3abc", "*3:abc" }) {
+			try {
+				TextDelta.decode(PARAGRAPH, delta);
+				fail("Malformed delta was decoded: " + delta);
+			} catch (IllegalArgumentException e) {
+				//expected
+			}
+		}
+	}
+
+	private static void assertRoundTrip(String base, String target) {
+		assertEquals(target, TextDelta.decode(base, TextDelta.encode(base, target)));
+	}
+}